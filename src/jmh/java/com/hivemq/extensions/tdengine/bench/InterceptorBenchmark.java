@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hivemq.extensions.tdengine.TDenginePublishInterceptor;
+import com.hivemq.extensions.tdengine.WritePipeline;
+import com.hivemq.extensions.tdengine.configuration.RouteConfiguration;
+import com.hivemq.extensions.tdengine.configuration.SchemalessMapping;
+import com.hivemq.extensions.tdengine.configuration.TDengineConfiguration;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import com.hivemq.extensions.tdengine.routing.RouteTable;
+import com.hivemq.extensions.tdengine.schemaless.RecordBatcher;
+import com.hivemq.extensions.tdengine.schemaless.SchemalessEncoder;
+import com.hivemq.extensions.tdengine.wal.WalRecord;
+import com.hivemq.extensions.tdengine.writer.HttpWriter;
+import com.hivemq.extensions.tdengine.writer.InsertBatcher;
+import com.hivemq.extensions.tdengine.writer.JdbcWriter;
+import com.hivemq.extensions.tdengine.writer.Shards;
+import com.hivemq.extensions.tdengine.writer.TDengineWriter;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The whole per-message path of {@link TDenginePublishInterceptor}: route matching, payload parsing,
+ * rendering and handing the row to the writer, measured until the write completed.
+ * The publish enters through {@link TDenginePublishInterceptor#replay(WalRecord)}, which runs the same path as
+ * <code>onInboundPublish</code> without the HiveMQ packet objects.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    private static final String TOPIC = "application/sensor_data";
+    private static final String FIELDS_VALUES = " values (${payload.ts}, ${payload.f0}, ${payload.f1}, ${payload.f2}, ${payload.f3});";
+
+    /**
+     * payload and base64: the whole payload in one column, fields: four payload fields,
+     * stable: four payload fields into an automatically created sub-table, schemaless: InfluxDB line protocol.
+     */
+    @Param({"payload", "base64", "fields", "stable", "schemaless"})
+    public String template;
+
+    @Param({"4", "64"})
+    public int fieldCount;
+
+    @Param({"256", "4096"})
+    public int payloadSize;
+
+    /**
+     * none: the statement is dropped, jdbc: JDBC writer with a stubbed DataSource, http: RESTful writer posting to a local server.
+     */
+    @Param({"none", "jdbc", "http"})
+    public String sink;
+
+    private ScheduledExecutorService executor;
+    private ExecutorService serverExecutor;
+    private HttpServer server;
+    private TDenginePublishInterceptor interceptor;
+    private WalRecord publish;
+
+    @Setup
+    public void setUp() throws IOException {
+        executor = Executors.newScheduledThreadPool(4);
+        final TDengineMetrics metrics = new TDengineMetrics();
+        final TDengineWriter writer = newWriter(metrics);
+        final RouteTable routeTable = new RouteTable(List.of(newRoute()));
+        final InsertBatcher batcher = new InsertBatcher(writer, executor, 1, 65480, 0, metrics);
+        final RecordBatcher recordBatcher = new RecordBatcher(writer, executor, SchemalessEncoder.Protocol.INFLUXDB, 1, 65480, 0, metrics);
+        // without a properties file the configuration falls back to its defaults, i.e. blocking ingest
+        final TDengineConfiguration configuration = new TDengineConfiguration(new File(System.getProperty("java.io.tmpdir")));
+        final WritePipeline pipeline = new WritePipeline(routeTable, Shards.of(batcher), null, Shards.of(recordBatcher), null, null);
+        interceptor = new TDenginePublishInterceptor(configuration, pipeline, null, metrics);
+        publish = new WalRecord("", TOPIC, Payloads.json(fieldCount, payloadSize), System.currentTimeMillis());
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+            serverExecutor.shutdownNow();
+        }
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Object onInboundPublish() {
+        return interceptor.replay(publish).join();
+    }
+
+    private RouteConfiguration newRoute() {
+        switch (template) {
+            case "payload":
+                return new RouteConfiguration("bench", TOPIC, "insert into hivemqdb.sensor_data values (now, '${topic}', '${payload}');",
+                        "json", null, null);
+            case "base64":
+                return new RouteConfiguration("bench", TOPIC, "insert into hivemqdb.sensor_data values (now, '${topic}', '${payload}');",
+                        "base64", null, null);
+            case "fields":
+                return new RouteConfiguration("bench", TOPIC, "insert into hivemqdb.t_${payload.devid}" + FIELDS_VALUES, "json", null, null);
+            case "stable":
+                return new RouteConfiguration("bench", TOPIC,
+                        "insert into hivemqdb.t_${payload.devid} using hivemqdb.${stable} tags ('${payload.devid}', '${topic}')" + FIELDS_VALUES,
+                        "json", "sensors", null);
+            case "schemaless":
+                return new RouteConfiguration("bench", TOPIC, null, "json", null, null, null, null, null,
+                        new SchemalessMapping("influxdb", "sensors", "devid", "f0,f1,f2,f3", "ts"));
+            default:
+                throw new IllegalArgumentException("unknown template " + template);
+        }
+    }
+
+    private TDengineWriter newWriter(final TDengineMetrics metrics) throws IOException {
+        switch (sink) {
+            case "none":
+                return sql -> CompletableFuture.completedFuture(null);
+            case "jdbc":
+                return new JdbcWriter(stubDataSource(), executor, metrics);
+            case "http":
+                // the server writes headers and body separately, without TCP_NODELAY every response waits for a delayed ACK
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+                server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+                server.createContext("/rest/sql", exchange -> {
+                    try (InputStream in = exchange.getRequestBody()) {
+                        in.readAllBytes();
+                    }
+                    final byte[] response = "{\"status\":\"succ\",\"rows\":1}".getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, response.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(response);
+                    }
+                });
+                serverExecutor = Executors.newFixedThreadPool(4);
+                server.setExecutor(serverExecutor);
+                server.start();
+                return new HttpWriter("127.0.0.1:" + server.getAddress().getPort() + "/rest/sql", "root:taosdata", executor,
+                        5, 1000, 5000, false, metrics);
+            default:
+                throw new IllegalArgumentException("unknown sink " + sink);
+        }
+    }
+
+    /**
+     * A DataSource whose statements accept every update without doing anything.
+     */
+    private static DataSource stubDataSource() {
+        final Statement statement = stub(Statement.class);
+        final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> method.getName().equals("createStatement") ? statement : null);
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> method.getName().equals("getConnection") ? connection : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(final Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> method.getReturnType() == int.class ? 1 : null);
+    }
+}
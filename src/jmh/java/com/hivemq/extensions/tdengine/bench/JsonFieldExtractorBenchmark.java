@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hivemq.extensions.tdengine.decoder.JsonFieldExtractor;
+
+/**
+ * Reading the template fields from json payloads with the streaming {@link JsonFieldExtractor},
+ * compared to binding the whole payload to a map.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonFieldExtractorBenchmark {
+
+    private static final TypeReference<Map<String, Object>> MAP = new TypeReference<Map<String, Object>>() {
+    };
+
+    @Param({"4", "16", "64"})
+    public int fieldCount;
+
+    @Param({"256", "4096"})
+    public int payloadSize;
+
+    private ByteBuffer payload;
+    private byte[] bytes;
+    private JsonFieldExtractor extractor;
+    private String[] values;
+    private ObjectMapper mapper;
+
+    @Setup
+    public void setUp() {
+        bytes = Payloads.json(fieldCount, payloadSize);
+        payload = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        final String[] keys = {"devid", "ts", "f0", "f1", "f2", "f3"};
+        extractor = new JsonFieldExtractor(keys);
+        values = new String[keys.length];
+        mapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public String[] extract() throws IOException {
+        extractor.extract(payload, values);
+        return values;
+    }
+
+    @Benchmark
+    public Map<String, Object> readMap() throws IOException {
+        return mapper.readValue(bytes, MAP);
+    }
+}
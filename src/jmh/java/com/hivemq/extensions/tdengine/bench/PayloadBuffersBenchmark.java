@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hivemq.extensions.tdengine.decoder.PayloadBuffers;
+
+/**
+ * Copying, escaping and encoding of PUBLISH payloads.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBuffersBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private ByteBuffer payload;
+    private final StringBuilder sql = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        payload = ByteBuffer.wrap(Payloads.json(4, payloadSize)).asReadOnlyBuffer();
+    }
+
+    @Benchmark
+    public String toUtf8String() {
+        return PayloadBuffers.toUtf8String(payload);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return PayloadBuffers.toByteArray(payload);
+    }
+
+    @Benchmark
+    public StringBuilder appendUtf8Escaped() {
+        sql.setLength(0);
+        PayloadBuffers.appendUtf8Escaped(sql, payload);
+        return sql;
+    }
+
+    @Benchmark
+    public StringBuilder appendBase64() {
+        sql.setLength(0);
+        PayloadBuffers.appendBase64(sql, payload);
+        return sql;
+    }
+}
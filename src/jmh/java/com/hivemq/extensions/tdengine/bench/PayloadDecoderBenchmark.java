@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoder;
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoders;
+
+/**
+ * Reading the template fields of the same sensor reading encoded as json, MessagePack and CBOR.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadDecoderBenchmark {
+
+    @Param({"json", "msgpack", "cbor"})
+    public String coder;
+
+    @Param({"16"})
+    public int fieldCount;
+
+    @Param({"256", "4096"})
+    public int payloadSize;
+
+    private ByteBuffer payload;
+    private PayloadDecoder decoder;
+    private String[] values;
+
+    @Setup
+    public void setUp() {
+        final byte[] bytes = coder.equals("json") ? Payloads.json(fieldCount, payloadSize)
+                : Payloads.binary(fieldCount, payloadSize, coder.equals("cbor"));
+        payload = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        final String[] keys = {"devid", "ts", "f0", "f1", "f2", "f3"};
+        decoder = PayloadDecoders.create(coder, keys, Collections.emptyMap(), null);
+        values = new String[keys.length];
+    }
+
+    @Benchmark
+    public String[] extract() throws IOException {
+        Arrays.fill(values, null);
+        decoder.extract(payload, values);
+        return values;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds the sensor payloads of the benchmarks.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * @param fieldCount the number of numeric fields <code>f0</code>, <code>f1</code>, ...
+     * @param payloadSize the minimum size in bytes, reached by padding a <code>note</code> field with text which needs escaping
+     * @return a json object with <code>devid</code>, <code>ts</code>, the numeric fields and the note.
+     */
+    static byte[] json(final int fieldCount, final int payloadSize) {
+        final StringBuilder json = new StringBuilder(payloadSize + 64);
+        json.append("{\"devid\":\"dev-0042\",\"ts\":1600000000000");
+        for (int i = 0; i < fieldCount; i++) {
+            json.append(",\"f").append(i).append("\":").append(20 + i).append(".5");
+        }
+        json.append(",\"note\":\"");
+        while (json.length() < payloadSize - 2) {
+            json.append("it's ok ");
+        }
+        json.append("\"}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param fieldCount the number of numeric fields
+     * @param payloadSize the minimum size in bytes of the json form
+     * @return the payload of {@link #json(int, int)} as MessagePack map, or as CBOR map if <b>cbor</b> is set.
+     */
+    static byte[] binary(final int fieldCount, final int payloadSize, final boolean cbor) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(payloadSize);
+        final int entries = fieldCount + 3;
+        if (cbor) {
+            out.write(0xb8);
+            out.write(entries);
+        } else {
+            out.write(0xde);
+            out.write(ByteBuffer.allocate(2).putShort((short) entries).array(), 0, 2);
+        }
+        string(out, "devid", cbor);
+        string(out, "dev-0042", cbor);
+        string(out, "ts", cbor);
+        out.write(cbor ? 0x1b : 0xcf);
+        out.write(ByteBuffer.allocate(8).putLong(1600000000000L).array(), 0, 8);
+        for (int i = 0; i < fieldCount; i++) {
+            string(out, "f" + i, cbor);
+            out.write(cbor ? 0xfb : 0xcb);
+            out.write(ByteBuffer.allocate(8).putDouble(20.5 + i).array(), 0, 8);
+        }
+        string(out, "note", cbor);
+        final StringBuilder note = new StringBuilder();
+        while (note.length() + out.size() < payloadSize - 8) {
+            note.append("it's ok ");
+        }
+        string(out, note.toString(), cbor);
+        return out.toByteArray();
+    }
+
+    private static void string(final ByteArrayOutputStream out, final String value, final boolean cbor) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(cbor ? 0x79 : 0xda);
+        out.write(ByteBuffer.allocate(2).putShort((short) bytes.length).array(), 0, 2);
+        out.write(bytes, 0, bytes.length);
+    }
+}
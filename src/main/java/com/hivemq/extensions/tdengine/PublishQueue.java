@@ -0,0 +1,266 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Bounded in-memory queue between the interceptor and a background thread which owns persistence,
+ * so that a PUBLISH can be released before its row is written to TDengine.
+ * The queue is a lock-free {@link RingBuffer}. The background thread keeps at most <b>maxInFlight</b> publishes
+ * in the writers, so a slow database fills the queue and the {@link OverflowPolicy} decides what happens next.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class PublishQueue {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(PublishQueue.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * What happens to a publish which arrives while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** wait up to the block timeout for a free slot, then drop the publish */
+        BLOCK,
+        /** drop the arriving publish */
+        DROP_NEWEST,
+        /** drop the oldest queued publish to make room */
+        DROP_OLDEST,
+        /** refuse the publish, the interceptor prevents its delivery with a reason code */
+        REJECT;
+
+        /**
+         * @param name the policy name, e.g. drop_newest
+         * @return the policy
+         * @throws IllegalArgumentException if the name is unknown.
+         */
+        @NotNull
+        public static OverflowPolicy of(@NotNull final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final RingBuffer<QueuedPublish> queue;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+    private final Semaphore inFlight;
+    private final Function<QueuedPublish, CompletableFuture<?>> handler;
+    private final Predicate<QueuedPublish> spill;
+    private final Thread worker;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity the queue capacity, rounded up to a power of two of at least 2
+     * @param policy what to do when the queue is full
+     * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits for a free slot
+     * @param maxInFlight maximum number of publishes handed to the writers and not yet written
+     * @param handler writes a publish and returns a future which completes when it is written
+     */
+    public PublishQueue(final int capacity, @NotNull final OverflowPolicy policy, final long blockTimeoutMillis, final int maxInFlight,
+                        @NotNull final Function<QueuedPublish, CompletableFuture<?>> handler) {
+        this(capacity, policy, blockTimeoutMillis, maxInFlight, handler, null);
+    }
+
+    /**
+     * @param capacity the queue capacity, rounded up to a power of two of at least 2
+     * @param policy what to do when the queue is full
+     * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits for a free slot
+     * @param maxInFlight maximum number of publishes handed to the writers and not yet written
+     * @param handler writes a publish and returns a future which completes when it is written
+     * @param spill keeps a publish which would be dropped and returns <b>true</b> if it did, <b>null</b> to drop
+     */
+    public PublishQueue(final int capacity, @NotNull final OverflowPolicy policy, final long blockTimeoutMillis, final int maxInFlight,
+                        @NotNull final Function<QueuedPublish, CompletableFuture<?>> handler, @Nullable final Predicate<QueuedPublish> spill) {
+        this.queue = new RingBuffer<>(capacity);
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.handler = handler;
+        this.spill = spill;
+        this.worker = new Thread(this::drain, "tdengine-publish-queue");
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    /**
+     * Enqueue a publish, applying the overflow policy if the queue is full.
+     * Only {@link OverflowPolicy#BLOCK} waits, all other policies return at once.
+     * @param publish the copied publish
+     * @return <b>true</b> if the publish was queued, <b>false</b> if it was dropped or rejected.
+     */
+    public boolean offer(@NotNull final QueuedPublish publish) {
+        if (!running) {
+            drop(publish);
+            return false;
+        }
+        if (queue.offer(publish)) {
+            return true;
+        }
+        switch (policy) {
+            case BLOCK:
+                final long deadline = System.nanoTime() + blockTimeoutNanos;
+                do {
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    if (queue.offer(publish)) {
+                        return true;
+                    }
+                } while (running && System.nanoTime() - deadline < 0);
+                break;
+            case DROP_OLDEST:
+                QueuedPublish oldest;
+                while ((oldest = queue.poll()) != null) {
+                    drop(oldest);
+                    if (queue.offer(publish)) {
+                        return true;
+                    }
+                }
+                break;
+            case REJECT:
+                final long count = rejected.incrementAndGet();
+                if (count == 1 || count % 10000 == 0) {
+                    log.warn("publish queue is full, {} publishes rejected so far", count);
+                }
+                return false;
+            default:
+                break;
+        }
+        drop(publish);
+        return false;
+    }
+
+    /**
+     * Hand a publish which does not fit into the queue to the spill, or drop it.
+     */
+    private void drop(@NotNull final QueuedPublish publish) {
+        if (spill != null && spill.test(publish)) {
+            spilled.incrementAndGet();
+            return;
+        }
+        final long count = dropped.incrementAndGet();
+        if (count == 1 || count % 10000 == 0) {
+            log.warn("publish queue is full, {} publishes dropped so far", count);
+        }
+    }
+
+    /**
+     * Stop accepting publishes and wait until the queued ones are handled.
+     * @param timeoutMillis maximum time to wait for the queue to drain
+     */
+    public void stop(final long timeoutMillis) {
+        running = false;
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("{} queued publishes were not written before stop", queue.size());
+            QueuedPublish publish;
+            while ((publish = queue.poll()) != null) {
+                drop(publish);
+            }
+        }
+    }
+
+    @NotNull
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of queued publishes.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    public int capacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * @return the number of publishes dropped by the overflow policy or after stop.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of publishes which did not fit into the queue and were kept by the spill.
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * @return the number of publishes refused with {@link OverflowPolicy#REJECT}.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            // take a write slot first, so publishes stay queued and count against the capacity while the writers are busy
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            final QueuedPublish publish = queue.poll();
+            if (publish == null) {
+                inFlight.release();
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            handle(publish);
+        }
+    }
+
+    private void handle(@NotNull final QueuedPublish publish) {
+        try {
+            handler.apply(publish).whenComplete((ignored, throwable) -> inFlight.release());
+        } catch (Exception e) {
+            inFlight.release();
+            log.error("failed to handle queued publish on topic " + publish.getTopic(), e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.tdengine.routing.PublishMetadata;
+
+/**
+ * A copy of the parts of a PUBLISH which are needed to persist it after the PUBLISH was released.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class QueuedPublish {
+
+    private final String topic;
+    private final byte[] payload;
+    private final long receivedMillis;
+    private final PublishMetadata metadata;
+
+    public QueuedPublish(@NotNull final String topic, @NotNull final byte[] payload) {
+        this(topic, payload, System.currentTimeMillis(), PublishMetadata.NONE);
+    }
+
+    public QueuedPublish(@NotNull final String topic, @NotNull final byte[] payload, final long receivedMillis,
+            @NotNull final PublishMetadata metadata) {
+        this.topic = topic;
+        this.payload = payload;
+        this.receivedMillis = receivedMillis;
+        this.metadata = metadata;
+    }
+
+    @NotNull
+    public String getTopic() {
+        return topic;
+    }
+
+    @NotNull
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return when the publish was received, used instead of the write time for bound and schemaless timestamps.
+     */
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+
+    /**
+     * @return the client id and user properties of the publish, as far as its routes use them.
+     */
+    @NotNull
+    public PublishMetadata getMetadata() {
+        return metadata;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Token bucket per client or topic, so that a single device flooding a routed topic is throttled
+ * before its payloads are parsed, without slowing down the other publishers.
+ * A bucket is the time at which it will be full again, updated with compare-and-set, so publishers
+ * only contend on their own bucket. Buckets which have been full for the idle time are evicted
+ * by the publisher which passes the next sweep deadline.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class RateLimiter {
+
+    /**
+     * What happens to a publish beyond the rate of its bucket.
+     */
+    public enum Action {
+        /** deliver the publish but do not write it */
+        DROP,
+        /** write one of every sample publishes beyond the rate, drop the others */
+        SAMPLE,
+        /** refuse the publish, the interceptor prevents its delivery with a reason code */
+        REJECT;
+
+        /**
+         * @param name the action name, e.g. drop
+         * @return the action
+         * @throws IllegalArgumentException if the name is unknown.
+         */
+        @NotNull
+        public static Action of(@NotNull final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final long idleNanos;
+    private final Action action;
+    private final int sample;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep;
+
+    /**
+     * @param messagesPerSecond the rate at which a bucket refills
+     * @param burst the number of publishes a full bucket lets through at once
+     * @param idleMillis how long a bucket is kept after it is full again
+     * @param action what happens to a publish beyond the rate
+     * @param sample with {@link Action#SAMPLE}, write one of every sample publishes beyond the rate
+     */
+    public RateLimiter(final int messagesPerSecond, final int burst, final long idleMillis, @NotNull final Action action, final int sample) {
+        this(messagesPerSecond, burst, idleMillis, action, sample, System::nanoTime);
+    }
+
+    RateLimiter(final int messagesPerSecond, final int burst, final long idleMillis, @NotNull final Action action, final int sample,
+    		@NotNull final LongSupplier clock) {
+        if (messagesPerSecond < 1 || burst < 1) {
+            throw new IllegalArgumentException("the rate and the burst must be at least 1");
+        }
+        this.intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+        this.capacityNanos = intervalNanos * burst;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.action = action;
+        this.sample = Math.max(1, sample);
+        this.clock = clock;
+        this.nextSweep = new AtomicLong(clock.getAsLong() + idleNanos);
+    }
+
+    /**
+     * Take a token from the bucket of the key.
+     * @param key the client id or topic of the publish
+     * @return <b>true</b> if the publish is to be written, <b>false</b> if it is beyond the rate and not sampled.
+     */
+    public boolean tryAcquire(@NotNull final String key) {
+        final long now = clock.getAsLong();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, ignored -> new Bucket(now));
+        }
+        final boolean acquired = bucket.tryAcquire(now);
+        sweep(now);
+        return acquired;
+    }
+
+    /**
+     * @return what happens to a publish beyond the rate.
+     */
+    @NotNull
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return the number of buckets, including idle ones not yet evicted.
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    private void sweep(final long now) {
+        final long deadline = nextSweep.get();
+        if (now - deadline < 0 || !nextSweep.compareAndSet(deadline, now + idleNanos)) {
+            return;
+        }
+        final long expired = now - idleNanos;
+        buckets.values().removeIf(bucket -> bucket.fullAt.get() - expired <= 0);
+    }
+
+    private final class Bucket {
+
+        /** the time at which the bucket holds all burst tokens again */
+        private final AtomicLong fullAt;
+        private final AtomicLong exceeded = new AtomicLong();
+
+        private Bucket(final long now) {
+            this.fullAt = new AtomicLong(now);
+        }
+
+        private boolean tryAcquire(final long now) {
+            for (;;) {
+                final long current = fullAt.get();
+                final long next = (current - now > 0 ? current : now) + intervalNanos;
+                if (next - now > capacityNanos) {
+                    return action == Action.SAMPLE && exceeded.getAndIncrement() % sample == 0;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
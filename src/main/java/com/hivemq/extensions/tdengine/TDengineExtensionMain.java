@@ -19,12 +19,23 @@ package com.hivemq.extensions.tdengine;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-
-import javax.sql.DataSource;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.ClientProtocolException;
@@ -33,9 +44,11 @@ import org.slf4j.LoggerFactory;
 
 import com.alibaba.druid.pool.DruidDataSource;
 import com.alibaba.druid.pool.DruidDataSourceFactory;
+import com.codahale.metrics.Gauge;
 import com.google.common.collect.Maps;
 import com.hivemq.extension.sdk.api.ExtensionMain;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
 import com.hivemq.extension.sdk.api.parameter.ExtensionInformation;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStartInput;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStartOutput;
@@ -43,7 +56,29 @@ import com.hivemq.extension.sdk.api.parameter.ExtensionStopInput;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStopOutput;
 import com.hivemq.extension.sdk.api.services.Services;
 import com.hivemq.extension.sdk.api.services.intializer.InitializerRegistry;
+import com.hivemq.extensions.tdengine.configuration.ConfigurationWatcher;
+import com.hivemq.extensions.tdengine.endpoint.BalancedDataSource;
+import com.hivemq.extensions.tdengine.endpoint.Endpoint;
+import com.hivemq.extensions.tdengine.endpoint.EndpointBalancer;
+import com.hivemq.extensions.tdengine.endpoint.HealthChecker;
 import com.hivemq.extensions.tdengine.configuration.TDengineConfiguration;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import com.hivemq.extensions.tdengine.routing.Route;
+import com.hivemq.extensions.tdengine.routing.RouteTable;
+import com.hivemq.extensions.tdengine.schemaless.RecordBatcher;
+import com.hivemq.extensions.tdengine.schemaless.SchemalessEncoder;
+import com.hivemq.extensions.tdengine.template.TemplateException;
+import com.hivemq.extensions.tdengine.wal.WalReplayer;
+import com.hivemq.extensions.tdengine.wal.WriteAheadLog;
+import com.hivemq.extensions.tdengine.writer.BatchTuner;
+import com.hivemq.extensions.tdengine.writer.BindingWriter;
+import com.hivemq.extensions.tdengine.writer.HttpWriter;
+import com.hivemq.extensions.tdengine.writer.InsertBatcher;
+import com.hivemq.extensions.tdengine.writer.JdbcWriter;
+import com.hivemq.extensions.tdengine.writer.Shards;
+import com.hivemq.extensions.tdengine.writer.SubTableCache;
+import com.hivemq.extensions.tdengine.writer.TDengineWriter;
+import com.hivemq.extensions.tdengine.writer.WriterPool;
 
 /**
  * This is the main class of the extension,
@@ -56,7 +91,17 @@ import com.hivemq.extensions.tdengine.configuration.TDengineConfiguration;
 public class TDengineExtensionMain implements ExtensionMain {
 
     private static final @NotNull Logger log = LoggerFactory.getLogger(TDengineExtensionMain.class);
-    private DruidDataSource datasource = null;
+    private static final int STOP_FLUSH_TIMEOUT_SECONDS = 10;
+    private static final String WAL_FOLDER = "wal";
+    // how often publishes held by window downsampling are checked for an ended window
+    private static final long SAMPLE_FLUSH_INTERVAL_MILLIS = 1000;
+    private TDengineMetrics metrics = null;
+    private WriteAheadLog wal = null;
+    private WalReplayer walReplayer = null;
+    private ConfigurationWatcher watcher = null;
+    private TDenginePublishInterceptor interceptor = null;
+    private ScheduledFuture<?> sampleFlusher = null;
+    private final List<WritePipeline> retired = new CopyOnWriteArrayList<>();
    
     @Override
     public void extensionStart(final @NotNull ExtensionStartInput extensionStartInput, final @NotNull ExtensionStartOutput extensionStartOutput) {
@@ -75,13 +120,40 @@ public class TDengineExtensionMain implements ExtensionMain {
                 return;
             }
 
-            if (StringUtils.equalsIgnoreCase(configuration.getMode(), "jdbc")) { 
-            	datasource = setupTaosDataSource(configuration);
-            } else {
-            	setupTaosDataRESTful(configuration);
+            final RouteTable routeTable;
+            try {
+            	routeTable = new RouteTable(configuration.getRoutes());
+            } catch (TemplateException | IllegalArgumentException e) {
+            	log.error("Invalid route configuration: {}", e.getMessage());
+                extensionStartOutput.preventExtensionStartup("Invalid route configuration");
+                return;
+            }
+
+            metrics = new TDengineMetrics(Services.metricRegistry());
+            final WritePipeline pipeline = newPipeline(configuration, routeTable, metrics);
+            pipeline.registerGauges(metrics, null);
+            
+            if (configuration.isWalEnabled()) {
+            	wal = new WriteAheadLog(new File(extensionHomeFolder, WAL_FOLDER).toPath(),
+            			configuration.getWalSegmentSizeMB() << 20, (long) configuration.getWalMaxSizeMB() << 20);
             }
             
-            addPublishModifier(configuration, datasource);
+            addPublishModifier(configuration, pipeline, wal, metrics);
+            sampleFlusher = Services.extensionExecutorService().scheduleWithFixedDelay(interceptor::flushSamples,
+            		SAMPLE_FLUSH_INTERVAL_MILLIS, SAMPLE_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            
+            if (wal != null) {
+            	walReplayer = new WalReplayer(wal, Services.extensionExecutorService(), configuration.getWalReplayBatch(),
+            			configuration.getWalReplayIntervalMillis(), interceptor::replay);
+            	walReplayer.start();
+            }
+            registerGauges(metrics, interceptor.getPublishQueue(), wal, walReplayer);
+            
+            if (configuration.getReloadIntervalMillis() > 0) {
+            	watcher = new ConfigurationWatcher(new File(extensionHomeFolder, configuration.getFilename()),
+            			Services.extensionExecutorService(), configuration.getReloadIntervalMillis(), () -> reload(extensionHomeFolder));
+            	watcher.start();
+            }
             
             
             final ExtensionInformation extensionInformation = extensionStartInput.getExtensionInformation();
@@ -93,21 +165,298 @@ public class TDengineExtensionMain implements ExtensionMain {
 
     }
 
+    /**
+     * Build the routes and writers of a configuration, creating its database and tables.
+     * @param configuration
+     * @param routeTable
+     * @param metrics
+     * @return the pipeline, its gauges are not registered yet.
+     * @throws Exception if the database could not be set up.
+     */
+    @NotNull
+    private WritePipeline newPipeline(@NotNull final TDengineConfiguration configuration, @NotNull final RouteTable routeTable,
+    		@NotNull final TDengineMetrics metrics) throws Exception {
+    	final Map<String, Gauge<?>> gauges = new LinkedHashMap<>();
+    	// without writer threads all database work runs on the shared extension executor
+    	final WriterPool writerPool = configuration.getWriterThreads() > 0 ? new WriterPool(configuration.getWriterThreads()) : null;
+    	final int shards = writerPool != null ? writerPool.size() : 1;
+    	SubTableCache knownTables = null;
+    	if (configuration.getTableCacheSize() > 0) {
+    		knownTables = new SubTableCache(configuration.getTableCacheSize());
+    		gauges.put("table_cache.size", (Gauge<Integer>) knownTables::size);
+    	}
+    	final List<InsertBatcher> insertBatchers = new ArrayList<>(shards);
+    	final List<HealthChecker<?>> healthCheckers = new ArrayList<>();
+    	final String testSql = configuration.getTestSQL();
+    	BalancedDataSource datasource = null;
+    	Shards<BindingWriter> bindingWriters = null;
+    	Shards<RecordBatcher> recordBatchers = null;
+    	try {
+    		if (StringUtils.equalsIgnoreCase(configuration.getMode(), "jdbc")) { 
+    			datasource = setupTaosDataSource(configuration, routeTable);
+    			final long checkTimeout = configuration.getEndpointHealthIntervalMillis();
+    			addHealthChecker(healthCheckers, configuration, datasource.getBalancer(),
+    					pool -> BalancedDataSource.check(pool, testSql, checkTimeout));
+    			final List<BindingWriter> shardBindingWriters = new ArrayList<>(shards);
+    			for (int i = 0; i < shards; i++) {
+    				final ScheduledExecutorService executor = getWriterExecutor(writerPool, i);
+    				insertBatchers.add(newInsertBatcher(configuration, new JdbcWriter(datasource, executor, metrics), executor, knownTables,
+    						metrics));
+    				shardBindingWriters.add(new BindingWriter(datasource, executor,
+    						configuration.getBatchMaxRows(), configuration.getBatchLingerMillis(), metrics));
+    			}
+    			bindingWriters = new Shards<>(shardBindingWriters);
+    			final BalancedDataSource pool = datasource;
+    			gauges.put("jdbc.pool.active", (Gauge<Integer>) pool::getActiveCount);
+    			gauges.put("jdbc.pool.waiting", (Gauge<Integer>) pool::getWaitThreadCount);
+    			gauges.put("endpoints.healthy", (Gauge<Integer>) pool.getBalancer()::getHealthy);
+    		} else {
+    			setupTaosDataRESTful(configuration, routeTable);
+    			final HttpWriter httpWriter = newHttpWriter(configuration, configuration.getHttpUrls(), metrics);
+    			addHealthChecker(healthCheckers, configuration, httpWriter.getEndpoints(), uri -> httpWriter.probe(uri, testSql));
+    			gauges.put("endpoints.healthy", (Gauge<Integer>) httpWriter.getEndpoints()::getHealthy);
+    			for (int i = 0; i < shards; i++) {
+    				insertBatchers.add(newInsertBatcher(configuration, httpWriter, getWriterExecutor(writerPool, i), knownTables, metrics));
+    			}
+    			gauges.put("http.waiting", (Gauge<Integer>) httpWriter::getWaiting);
+    			if (configuration.isSchemaless()) {
+    				final SchemalessEncoder.Protocol protocol = SchemalessEncoder.Protocol.of(configuration.getSchemalessProtocol());
+    				// the schemaless endpoints of a taosAdapter are checked with the test SQL on its SQL endpoint
+    				final Map<URI, URI> sqlUris = new HashMap<>();
+    				final List<String> schemalessUrls = new ArrayList<>();
+    				for (final String httpUrl : configuration.getHttpUrls()) {
+    					final String schemalessUrl = getSchemalessUrl(configuration, httpUrl, protocol);
+    					sqlUris.put(HttpWriter.uriOf(schemalessUrl), HttpWriter.uriOf(httpUrl));
+    					schemalessUrls.add(schemalessUrl);
+    				}
+    				final HttpWriter schemalessWriter = newHttpWriter(configuration, schemalessUrls, metrics);
+    				addHealthChecker(healthCheckers, configuration, schemalessWriter.getEndpoints(),
+    						uri -> schemalessWriter.probe(sqlUris.get(uri), testSql));
+    				final List<RecordBatcher> shardRecordBatchers = new ArrayList<>(shards);
+    				for (int i = 0; i < shards; i++) {
+    					shardRecordBatchers.add(new RecordBatcher(schemalessWriter, getWriterExecutor(writerPool, i), protocol,
+    							configuration.getBatchMaxRows(), configuration.getBatchMaxBytes(), configuration.getBatchLingerMillis(),
+    							newBatchTuner(configuration), metrics));
+    				}
+    				recordBatchers = new Shards<>(shardRecordBatchers);
+    				gauges.put("http.waiting", (Gauge<Integer>) () -> httpWriter.getWaiting() + schemalessWriter.getWaiting());
+    			}
+    		}
+    	} catch (Exception e) {
+    		if (writerPool != null) {
+    			writerPool.shutdown(0);
+    		}
+    		if (datasource != null) {
+    			datasource.close();
+    		}
+    		throw e;
+    	}
+    	for (final HealthChecker<?> healthChecker : healthCheckers) {
+    		healthChecker.start();
+    	}
+    	return new WritePipeline(routeTable, new Shards<>(insertBatchers), bindingWriters, recordBatchers, writerPool, datasource,
+    			healthCheckers, gauges);
+    }
+
+    /**
+     * Add a health check of the endpoints if there are several of them and health checks are enabled.
+     * @param healthCheckers
+     * @param configuration
+     * @param balancer
+     * @param check
+     */
+    private static <T> void addHealthChecker(@NotNull final List<HealthChecker<?>> healthCheckers,
+    		@NotNull final TDengineConfiguration configuration, @NotNull final EndpointBalancer<T> balancer,
+    		@NotNull final HealthChecker.Check<T> check) {
+    	final long interval = configuration.getEndpointHealthIntervalMillis();
+    	if (interval > 0 && balancer.getEndpoints().size() > 1) {
+    		healthCheckers.add(new HealthChecker<>(balancer, Services.extensionExecutorService(), interval, check));
+    	}
+    }
+
+    /**
+     * @param configuration
+     * @param urls
+     * @param target creates the connection pool or URI of a URL
+     * @param outstanding the requests outstanding at a target, <b>null</b> to count them per endpoint
+     * @return the endpoints of the URLs with their configured weights.
+     */
+    @NotNull
+    private static <T> EndpointBalancer<T> newBalancer(@NotNull final TDengineConfiguration configuration,
+    		@NotNull final List<String> urls, @NotNull final Function<String, T> target, @Nullable final ToIntFunction<T> outstanding) {
+    	final int[] weights = configuration.getEndpointWeights(urls.size());
+    	final List<Endpoint<T>> endpoints = new ArrayList<>(urls.size());
+    	for (int i = 0; i < urls.size(); i++) {
+    		endpoints.add(new Endpoint<>(urls.get(i), target.apply(urls.get(i)), weights[i]));
+    	}
+    	return new EndpointBalancer<>(endpoints, EndpointBalancer.Selection.of(configuration.getEndpointSelection()), outstanding);
+    }
+
+    /**
+     * Apply a changed taosdata.properties: build a pipeline from it, swap it into the interceptor and close the previous
+     * pipeline once no publish, sample flush or replay writes through it anymore.
+     * The ingest queue, the write-ahead log, duplicate filtering, rate limiting and the reload interval, i.e. the
+     * ingest.*, wal.*, dedup.*, rate_limit.* and reload.interval_ms settings, keep their values until the extension is restarted.
+     * @param extensionHomeFolder
+     */
+    private synchronized void reload(@NotNull final File extensionHomeFolder) {
+    	if (watcher == null || !watcher.isRunning()) {
+    		return;
+    	}
+    	final TDengineConfiguration configuration = new TDengineConfiguration(extensionHomeFolder);
+    	if (!configuration.readPropertiesFromFile() || !configuration.validateConfiguration()) {
+    		log.error("Invalid taosdata properties, keeping the running configuration");
+    		return;
+    	}
+    	final WritePipeline next;
+    	try {
+    		next = newPipeline(configuration, new RouteTable(configuration.getRoutes()), metrics);
+    	} catch (Exception e) {
+    		log.error("Could not apply the changed taosdata properties, keeping the running configuration", e);
+    		return;
+    	}
+    	final WritePipeline previous = interceptor.swap(next);
+    	next.registerGauges(metrics, previous);
+    	retired.add(previous);
+    	previous.retire().thenRunAsync(() -> close(previous), Services.extensionExecutorService());
+    	log.info("Reloaded taosdata properties");
+    }
+
+    /**
+     * Write the held samples and pending rows of a retired pipeline which no publish uses anymore, and close it.
+     * @param previous
+     */
+    private synchronized void close(@NotNull final WritePipeline previous) {
+    	if (!retired.remove(previous)) {
+    		// closed by extensionStop already
+    		return;
+    	}
+    	interceptor.drainSamples(previous);
+    	previous.close(TimeUnit.SECONDS.toMillis(STOP_FLUSH_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * @param writerPool
+     * @param shard
+     * @return the executor of the writer thread of the shard, the shared extension executor without writer threads.
+     */
+    @NotNull
+    private static ScheduledExecutorService getWriterExecutor(@Nullable final WriterPool writerPool, final int shard) {
+    	return writerPool != null ? writerPool.get(shard) : Services.extensionExecutorService();
+    }
+
+    @NotNull
+    private static InsertBatcher newInsertBatcher(@NotNull final TDengineConfiguration configuration, @NotNull final TDengineWriter writer,
+    		@NotNull final ScheduledExecutorService executor, @Nullable final SubTableCache knownTables, @NotNull final TDengineMetrics metrics) {
+    	return new InsertBatcher(writer, executor, configuration.getBatchMaxRows(), configuration.getBatchMaxBytes(),
+    			configuration.getBatchLingerMillis(), knownTables, newBatchTuner(configuration), metrics);
+    }
+
+    /**
+     * @param configuration
+     * @return a tuner for one batcher, <b>null</b> if batches are not tuned or hold single rows.
+     */
+    @Nullable
+    private static BatchTuner newBatchTuner(@NotNull final TDengineConfiguration configuration) {
+    	if (!configuration.isBatchAdaptive() || configuration.getBatchMaxRows() <= 1) {
+    		return null;
+    	}
+    	return new BatchTuner(configuration.getBatchMaxRows(), configuration.getBatchLingerMillis(),
+    			configuration.getBatchTargetLatencyMillis());
+    }
+
+    @NotNull
+    private static HttpWriter newHttpWriter(@NotNull final TDengineConfiguration configuration, @NotNull final List<String> urls,
+    		@NotNull final TDengineMetrics metrics) {
+    	return new HttpWriter(newBalancer(configuration, urls, HttpWriter::uriOf, null), configuration.getHttpToken(),
+    			Services.extensionExecutorService(),
+    			configuration.getHttpMaxPerRoute(), configuration.getHttpConnectTimeoutMillis(),
+    			configuration.getHttpRequestTimeoutMillis(), configuration.isHttpGzip(), metrics);
+    }
+
+    /**
+     * Register the gauges of the ingest queue and the write-ahead log, if they are enabled.
+     * @param metrics
+     * @param publishQueue
+     * @param wal
+     * @param walReplayer
+     */
+    private static void registerGauges(@NotNull final TDengineMetrics metrics, @Nullable final PublishQueue publishQueue,
+    		@Nullable final WriteAheadLog wal, @Nullable final WalReplayer walReplayer) {
+    	if (publishQueue != null) {
+    		metrics.gauge("queue.depth", (Gauge<Integer>) publishQueue::size);
+    		metrics.gauge("queue.capacity", (Gauge<Integer>) publishQueue::capacity);
+    		metrics.gauge("queue.dropped", (Gauge<Long>) publishQueue::getDropped);
+    		metrics.gauge("queue.rejected", (Gauge<Long>) publishQueue::getRejected);
+    		metrics.gauge("queue.spilled", (Gauge<Long>) publishQueue::getSpilled);
+    	}
+    	if (wal != null && walReplayer != null) {
+    		metrics.gauge("wal.records", (Gauge<Long>) wal::size);
+    		metrics.gauge("wal.bytes", (Gauge<Long>) wal::getBytes);
+    		metrics.gauge("wal.refused", (Gauge<Long>) wal::getRefused);
+    		metrics.gauge("wal.replayed", (Gauge<Long>) walReplayer::getReplayed);
+    		metrics.gauge("wal.discarded", (Gauge<Long>) walReplayer::getDiscarded);
+    	}
+    }
+
+    /**
+     * The schemaless endpoints of taosAdapter are served on the host and port of http.url.
+     * @param configuration
+     * @param httpUrl one of the URLs of http.url
+     * @param protocol
+     * @return the URL of the schemaless endpoint of the protocol.
+     */
+    @NotNull
+    private static String getSchemalessUrl(@NotNull final TDengineConfiguration configuration, @NotNull final String httpUrl,
+    		@NotNull final SchemalessEncoder.Protocol protocol) {
+    	final URI uri = HttpWriter.uriOf(httpUrl);
+    	return uri.getScheme() + "://" + uri.getRawAuthority() + protocol.getPath(configuration.getSchemalessDatabase());
+    }
+
+    /**
+     * Initializing RESTFul connector by creating database and table if they are not exists,
+     * through the first of the URLs which can be reached.
+     * @param configuration
+     * @param routeTable
+     * @throws IOException if none of the URLs can be reached.
+     */
+    private void setupTaosDataRESTful(@NotNull final TDengineConfiguration configuration, @NotNull final RouteTable routeTable)
+    		throws IOException {
+    	IOException failure = null;
+    	for (final String httpUrl : configuration.getHttpUrls()) {
+    		try {
+    			setupTaosDataRESTful(configuration, routeTable, httpUrl);
+    			return;
+    		} catch (IOException e) {
+    			log.warn("could not reach {}: {}", httpUrl, e.getMessage());
+    			failure = e;
+    		}
+    	}
+    	throw failure != null ? failure : new IOException("no http.url configured");
+    }
+
     /**
      * Initializing RESTFul connector by creating database and table if they are not exists.
      * @param configuration
+     * @param routeTable
+     * @param httpUrl
      * @throws IOException 
      * @throws ClientProtocolException 
      */
-    private void setupTaosDataRESTful(TDengineConfiguration configuration) throws ClientProtocolException, IOException {
+    private void setupTaosDataRESTful(TDengineConfiguration configuration, RouteTable routeTable, String httpUrl) throws ClientProtocolException, IOException {
     	final String Auth = "Basic " + Base64.getEncoder().encodeToString(configuration.getHttpToken().getBytes());
      	Map<String, Object> headers = Maps.newHashMap();
      	headers.put("Authorization", Auth);
      	if (StringUtils.isNotBlank(configuration.getCreateDatabaseSQL())) {
-     		HttpClientUtil.httpPostRequest(configuration.getHttpUrl(), headers, configuration.getCreateDatabaseSQL());
+     		HttpClientUtil.httpPostRequest(httpUrl, headers, configuration.getCreateDatabaseSQL());
      	}
-     	if (StringUtils.isNotBlank(configuration.getCreateTableSQL())) {
-     		HttpClientUtil.httpPostRequest(configuration.getHttpUrl(), headers, configuration.getCreateTableSQL());
+     	if (!configuration.isSchemaless() && StringUtils.isNotBlank(configuration.getCreateTableSQL())) {
+     		HttpClientUtil.httpPostRequest(httpUrl, headers, configuration.getCreateTableSQL());
+     	}
+     	for (final Route route : routeTable.getRoutes()) {
+     		if (StringUtils.isNotBlank(route.getConfiguration().getCreateTableSQL())) {
+     			HttpClientUtil.httpPostRequest(httpUrl, headers, route.getConfiguration().getCreateTableSQL());
+     		}
      	}
    	
 	}
@@ -115,12 +464,29 @@ public class TDengineExtensionMain implements ExtensionMain {
     /**
      * Initializing JDBC Datasource and creating database and table if they are not exists.
      * @param configuration
-     * @return
+     * @param routeTable
+     * @return one connection pool per URL of jdbc.url
      * @throws Exception
      */
-	private DruidDataSource setupTaosDataSource(@NotNull final TDengineConfiguration configuration) throws Exception {
-    	DruidDataSource ds = (DruidDataSource) DruidDataSourceFactory.createDataSource(configuration.getJDBCProperties());
-        Connection  connection = ds.getConnection(); // get connection
+	private BalancedDataSource setupTaosDataSource(@NotNull final TDengineConfiguration configuration, @NotNull final RouteTable routeTable) throws Exception {
+    	// the pools connect on first use, so an unreachable endpoint does not fail the start
+    	final BalancedDataSource ds = new BalancedDataSource(newBalancer(configuration, configuration.getJdbcUrls(), url -> {
+    		final Properties properties = new Properties();
+    		properties.putAll(configuration.getJDBCProperties());
+    		properties.put(DruidDataSourceFactory.PROP_URL, url);
+    		try {
+    			return (DruidDataSource) DruidDataSourceFactory.createDataSource(properties);
+    		} catch (Exception e) {
+    			throw new IllegalArgumentException("invalid jdbc.url " + url, e);
+    		}
+    	}, BalancedDataSource::outstanding));
+        final Connection connection;
+        try {
+        	connection = connectAny(ds);
+        } catch (SQLException e) {
+        	ds.close();
+        	throw e;
+        }
         Statement statement = null;
         try {
         	statement = connection.createStatement(); // get statement
@@ -131,6 +497,12 @@ public class TDengineExtensionMain implements ExtensionMain {
          	if (StringUtils.isNotBlank(configuration.getCreateTableSQL())) {
          		statement.execute(configuration.getCreateTableSQL());
          	}
+         	
+         	for (final Route route : routeTable.getRoutes()) {
+         		if (StringUtils.isNotBlank(route.getConfiguration().getCreateTableSQL())) {
+         			statement.execute(route.getConfiguration().getCreateTableSQL());
+         		}
+         	}
         	
         } finally {
             if (statement != null) {
@@ -141,22 +513,70 @@ public class TDengineExtensionMain implements ExtensionMain {
         return ds;
 	}
 
+	/**
+	 * @param ds
+	 * @return a connection of the first endpoint which can be reached.
+	 * @throws SQLException if none of the endpoints can be reached.
+	 */
+	@NotNull
+	private static Connection connectAny(@NotNull final BalancedDataSource ds) throws SQLException {
+		SQLException failure = null;
+		for (final Endpoint<DruidDataSource> endpoint : ds.getBalancer().getEndpoints()) {
+			try {
+				return endpoint.getTarget().getConnection();
+			} catch (SQLException e) {
+				log.warn("could not reach {}: {}", endpoint, e.getMessage());
+				failure = e;
+			}
+		}
+		throw failure;
+	}
+
 	@Override
     public void extensionStop(final @NotNull ExtensionStopInput extensionStopInput, final @NotNull ExtensionStopOutput extensionStopOutput) {
 
         final ExtensionInformation extensionInformation = extensionStopInput.getExtensionInformation();
         log.info("Stopped " + extensionInformation.getName() + ":" + extensionInformation.getVersion());
-        if (datasource != null) {
-            datasource.close();
-        } else {
-            HttpClientUtil.closeConnectionManager();
+        if (watcher != null) {
+            watcher.stop();
+        }
+        if (walReplayer != null) {
+            walReplayer.stop();
+        }
+        if (interceptor != null) {
+            interceptor.stop(TimeUnit.SECONDS.toMillis(STOP_FLUSH_TIMEOUT_SECONDS));
+        }
+        if (sampleFlusher != null) {
+            sampleFlusher.cancel(false);
+        }
+        synchronized (this) {
+            if (interceptor != null) {
+                interceptor.drainSamples(interceptor.getPipeline());
+                interceptor.getPipeline().close(TimeUnit.SECONDS.toMillis(STOP_FLUSH_TIMEOUT_SECONDS));
+            }
+            for (final WritePipeline previous : retired) {
+                interceptor.drainSamples(previous);
+                previous.close(TimeUnit.SECONDS.toMillis(STOP_FLUSH_TIMEOUT_SECONDS));
+            }
+            retired.clear();
+        }
+        // after the flushes, which keep unwritten rows in the write-ahead log
+        if (wal != null) {
+            wal.close();
+        }
+        if (metrics != null) {
+            metrics.remove();
         }
+        HttpClientUtil.closeConnectionManager();
     }
 
-    private void addPublishModifier(@NotNull final TDengineConfiguration configuration, @NotNull final DataSource datasource) {
+    private void addPublishModifier(@NotNull final TDengineConfiguration configuration, @NotNull final WritePipeline pipeline,
+    		@Nullable final WriteAheadLog wal, @NotNull final TDengineMetrics metrics) {
         final InitializerRegistry initializerRegistry = Services.initializerRegistry();
 
-        final TDenginePublishInterceptor taosdataInterceptor = new TDenginePublishInterceptor(configuration, datasource);
+        final TDenginePublishInterceptor taosdataInterceptor = new TDenginePublishInterceptor(configuration, pipeline, wal, metrics);
+        taosdataInterceptor.start();
+        interceptor = taosdataInterceptor;
 
         initializerRegistry.setClientInitializer((initializerInput, clientContext) -> clientContext.addPublishInboundInterceptor(taosdataInterceptor));
     }
@@ -17,9 +17,6 @@
 
 package com.hivemq.extensions.tdengine;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Maps;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
 import com.hivemq.extension.sdk.api.annotations.Nullable;
 import com.hivemq.extension.sdk.api.async.Async;
@@ -27,24 +24,41 @@ import com.hivemq.extension.sdk.api.async.TimeoutFallback;
 import com.hivemq.extension.sdk.api.interceptor.publish.PublishInboundInterceptor;
 import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
 import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import com.hivemq.extension.sdk.api.packets.general.UserProperty;
+import com.hivemq.extension.sdk.api.packets.publish.AckReasonCode;
 import com.hivemq.extension.sdk.api.packets.publish.ModifiablePublishPacket;
-import com.hivemq.extension.sdk.api.services.Services;
 import com.hivemq.extensions.tdengine.configuration.TDengineConfiguration;
+import com.hivemq.extensions.tdengine.decoder.JsonFieldExtractor;
+import com.hivemq.extensions.tdengine.decoder.PayloadBuffers;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import com.hivemq.extensions.tdengine.routing.Downsampler;
+import com.hivemq.extensions.tdengine.routing.PublishMetadata;
+import com.hivemq.extensions.tdengine.routing.Route;
+import com.hivemq.extensions.tdengine.routing.RouteBinding;
+import com.hivemq.extensions.tdengine.schemaless.RecordBatcher;
+import com.hivemq.extensions.tdengine.schemaless.SchemalessEncoder;
+import com.hivemq.extensions.tdengine.template.SqlTemplate;
+import com.hivemq.extensions.tdengine.template.TemplateException;
+import com.hivemq.extensions.tdengine.writer.BindingWriter;
+import com.hivemq.extensions.tdengine.wal.WalRecord;
+import com.hivemq.extensions.tdengine.wal.WriteAheadLog;
+import com.hivemq.extensions.tdengine.writer.InsertStatement;
+import com.hivemq.extensions.tdengine.writer.DuplicateFilter;
+import com.hivemq.extensions.tdengine.writer.Shards;
+import com.hivemq.extensions.tdengine.writer.WriteException;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.time.Duration;
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-
-import javax.sql.DataSource;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -59,154 +73,747 @@ import org.slf4j.LoggerFactory;
 public class TDenginePublishInterceptor implements PublishInboundInterceptor {
 	
     private static final @NotNull Logger log = LoggerFactory.getLogger(TDenginePublishInterceptor.class);
-    private final TDengineConfiguration configuration;
-    private final DataSource datasource;
-    
-    private final Map<String, Object> headers = Maps.newHashMap();
-
-    private final boolean jdbcMode;
-    private final String sqlTemplate;
-    private final boolean jsonEnabled;
-    private final String httpURL;
+    private volatile WritePipeline pipeline;
+    private final WriteAheadLog wal;
+    private final TDengineMetrics metrics;
+    private final PublishQueue publishQueue;
+    private final AckReasonCode rejectReason;
+    private final DuplicateFilter duplicates;
+    private final RateLimiter rateLimiter;
+    private final boolean limitByClient;
+    private final AckReasonCode rateLimitReason;
     
-    public TDenginePublishInterceptor(@NotNull final TDengineConfiguration configuration, final DataSource datasource) {
-		this.configuration = configuration;
-		this.datasource = datasource;
-        this.sqlTemplate = configuration.getInsertTableSQL().toLowerCase();
-        this.httpURL = configuration.getHttpUrl();
-        
-        if (StringUtils.equalsIgnoreCase(configuration.getMode(), "jdbc")) { 
-        	this.jdbcMode = true;
-        } else {
-        	this.jdbcMode = false;
-        }
+    /**
+     * @param configuration
+     * @param pipeline the routes and writers, replaced by {@link #swap(WritePipeline)} when the configuration changes
+     * @param wal keeps publishes which could not be written or queued, <b>null</b> if the write-ahead log is disabled
+     * @param metrics counts and times the publishes
+     */
+    public TDenginePublishInterceptor(@NotNull final TDengineConfiguration configuration, @NotNull final WritePipeline pipeline,
+    		@Nullable final WriteAheadLog wal, @NotNull final TDengineMetrics metrics) {
+		this.pipeline = pipeline;
+		this.wal = wal;
+		this.metrics = metrics;
         
-        if (StringUtils.equalsIgnoreCase(configuration.getMqttCoder(), "base64")) { 
-        	this.jsonEnabled = false;
+        if (StringUtils.equalsIgnoreCase(configuration.getIngestMode(), "async")) {
+        	// a batch only completes once it is full or lingered, so allow at least one full batch in flight
+        	this.publishQueue = new PublishQueue(configuration.getIngestQueueSize(),
+        			PublishQueue.OverflowPolicy.of(configuration.getIngestOverflow()), configuration.getIngestBlockTimeoutMillis(),
+        			Math.max(configuration.getIngestMaxInFlight(), configuration.getBatchMaxRows()), this::persist,
+        			wal != null ? this::spill : null);
         } else {
-        	this.jsonEnabled = true;
+        	this.publishQueue = null;
         }
-        
-		if (StringUtils.equalsIgnoreCase(configuration.getMode(), "http")) { 
-			final String Auth = "Basic " + Base64.getEncoder().encodeToString(configuration.getHttpToken().getBytes());
-			headers.put("Authorization", Auth);
-		}
+        this.rejectReason = AckReasonCode.valueOf(configuration.getIngestRejectReason().toUpperCase(Locale.ROOT));
+        this.duplicates = configuration.getDedupWindowMillis() > 0
+        		? new DuplicateFilter(configuration.getDedupWindowMillis(), configuration.getDedupMaxEntries()) : null;
+        this.rateLimiter = configuration.getRateLimitMessagesPerSecond() > 0
+        		? new RateLimiter(configuration.getRateLimitMessagesPerSecond(), configuration.getRateLimitBurst(),
+        				configuration.getRateLimitIdleMillis(), RateLimiter.Action.of(configuration.getRateLimitAction()),
+        				configuration.getRateLimitSample()) : null;
+        this.limitByClient = StringUtils.equalsIgnoreCase(configuration.getRateLimitKey(), "client_id");
+        this.rateLimitReason = AckReasonCode.valueOf(configuration.getRateLimitRejectReason().toUpperCase(Locale.ROOT));
 	}
 
+    /**
+     * Start the background writer in async ingest mode.
+     */
+    public void start() {
+        if (publishQueue != null) {
+            publishQueue.start();
+        }
+    }
+
+    /**
+     * Stop accepting publishes in async ingest mode and write the queued ones.
+     * @param timeoutMillis maximum time to wait for the queue to drain
+     */
+    public void stop(final long timeoutMillis) {
+        if (publishQueue != null) {
+            publishQueue.stop(timeoutMillis);
+        }
+    }
+
+    /**
+     * Write all following publishes through the given pipeline.
+     * Publishes which are being rendered at the time of the swap still go to the previous pipeline.
+     * @param next the pipeline built from the changed configuration
+     * @return the previous pipeline, to be {@link WritePipeline#retire() retired} and closed once no publish uses it anymore.
+     */
+    @NotNull
+    public WritePipeline swap(@NotNull final WritePipeline next) {
+        final WritePipeline previous = pipeline;
+        pipeline = next;
+        return previous;
+    }
+
+    /**
+     * @return the pipeline the publishes are currently written through.
+     */
+    @NotNull
+    public WritePipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return the current pipeline, counted as used until {@link WritePipeline#exit()}.
+     */
+    @NotNull
+    private WritePipeline enter() {
+        while (true) {
+            final WritePipeline current = pipeline;
+            // a pipeline is only retired after it was swapped out, so the next read finds its successor
+            if (current.enter()) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * @return the queue of async ingest mode, <b>null</b> in blocking mode.
+     */
+    @Nullable
+    public PublishQueue getPublishQueue() {
+        return publishQueue;
+    }
+
 	@Override
     public void onInboundPublish(final @NotNull PublishInboundInput publishInboundInput, final @NotNull PublishInboundOutput publishInboundOutput) {
+        final WritePipeline pipeline = enter();
+        try {
+        	intercept(pipeline, publishInboundInput, publishInboundOutput);
+        } finally {
+        	pipeline.exit();
+        }
+    }
+
+    /**
+     * match, render and write a publish, or hand it to the ingest queue.
+     * @param pipeline the pipeline entered for the publish
+     * @param publishInboundInput
+     * @param publishInboundOutput
+     */
+    private void intercept(@NotNull final WritePipeline pipeline, @NotNull final PublishInboundInput publishInboundInput,
+    		@NotNull final PublishInboundOutput publishInboundOutput) {
         final ModifiablePublishPacket publishPacket = publishInboundOutput.getPublishPacket();
         
         final String topic = publishPacket.getTopic();
-        if (!StringUtils.equals(topic, configuration.getMqtttopic())) {
+        final List<Route> routes = pipeline.getRouteTable().match(topic);
+        if (routes.isEmpty()) {
+        	metrics.getSkipped().inc();
         	return;
         }
         final Optional<ByteBuffer> payload = publishPacket.getPayload();
         if (!payload.isPresent()) {
+        	metrics.getSkipped().inc();
             return;
         }
-        String sql;
-        if (jsonEnabled) {
-	        final String payloadAsString = getStringFromByteBuffer(payload.orElse(null));
-	        if (payloadAsString == null || payloadAsString.length() == 0) {
-	            return;
-	        }
-	
-	        sql = getJsonSQL(topic, payloadAsString.replace("'", "\\'"));
-	        if (StringUtils.isBlank(sql)) {
-	            return;
-	        }
+        metrics.getMatched().inc();
+        
+        // throttle a flooding client before its payload is copied or parsed
+        if (rateLimiter != null && !rateLimiter.tryAcquire(limitByClient ? publishInboundInput.getClientInformation().getClientId() : topic)) {
+        	metrics.getThrottled().inc();
+        	if (rateLimiter.getAction() == RateLimiter.Action.REJECT) {
+        		publishInboundOutput.preventPublishDelivery(rateLimitReason, "TDengine rate limit exceeded");
+        	}
+        	return;
+        }
+        
+        final PublishMetadata metadata = getMetadata(routes, publishInboundInput, publishPacket);
+        // release the publish at once, the background writer owns persistence
+        if (publishQueue != null) {
+        	if (!publishQueue.offer(new QueuedPublish(topic, PayloadBuffers.toByteArray(payload.get()), System.currentTimeMillis(), metadata))
+        			&& publishQueue.getPolicy() == PublishQueue.OverflowPolicy.REJECT) {
+        		publishInboundOutput.preventPublishDelivery(rejectReason, "TDengine ingest queue is full");
+        	}
+        	return;
+        }
+        
+        final long receivedMillis = System.currentTimeMillis();
+        final CompletableFuture<?> written;
+        if (routes.size() == 1) {
+        	written = sample(pipeline, routes.get(0), topic, payload.get(), receivedMillis, metadata);
         } else {
-        	final byte[] buf = getBytesFromByteBuffer(payload.get());
-	        if (buf == null) {
-	            return;
-	        }
-	        
-        	sql = getBase64SQL(topic, buf);
-	        if (StringUtils.isBlank(sql)) {
-	            return;
-	        }
+        	final CompletableFuture<?>[] futures = new CompletableFuture<?>[routes.size()];
+        	for (int i = 0; i < futures.length; i++) {
+        		futures[i] = sample(pipeline, routes.get(i), topic, payload.get(), receivedMillis, metadata);
+        	}
+        	written = CompletableFuture.allOf(futures);
+        }
+        if (written.isDone()) {
+        	return;
         }
         
         final Async<PublishInboundOutput> asyncOutput = publishInboundOutput.async(Duration.ofSeconds(10), TimeoutFallback.FAILURE);
-        final CompletableFuture<?> taskFuture = Services.extensionExecutorService().submit(() -> {
-            try {
-                if (jdbcMode) { 
-                    Connection  connection = datasource.getConnection(); 
-                    Statement statement = null;
-                    try {
-                        statement = connection.createStatement(); 
-                        statement.executeUpdate(sql);
-                    } finally {
-                        if (statement != null) {
-                            try {
-                                statement.close();
-                            } catch (SQLException e) {
-                                log.error("failed to close statement", e);
-                            }
-                        }
-                        if (connection != null) {
-                            try {
-                                connection.close();
-                            } catch (SQLException e) {
-                                log.error("failed to close connection", e);
-                            }
-                        }
-                    }
-                } else {
-                    if (headers != null && headers.size() > 0) {
-                        HttpClientUtil.httpPostRequest(httpURL, headers, sql);
-                    }
-                }
-            } catch (Exception e) {
-                log.error("failed in onInboundPublish " + sql, e);
+        written.whenComplete((ignored, throwable) -> asyncOutput.resume());
+    }
+
+    /**
+     * copy the client id and user properties of a publish, as far as the templates of its routes use them.
+     * @param routes the routes matching the topic of the publish
+     * @param publishInboundInput
+     * @param publishPacket
+     * @return the metadata, {@link PublishMetadata#NONE} if no route uses it.
+     */
+    @NotNull
+    private static PublishMetadata getMetadata(@NotNull final List<Route> routes, @NotNull final PublishInboundInput publishInboundInput,
+    		@NotNull final ModifiablePublishPacket publishPacket) {
+        boolean clientIdUsed = false;
+        boolean userPropertiesUsed = false;
+        for (final Route route : routes) {
+        	clientIdUsed |= route.isClientIdUsed();
+        	userPropertiesUsed |= route.isUserPropertiesUsed();
+        }
+        if (!clientIdUsed && !userPropertiesUsed) {
+        	return PublishMetadata.NONE;
+        }
+        final String clientId = clientIdUsed ? publishInboundInput.getClientInformation().getClientId() : "";
+        if (!userPropertiesUsed || publishPacket.getUserProperties().isEmpty()) {
+        	return new PublishMetadata(clientId, new String[0]);
+        }
+        final List<UserProperty> properties = publishPacket.getUserProperties().asList();
+        final String[] userProperties = new String[2 * properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+        	userProperties[2 * i] = properties.get(i).getName();
+        	userProperties[2 * i + 1] = properties.get(i).getValue();
+        }
+        return new PublishMetadata(clientId, userProperties);
+    }
+    
+    /**
+     * render and write a publish which has already been released.
+     * @param publish
+     * @return a future which completes when the publish is written to all its routes.
+     */
+    @NotNull
+    private CompletableFuture<?> persist(@NotNull final QueuedPublish publish) {
+        final ByteBuffer payload = ByteBuffer.wrap(publish.getPayload());
+        final WritePipeline pipeline = enter();
+        try {
+        	final List<Route> routes = pipeline.getRouteTable().match(publish.getTopic());
+        	if (routes.size() == 1) {
+        		return sample(pipeline, routes.get(0), publish.getTopic(), payload, publish.getReceivedMillis(), publish.getMetadata());
+        	}
+        	final CompletableFuture<?>[] futures = new CompletableFuture<?>[routes.size()];
+        	for (int i = 0; i < futures.length; i++) {
+        		futures[i] = sample(pipeline, routes.get(i), publish.getTopic(), payload, publish.getReceivedMillis(), publish.getMetadata());
+        	}
+        	return CompletableFuture.allOf(futures);
+        } finally {
+        	pipeline.exit();
+        }
+    }
+    
+    /**
+     * write a publish kept in the write-ahead log, to its route or to all routes matching its topic.
+     * @param record
+     * @return a future which completes when the publish is written, exceptionally if it failed.
+     */
+    @NotNull
+    public CompletableFuture<?> replay(@NotNull final WalRecord record) {
+        final ByteBuffer payload = ByteBuffer.wrap(record.getPayload());
+        final WritePipeline pipeline = enter();
+        try {
+        	if (!record.getRoute().isEmpty()) {
+        		final Route route = pipeline.getRouteTable().get(record.getRoute());
+        		if (route == null) {
+        			log.warn("route {} of a publish in the write-ahead log does not exist anymore, topic {}", record.getRoute(), record.getTopic());
+        			return CompletableFuture.completedFuture(null);
+        		}
+        		return write(pipeline, route, record.getTopic(), payload, record.getReceivedMillis(), record.getMetadata());
+        	}
+        	final List<Route> routes = pipeline.getRouteTable().match(record.getTopic());
+        	final CompletableFuture<?>[] futures = new CompletableFuture<?>[routes.size()];
+        	for (int i = 0; i < futures.length; i++) {
+        		futures[i] = write(pipeline, routes.get(i), record.getTopic(), payload, record.getReceivedMillis(), record.getMetadata());
+        	}
+        	return CompletableFuture.allOf(futures);
+        } finally {
+        	pipeline.exit();
+        }
+    }
+    
+    /**
+     * thin out the publishes of a route with downsampling before they are rendered and written.
+     * @param pipeline
+     * @param route
+     * @param topic
+     * @param payload
+     * @param receivedMillis
+     * @param metadata
+     * @return a future which completes when the publish or the publish it made due is written, or at once if none is.
+     */
+    @NotNull
+    private CompletableFuture<?> sample(@NotNull final WritePipeline pipeline, @NotNull final Route route, @NotNull final String topic,
+    		@NotNull final ByteBuffer payload, final long receivedMillis, @NotNull final PublishMetadata metadata) {
+        final Downsampler downsampler = route.getDownsampler();
+        if (downsampler == null) {
+        	return keep(pipeline, route, topic, payload, receivedMillis, metadata);
+        }
+        final String key;
+        final String[] values;
+        try {
+        	values = downsampler.extract(payload);
+        	key = downsampler.keyOf(topic, metadata, values);
+        } catch (IOException e) {
+        	metrics.getFailed().inc();
+        	log.error("failed in sample on topic {}, invalid {} payload {}", topic, route.getConfiguration().getCoder(), describe(route, payload), e);
+        	return CompletableFuture.completedFuture(null);
+        } catch (TemplateException e) {
+        	metrics.getFailed().inc();
+        	log.error("failed in sample for route {} on topic {}: {}, payload {}", route, topic, e.getMessage(), describe(route, payload));
+        	return CompletableFuture.completedFuture(null);
+        }
+        if (downsampler.getMode() != Downsampler.Mode.WINDOW) {
+        	if (downsampler.keep(key, downsampler.valueOf(values), receivedMillis)) {
+        		return keep(pipeline, route, topic, payload, receivedMillis, metadata);
+        	}
+        	metrics.getDownsampled().inc();
+        	return CompletableFuture.completedFuture(null);
+        }
+        final Downsampler.Sample previous = downsampler.hold(key,
+        		new Downsampler.Sample(topic, PayloadBuffers.toByteArray(payload), receivedMillis, metadata));
+        if (previous == null) {
+        	return CompletableFuture.completedFuture(null);
+        }
+        if (previous.getWindowEndMillis() > receivedMillis) {
+        	metrics.getDownsampled().inc();
+        	return CompletableFuture.completedFuture(null);
+        }
+        return keep(pipeline, route, previous.getTopic(), ByteBuffer.wrap(previous.getPayload()), previous.getReceivedMillis(), previous.getMetadata());
+    }
+
+    /**
+     * write the publishes held by window downsampling whose window ended.
+     * Called periodically, so that the last publish of a series which fell silent is written as well.
+     */
+    public void flushSamples() {
+        final WritePipeline pipeline = enter();
+        try {
+        	flushSamples(pipeline, System.currentTimeMillis());
+        } finally {
+        	pipeline.exit();
+        }
+    }
+
+    /**
+     * write all publishes held by window downsampling of a pipeline, once it was retired and no publish uses it anymore.
+     * @param pipeline
+     */
+    public void drainSamples(@NotNull final WritePipeline pipeline) {
+        flushSamples(pipeline, Long.MAX_VALUE);
+    }
+
+    private void flushSamples(@NotNull final WritePipeline pipeline, final long nowMillis) {
+        for (final Route route : pipeline.getRouteTable().getRoutes()) {
+        	final Downsampler downsampler = route.getDownsampler();
+        	if (downsampler == null || downsampler.getMode() != Downsampler.Mode.WINDOW) {
+        		continue;
+        	}
+        	for (final Downsampler.Sample sample : downsampler.drain(nowMillis)) {
+        		keep(pipeline, route, sample.getTopic(), ByteBuffer.wrap(sample.getPayload()), sample.getReceivedMillis(), sample.getMetadata());
+        	}
+        }
+    }
+    
+    /**
+     * write a publish to a route and keep it in the write-ahead log if TDengine is unavailable.
+     * @param pipeline
+     * @param route
+     * @param topic
+     * @param payload
+     * @param receivedMillis
+     * @param metadata
+     * @return a future which completes when the row is written or kept in the write-ahead log.
+     */
+    @NotNull
+    private CompletableFuture<?> keep(@NotNull final WritePipeline pipeline, @NotNull final Route route, @NotNull final String topic,
+    		@NotNull final ByteBuffer payload, final long receivedMillis, @NotNull final PublishMetadata metadata) {
+        final CompletableFuture<?> written = write(pipeline, route, topic, payload, receivedMillis, metadata);
+        if (wal == null) {
+        	return written;
+        }
+        return written.handle((ignored, throwable) -> {
+        	if (throwable == null || WriteException.isUnavailable(throwable)
+        			&& wal.append(new WalRecord(route.getName(), topic, PayloadBuffers.toByteArray(payload), receivedMillis, metadata))) {
+        		return null;
+        	}
+        	throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+        });
+    }
+    
+    /**
+     * keep a publish which does not fit into the ingest queue in the write-ahead log.
+     * @param publish
+     * @return <b>true</b> if the write-ahead log took the publish.
+     */
+    private boolean spill(@NotNull final QueuedPublish publish) {
+        return wal.append(new WalRecord("", publish.getTopic(), publish.getPayload(), publish.getReceivedMillis(), publish.getMetadata()));
+    }
+    
+    /**
+     * render the insert statement of a route and hand it to the batcher.
+     * @param pipeline
+     * @param route
+     * @param topic
+     * @param payload
+     * @param receivedMillis the timestamp of bound and schemaless rows without a timestamp in the payload
+     * @param metadata the client id and user properties of the publish
+     * @return a future which completes when the row is written, or at once if there is nothing to write.
+     */
+    @NotNull
+    private CompletableFuture<?> write(@NotNull final WritePipeline pipeline, @NotNull final Route route, @NotNull final String topic,
+    		@NotNull final ByteBuffer payload, final long receivedMillis, @NotNull final PublishMetadata metadata) {
+        final Shards<RecordBatcher> recordBatchers = pipeline.getRecordBatchers();
+        if (route.getSchemalessEncoder() != null && recordBatchers != null) {
+            return encode(recordBatchers, route, route.getSchemalessEncoder(), topic, payload, receivedMillis);
+        }
+        final Shards<BindingWriter> bindingWriters = pipeline.getBindingWriters();
+        if (route.getBinding() != null && bindingWriters != null) {
+            return bind(bindingWriters, route, route.getBinding(), topic, payload, receivedMillis, metadata);
+        }
+        if (route.getRowExtractor() != null) {
+            return expand(pipeline, route, route.getRowExtractor(), topic, payload, metadata);
+        }
+        final String sql = getSQL(route, topic, payload, metadata);
+        if (StringUtils.isBlank(sql)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        metrics.getParsed().inc();
+        final InsertStatement statement = duplicates != null ? InsertStatement.parse(sql) : null;
+        final String table = statement != null ? statement.getTable() : InsertStatement.table(sql);
+        final String timestamp = statement != null ? statement.getTimestamp() : null;
+        if (isDuplicate(table, timestamp)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return pipeline.getBatchers().get(table).add(sql).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                forget(table, timestamp);
+                metrics.getFailed().inc();
+                log.error("failed in onInboundPublish " + sql, throwable);
             }
         });
+    }
+    
+    /**
+     * render every element of the rows array of a json payload with the template of the route,
+     * and hand the rows of each target table to the batcher as one multi-row insert.
+     * @param pipeline
+     * @param route
+     * @param extractor
+     * @param topic
+     * @param payload the json payload
+     * @param metadata
+     * @return a future which completes when all rows are written, or at once if the payload has no rows.
+     */
+    @NotNull
+    private CompletableFuture<?> expand(@NotNull final WritePipeline pipeline, @NotNull final Route route,
+    		@NotNull final JsonFieldExtractor extractor, @NotNull final String topic, @NotNull final ByteBuffer payload,
+    		@NotNull final PublishMetadata metadata) {
+        if (!payload.hasRemaining()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final String[] values = new String[route.getPayloadKeys().length];
+        final List<String[]> rows;
+        final long parseNanos = System.nanoTime();
+        try {
+        	rows = extractor.extractRows(payload, values);
+        } catch (IOException e) {
+        	metrics.getFailed().inc();
+        	log.error("failed in expand on topic {}, invalid json payload {}", topic, PayloadBuffers.toUtf8String(payload), e);
+        	return CompletableFuture.completedFuture(null);
+        }
+        final long renderNanos = System.nanoTime();
+        metrics.getParseTime().update(renderNanos - parseNanos, TimeUnit.NANOSECONDS);
+        if (rows.isEmpty()) {
+        	metrics.getFailed().inc();
+        	log.warn("no rows for route {} on topic {}, payload {}", route, topic, PayloadBuffers.toUtf8String(payload));
+        	return CompletableFuture.completedFuture(null);
+        }
+        // the tuples of each target clause, e.g. db.t1 USING db.st TAGS (1), in order of their first row
+        final Map<String, StringBuilder> tuples = new LinkedHashMap<>();
+        final List<String> statements = new ArrayList<>();
+        for (final String[] row : rows) {
+        	final String sql;
+        	try {
+        		sql = route.getTemplate().render((field, sb) -> {
+        			if (field == route.getTopicField()) {
+        				SqlTemplate.appendEscaped(sb, topic);
+        			} else if (field == route.getPayloadField()) {
+        				PayloadBuffers.appendUtf8Escaped(sb, payload);
+        			} else if (field == route.getStableField() && route.getSuperTable() != null) {
+        				sb.append(route.getSuperTable());
+        			} else if (route.getMetadataFields().contains(field)) {
+        				return appendMetadata(sb, route, field, topic, metadata);
+        			} else if (values[field] != null) {
+        				SqlTemplate.appendEscaped(sb, values[field]);
+        			} else if (row[field] != null) {
+        				SqlTemplate.appendEscaped(sb, row[field]);
+        			} else {
+        				return false;
+        			}
+        			return true;
+        		});
+        	} catch (TemplateException e) {
+        		metrics.getFailed().inc();
+        		log.error("failed in expand for route {} on topic {}: {}", route, topic, e.getMessage());
+        		continue;
+        	}
+        	metrics.getParsed().inc();
+        	final InsertStatement statement = InsertStatement.parse(sql);
+        	// rows timed with now are kept apart, in one statement they would get the same timestamp
+        	if (statement != null && !statement.isTimestampNow()) {
+        		tuples.computeIfAbsent(statement.getTarget(), target -> new StringBuilder()).append(statement.getValues());
+        	} else {
+        		statements.add(sql);
+        	}
+        }
+        TDengineMetrics.since(metrics.getRenderTime(), renderNanos);
+        for (final Map.Entry<String, StringBuilder> target : tuples.entrySet()) {
+        	statements.add("insert into " + target.getKey() + " values " + target.getValue());
+        }
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[statements.size()];
+        for (int i = 0; i < futures.length; i++) {
+        	final String sql = statements.get(i);
+        	futures[i] = pipeline.getBatchers().get(InsertStatement.table(sql)).add(sql).whenComplete((ignored, throwable) -> {
+        		if (throwable != null) {
+        			metrics.getFailed().inc();
+        			log.error("failed in onInboundPublish " + sql, throwable);
+        		}
+        	});
+        }
+        return CompletableFuture.allOf(futures);
+    }
 
-        taskFuture.whenComplete((ignored, throwable) -> {
+    /**
+     * convert the payload to schemaless records and hand them to the record batcher.
+     * @param recordBatchers
+     * @param route
+     * @param encoder
+     * @param topic
+     * @param payload the json payload
+     * @param receivedMillis
+     * @return a future which completes when the records are written, or at once if the payload has no fields.
+     */
+    @NotNull
+    private CompletableFuture<?> encode(@NotNull final Shards<RecordBatcher> recordBatchers, @NotNull final Route route,
+    		@NotNull final SchemalessEncoder encoder, @NotNull final String topic, @NotNull final ByteBuffer payload, final long receivedMillis) {
+        if (!payload.hasRemaining()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final StringBuilder records = new StringBuilder(payload.remaining() + 64);
+        final StringBuilder series = new StringBuilder();
+        final long parseNanos = System.nanoTime();
+        try {
+        	final int count = encoder.encode(payload, receivedMillis, records, series);
+        	TDengineMetrics.since(metrics.getParseTime(), parseNanos);
+        	if (count == 0) {
+        		metrics.getFailed().inc();
+        		log.warn("no fields for route {} on topic {}, payload {}", route, topic, PayloadBuffers.toUtf8String(payload));
+        		return CompletableFuture.completedFuture(null);
+        	}
+        } catch (IOException e) {
+        	metrics.getFailed().inc();
+        	log.error("failed in encode on topic {}, invalid json payload {}", topic, PayloadBuffers.toUtf8String(payload), e);
+        	return CompletableFuture.completedFuture(null);
+        }
+        metrics.getParsed().inc();
+        final String lines = records.toString();
+        return recordBatchers.get(series.toString()).add(lines).whenComplete((ignored, throwable) -> {
             if (throwable != null) {
-                log.error("failed in onInboundPublish " + sql, throwable);
-            } 
-            asyncOutput.resume();
-        });		
+                metrics.getFailed().inc();
+                log.error("failed in onInboundPublish " + lines, throwable);
+            }
+        });
+    }
+    
+    /**
+     * convert the payload to the bound tags and columns of a route and hand them to the binding writer.
+     * @param bindingWriters
+     * @param route
+     * @param binding
+     * @param topic
+     * @param payload the payload, decoded by the coder of the route
+     * @param receivedMillis
+     * @param metadata
+     * @return a future which completes when the row is written, or at once if the payload can not be bound.
+     */
+    @NotNull
+    private CompletableFuture<?> bind(@NotNull final Shards<BindingWriter> bindingWriters, @NotNull final Route route,
+    		@NotNull final RouteBinding binding, @NotNull final String topic, @NotNull final ByteBuffer payload, final long receivedMillis,
+    		@NotNull final PublishMetadata metadata) {
+        if (!payload.hasRemaining()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final String table;
+        final Object[] tags;
+        final Object[] columns;
+        try {
+        	final long parseNanos = System.nanoTime();
+        	final String[] values = binding.extract(payload);
+        	final long renderNanos = System.nanoTime();
+        	metrics.getParseTime().update(renderNanos - parseNanos, TimeUnit.NANOSECONDS);
+        	table = binding.renderTable(topic, metadata, values);
+        	tags = binding.tags(values);
+        	columns = binding.columns(values, receivedMillis);
+        	TDengineMetrics.since(metrics.getRenderTime(), renderNanos);
+        } catch (IOException e) {
+        	metrics.getFailed().inc();
+        	log.error("failed in bind on topic {}, invalid {} payload {}", topic, route.getConfiguration().getCoder(), describe(route, payload), e);
+        	return CompletableFuture.completedFuture(null);
+        } catch (TemplateException | IllegalArgumentException e) {
+        	metrics.getFailed().inc();
+        	log.error("failed in bind for route {} on topic {}: {}, payload {}", route, topic, e.getMessage(), describe(route, payload));
+        	return CompletableFuture.completedFuture(null);
+        }
+        metrics.getParsed().inc();
+        final String timestamp = duplicates != null && binding.hasPayloadTimestamp() ? String.valueOf(columns[0]) : null;
+        if (isDuplicate(table, timestamp)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return bindingWriters.get(table).add(binding.getColumnBinding(), table, tags, columns).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                forget(table, timestamp);
+                metrics.getFailed().inc();
+                log.error("failed in onInboundPublish binding table " + table + " of route " + route, throwable);
+            }
+        });
+    }
+    
+    /**
+     * check a row against the duplicate window, counting it if it is dropped.
+     * @param table
+     * @param timestamp the timestamp of the row, <b>null</b> if the row can not be checked
+     * @return <b>true</b> if a row of the table with the same timestamp was handed to the writers within the window.
+     */
+    private boolean isDuplicate(@NotNull final String table, @Nullable final String timestamp) {
+        if (timestamp == null || duplicates.add(table, timestamp)) {
+        	return false;
+        }
+        metrics.getDuplicates().inc();
+        if (log.isDebugEnabled()) {
+        	log.debug("dropping duplicate row of {} at {}", table, timestamp);
+        }
+        return true;
+    }
+
+    /**
+     * forget a row whose write failed, so that its redelivery is written.
+     * @param table
+     * @param timestamp
+     */
+    private void forget(@NotNull final String table, @Nullable final String timestamp) {
+        if (timestamp != null) {
+        	duplicates.remove(table, timestamp);
+        }
+    }
+
+    /**
+     * render the insert statement for the payload with the coder of the route.
+     * @param route
+     * @param topic
+     * @param payload
+     * @param metadata
+     * @return the sql string, or null if the payload is empty or can not be parsed.
+     */
+    @Nullable
+    private String getSQL(@NotNull final Route route, @NotNull final String topic, @NotNull final ByteBuffer payload,
+    		@NotNull final PublishMetadata metadata) {
+        if (!payload.hasRemaining()) {
+            return null;
+        }
+        if (route.getDecoder() != null) {
+	        return getDecodedSQL(route, topic, payload, metadata);
+        } else {
+        	return getBase64SQL(route, topic, payload, metadata);
+        }
     }
     
 	/**
 	 * replace the placeholder with the actual field.
+	 * @param route
 	 * @param topic
-	 * @param buf
+	 * @param payload
+	 * @param metadata
 	 * @return the sql string
 	 */
-    private String getBase64SQL(String topic, byte[] buf) {
-		String payload = Base64.getEncoder().encodeToString(buf);
-    	String sql = StringUtils.replace(sqlTemplate, "${topic}", topic);
-		sql = StringUtils.replace(sql, "${payload}", payload);
-		return sql;
+    private String getBase64SQL(Route route, String topic, ByteBuffer payload, PublishMetadata metadata) {
+		final long renderNanos = System.nanoTime();
+		try {
+			final String rendered = route.getTemplate().render((field, sql) -> {
+				if (field == route.getTopicField()) {
+					SqlTemplate.appendEscaped(sql, topic);
+				} else if (field == route.getPayloadField()) {
+					PayloadBuffers.appendBase64(sql, payload);
+				} else if (field == route.getStableField() && route.getSuperTable() != null) {
+					sql.append(route.getSuperTable());
+				} else if (route.getMetadataFields().contains(field)) {
+					return appendMetadata(sql, route, field, topic, metadata);
+				} else {
+					return false;
+				}
+				return true;
+			});
+			TDengineMetrics.since(metrics.getRenderTime(), renderNanos);
+			return rendered;
+		} catch (TemplateException e) {
+			metrics.getFailed().inc();
+			log.error("failed in getBase64SQL for route {} on topic {}: {}", route, topic, e.getMessage());
+			return null;
+		}
     }
     
 	/**
 	 * replace the placeholder with the actual field.
+	 * @param route
 	 * @param topic
-	 * @param payload
+	 * @param payload the payload, decoded by the coder of the route
+	 * @param metadata
 	 * @return the sql string
 	 */
-    private String getJsonSQL(String topic, String payload) {
-    	String sql = sqlTemplate;
-
-        Map<String, String> map = getKVMap(payload);
-        if (map ==null || map.size() ==0) {
-        	return null;
+    private String getDecodedSQL(Route route, String topic, ByteBuffer payload, PublishMetadata metadata) {
+        final String[] values = new String[route.getPayloadKeys().length];
+        // templates reading only the topic and metadata are rendered without decoding the payload
+        if (route.isPayloadKeysUsed()) {
+	        final long parseNanos = System.nanoTime();
+	        try {
+	        	route.getDecoder().extract(payload, values);
+	        } catch (IOException e) {
+	        	metrics.getFailed().inc();
+	        	log.error("failed in getDecodedSQL on topic {}, invalid {} payload {}", topic, route.getConfiguration().getCoder(), describe(route, payload), e);
+	        	return null;
+	        }
+	        TDengineMetrics.since(metrics.getParseTime(), parseNanos);
         }
         
-        StringBuilder sb = new StringBuilder();
-        Iterator<String> iter = map.keySet().iterator();
-        while (iter.hasNext()) {
-            String key = iter.next();
-            sb.append("${payload.").append(key).append("}");
-            sql = StringUtils.replace(sql, sb.toString(), map.get(key));
-            sb.setLength(0);
+        final long renderNanos = System.nanoTime();
+        final String sql;
+        try {
+        	sql = route.getTemplate().render((field, sb) -> {
+        		if (field == route.getTopicField()) {
+        			SqlTemplate.appendEscaped(sb, topic);
+        		} else if (field == route.getPayloadField() && route.isJsonEnabled()) {
+        			PayloadBuffers.appendUtf8Escaped(sb, payload);
+        		} else if (field == route.getPayloadField()) {
+        			PayloadBuffers.appendBase64(sb, payload);
+        		} else if (field == route.getStableField() && route.getSuperTable() != null) {
+        			sb.append(route.getSuperTable());
+        		} else if (route.getMetadataFields().contains(field)) {
+        			return appendMetadata(sb, route, field, topic, metadata);
+        		} else if (values[field] != null) {
+        			SqlTemplate.appendEscaped(sb, values[field]);
+        		} else {
+        			return false;
+        		}
+        		return true;
+        	});
+        } catch (TemplateException e) {
+        	metrics.getFailed().inc();
+        	log.error("failed in getDecodedSQL for route {} on topic {}: {}, payload {}", route, topic, e.getMessage(), describe(route, payload));
+        	return null;
         }
         
+        TDengineMetrics.since(metrics.getRenderTime(), renderNanos);
         if (log.isDebugEnabled()) {
         	log.debug("sql={}", sql);
         }
@@ -215,41 +822,36 @@ public class TDenginePublishInterceptor implements PublishInboundInterceptor {
 	}
 
     /**
-     * convert json payload to a hash map.
-     * @param json
-     * @return the has map contains the fields.
+     * append a topic level, the client id or a user property of the publish.
+     * @param sb
+     * @param route
+     * @param field a field of the route template read from the publish metadata
+     * @param topic
+     * @param metadata
+     * @return <b>false</b> if the publish has no value for the field.
      */
-	private Map<String, String> getKVMap(String json) {
-    	Map<String, String> map = new HashMap<String, String>();
-		ObjectMapper mapper = new ObjectMapper();
-		
-		try{
-			map = mapper.readValue(json, new TypeReference<HashMap<String,String>>(){});
-		}catch(Exception e){
-            log.error("failed in getKVMap " + json, e);
-		}
-		return map;
-	}
-
-	@Nullable
-    private static String getStringFromByteBuffer(final @Nullable ByteBuffer buffer) {
-        if (buffer == null) {
-            return null;
-        }
-        final byte[] bytes = new byte[buffer.remaining()];
-        for (int i = 0; i < buffer.remaining(); i++) {
-            bytes[i] = buffer.get(i);
+    private static boolean appendMetadata(@NotNull final StringBuilder sb, @NotNull final Route route, final int field,
+    		@NotNull final String topic, @NotNull final PublishMetadata metadata) {
+        final CharSequence value = route.getMetadataFields().valueOf(field, topic, metadata);
+        if (value == null) {
+        	return false;
         }
-        return new String(bytes, Charset.defaultCharset()).trim();
+        SqlTemplate.appendEscaped(sb, value);
+        return true;
     }
-	
-	@Nullable
-    private static byte[] getBytesFromByteBuffer(final @Nullable ByteBuffer buffer) {
-        if (buffer == null) {
-            return null;
+
+    /**
+     * @param route
+     * @param payload
+     * @return the payload for a log message, as text if it is json, else as base64.
+     */
+    @NotNull
+    private static String describe(@NotNull final Route route, @NotNull final ByteBuffer payload) {
+        if (route.isJsonEnabled()) {
+        	return PayloadBuffers.toUtf8String(payload);
         }
-        final byte[] bytes = new byte[buffer.limit()];
-        buffer.get(bytes);
-        return bytes;
+        final StringBuilder sb = new StringBuilder();
+        PayloadBuffers.appendBase64(sb, payload);
+        return sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.endpoint.BalancedDataSource;
+import com.hivemq.extensions.tdengine.endpoint.HealthChecker;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import com.hivemq.extensions.tdengine.routing.RouteTable;
+import com.hivemq.extensions.tdengine.schemaless.RecordBatcher;
+import com.hivemq.extensions.tdengine.writer.BindingWriter;
+import com.hivemq.extensions.tdengine.writer.InsertBatcher;
+import com.hivemq.extensions.tdengine.writer.Shards;
+import com.hivemq.extensions.tdengine.writer.WriterPool;
+
+/**
+ * The routes, batchers and writers built from one version of taosdata.properties.
+ * The interceptor writes through its current pipeline; a reload builds a new pipeline, swaps it in
+ * and closes the previous one once no publish is written through it anymore and its pending rows are written.
+ * Every use of a pipeline is counted between {@link #enter()} and {@link #exit()}, the interceptor holds one more
+ * count until the pipeline is {@link #retire() retired}.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class WritePipeline {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(WritePipeline.class);
+
+    private final RouteTable routeTable;
+    private final Shards<InsertBatcher> batchers;
+    private final Shards<BindingWriter> bindingWriters;
+    private final Shards<RecordBatcher> recordBatchers;
+    private final WriterPool writerPool;
+    private final BalancedDataSource datasource;
+    private final List<HealthChecker<?>> healthCheckers;
+    private final Map<String, Gauge<?>> gauges;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicInteger users = new AtomicInteger(1);
+    private final CompletableFuture<Void> idle = new CompletableFuture<>();
+
+    /**
+     * @param routeTable
+     * @param batchers write the rendered statements, one per writer thread
+     * @param bindingWriters write the routes with bound columns, <b>null</b> if parameter binding is not available
+     * @param recordBatchers write the schemaless records, <b>null</b> if not in schemaless mode
+     * @param writerPool runs the batchers and writers, <b>null</b> if they run on the extension executor
+     * @param datasource the connection pools in JDBC mode, <b>null</b> in RESTful and schemaless mode
+     */
+    public WritePipeline(@NotNull final RouteTable routeTable, @NotNull final Shards<InsertBatcher> batchers,
+    		@Nullable final Shards<BindingWriter> bindingWriters, @Nullable final Shards<RecordBatcher> recordBatchers,
+    		@Nullable final WriterPool writerPool, @Nullable final BalancedDataSource datasource) {
+        this(routeTable, batchers, bindingWriters, recordBatchers, writerPool, datasource, Collections.emptyList(), Collections.emptyMap());
+    }
+
+    /**
+     * @param healthCheckers the running health checks of the endpoints, stopped when the pipeline is closed
+     * @param gauges the gauges of the connection pool and writers of this pipeline, registered when it is in use
+     */
+    public WritePipeline(@NotNull final RouteTable routeTable, @NotNull final Shards<InsertBatcher> batchers,
+    		@Nullable final Shards<BindingWriter> bindingWriters, @Nullable final Shards<RecordBatcher> recordBatchers,
+    		@Nullable final WriterPool writerPool, @Nullable final BalancedDataSource datasource,
+    		@NotNull final List<HealthChecker<?>> healthCheckers, @NotNull final Map<String, Gauge<?>> gauges) {
+        this.routeTable = routeTable;
+        this.batchers = batchers;
+        this.bindingWriters = bindingWriters;
+        this.recordBatchers = recordBatchers;
+        this.writerPool = writerPool;
+        this.datasource = datasource;
+        this.healthCheckers = healthCheckers;
+        this.gauges = gauges;
+    }
+
+    @NotNull
+    public RouteTable getRouteTable() {
+        return routeTable;
+    }
+
+    @NotNull
+    public Shards<InsertBatcher> getBatchers() {
+        return batchers;
+    }
+
+    @Nullable
+    public Shards<BindingWriter> getBindingWriters() {
+        return bindingWriters;
+    }
+
+    @Nullable
+    public Shards<RecordBatcher> getRecordBatchers() {
+        return recordBatchers;
+    }
+
+    /**
+     * Count a publish, sample flush or replay writing through this pipeline until {@link #exit()}.
+     * @return <b>false</b> if the pipeline was retired and no publish uses it anymore, so it must not be used.
+     */
+    public boolean enter() {
+        while (true) {
+            final int current = users.get();
+            if (current == 0) {
+                return false;
+            }
+            if (users.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * End a use counted by {@link #enter()}.
+     */
+    public void exit() {
+        if (users.decrementAndGet() == 0) {
+            idle.complete(null);
+        }
+    }
+
+    /**
+     * Drop the count of the interceptor, after another pipeline was swapped in.
+     * @return a future which completes once no publish writes through this pipeline anymore, so it can be closed.
+     */
+    @NotNull
+    public CompletableFuture<Void> retire() {
+        exit();
+        return idle;
+    }
+
+    /**
+     * Register the gauges of this pipeline, replacing those of the previous one.
+     * @param metrics
+     * @param previous the replaced pipeline, whose other gauges are removed, <b>null</b> at extension start
+     */
+    public void registerGauges(@NotNull final TDengineMetrics metrics, @Nullable final WritePipeline previous) {
+        if (previous != null) {
+            for (final String name : previous.gauges.keySet()) {
+                if (!gauges.containsKey(name)) {
+                    metrics.removeGauge(name);
+                }
+            }
+        }
+        for (final Map.Entry<String, Gauge<?>> gauge : gauges.entrySet()) {
+            metrics.gauge(gauge.getKey(), gauge.getValue());
+        }
+    }
+
+    /**
+     * Write the pending rows, stop the writer threads and health checks and close the connection pools.
+     * Only the first call closes the pipeline.
+     * @param timeoutMillis maximum time to wait for each of the flushes and for the writer threads
+     */
+    public void close(final long timeoutMillis) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (final HealthChecker<?> healthChecker : healthCheckers) {
+            healthChecker.stop();
+        }
+        await(batchers.all().stream().map(InsertBatcher::flush), timeoutMillis, "failed to flush pending rows");
+        if (recordBatchers != null) {
+            await(recordBatchers.all().stream().map(RecordBatcher::flush), timeoutMillis, "failed to flush pending schemaless records");
+        }
+        if (bindingWriters != null) {
+            await(bindingWriters.all().stream().map(BindingWriter::flush), timeoutMillis, "failed to flush pending bound rows");
+        }
+        if (writerPool != null) {
+            writerPool.shutdown(timeoutMillis);
+        }
+        if (datasource != null) {
+            datasource.close();
+        }
+    }
+
+    private static void await(@NotNull final Stream<CompletableFuture<?>> flushes, final long timeoutMillis, @NotNull final String failure) {
+        try {
+            CompletableFuture.allOf(flushes.toArray(CompletableFuture[]::new)).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error(failure, e);
+        }
+    }
+}
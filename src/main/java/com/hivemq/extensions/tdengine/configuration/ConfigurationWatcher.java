@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.configuration;
+
+import java.io.File;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Watches the properties file in the extension home folder and reports a change once the file
+ * stayed unchanged for one interval, so that a file which is still being written is not read.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class ConfigurationWatcher {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(ConfigurationWatcher.class);
+
+    private final File file;
+    private final ScheduledExecutorService scheduler;
+    private final long intervalMillis;
+    private final Runnable onChange;
+    private volatile boolean running;
+    private String applied;
+    private String pending;
+    private ScheduledFuture<?> task;
+
+    /**
+     * @param file the properties file
+     * @param scheduler checks the file
+     * @param intervalMillis how often to check the file
+     * @param onChange reads and applies the changed file
+     */
+    public ConfigurationWatcher(@NotNull final File file, @NotNull final ScheduledExecutorService scheduler, final long intervalMillis,
+                                @NotNull final Runnable onChange) {
+        this.file = file;
+        this.scheduler = scheduler;
+        this.intervalMillis = intervalMillis;
+        this.onChange = onChange;
+    }
+
+    public synchronized void start() {
+        applied = stampOf(file);
+        running = true;
+        task = scheduler.scheduleWithFixedDelay(this::check, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void check() {
+        if (!running) {
+            return;
+        }
+        final String stamp = stampOf(file);
+        if (stamp == null || stamp.equals(applied)) {
+            pending = null;
+            return;
+        }
+        if (!stamp.equals(pending)) {
+            // changed since the last check, wait until the file is no longer written
+            pending = stamp;
+            return;
+        }
+        applied = stamp;
+        pending = null;
+        log.info("{} changed, reloading the configuration", file.getName());
+        try {
+            onChange.run();
+        } catch (RuntimeException e) {
+            log.error("failed to reload {}", file.getName(), e);
+        }
+    }
+
+    /**
+     * @return the modification time and size of the file, <b>null</b> if it does not exist.
+     */
+    @Nullable
+    private static String stampOf(@NotNull final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        return file.lastModified() + ":" + file.length();
+    }
+}
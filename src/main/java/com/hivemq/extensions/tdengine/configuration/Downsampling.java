@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.configuration;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * How the publishes of a route are thinned out before they are rendered: the mode, the key of the series
+ * a publish belongs to, and the settings of the mode.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class Downsampling {
+
+    private final String mode;
+    private final String key;
+    private final String field;
+    private final int every;
+    private final double deadband;
+    private final long windowMillis;
+    private final int maxKeys;
+    private final long idleMillis;
+
+    /**
+     * @param mode every_nth, deadband or window
+     * @param key the template of the series key, e.g. <code>${payload.devid}</code>
+     * @param field the payload key of the value compared in deadband mode
+     * @param every in every_nth mode, write one of every publishes of a series
+     * @param deadband in deadband mode, write a publish if its value differs from the last written one by more than this
+     * @param windowMillis in window mode, write the last publish of a series in every window of this length
+     * @param maxKeys the maximum number of series tracked, publishes of further series are written
+     * @param idleMillis how long the state of a series without publishes is kept
+     */
+    public Downsampling(@NotNull final String mode, @NotNull final String key, @Nullable final String field, final int every,
+                        final double deadband, final long windowMillis, final int maxKeys, final long idleMillis) {
+        this.mode = mode;
+        this.key = key;
+        this.field = field;
+        this.every = every;
+        this.deadband = deadband;
+        this.windowMillis = windowMillis;
+        this.maxKeys = maxKeys;
+        this.idleMillis = idleMillis;
+    }
+
+    @NotNull
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the template of the series key, which may use <code>${topic}</code>, the placeholders of the PUBLISH
+     * and <code>${payload.xxx}</code>.
+     */
+    @NotNull
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the payload key of the value compared in deadband mode, <b>null</b> in the other modes.
+     */
+    @Nullable
+    public String getField() {
+        return field;
+    }
+
+    public int getEvery() {
+        return every;
+    }
+
+    public double getDeadband() {
+        return deadband;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+}
@@ -65,6 +65,14 @@ public abstract class PropertiesReader {
         return true;
     }
 
+    /**
+     * @return the folder the properties file is read from.
+     */
+    @NotNull
+    File getConfigFilePath() {
+        return configFilePath;
+    }
+
     /**
      * Fetch a property with given key from {@link Properties}.
      *
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.tdengine.configuration;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * The settings of one route, mapping an MQTT topic filter to its insert template,
+ * target super table and payload coder, or to the tags and columns bound by parameter binding,
+ * or to the records written in schemaless mode.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class RouteConfiguration {
+
+    private final String name;
+    private final String topicFilter;
+    private final String insertTableSQL;
+    private final String coder;
+    private final String superTable;
+    private final String createTableSQL;
+    private final String bindTable;
+    private final String bindTags;
+    private final String bindColumns;
+    private final SchemalessMapping schemaless;
+    private final Map<String, String> coderOptions;
+    private final File home;
+    private final String rows;
+    private final Downsampling downsampling;
+
+    public RouteConfiguration(@NotNull final String name, @NotNull final String topicFilter, @NotNull final String insertTableSQL,
+                              @NotNull final String coder, @Nullable final String superTable, @Nullable final String createTableSQL) {
+        this(name, topicFilter, insertTableSQL, coder, superTable, createTableSQL, null, null, null, null);
+    }
+
+    public RouteConfiguration(@NotNull final String name, @NotNull final String topicFilter, @Nullable final String insertTableSQL,
+                              @NotNull final String coder, @Nullable final String superTable, @Nullable final String createTableSQL,
+                              @Nullable final String bindTable, @Nullable final String bindTags, @Nullable final String bindColumns,
+                              @Nullable final SchemalessMapping schemaless) {
+        this(name, topicFilter, insertTableSQL, coder, superTable, createTableSQL, bindTable, bindTags, bindColumns, schemaless,
+                Collections.emptyMap(), null, null, null);
+    }
+
+    public RouteConfiguration(@NotNull final String name, @NotNull final String topicFilter, @Nullable final String insertTableSQL,
+                              @NotNull final String coder, @Nullable final String superTable, @Nullable final String createTableSQL,
+                              @Nullable final String bindTable, @Nullable final String bindTags, @Nullable final String bindColumns,
+                              @Nullable final SchemalessMapping schemaless, @NotNull final Map<String, String> coderOptions,
+                              @Nullable final File home, @Nullable final String rows, @Nullable final Downsampling downsampling) {
+        this.name = name;
+        this.topicFilter = topicFilter;
+        this.insertTableSQL = insertTableSQL;
+        this.coder = coder;
+        this.superTable = superTable;
+        this.createTableSQL = createTableSQL;
+        this.bindTable = bindTable;
+        this.bindTags = bindTags;
+        this.bindColumns = bindColumns;
+        this.schemaless = schemaless;
+        this.coderOptions = coderOptions;
+        this.home = home;
+        this.rows = rows;
+        this.downsampling = downsampling;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public String getTopicFilter() {
+        return topicFilter;
+    }
+
+    @Nullable
+    public String getInsertTableSQL() {
+        return insertTableSQL;
+    }
+
+    @NotNull
+    public String getCoder() {
+        return coder;
+    }
+
+    /**
+     * @return the <code>msg_coder.*</code> settings of the route without their prefix, e.g. <code>layout</code> of the struct coder.
+     */
+    @NotNull
+    public Map<String, String> getCoderOptions() {
+        return coderOptions;
+    }
+
+    /**
+     * @return the extension folder which relative coder files are resolved against, <b>null</b> for the working directory.
+     */
+    @Nullable
+    public File getHome() {
+        return home;
+    }
+
+    /**
+     * @return the path of the payload array whose elements are rendered as rows of one insert, e.g. <code>readings</code>,
+     * <b>null</b> for one row per payload.
+     */
+    @Nullable
+    public String getRows() {
+        return rows;
+    }
+
+    /**
+     * @return how the publishes of the route are thinned out, <b>null</b> if every publish is written.
+     */
+    @Nullable
+    public Downsampling getDownsampling() {
+        return downsampling;
+    }
+
+    @Nullable
+    public String getSuperTable() {
+        return superTable;
+    }
+
+    @Nullable
+    public String getCreateTableSQL() {
+        return createTableSQL;
+    }
+
+    /**
+     * @return the sub-table name template of parameter binding, e.g. <code>sensor_${payload.devid}</code>.
+     */
+    @Nullable
+    public String getBindTable() {
+        return bindTable;
+    }
+
+    /**
+     * @return the bound tags as <code>key:type</code> list.
+     */
+    @Nullable
+    public String getBindTags() {
+        return bindTags;
+    }
+
+    /**
+     * @return the bound columns as <code>key:type</code> list, <b>null</b> if the route renders SQL text.
+     */
+    @Nullable
+    public String getBindColumns() {
+        return bindColumns;
+    }
+
+    /**
+     * @return the schemaless mapping of the route, <b>null</b> if the extension is not in schemaless mode.
+     */
+    @Nullable
+    public SchemalessMapping getSchemaless() {
+        return schemaless;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * How the JSON payload of a route is mapped to schemaless records: the protocol, the measurement,
+ * the payload keys written as tags and fields, and the payload key holding the timestamp.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class SchemalessMapping {
+
+    private final String protocol;
+    private final String measurement;
+    private final List<String> tags;
+    private final List<String> fields;
+    private final String timestamp;
+
+    /**
+     * @param protocol influxdb, telnet or json
+     * @param measurement the measurement (InfluxDB) or metric prefix (OpenTSDB), i.e. the super table
+     * @param tags comma separated payload keys written as tags
+     * @param fields comma separated payload keys written as fields, all other scalar values if <b>null</b>
+     * @param timestamp the payload key of the epoch millisecond timestamp, the receive time is used if <b>null</b>
+     */
+    public SchemalessMapping(@NotNull final String protocol, @NotNull final String measurement, @Nullable final String tags, @Nullable final String fields,
+                             @Nullable final String timestamp) {
+        this.protocol = protocol;
+        this.measurement = measurement;
+        this.tags = split(tags);
+        this.fields = split(fields);
+        this.timestamp = timestamp != null && !timestamp.trim().isEmpty() ? timestamp.trim() : null;
+    }
+
+    @NotNull
+    private static List<String> split(@Nullable final String keys) {
+        if (keys == null || keys.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> result = new ArrayList<>();
+        for (final String key : keys.split(",")) {
+            if (!key.trim().isEmpty()) {
+                result.add(key.trim());
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @NotNull
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @NotNull
+    public String getMeasurement() {
+        return measurement;
+    }
+
+    @NotNull
+    public List<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * @return the payload keys written as fields, empty to write all scalar values which are no tags.
+     */
+    @NotNull
+    public List<String> getFields() {
+        return fields;
+    }
+
+    @Nullable
+    public String getTimestamp() {
+        return timestamp;
+    }
+}
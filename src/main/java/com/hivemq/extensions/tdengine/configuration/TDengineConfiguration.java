@@ -17,12 +17,21 @@ package com.hivemq.extensions.tdengine.configuration;
 
 import com.alibaba.druid.pool.DruidDataSourceFactory;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoders;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -47,6 +56,7 @@ public class TDengineConfiguration extends PropertiesReader {
     private static final String MQTT_TOPIC_DEFAULT = "application/sensor_data";
     private static final String MQTT_CODER = "msg_coder";
     private static final String MQTT_CODER_DEFAULT = "json";
+    private static final String MQTT_CODER_OPTION_PREFIX = "msg_coder.";
 
     private static final String SQL_CREATE_DATABASE = "sql.create_database";
     private static final String SQL_CREATE_DATABASE_DEFAULT = "create database if not exists hivemqdb;";
@@ -54,12 +64,29 @@ public class TDengineConfiguration extends PropertiesReader {
     private static final String SQL_CREATE_TABLE_DEFAULT = "create table if not exists testdb.sensor_data (ts timestamp, temperature float, voltage int) TAGS (name binary(32), groupid int);";
     private static final String SQL_INSERT_TABLE = "sql.insert_table";
     private static final String SQL_INSERT_TABLE_DEFAULT = "insert into hivemqdb.sensor_data_${payload.groupid} using hivemqdb.sensor_data (now, ${payload.temperature}, ${payload.voltage}) tags('${payload.name}', ${payload.groupid});";
+    private static final String SQL_ROWS = "sql.rows";
 
     private static final String HTTP_URL = "http.url";
     private static final String HTTP_URL_DEFAULT = "127.0.0.1:6020/rest/sql";
     
     private static final String HTTP_TOKEN = "http.token";
     private static final String HTTP_TOKEN_DEFAULT = "root:taosdata";
+    private static final String SCHEMALESS_PROTOCOL = "schemaless.protocol";
+    private static final String SCHEMALESS_PROTOCOL_DEFAULT = "influxdb";
+    private static final String SCHEMALESS_DATABASE = "schemaless.database";
+    private static final String SCHEMALESS_MEASUREMENT = "schemaless.measurement";
+    private static final String SCHEMALESS_TAGS = "schemaless.tags";
+    private static final String SCHEMALESS_FIELDS = "schemaless.fields";
+    private static final String SCHEMALESS_TIMESTAMP = "schemaless.timestamp";
+
+    private static final String HTTP_MAX_PER_ROUTE = "http.max_per_route";
+    private static final int    HTTP_MAX_PER_ROUTE_DEFAULT = 5;
+    private static final String HTTP_CONNECT_TIMEOUT_MS = "http.connect_timeout_ms";
+    private static final int    HTTP_CONNECT_TIMEOUT_MS_DEFAULT = 5000;
+    private static final String HTTP_REQUEST_TIMEOUT_MS = "http.request_timeout_ms";
+    private static final int    HTTP_REQUEST_TIMEOUT_MS_DEFAULT = 10000;
+    private static final String HTTP_GZIP = "http.gzip";
+    private static final String HTTP_GZIP_DEFAULT = "false";
 
     
     private static final String JDBC_DRIVER_CLASS = "jdbc.driverClass";
@@ -78,6 +105,108 @@ public class TDengineConfiguration extends PropertiesReader {
     private static final int    JDBC_POOL_MAX_ACTIVE_DEFAULT = 3;
     private static final String JDBC_TEST_SQL = "jdbc.testSql";
     private static final String JDBC_TEST_SQL_DEFAULT = "select server_status();";
+
+    private static final String ROUTE_PREFIX = "route.";
+    private static final String ROUTE_TOPIC = ".topic";
+    private static final String ROUTE_INSERT_TABLE = ".insert_table";
+    private static final String ROUTE_CODER = ".msg_coder";
+    private static final String ROUTE_ROWS = ".rows";
+    private static final String ROUTE_STABLE = ".stable";
+    private static final String ROUTE_CREATE_TABLE = ".create_table";
+    private static final String ROUTE_BIND_TABLE = ".bind_table";
+    private static final String ROUTE_BIND_TAGS = ".bind_tags";
+    private static final String ROUTE_BIND_COLUMNS = ".bind_columns";
+    private static final String ROUTE_MEASUREMENT = ".measurement";
+    private static final String ROUTE_TAGS = ".tags";
+    private static final String ROUTE_FIELDS = ".fields";
+    private static final String ROUTE_TIMESTAMP = ".timestamp";
+    private static final String DEFAULT_ROUTE_NAME = "default";
+
+    private static final String INGEST_MODE = "ingest.mode";
+    private static final String INGEST_MODE_DEFAULT = "blocking";
+    private static final String INGEST_QUEUE_SIZE = "ingest.queue_size";
+    private static final int    INGEST_QUEUE_SIZE_DEFAULT = 100000;
+    private static final String INGEST_OVERFLOW = "ingest.overflow";
+    private static final String INGEST_OVERFLOW_DEFAULT = "drop_newest";
+    private static final String INGEST_BLOCK_TIMEOUT_MS = "ingest.block_timeout_ms";
+    private static final int    INGEST_BLOCK_TIMEOUT_MS_DEFAULT = 1000;
+    private static final String INGEST_REJECT_REASON = "ingest.reject_reason";
+    private static final String INGEST_REJECT_REASON_DEFAULT = "quota_exceeded";
+    private static final String INGEST_MAX_IN_FLIGHT = "ingest.max_in_flight";
+    private static final int    INGEST_MAX_IN_FLIGHT_DEFAULT = 1024;
+
+    private static final String BATCH_MAX_ROWS = "batch.max_rows";
+    private static final int    BATCH_MAX_ROWS_DEFAULT = 1;
+    private static final String BATCH_MAX_BYTES = "batch.max_bytes";
+    private static final int    BATCH_MAX_BYTES_DEFAULT = 65480;
+    private static final String BATCH_LINGER_MS = "batch.linger_ms";
+    private static final int    BATCH_LINGER_MS_DEFAULT = 50;
+    private static final String BATCH_ADAPTIVE = "batch.adaptive";
+    private static final String BATCH_ADAPTIVE_DEFAULT = "true";
+    private static final String BATCH_TARGET_LATENCY_MS = "batch.target_latency_ms";
+    private static final int    BATCH_TARGET_LATENCY_MS_DEFAULT = 200;
+    // the largest maxSQLLength TDengine accepts
+    private static final int    BATCH_MAX_BYTES_LIMIT = 1048576;
+
+    private static final String DEDUP_WINDOW_MS = "dedup.window_ms";
+    private static final int    DEDUP_WINDOW_MS_DEFAULT = 0;
+    private static final String DEDUP_MAX_ENTRIES = "dedup.max_entries";
+    private static final int    DEDUP_MAX_ENTRIES_DEFAULT = 100000;
+
+    private static final String RATE_LIMIT_MESSAGES_PER_SECOND = "rate_limit.messages_per_second";
+    private static final int    RATE_LIMIT_MESSAGES_PER_SECOND_DEFAULT = 0;
+    private static final String RATE_LIMIT_BURST = "rate_limit.burst";
+    private static final int    RATE_LIMIT_BURST_DEFAULT = 100;
+    private static final String RATE_LIMIT_KEY = "rate_limit.key";
+    private static final String RATE_LIMIT_KEY_DEFAULT = "client_id";
+    private static final String RATE_LIMIT_ACTION = "rate_limit.action";
+    private static final String RATE_LIMIT_ACTION_DEFAULT = "drop";
+    private static final String RATE_LIMIT_SAMPLE = "rate_limit.sample";
+    private static final int    RATE_LIMIT_SAMPLE_DEFAULT = 10;
+    private static final String RATE_LIMIT_REJECT_REASON = "rate_limit.reject_reason";
+    private static final String RATE_LIMIT_REJECT_REASON_DEFAULT = "quota_exceeded";
+    private static final String RATE_LIMIT_IDLE_MS = "rate_limit.idle_ms";
+    private static final int    RATE_LIMIT_IDLE_MS_DEFAULT = 60000;
+
+    private static final String SAMPLE_PREFIX = "sample.";
+    private static final String SAMPLE_MODE = "sample.mode";
+    private static final String SAMPLE_KEY = "sample.key";
+    private static final String SAMPLE_KEY_DEFAULT = "${topic}";
+    private static final String SAMPLE_FIELD = "sample.field";
+    private static final String SAMPLE_EVERY = "sample.every";
+    private static final int    SAMPLE_EVERY_DEFAULT = 10;
+    private static final String SAMPLE_DEADBAND = "sample.deadband";
+    private static final String SAMPLE_WINDOW_MS = "sample.window_ms";
+    private static final int    SAMPLE_WINDOW_MS_DEFAULT = 60000;
+    private static final String SAMPLE_MAX_KEYS = "sample.max_keys";
+    private static final int    SAMPLE_MAX_KEYS_DEFAULT = 100000;
+    private static final String SAMPLE_IDLE_MS = "sample.idle_ms";
+    private static final int    SAMPLE_IDLE_MS_DEFAULT = 600000;
+
+    private static final String WRITER_THREADS = "writer.threads";
+    private static final int    WRITER_THREADS_DEFAULT = 4;
+    private static final String TABLE_CACHE_SIZE = "table_cache.size";
+    private static final int    TABLE_CACHE_SIZE_DEFAULT = 10000;
+
+    private static final String WAL_ENABLED = "wal.enabled";
+    private static final String WAL_ENABLED_DEFAULT = "false";
+    private static final String WAL_SEGMENT_SIZE_MB = "wal.segment_size_mb";
+    private static final int    WAL_SEGMENT_SIZE_MB_DEFAULT = 64;
+    private static final String WAL_MAX_SIZE_MB = "wal.max_size_mb";
+    private static final int    WAL_MAX_SIZE_MB_DEFAULT = 1024;
+    private static final String WAL_REPLAY_BATCH = "wal.replay_batch";
+    private static final int    WAL_REPLAY_BATCH_DEFAULT = 500;
+    private static final String WAL_REPLAY_INTERVAL_MS = "wal.replay_interval_ms";
+    private static final int    WAL_REPLAY_INTERVAL_MS_DEFAULT = 5000;
+
+    private static final String ENDPOINT_SELECTION = "endpoint.selection";
+    private static final String ENDPOINT_SELECTION_DEFAULT = "round_robin";
+    private static final String ENDPOINT_WEIGHTS = "endpoint.weights";
+    private static final String ENDPOINT_HEALTH_INTERVAL_MS = "endpoint.health_interval_ms";
+    private static final int    ENDPOINT_HEALTH_INTERVAL_MS_DEFAULT = 5000;
+
+    private static final String RELOAD_INTERVAL_MS = "reload.interval_ms";
+    private static final int    RELOAD_INTERVAL_MS_DEFAULT = 5000;
     
 
     
@@ -99,28 +228,147 @@ public class TDengineConfiguration extends PropertiesReader {
     public boolean validateConfiguration() {
         int countError = 0;
 
+        // schemaless records need neither tables nor insert templates
+        final boolean schemaless = isSchemaless();
+
         countError += checkMandatoryProperty(MODE);
-        countError += checkMandatoryProperty(MQTT_TOPIC);
         countError += checkMandatoryProperty(SQL_CREATE_DATABASE);
-        countError += checkMandatoryProperty(SQL_CREATE_TABLE);
-        countError += checkMandatoryProperty(SQL_INSERT_TABLE);
+        if (!schemaless) {
+            countError += checkMandatoryProperty(SQL_CREATE_TABLE);
+        }
         countError += checkMandatoryProperty(MQTT_CODER);
+        if (getProperty(MQTT_CODER) != null && !PayloadDecoders.isKnown(getProperty(MQTT_CODER))) {
+            log.error("invalid {} property {}, known coders are base64 and {}!", MQTT_CODER, getProperty(MQTT_CODER),
+                    String.join(", ", PayloadDecoders.getNames()));
+            countError++;
+        }
+
+        final Set<String> routeNames = getRouteNames();
+        if (routeNames.isEmpty()) {
+            // without routes the single topic and template are mandatory
+            countError += checkMandatoryProperty(MQTT_TOPIC);
+            countError += checkMandatoryProperty(schemaless ? SCHEMALESS_MEASUREMENT : SQL_INSERT_TABLE);
+        }
+        countError += checkDownsampling("");
+        for (final String name : routeNames) {
+            countError += checkDownsampling(ROUTE_PREFIX + name + ".");
+            countError += checkMandatoryProperty(ROUTE_PREFIX + name + ROUTE_TOPIC);
+            if (schemaless) {
+                countError += checkMandatoryProperty(ROUTE_PREFIX + name + ROUTE_MEASUREMENT);
+            } else if (getProperty(ROUTE_PREFIX + name + ROUTE_BIND_COLUMNS) == null || !StringUtils.equalsIgnoreCase(getProperty(MODE), "jdbc")) {
+                countError += checkMandatoryProperty(ROUTE_PREFIX + name + ROUTE_INSERT_TABLE);
+            } else {
+                // parameter binding is only available with the JDBC driver
+                countError += checkMandatoryProperty(ROUTE_PREFIX + name + ROUTE_STABLE);
+                countError += checkMandatoryProperty(ROUTE_PREFIX + name + ROUTE_BIND_TABLE);
+                countError += checkMandatoryProperty(ROUTE_PREFIX + name + ROUTE_BIND_TAGS);
+            }
+            final String coder = getProperty(ROUTE_PREFIX + name + ROUTE_CODER);
+            if (coder != null && !PayloadDecoders.isKnown(coder)) {
+                log.error("invalid {} property {}!", ROUTE_PREFIX + name + ROUTE_CODER, coder);
+                countError++;
+            }
+        }
         
         if (countError != 0){
             return false;
         }
 
         final String mode = getProperty(MODE);
-        if (!StringUtils.equalsAnyIgnoreCase(mode, "jdbc", "http")) {
+        if (!StringUtils.equalsAnyIgnoreCase(mode, "jdbc", "http", "schemaless")) {
         	log.error("invalid mode property {}!", mode);
         	return false;
         }
+
+        final String ingestMode = getProperty(INGEST_MODE);
+        if (ingestMode != null && !StringUtils.equalsAnyIgnoreCase(ingestMode, "blocking", "async")) {
+        	log.error("invalid {} property {}!", INGEST_MODE, ingestMode);
+        	return false;
+        }
+
+        final String overflow = getProperty(INGEST_OVERFLOW);
+        if (overflow != null && !StringUtils.equalsAnyIgnoreCase(overflow, "block", "drop_newest", "drop_oldest", "reject")) {
+        	log.error("invalid {} property {}!", INGEST_OVERFLOW, overflow);
+        	return false;
+        }
+
+        final String rejectReason = getProperty(INGEST_REJECT_REASON);
+        if (rejectReason != null && !StringUtils.equalsAnyIgnoreCase(rejectReason, "quota_exceeded", "implementation_specific_error",
+        		"unspecified_error", "not_authorized")) {
+        	log.error("invalid {} property {}!", INGEST_REJECT_REASON, rejectReason);
+        	return false;
+        }
+
+        final String rateLimitKey = getProperty(RATE_LIMIT_KEY);
+        if (rateLimitKey != null && !StringUtils.equalsAnyIgnoreCase(rateLimitKey, "client_id", "topic")) {
+        	log.error("invalid {} property {}!", RATE_LIMIT_KEY, rateLimitKey);
+        	return false;
+        }
+
+        final String rateLimitAction = getProperty(RATE_LIMIT_ACTION);
+        if (rateLimitAction != null && !StringUtils.equalsAnyIgnoreCase(rateLimitAction, "drop", "sample", "reject")) {
+        	log.error("invalid {} property {}!", RATE_LIMIT_ACTION, rateLimitAction);
+        	return false;
+        }
+
+        final String rateLimitReason = getProperty(RATE_LIMIT_REJECT_REASON);
+        if (rateLimitReason != null && !StringUtils.equalsAnyIgnoreCase(rateLimitReason, "quota_exceeded", "implementation_specific_error",
+        		"unspecified_error", "not_authorized")) {
+        	log.error("invalid {} property {}!", RATE_LIMIT_REJECT_REASON, rateLimitReason);
+        	return false;
+        }
+
+        if (getBatchMaxBytes() > BATCH_MAX_BYTES_LIMIT) {
+        	log.error("{} must not be larger than {}!", BATCH_MAX_BYTES, BATCH_MAX_BYTES_LIMIT);
+        	return false;
+        }
+
+        if (!StringUtils.equalsAnyIgnoreCase(getEndpointSelection(), "round_robin", "least_outstanding")) {
+        	log.error("invalid {} property {}!", ENDPOINT_SELECTION, getEndpointSelection());
+        	return false;
+        }
+        final String weights = getProperty(ENDPOINT_WEIGHTS);
+        if (weights != null) {
+        	final int endpoints = StringUtils.equalsIgnoreCase(mode, "jdbc") ? getJdbcUrls().size() : getHttpUrls().size();
+        	final List<String> entries = split(weights);
+        	if (entries.size() != endpoints) {
+        		log.error("{} must list one weight for each of the {} URLs!", ENDPOINT_WEIGHTS, endpoints);
+        		return false;
+        	}
+        	for (final String entry : entries) {
+        		if (!StringUtils.isNumeric(entry) || Integer.parseInt(entry) <= 0) {
+        			log.error("invalid weight {} in {}, weights must be positive numbers!", entry, ENDPOINT_WEIGHTS);
+        			return false;
+        		}
+        	}
+        }
+
+        if (getWriterThreads() > 256) {
+        	log.error("{} must not be larger than 256!", WRITER_THREADS);
+        	return false;
+        }
+
+        if (isWalEnabled() && getWalMaxSizeMB() < getWalSegmentSizeMB()) {
+        	log.error("{} must be at least {}!", WAL_MAX_SIZE_MB, WAL_SEGMENT_SIZE_MB);
+        	return false;
+        }
+        if (isWalEnabled() && getWalSegmentSizeMB() > 1024) {
+        	log.error("{} must not be larger than 1024!", WAL_SEGMENT_SIZE_MB);
+        	return false;
+        }
         
-        if (StringUtils.equalsIgnoreCase(mode, "http")) {
+        if (StringUtils.equalsAnyIgnoreCase(mode, "http", "schemaless")) {
         	
             countError += checkMandatoryProperty(HTTP_TOKEN);
             countError += checkMandatoryProperty(HTTP_URL);
-        
+            if (schemaless) {
+                countError += checkMandatoryProperty(SCHEMALESS_DATABASE);
+                final String protocol = getSchemalessProtocol();
+                if (!StringUtils.equalsAnyIgnoreCase(protocol, "influxdb", "telnet", "json")) {
+                    log.error("invalid {} property {}!", SCHEMALESS_PROTOCOL, protocol);
+                    countError++;
+                }
+            }
         
         } else if (StringUtils.equalsIgnoreCase(mode, "jdbc")) {
         	
@@ -184,10 +432,24 @@ public class TDengineConfiguration extends PropertiesReader {
         return countError == 0;
     }
 
+    @NotNull
+    private static List<String> split(@Nullable final String list) {
+        final List<String> result = new ArrayList<>();
+        if (list != null) {
+            for (final String entry : list.split(",")) {
+                if (!entry.trim().isEmpty()) {
+                    result.add(entry.trim());
+                }
+            }
+        }
+        return result;
+    }
+
     private void setupJDBCProperties() {
         jdbcProperties = new Properties();
         jdbcProperties.put(DruidDataSourceFactory.PROP_DRIVERCLASSNAME, getDriverClass());
-        jdbcProperties.put(DruidDataSourceFactory.PROP_URL, getUrl());
+        // the first URL, the pool of every further endpoint gets its own
+        jdbcProperties.put(DruidDataSourceFactory.PROP_URL, getJdbcUrls().isEmpty() ? getUrl() : getJdbcUrls().get(0));
         jdbcProperties.put(DruidDataSourceFactory.PROP_USERNAME, getUsername());
         jdbcProperties.put(DruidDataSourceFactory.PROP_PASSWORD, getPassword());
 
@@ -226,6 +488,43 @@ public class TDengineConfiguration extends PropertiesReader {
         return 0;
     }
 
+    /**
+     * Check the downsampling settings of the default route or of a route.
+     * @param prefix empty for the default route, else <code>route.&lt;name&gt;.</code>
+     * @return the number of invalid settings.
+     */
+    private int checkDownsampling(@NotNull final String prefix) {
+        final String mode = getProperty(prefix + SAMPLE_MODE);
+        if (mode == null) {
+            return 0;
+        }
+        if (!StringUtils.equalsAnyIgnoreCase(mode.trim(), "every_nth", "deadband", "window")) {
+            log.error("invalid {} property {}!", prefix + SAMPLE_MODE, mode);
+            return 1;
+        }
+        int countError = 0;
+        for (final String key : new String[]{SAMPLE_EVERY, SAMPLE_WINDOW_MS}) {
+            final String value = getProperty(prefix + key);
+            if (value != null && (!StringUtils.isNumeric(value.trim()) || Integer.parseInt(value.trim()) <= 0)) {
+                log.error("invalid {} property {}!", prefix + key, value);
+                countError++;
+            }
+        }
+        if (StringUtils.equalsIgnoreCase(mode.trim(), "deadband")) {
+            countError += checkMandatoryProperty(prefix + SAMPLE_FIELD);
+            final String deadband = getProperty(prefix + SAMPLE_DEADBAND);
+            try {
+                if (deadband != null && !(Double.parseDouble(deadband.trim()) >= 0)) {
+                    throw new NumberFormatException(deadband);
+                }
+            } catch (NumberFormatException e) {
+                log.error("invalid {} property {}!", prefix + SAMPLE_DEADBAND, deadband);
+                countError++;
+            }
+        }
+        return countError;
+    }
+
     /**
      * Fetch property with given <b>key</b>. If the fetched {@link String} is <b>null</b> the <b>defaultValue</b> will be returned.
      *
@@ -242,7 +541,7 @@ public class TDengineConfiguration extends PropertiesReader {
         if (value == null) {
 
             if (!defaultValue.isEmpty()) {
-                log.warn("No '{}' configured for InfluxDb, using default: {}", key, defaultValue);
+                log.debug("No taosdata property '{}' configured, using default: {}", key, defaultValue);
             }
             return defaultValue;
         }
@@ -266,7 +565,7 @@ public class TDengineConfiguration extends PropertiesReader {
         final String value = properties.getProperty(key);
 
         if (value == null) {
-            log.warn("No '{}' configured for InfluxDb, using default: {}", key, defaultValue);
+            log.debug("No taosdata property '{}' configured, using default: {}", key, defaultValue);
             return defaultValue;
         }
 
@@ -322,10 +621,37 @@ public class TDengineConfiguration extends PropertiesReader {
         return validateStringProperty(HTTP_URL, HTTP_URL_DEFAULT);
     }
     
+    /**
+     * @return the URLs of http.url, which lists one or more taosAdapters separated by commas.
+     */
+    @NotNull
+    public List<String> getHttpUrls() {
+        return split(getHttpUrl());
+    }
+
     @NotNull
     public String getHttpToken() {
         return validateStringProperty(HTTP_TOKEN, HTTP_TOKEN_DEFAULT);
     }
+
+    @NotNull
+    public int getHttpMaxPerRoute() {
+        return validateIntProperty(HTTP_MAX_PER_ROUTE, HTTP_MAX_PER_ROUTE_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getHttpConnectTimeoutMillis() {
+        return validateIntProperty(HTTP_CONNECT_TIMEOUT_MS, HTTP_CONNECT_TIMEOUT_MS_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getHttpRequestTimeoutMillis() {
+        return validateIntProperty(HTTP_REQUEST_TIMEOUT_MS, HTTP_REQUEST_TIMEOUT_MS_DEFAULT, false, false);
+    }
+
+    public boolean isHttpGzip() {
+        return Boolean.parseBoolean(validateStringProperty(HTTP_GZIP, HTTP_GZIP_DEFAULT));
+    }
     
     @NotNull
     public String getDriverClass() {
@@ -337,6 +663,14 @@ public class TDengineConfiguration extends PropertiesReader {
         return validateStringProperty(JDBC_URL, JDBC_URL_DEFAULT);
     }
        
+    /**
+     * @return the URLs of jdbc.url, which lists one or more TDengine servers separated by commas.
+     */
+    @NotNull
+    public List<String> getJdbcUrls() {
+        return split(getUrl());
+    }
+
     @NotNull
     public String getUsername() {
         return validateStringProperty(JDBC_USERNAME, JDBC_USERNAME_DEFAULT);
@@ -367,6 +701,293 @@ public class TDengineConfiguration extends PropertiesReader {
         return validateStringProperty(JDBC_TEST_SQL, JDBC_TEST_SQL_DEFAULT);
     }
 
+    /**
+     * Collect the routes of the extension. The topic and template of <b>mqtt_topic</b> and <b>sql.insert_table</b>
+     * form a route named <b>default</b> if <b>sql.insert_table</b> is set.
+     *
+     * @return the routes ordered by name.
+     */
+    @NotNull
+    public List<RouteConfiguration> getRoutes() {
+        final List<RouteConfiguration> routes = new ArrayList<>();
+        final boolean schemaless = isSchemaless();
+        if (schemaless ? getProperty(SCHEMALESS_MEASUREMENT) != null : getProperty(SQL_INSERT_TABLE) != null) {
+            final SchemalessMapping mapping = schemaless ? new SchemalessMapping(getSchemalessProtocol(), getProperty(SCHEMALESS_MEASUREMENT),
+                    getProperty(SCHEMALESS_TAGS), getProperty(SCHEMALESS_FIELDS), getProperty(SCHEMALESS_TIMESTAMP)) : null;
+            routes.add(new RouteConfiguration(DEFAULT_ROUTE_NAME, getMqtttopic(), getProperty(SQL_INSERT_TABLE), getMqttCoder(), null, null,
+                    null, null, null, mapping, getCoderOptions(null), getConfigFilePath(), getProperty(SQL_ROWS), getDownsampling("")));
+        }
+        for (final String name : getRouteNames()) {
+            final String prefix = ROUTE_PREFIX + name;
+            final String coder = getProperty(prefix + ROUTE_CODER);
+            final SchemalessMapping mapping = schemaless ? new SchemalessMapping(getSchemalessProtocol(), getProperty(prefix + ROUTE_MEASUREMENT),
+                    getProperty(prefix + ROUTE_TAGS), getProperty(prefix + ROUTE_FIELDS), getProperty(prefix + ROUTE_TIMESTAMP)) : null;
+            routes.add(new RouteConfiguration(name, getProperty(prefix + ROUTE_TOPIC), getProperty(prefix + ROUTE_INSERT_TABLE),
+                    coder != null ? coder : getMqttCoder(), getProperty(prefix + ROUTE_STABLE), getProperty(prefix + ROUTE_CREATE_TABLE),
+                    getProperty(prefix + ROUTE_BIND_TABLE), getProperty(prefix + ROUTE_BIND_TAGS), getProperty(prefix + ROUTE_BIND_COLUMNS),
+                    mapping, getCoderOptions(prefix), getConfigFilePath(), getProperty(prefix + ROUTE_ROWS), getDownsampling(prefix + ".")));
+        }
+        return routes;
+    }
+
+    /**
+     * @param prefix empty for the default route, else <code>route.&lt;name&gt;.</code>
+     * @return the downsampling of the route, <b>null</b> if it has no <code>sample.mode</code>.
+     */
+    @Nullable
+    private Downsampling getDownsampling(@NotNull final String prefix) {
+        final String mode = getProperty(prefix + SAMPLE_MODE);
+        if (mode == null) {
+            return null;
+        }
+        final String key = getProperty(prefix + SAMPLE_KEY);
+        final String every = getProperty(prefix + SAMPLE_EVERY);
+        final String deadband = getProperty(prefix + SAMPLE_DEADBAND);
+        final String windowMillis = getProperty(prefix + SAMPLE_WINDOW_MS);
+        return new Downsampling(mode.trim().toLowerCase(Locale.ROOT), key != null ? key : SAMPLE_KEY_DEFAULT, getProperty(prefix + SAMPLE_FIELD),
+                every != null ? Integer.parseInt(every.trim()) : SAMPLE_EVERY_DEFAULT,
+                deadband != null ? Double.parseDouble(deadband.trim()) : 0,
+                windowMillis != null ? Integer.parseInt(windowMillis.trim()) : SAMPLE_WINDOW_MS_DEFAULT,
+                getSampleMaxKeys(), getSampleIdleMillis());
+    }
+
+    /**
+     * Collect the coder settings of a route, e.g. <b>msg_coder.layout</b>, overridden by <b>route.&lt;name&gt;.msg_coder.layout</b>.
+     * @param prefix the property prefix of the route, <b>null</b> for the default route
+     * @return the settings without their prefix.
+     */
+    @NotNull
+    private Map<String, String> getCoderOptions(@Nullable final String prefix) {
+        final Map<String, String> options = new HashMap<>();
+        if (properties == null) {
+            return options;
+        }
+        final String routePrefix = prefix != null ? prefix + "." + MQTT_CODER_OPTION_PREFIX : null;
+        for (final String key : properties.stringPropertyNames()) {
+            if (getProperty(key) == null) {
+                continue;
+            }
+            if (routePrefix != null && key.startsWith(routePrefix)) {
+                options.put(key.substring(routePrefix.length()), getProperty(key));
+            } else if (key.startsWith(MQTT_CODER_OPTION_PREFIX)) {
+                options.putIfAbsent(key.substring(MQTT_CODER_OPTION_PREFIX.length()), getProperty(key));
+            }
+        }
+        return options;
+    }
+
+    /**
+     * @return <b>true</b> if <b>mode</b> is schemaless.
+     */
+    public boolean isSchemaless() {
+        return StringUtils.equalsIgnoreCase(getProperty(MODE), "schemaless");
+    }
+
+    @NotNull
+    public String getSchemalessProtocol() {
+        return validateStringProperty(SCHEMALESS_PROTOCOL, SCHEMALESS_PROTOCOL_DEFAULT);
+    }
+
+    @Nullable
+    public String getSchemalessDatabase() {
+        return getProperty(SCHEMALESS_DATABASE);
+    }
+
+    /**
+     * @return the names of all routes configured with <b>route.&lt;name&gt;.*</b> properties.
+     */
+    @NotNull
+    private Set<String> getRouteNames() {
+        final Set<String> names = new TreeSet<>();
+        if (properties == null) {
+            return names;
+        }
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith(ROUTE_PREFIX)) {
+                // route.<name>.msg_coder.<option> and route.<name>.sample.<setting> belong to the route <name>
+                final int options = key.indexOf(ROUTE_CODER + ".", ROUTE_PREFIX.length());
+                final int sampling = key.indexOf("." + SAMPLE_PREFIX, ROUTE_PREFIX.length());
+                final int end = options > 0 ? options : sampling > 0 ? sampling : key.lastIndexOf('.');
+                if (end > ROUTE_PREFIX.length()) {
+                    names.add(key.substring(ROUTE_PREFIX.length(), end));
+                }
+            }
+        }
+        return names;
+    }
+
+    @NotNull
+    public String getIngestMode() {
+        return validateStringProperty(INGEST_MODE, INGEST_MODE_DEFAULT);
+    }
+
+    @NotNull
+    public int getIngestQueueSize() {
+        return validateIntProperty(INGEST_QUEUE_SIZE, INGEST_QUEUE_SIZE_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public String getIngestOverflow() {
+        return validateStringProperty(INGEST_OVERFLOW, INGEST_OVERFLOW_DEFAULT);
+    }
+
+    @NotNull
+    public int getIngestBlockTimeoutMillis() {
+        return validateIntProperty(INGEST_BLOCK_TIMEOUT_MS, INGEST_BLOCK_TIMEOUT_MS_DEFAULT, true, false);
+    }
+
+    @NotNull
+    public String getIngestRejectReason() {
+        return validateStringProperty(INGEST_REJECT_REASON, INGEST_REJECT_REASON_DEFAULT);
+    }
+
+    @NotNull
+    public int getIngestMaxInFlight() {
+        return validateIntProperty(INGEST_MAX_IN_FLIGHT, INGEST_MAX_IN_FLIGHT_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getBatchMaxRows() {
+        return validateIntProperty(BATCH_MAX_ROWS, BATCH_MAX_ROWS_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getBatchMaxBytes() {
+        return validateIntProperty(BATCH_MAX_BYTES, BATCH_MAX_BYTES_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getBatchLingerMillis() {
+        return validateIntProperty(BATCH_LINGER_MS, BATCH_LINGER_MS_DEFAULT, true, false);
+    }
+
+    public boolean isBatchAdaptive() {
+        return Boolean.parseBoolean(validateStringProperty(BATCH_ADAPTIVE, BATCH_ADAPTIVE_DEFAULT));
+    }
+
+    @NotNull
+    public int getBatchTargetLatencyMillis() {
+        return validateIntProperty(BATCH_TARGET_LATENCY_MS, BATCH_TARGET_LATENCY_MS_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getDedupWindowMillis() {
+        return validateIntProperty(DEDUP_WINDOW_MS, DEDUP_WINDOW_MS_DEFAULT, true, false);
+    }
+
+    @NotNull
+    public int getDedupMaxEntries() {
+        return validateIntProperty(DEDUP_MAX_ENTRIES, DEDUP_MAX_ENTRIES_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getRateLimitMessagesPerSecond() {
+        return validateIntProperty(RATE_LIMIT_MESSAGES_PER_SECOND, RATE_LIMIT_MESSAGES_PER_SECOND_DEFAULT, true, false);
+    }
+
+    @NotNull
+    public int getRateLimitBurst() {
+        return validateIntProperty(RATE_LIMIT_BURST, RATE_LIMIT_BURST_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public String getRateLimitKey() {
+        return validateStringProperty(RATE_LIMIT_KEY, RATE_LIMIT_KEY_DEFAULT);
+    }
+
+    @NotNull
+    public String getRateLimitAction() {
+        return validateStringProperty(RATE_LIMIT_ACTION, RATE_LIMIT_ACTION_DEFAULT);
+    }
+
+    @NotNull
+    public int getRateLimitSample() {
+        return validateIntProperty(RATE_LIMIT_SAMPLE, RATE_LIMIT_SAMPLE_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public String getRateLimitRejectReason() {
+        return validateStringProperty(RATE_LIMIT_REJECT_REASON, RATE_LIMIT_REJECT_REASON_DEFAULT);
+    }
+
+    @NotNull
+    public int getRateLimitIdleMillis() {
+        return validateIntProperty(RATE_LIMIT_IDLE_MS, RATE_LIMIT_IDLE_MS_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getSampleMaxKeys() {
+        return validateIntProperty(SAMPLE_MAX_KEYS, SAMPLE_MAX_KEYS_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getSampleIdleMillis() {
+        return validateIntProperty(SAMPLE_IDLE_MS, SAMPLE_IDLE_MS_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getWriterThreads() {
+        return validateIntProperty(WRITER_THREADS, WRITER_THREADS_DEFAULT, true, false);
+    }
+
+    @NotNull
+    public int getTableCacheSize() {
+        return validateIntProperty(TABLE_CACHE_SIZE, TABLE_CACHE_SIZE_DEFAULT, true, false);
+    }
+
+    @NotNull
+    public String getEndpointSelection() {
+        return validateStringProperty(ENDPOINT_SELECTION, ENDPOINT_SELECTION_DEFAULT);
+    }
+
+    /**
+     * @param endpoints the number of URLs
+     * @return the weights of endpoint.weights in the order of the URLs, 1 for each URL if it is not set.
+     */
+    @NotNull
+    public int[] getEndpointWeights(final int endpoints) {
+        final int[] weights = new int[endpoints];
+        final List<String> entries = split(getProperty(ENDPOINT_WEIGHTS));
+        for (int i = 0; i < endpoints; i++) {
+            weights[i] = i < entries.size() ? Integer.parseInt(entries.get(i)) : 1;
+        }
+        return weights;
+    }
+
+    @NotNull
+    public int getEndpointHealthIntervalMillis() {
+        return validateIntProperty(ENDPOINT_HEALTH_INTERVAL_MS, ENDPOINT_HEALTH_INTERVAL_MS_DEFAULT, true, false);
+    }
+
+    public boolean isWalEnabled() {
+        return Boolean.parseBoolean(validateStringProperty(WAL_ENABLED, WAL_ENABLED_DEFAULT));
+    }
+
+    @NotNull
+    public int getWalSegmentSizeMB() {
+        return validateIntProperty(WAL_SEGMENT_SIZE_MB, WAL_SEGMENT_SIZE_MB_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getWalMaxSizeMB() {
+        return validateIntProperty(WAL_MAX_SIZE_MB, WAL_MAX_SIZE_MB_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getWalReplayBatch() {
+        return validateIntProperty(WAL_REPLAY_BATCH, WAL_REPLAY_BATCH_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getWalReplayIntervalMillis() {
+        return validateIntProperty(WAL_REPLAY_INTERVAL_MS, WAL_REPLAY_INTERVAL_MS_DEFAULT, false, false);
+    }
+
+    @NotNull
+    public int getReloadIntervalMillis() {
+        return validateIntProperty(RELOAD_INTERVAL_MS, RELOAD_INTERVAL_MS_DEFAULT, true, false);
+    }
+
     @NotNull
     public String getCreateDatabaseSQL() {
         return validateStringProperty(SQL_CREATE_DATABASE, SQL_CREATE_DATABASE_DEFAULT);
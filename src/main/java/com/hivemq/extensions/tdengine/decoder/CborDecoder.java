@@ -0,0 +1,357 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Extracts selected top level fields of a CBOR map (RFC 8949). Other fields are skipped without being decoded,
+ * and reading stops as soon as all selected fields are found. Integers, floats, text strings and booleans are stored
+ * as their text, byte strings as base64, epoch timestamps (tag 1) as epoch milliseconds;
+ * null, undefined, array and map values are left <b>null</b>. Indefinite length items are supported.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class CborDecoder implements PayloadDecoder {
+
+    private static final int MAX_DEPTH = 64;
+    private static final int BREAK = 0xff;
+    private static final long INDEFINITE = -1;
+    private static final int TAG_EPOCH = 1;
+    private static final int TAG_SELF_DESCRIBE = 55799;
+
+    private static final int UNSIGNED = 0;
+    private static final int NEGATIVE = 1;
+    private static final int BYTES = 2;
+    private static final int TEXT = 3;
+    private static final int ARRAY = 4;
+    private static final int MAP = 5;
+    private static final int TAG = 6;
+    private static final int SIMPLE = 7;
+
+    private final KeyTable keys;
+
+    /**
+     * @param keys the field names to extract, indexed by the slot their values are stored in. <b>null</b> entries are ignored.
+     */
+    public CborDecoder(@NotNull final String[] keys) {
+        this.keys = new KeyTable(keys);
+    }
+
+    @Override
+    public int extract(@NotNull final ByteBuffer payload, @NotNull final String[] values) throws IOException {
+        final ByteBuffer in = payload.duplicate();
+        try {
+            int head = in.get() & 0xff;
+            while (head >>> 5 == TAG && argument(in, head) == TAG_SELF_DESCRIBE) {
+                head = in.get() & 0xff;
+            }
+            if (head >>> 5 != MAP) {
+                return 0;
+            }
+            final long size = argument(in, head);
+            int found = 0;
+            final int wanted = keys.size();
+            for (long i = 0; (size == INDEFINITE || i < size) && found < wanted; i++) {
+                final int keyHead = in.get() & 0xff;
+                if (size == INDEFINITE && keyHead == BREAK) {
+                    break;
+                }
+                final int slot = readKey(in, keyHead);
+                if (slot < 0) {
+                    skip(in, in.get() & 0xff, 0);
+                    continue;
+                }
+                final String value = readValue(in, in.get() & 0xff, 0);
+                if (value != null && values[slot] == null) {
+                    values[slot] = value;
+                    found++;
+                }
+            }
+            return found;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("truncated cbor payload", e);
+        }
+    }
+
+    /**
+     * @return the slot of the key of a map entry, -1 if it is not selected or no definite length text.
+     */
+    private int readKey(@NotNull final ByteBuffer in, final int head) throws IOException {
+        if (head >>> 5 != TEXT || (head & 0x1f) == 31) {
+            skip(in, head, 0);
+            return -1;
+        }
+        final int length = checkRemaining(in, length(argument(in, head)));
+        final int index = in.position();
+        in.position(index + length);
+        return keys.slotOf(in, index, length);
+    }
+
+    /**
+     * @return the text of a scalar, <b>null</b> for null, undefined and skipped arrays and maps.
+     */
+    @Nullable
+    private static String readValue(@NotNull final ByteBuffer in, final int head, final int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw new IOException("cbor payload nested deeper than " + MAX_DEPTH);
+        }
+        switch (head >>> 5) {
+            case UNSIGNED:
+                return Long.toUnsignedString(argument(in, head));
+            case NEGATIVE:
+                final long value = argument(in, head);
+                return value >= 0 ? Long.toString(-1 - value)
+                        : new BigInteger(Long.toUnsignedString(value)).add(BigInteger.ONE).negate().toString();
+            case BYTES:
+                return Base64.getEncoder().encodeToString(readBytes(in, head));
+            case TEXT:
+                return readText(in, head);
+            case TAG:
+                final long tag = argument(in, head);
+                final int itemHead = in.get() & 0xff;
+                if (tag == TAG_EPOCH) {
+                    return readEpoch(in, itemHead, depth + 1);
+                }
+                return readValue(in, itemHead, depth + 1);
+            case SIMPLE:
+                return readSimple(in, head);
+            default:
+                skip(in, head, depth);
+                return null;
+        }
+    }
+
+    @Nullable
+    private static String readSimple(@NotNull final ByteBuffer in, final int head) throws IOException {
+        switch (head & 0x1f) {
+            case 20:
+                return "false";
+            case 21:
+                return "true";
+            case 25:
+                return Float.toString(halfToFloat(in.getShort()));
+            case 26:
+                return Float.toString(in.getFloat());
+            case 27:
+                return Double.toString(in.getDouble());
+            case 24:
+                in.get();
+                return null;
+            case 31:
+                throw new IOException("unexpected cbor break");
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the epoch milliseconds of a tag 1 timestamp in seconds.
+     */
+    @Nullable
+    private static String readEpoch(@NotNull final ByteBuffer in, final int head, final int depth) throws IOException {
+        final int major = head >>> 5;
+        if (major == UNSIGNED) {
+            return Long.toString(argument(in, head) * 1000);
+        }
+        if (major == NEGATIVE) {
+            return Long.toString((-1 - argument(in, head)) * 1000);
+        }
+        final String seconds = readValue(in, head, depth);
+        if (major != SIMPLE || seconds == null) {
+            return seconds;
+        }
+        try {
+            return Long.toString(Math.round(Double.parseDouble(seconds) * 1000));
+        } catch (NumberFormatException e) {
+            return seconds;
+        }
+    }
+
+    /**
+     * Move past an item without decoding it.
+     */
+    private static void skip(@NotNull final ByteBuffer in, final int head, final int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw new IOException("cbor payload nested deeper than " + MAX_DEPTH);
+        }
+        final int major = head >>> 5;
+        final long argument = major == SIMPLE ? simpleLength(head) : argument(in, head);
+        switch (major) {
+            case BYTES:
+            case TEXT:
+                if (argument == INDEFINITE) {
+                    for (int chunk = in.get() & 0xff; chunk != BREAK; chunk = in.get() & 0xff) {
+                        skip(in, chunk, depth + 1);
+                    }
+                } else {
+                    in.position(in.position() + length(argument));
+                }
+                return;
+            case ARRAY:
+            case MAP:
+                final long items = argument == INDEFINITE ? INDEFINITE : major == MAP ? 2 * argument : argument;
+                for (long i = 0; items == INDEFINITE || i < items; i++) {
+                    final int itemHead = in.get() & 0xff;
+                    if (items == INDEFINITE && itemHead == BREAK) {
+                        return;
+                    }
+                    skip(in, itemHead, depth + 1);
+                }
+                return;
+            case TAG:
+                skip(in, in.get() & 0xff, depth + 1);
+                return;
+            case SIMPLE:
+                in.position(in.position() + (int) argument);
+                return;
+            default:
+        }
+    }
+
+    /**
+     * @return the number of bytes following a simple value or float.
+     */
+    private static long simpleLength(final int head) throws IOException {
+        switch (head & 0x1f) {
+            case 24:
+                return 1;
+            case 25:
+                return 2;
+            case 26:
+                return 4;
+            case 27:
+                return 8;
+            case 28:
+            case 29:
+            case 30:
+            case 31:
+                throw new IOException("invalid cbor simple value 0x" + Integer.toHexString(head));
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the argument of the item, the length of strings, arrays and maps, {@link #INDEFINITE} for indefinite lengths.
+     */
+    private static long argument(@NotNull final ByteBuffer in, final int head) throws IOException {
+        final int info = head & 0x1f;
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return in.get() & 0xff;
+            case 25:
+                return in.getShort() & 0xffff;
+            case 26:
+                return in.getInt() & 0xffffffffL;
+            case 27:
+                return in.getLong();
+            case 31:
+                final int major = head >>> 5;
+                if (major == BYTES || major == TEXT || major == ARRAY || major == MAP) {
+                    return INDEFINITE;
+                }
+                throw new IOException("invalid cbor item 0x" + Integer.toHexString(head));
+            default:
+                throw new IOException("invalid cbor item 0x" + Integer.toHexString(head));
+        }
+    }
+
+    @NotNull
+    private static String readText(@NotNull final ByteBuffer in, final int head) throws IOException {
+        final long length = argument(in, head);
+        if (length != INDEFINITE && in.hasArray()) {
+            final int size = length(length);
+            checkRemaining(in, size);
+            final String text = new String(in.array(), in.arrayOffset() + in.position(), size, StandardCharsets.UTF_8);
+            in.position(in.position() + size);
+            return text;
+        }
+        return new String(readChunks(in, head, length), StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static byte[] readBytes(@NotNull final ByteBuffer in, final int head) throws IOException {
+        return readChunks(in, head, argument(in, head));
+    }
+
+    @NotNull
+    private static byte[] readChunks(@NotNull final ByteBuffer in, final int head, final long length) throws IOException {
+        if (length != INDEFINITE) {
+            final byte[] bytes = new byte[checkRemaining(in, length(length))];
+            in.get(bytes);
+            return bytes;
+        }
+        final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        for (int chunk = in.get() & 0xff; chunk != BREAK; chunk = in.get() & 0xff) {
+            final long chunkLength = argument(in, chunk);
+            if (chunk >>> 5 != head >>> 5 || chunkLength == INDEFINITE) {
+                throw new IOException("invalid chunk in indefinite length cbor string");
+            }
+            final byte[] bytes = new byte[checkRemaining(in, length(chunkLength))];
+            in.get(bytes);
+            chunks.write(bytes, 0, bytes.length);
+        }
+        return chunks.toByteArray();
+    }
+
+    private static int length(final long length) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("cbor length out of range");
+        }
+        return (int) length;
+    }
+
+    private static int checkRemaining(@NotNull final ByteBuffer in, final int length) {
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    /**
+     * @return the value of an IEEE 754 half-precision float.
+     */
+    static float halfToFloat(final short half) {
+        final int bits = half & 0xffff;
+        final int exponent = (bits >>> 10) & 0x1f;
+        final int mantissa = bits & 0x3ff;
+        final float value;
+        if (exponent == 0) {
+            value = mantissa * 0x1p-24f;
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        } else {
+            value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+        }
+        return (bits & 0x8000) != 0 ? -value : value;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Extracts selected fields of a JSON object with a streaming {@link JsonParser}.
+ * A key is a top level field name or a path into nested objects, e.g. <code>gps.lat</code>.
+ * Other fields are skipped without being bound, and parsing stops as soon as all selected fields are found.
+ * With a rows path, each element of the array at that path is extracted as a row of its own,
+ * e.g. the readings of <code>{"devid": 1, "readings": [{"ts": 1, "v": 2}, ...]}</code>.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class JsonFieldExtractor implements PayloadDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Node root = new Node();
+    private final int size;
+    private final Node rows;
+    private final Node rowRoot = new Node();
+    private final int rowSlots;
+
+    /**
+     * @param keys the field names or paths to extract, indexed by the slot their values are stored in. <b>null</b> entries are ignored.
+     */
+    public JsonFieldExtractor(@NotNull final String[] keys) {
+        this(keys, null, new String[0]);
+    }
+
+    /**
+     * @param keys the field names or paths to extract, indexed by the slot their values are stored in. <b>null</b> entries are ignored.
+     * @param rowsPath the path of the array whose elements are extracted as rows, <b>null</b> for a single row
+     * @param rowKeys the field names or paths within an element, indexed by their slot in the row values.
+     * An empty key stands for the element itself if it is a scalar. <b>null</b> entries are ignored.
+     */
+    public JsonFieldExtractor(@NotNull final String[] keys, @Nullable final String rowsPath, @NotNull final String[] rowKeys) {
+        int distinct = 0;
+        for (final Map.Entry<String, Integer> slot : PayloadDecoders.slotsOf(keys).entrySet()) {
+            root.add(slot.getKey(), slot.getValue());
+            distinct++;
+        }
+        if (rowsPath != null) {
+            this.rows = root.child(rowsPath);
+            this.rows.rows = true;
+            distinct++;
+        } else {
+            this.rows = null;
+        }
+        this.size = distinct;
+        this.rowSlots = rowKeys.length;
+        for (final Map.Entry<String, Integer> slot : PayloadDecoders.slotsOf(rowKeys).entrySet()) {
+            if (slot.getKey().isEmpty()) {
+                rowRoot.slot = slot.getValue();
+            } else {
+                rowRoot.add(slot.getKey(), slot.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct fields this extractor looks for, counting the rows array as one.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Extract the selected fields. Scalars are stored as their text, fields with <code>null</code>,
+     * object or array values are left <b>null</b>.
+     * @param buf the buffer holding the JSON document
+     * @param offset start of the document in the buffer
+     * @param length length of the document
+     * @param values receives the field values by slot
+     * @return the number of fields found
+     * @throws IOException if the document is not valid JSON.
+     */
+    public int extract(@NotNull final byte[] buf, final int offset, final int length, @NotNull final String[] values) throws IOException {
+        try (final JsonParser parser = JSON_FACTORY.createParser(buf, offset, length)) {
+            return extract(parser, values, null);
+        }
+    }
+
+    /**
+     * Extract the selected fields from the remaining bytes of a payload buffer without moving its position.
+     * Heap buffers are parsed in place, read-only and direct buffers are streamed into the parser's recycled buffers.
+     * @param buffer the JSON document
+     * @param values receives the field values by slot
+     * @return the number of fields found
+     * @throws IOException if the document is not valid JSON.
+     */
+    @Override
+    public int extract(@NotNull final ByteBuffer buffer, @NotNull final String[] values) throws IOException {
+        try (final JsonParser parser = createParser(buffer)) {
+            return extract(parser, values, null);
+        }
+    }
+
+    /**
+     * Extract the selected fields and the rows of the rows array in one pass.
+     * @param buffer the JSON document, its position is not moved
+     * @param values receives the field values by slot
+     * @return the values of each element of the rows array which is an object, or a scalar if the empty row key is selected,
+     * empty if there is no such array.
+     * @throws IOException if the document is not valid JSON.
+     */
+    @NotNull
+    public List<String[]> extractRows(@NotNull final ByteBuffer buffer, @NotNull final String[] values) throws IOException {
+        if (rows == null) {
+            return Collections.emptyList();
+        }
+        final List<String[]> result = new ArrayList<>();
+        try (final JsonParser parser = createParser(buffer)) {
+            extract(parser, values, result);
+        }
+        return result;
+    }
+
+    @NotNull
+    private static JsonParser createParser(@NotNull final ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            return JSON_FACTORY.createParser(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return JSON_FACTORY.createParser(PayloadBuffers.newInputStream(buffer));
+    }
+
+    private int extract(@NotNull final JsonParser parser, @NotNull final String[] values, @Nullable final List<String[]> result) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return 0;
+        }
+        return readObject(parser, root, values, result, 0, size);
+    }
+
+    /**
+     * Read the fields of the object the parser is in, descending into the objects on a selected path.
+     * @return the number of fields found so far, <b>wanted</b> if the rest of the document does not need to be read.
+     */
+    private int readObject(@NotNull final JsonParser parser, @NotNull final Node node, @NotNull final String[] values,
+    		@Nullable final List<String[]> result, final int foundBefore, final int wanted) throws IOException {
+        int found = foundBefore;
+        while (found < wanted && parser.nextToken() == JsonToken.FIELD_NAME) {
+            final Node child = node.children.get(parser.getCurrentName());
+            final JsonToken token = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+            } else if (token == JsonToken.START_OBJECT && !child.children.isEmpty()) {
+                found = readObject(parser, child, values, result, found, wanted);
+            } else if (token == JsonToken.START_ARRAY && child.rows) {
+                if (result != null) {
+                    readRows(parser, result);
+                } else {
+                    parser.skipChildren();
+                }
+                found++;
+            } else if (child.slot >= 0) {
+                final String value = getScalarText(parser, token);
+                if (value != null && values[child.slot] == null) {
+                    values[child.slot] = value;
+                    found++;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return found;
+    }
+
+    private void readRows(@NotNull final JsonParser parser, @NotNull final List<String[]> result) throws IOException {
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token == null) {
+                throw new IOException("unexpected end of json rows array");
+            }
+            final String[] row = new String[rowSlots];
+            if (token == JsonToken.START_OBJECT) {
+                // read the whole element, so the parser ends on its closing brace
+                readObject(parser, rowRoot, row, null, 0, Integer.MAX_VALUE);
+                result.add(row);
+            } else if (token.isScalarValue() && token != JsonToken.VALUE_NULL && rowRoot.slot >= 0) {
+                row[rowRoot.slot] = parser.getText();
+                result.add(row);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    @Nullable
+    private static String getScalarText(@NotNull final JsonParser parser, @Nullable final JsonToken token) throws IOException {
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getText();
+    }
+
+    /**
+     * A field on a selected path, with the slot of its value if the path ends here.
+     */
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+        private int slot = -1;
+        private boolean rows;
+
+        /**
+         * Select a key as path and, for keys with a dot, also as top level field name.
+         */
+        private void add(@NotNull final String key, final int slot) {
+            child(key).slot = slot;
+            if (key.indexOf('.') >= 0) {
+                children.computeIfAbsent(key, name -> new Node()).slot = slot;
+            }
+        }
+
+        @NotNull
+        private Node child(@NotNull final String path) {
+            Node node = this;
+            for (final String name : path.split("\\.")) {
+                node = node.children.computeIfAbsent(name, key -> new Node());
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * The UTF-8 bytes of the keys a binary decoder looks for, so that map keys are matched
+ * in the payload buffer without decoding them into strings.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+final class KeyTable {
+
+    private final byte[][] keys;
+    private final int[] slots;
+
+    KeyTable(@NotNull final String[] keys) {
+        final Map<String, Integer> slotsByKey = PayloadDecoders.slotsOf(keys);
+        this.keys = new byte[slotsByKey.size()][];
+        this.slots = new int[slotsByKey.size()];
+        int i = 0;
+        for (final Map.Entry<String, Integer> entry : slotsByKey.entrySet()) {
+            this.keys[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            this.slots[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * @return the number of distinct keys.
+     */
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * @param in the payload
+     * @param index the absolute index of the key bytes
+     * @param length the number of key bytes
+     * @return the slot of the key, -1 if it is not looked for.
+     */
+    int slotOf(@NotNull final ByteBuffer in, final int index, final int length) {
+        for (int k = 0; k < keys.length; k++) {
+            final byte[] key = keys[k];
+            if (key.length != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && in.get(index + i) == key[i]) {
+                i++;
+            }
+            if (i == length) {
+                return slots[k];
+            }
+        }
+        return -1;
+    }
+}
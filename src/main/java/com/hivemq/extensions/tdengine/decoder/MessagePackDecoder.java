@@ -0,0 +1,362 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Extracts selected top level fields of a MessagePack map. Other fields are skipped without being decoded,
+ * and reading stops as soon as all selected fields are found. Integers, floats, strings and booleans are stored
+ * as their text, binaries as base64, timestamps (extension type -1) as epoch milliseconds;
+ * nil, array, map and other extension values are left <b>null</b>.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class MessagePackDecoder implements PayloadDecoder {
+
+    private static final int MAX_DEPTH = 64;
+    private static final byte TIMESTAMP_TYPE = -1;
+
+    private final KeyTable keys;
+
+    /**
+     * @param keys the field names to extract, indexed by the slot their values are stored in. <b>null</b> entries are ignored.
+     */
+    public MessagePackDecoder(@NotNull final String[] keys) {
+        this.keys = new KeyTable(keys);
+    }
+
+    @Override
+    public int extract(@NotNull final ByteBuffer payload, @NotNull final String[] values) throws IOException {
+        final ByteBuffer in = payload.duplicate();
+        try {
+            final int head = in.get() & 0xff;
+            final long size;
+            if ((head & 0xf0) == 0x80) {
+                size = head & 0x0f;
+            } else if (head == 0xde) {
+                size = in.getShort() & 0xffff;
+            } else if (head == 0xdf) {
+                size = in.getInt() & 0xffffffffL;
+            } else {
+                return 0;
+            }
+            int found = 0;
+            final int wanted = keys.size();
+            for (long i = 0; i < size && found < wanted; i++) {
+                final int slot = readKey(in);
+                if (slot < 0) {
+                    skip(in, 0);
+                    continue;
+                }
+                final String value = readValue(in);
+                if (value != null && values[slot] == null) {
+                    values[slot] = value;
+                    found++;
+                }
+            }
+            return found;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("truncated msgpack payload", e);
+        }
+    }
+
+    /**
+     * @return the slot of the key of a map entry, -1 if it is not selected or no string.
+     */
+    private int readKey(@NotNull final ByteBuffer in) throws IOException {
+        final int head = in.get() & 0xff;
+        final int length;
+        if ((head & 0xe0) == 0xa0) {
+            length = head & 0x1f;
+        } else if (head == 0xd9) {
+            length = in.get() & 0xff;
+        } else if (head == 0xda) {
+            length = in.getShort() & 0xffff;
+        } else if (head == 0xdb) {
+            length = length(in.getInt());
+        } else {
+            in.position(in.position() - 1);
+            skip(in, 0);
+            return -1;
+        }
+        final int index = in.position();
+        advance(in, length);
+        return keys.slotOf(in, index, length);
+    }
+
+    /**
+     * @return the text of a scalar, <b>null</b> for nil and skipped arrays, maps and extensions.
+     */
+    @Nullable
+    private static String readValue(@NotNull final ByteBuffer in) throws IOException {
+        final int head = in.get() & 0xff;
+        if (head <= 0x7f) {
+            return Integer.toString(head);
+        }
+        if (head >= 0xe0) {
+            return Integer.toString((byte) head);
+        }
+        if ((head & 0xe0) == 0xa0) {
+            return readString(in, head & 0x1f);
+        }
+        if ((head & 0xe0) == 0x80) {
+            in.position(in.position() - 1);
+            skip(in, 0);
+            return null;
+        }
+        switch (head) {
+            case 0xc0:
+                return null;
+            case 0xc2:
+                return "false";
+            case 0xc3:
+                return "true";
+            case 0xc4:
+                return readBinary(in, in.get() & 0xff);
+            case 0xc5:
+                return readBinary(in, in.getShort() & 0xffff);
+            case 0xc6:
+                return readBinary(in, length(in.getInt()));
+            case 0xc7:
+                return readExtension(in, in.get() & 0xff);
+            case 0xc8:
+                return readExtension(in, in.getShort() & 0xffff);
+            case 0xc9:
+                return readExtension(in, length(in.getInt()));
+            case 0xca:
+                return Float.toString(in.getFloat());
+            case 0xcb:
+                return Double.toString(in.getDouble());
+            case 0xcc:
+                return Integer.toString(in.get() & 0xff);
+            case 0xcd:
+                return Integer.toString(in.getShort() & 0xffff);
+            case 0xce:
+                return Long.toString(in.getInt() & 0xffffffffL);
+            case 0xcf:
+                return Long.toUnsignedString(in.getLong());
+            case 0xd0:
+                return Integer.toString(in.get());
+            case 0xd1:
+                return Integer.toString(in.getShort());
+            case 0xd2:
+                return Integer.toString(in.getInt());
+            case 0xd3:
+                return Long.toString(in.getLong());
+            case 0xd4:
+                return readExtension(in, 1);
+            case 0xd5:
+                return readExtension(in, 2);
+            case 0xd6:
+                return readExtension(in, 4);
+            case 0xd7:
+                return readExtension(in, 8);
+            case 0xd8:
+                return readExtension(in, 16);
+            case 0xd9:
+                return readString(in, in.get() & 0xff);
+            case 0xda:
+                return readString(in, in.getShort() & 0xffff);
+            case 0xdb:
+                return readString(in, length(in.getInt()));
+            case 0xdc:
+            case 0xdd:
+            case 0xde:
+            case 0xdf:
+                in.position(in.position() - 1);
+                skip(in, 0);
+                return null;
+            default:
+                throw new IOException("invalid msgpack type 0x" + Integer.toHexString(head));
+        }
+    }
+
+    /**
+     * Move past a value without decoding it.
+     */
+    private static void skip(@NotNull final ByteBuffer in, final int depth) throws IOException {
+        final int head = in.get() & 0xff;
+        if (head <= 0x7f || head >= 0xe0) {
+            return;
+        }
+        if ((head & 0xe0) == 0xa0) {
+            advance(in, head & 0x1f);
+            return;
+        }
+        if ((head & 0xe0) == 0x80) {
+            skipEntries(in, (head & 0x10) == 0 ? 2L * (head & 0x0f) : head & 0x0f, depth);
+            return;
+        }
+        switch (head) {
+            case 0xc4:
+            case 0xd9:
+                advance(in, in.get() & 0xff);
+                return;
+            case 0xc5:
+            case 0xda:
+                advance(in, in.getShort() & 0xffff);
+                return;
+            case 0xc6:
+            case 0xdb:
+                advance(in, length(in.getInt()));
+                return;
+            case 0xc7:
+                advance(in, (in.get() & 0xff) + 1);
+                return;
+            case 0xc8:
+                advance(in, (in.getShort() & 0xffff) + 1);
+                return;
+            case 0xc9:
+                advance(in, length(in.getInt()) + 1);
+                return;
+            case 0xcc:
+            case 0xd0:
+                advance(in, 1);
+                return;
+            case 0xcd:
+            case 0xd1:
+            case 0xd4:
+                advance(in, 2);
+                return;
+            case 0xd5:
+                advance(in, 3);
+                return;
+            case 0xca:
+            case 0xce:
+            case 0xd2:
+                advance(in, 4);
+                return;
+            case 0xd6:
+                advance(in, 5);
+                return;
+            case 0xcb:
+            case 0xcf:
+            case 0xd3:
+                advance(in, 8);
+                return;
+            case 0xd7:
+                advance(in, 9);
+                return;
+            case 0xd8:
+                advance(in, 17);
+                return;
+            case 0xdc:
+                skipEntries(in, in.getShort() & 0xffff, depth);
+                return;
+            case 0xdd:
+                skipEntries(in, in.getInt() & 0xffffffffL, depth);
+                return;
+            case 0xde:
+                skipEntries(in, 2L * (in.getShort() & 0xffff), depth);
+                return;
+            case 0xdf:
+                skipEntries(in, 2L * (in.getInt() & 0xffffffffL), depth);
+                return;
+            case 0xc0:
+            case 0xc2:
+            case 0xc3:
+                return;
+            default:
+                throw new IOException("invalid msgpack type 0x" + Integer.toHexString(head));
+        }
+    }
+
+    private static void advance(@NotNull final ByteBuffer in, final int length) {
+        in.position(in.position() + checkLength(in, length));
+    }
+
+    private static void skipEntries(@NotNull final ByteBuffer in, final long count, final int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw new IOException("msgpack payload nested deeper than " + MAX_DEPTH);
+        }
+        for (long i = 0; i < count; i++) {
+            skip(in, depth + 1);
+        }
+    }
+
+    @NotNull
+    private static String readString(@NotNull final ByteBuffer in, final int length) {
+        final String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), checkLength(in, length), StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            final byte[] bytes = new byte[checkLength(in, length)];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    @NotNull
+    private static String readBinary(@NotNull final ByteBuffer in, final int length) {
+        final byte[] bytes = new byte[checkLength(in, length)];
+        in.get(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    /**
+     * @return the epoch milliseconds of a timestamp, <b>null</b> for other extension types.
+     */
+    @Nullable
+    private static String readExtension(@NotNull final ByteBuffer in, final int length) {
+        final byte type = in.get();
+        checkLength(in, length);
+        if (type != TIMESTAMP_TYPE || length != 4 && length != 8 && length != 12) {
+            in.position(in.position() + length);
+            return null;
+        }
+        final long seconds;
+        final long nanos;
+        if (length == 4) {
+            seconds = in.getInt() & 0xffffffffL;
+            nanos = 0;
+        } else if (length == 8) {
+            final long bits = in.getLong();
+            seconds = bits & 0x3ffffffffL;
+            nanos = bits >>> 34;
+        } else {
+            nanos = in.getInt() & 0xffffffffL;
+            seconds = in.getLong();
+        }
+        return Long.toString(seconds * 1000 + nanos / 1_000_000);
+    }
+
+    private static int length(final int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("msgpack length out of range");
+        }
+        return length;
+    }
+
+    private static int checkLength(@NotNull final ByteBuffer in, final int length) {
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+}
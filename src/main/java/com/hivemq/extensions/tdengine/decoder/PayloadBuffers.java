@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.tdengine.template.SqlTemplate;
+
+/**
+ * Reads PUBLISH payloads straight from their (usually read-only) {@link ByteBuffer}
+ * without copying them into intermediate arrays or strings.
+ * None of the methods moves the position of the given buffer.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public final class PayloadBuffers {
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private PayloadBuffers() {
+    }
+
+    /**
+     * @param buffer the payload
+     * @return a stream over the remaining bytes of the payload.
+     */
+    @NotNull
+    public static InputStream newInputStream(@NotNull final ByteBuffer buffer) {
+        return new ByteBufferBackedInputStream(buffer.duplicate());
+    }
+
+    /**
+     * Append the remaining bytes of the payload Base64 encoded.
+     * @param sql the statement rendered so far
+     * @param buffer the payload
+     */
+    public static void appendBase64(@NotNull final StringBuilder sql, @NotNull final ByteBuffer buffer) {
+        final int end = buffer.limit();
+        int i = buffer.position();
+        sql.ensureCapacity(sql.length() + (buffer.remaining() + 2) / 3 * 4);
+        for (; i + 2 < end; i += 3) {
+            final int bits = (buffer.get(i) & 0xff) << 16 | (buffer.get(i + 1) & 0xff) << 8 | (buffer.get(i + 2) & 0xff);
+            sql.append(BASE64[bits >>> 18 & 0x3f]).append(BASE64[bits >>> 12 & 0x3f])
+                    .append(BASE64[bits >>> 6 & 0x3f]).append(BASE64[bits & 0x3f]);
+        }
+        if (i + 1 == end) {
+            final int bits = (buffer.get(i) & 0xff) << 16;
+            sql.append(BASE64[bits >>> 18 & 0x3f]).append(BASE64[bits >>> 12 & 0x3f]).append("==");
+        } else if (i + 2 == end) {
+            final int bits = (buffer.get(i) & 0xff) << 16 | (buffer.get(i + 1) & 0xff) << 8;
+            sql.append(BASE64[bits >>> 18 & 0x3f]).append(BASE64[bits >>> 12 & 0x3f]).append(BASE64[bits >>> 6 & 0x3f]).append('=');
+        }
+    }
+
+    /**
+     * Append the payload decoded as UTF-8, without leading and trailing whitespace and escaped for a quoted SQL string.
+     * @param sql the statement rendered so far
+     * @param buffer the payload
+     */
+    public static void appendUtf8Escaped(@NotNull final StringBuilder sql, @NotNull final ByteBuffer buffer) {
+        final CharBuffer chars = StandardCharsets.UTF_8.decode(buffer.duplicate());
+        int start = 0;
+        int end = chars.length();
+        while (start < end && chars.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && chars.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        SqlTemplate.appendEscaped(sql, chars.subSequence(start, end));
+    }
+
+    /**
+     * @param buffer the payload
+     * @return the payload decoded as UTF-8, for log messages.
+     */
+    @NotNull
+    public static String toUtf8String(@NotNull final ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+    /**
+     * @param buffer the payload
+     * @return a copy of the remaining bytes of the payload.
+     */
+    @NotNull
+    public static byte[] toByteArray(@NotNull final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Reads the fields a route needs from a payload. A decoder is created for the payload keys of a route,
+ * e.g. <code>temperature</code> for <code>${payload.temperature}</code>, and stores each value as text
+ * in the slot of its key, ready to be rendered into an insert template or bound to a column.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public interface PayloadDecoder {
+
+    /**
+     * Extract the fields from the remaining bytes of a payload buffer without moving its position.
+     * Fields which are missing or have no scalar value are left <b>null</b>.
+     * @param payload the payload
+     * @param values receives the field values by slot
+     * @return the number of fields found
+     * @throws IOException if the payload can not be decoded.
+     */
+    int extract(@NotNull ByteBuffer payload, @NotNull String[] values) throws IOException;
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.File;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Creates the {@link PayloadDecoder} of a <code>msg_coder</code>. Besides the built-in coders, factories listed in
+ * <code>META-INF/services/com.hivemq.extensions.tdengine.decoder.PayloadDecoderFactory</code> of a jar in the
+ * extension folder are found with {@link java.util.ServiceLoader}.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public interface PayloadDecoderFactory {
+
+    /**
+     * @return the name used as <code>msg_coder</code>, e.g. <code>msgpack</code>.
+     */
+    @NotNull
+    String getName();
+
+    /**
+     * @param keys the payload keys to extract, indexed by the slot their values are stored in. <b>null</b> entries are ignored.
+     * @param options the <code>msg_coder.*</code> settings of the route without their prefix, e.g. <code>layout</code>
+     * @param home the extension folder which relative file options are resolved against, <b>null</b> for the working directory
+     * @return the decoder
+     * @throws IllegalArgumentException if the options are invalid or a key can not be decoded by this coder.
+     */
+    @NotNull
+    PayloadDecoder create(@NotNull String[] keys, @NotNull Map<String, String> options, @Nullable File home);
+}
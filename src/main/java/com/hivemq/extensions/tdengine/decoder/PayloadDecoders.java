@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * The payload coders known to the extension: <code>base64</code>, which renders the whole payload and extracts no fields,
+ * the built-in <code>json</code>, <code>msgpack</code>, <code>cbor</code>, <code>protobuf</code> and <code>struct</code> decoders,
+ * and the {@link PayloadDecoderFactory} services on the class path of the extension.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public final class PayloadDecoders {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(PayloadDecoders.class);
+
+    public static final String BASE64 = "base64";
+    public static final String JSON = "json";
+
+    private static final Map<String, PayloadDecoderFactory> FACTORIES = loadFactories();
+
+    private PayloadDecoders() {
+    }
+
+    /**
+     * @param coder the <code>msg_coder</code> of a route
+     * @return <b>true</b> if the coder is base64 or a decoder of that name exists.
+     */
+    public static boolean isKnown(@Nullable final String coder) {
+        return coder != null && (isBase64(coder) || FACTORIES.containsKey(coder.trim().toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * @param coder the <code>msg_coder</code> of a route
+     * @return <b>true</b> if the payload is rendered as a whole instead of being decoded into fields.
+     */
+    public static boolean isBase64(@NotNull final String coder) {
+        return coder.trim().equalsIgnoreCase(BASE64);
+    }
+
+    /**
+     * @param coder the <code>msg_coder</code> of a route
+     * @return <b>true</b> if the payload is a JSON document, which <code>${payload}</code> renders as text.
+     */
+    public static boolean isJson(@NotNull final String coder) {
+        return coder.trim().equalsIgnoreCase(JSON);
+    }
+
+    /**
+     * @param coder the <code>msg_coder</code> of a route
+     * @param keys the payload keys to extract, indexed by slot
+     * @param options the <code>msg_coder.*</code> settings of the route without their prefix
+     * @param home the extension folder which relative file options are resolved against
+     * @return the decoder, <b>null</b> for base64.
+     * @throws IllegalArgumentException if the coder is unknown or its options are invalid.
+     */
+    @Nullable
+    public static PayloadDecoder create(@NotNull final String coder, @NotNull final String[] keys, @NotNull final Map<String, String> options,
+    		@Nullable final File home) {
+        if (isBase64(coder)) {
+            return null;
+        }
+        final PayloadDecoderFactory factory = FACTORIES.get(coder.trim().toLowerCase(Locale.ROOT));
+        if (factory == null) {
+            throw new IllegalArgumentException("unknown msg_coder " + coder);
+        }
+        return factory.create(keys, options, home);
+    }
+
+    /**
+     * @return the names of the decoders, built-in and loaded ones.
+     */
+    @NotNull
+    public static Iterable<String> getNames() {
+        return Collections.unmodifiableSet(FACTORIES.keySet());
+    }
+
+    @NotNull
+    private static Map<String, PayloadDecoderFactory> loadFactories() {
+        final Map<String, PayloadDecoderFactory> factories = new TreeMap<>();
+        factories.put(JSON, new Builtin(JSON, (keys, options, home) -> new JsonFieldExtractor(keys)));
+        factories.put("msgpack", new Builtin("msgpack", (keys, options, home) -> new MessagePackDecoder(keys)));
+        factories.put("cbor", new Builtin("cbor", (keys, options, home) -> new CborDecoder(keys)));
+        factories.put("protobuf", new Builtin("protobuf", (keys, options, home) -> {
+            final String descriptor = requireOption(options, "descriptor", "protobuf");
+            final File file = new File(descriptor).isAbsolute() || home == null ? new File(descriptor) : new File(home, descriptor);
+            try {
+                return new ProtobufDecoder(keys, Files.readAllBytes(file.toPath()), options.get("message"));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("can not read protobuf descriptor " + file + ": " + e.getMessage(), e);
+            }
+        }));
+        factories.put("struct", new Builtin("struct", (keys, options, home) -> new StructDecoder(keys,
+                requireOption(options, "layout", "struct"), options.getOrDefault("byte_order", "little"))));
+        try {
+            for (final PayloadDecoderFactory factory : ServiceLoader.load(PayloadDecoderFactory.class, PayloadDecoders.class.getClassLoader())) {
+                final String name = factory.getName().trim().toLowerCase(Locale.ROOT);
+                if (name.equals(BASE64) || factories.containsKey(name)) {
+                    log.warn("payload decoder {} of {} is ignored, the name is taken", name, factory.getClass().getName());
+                    continue;
+                }
+                factories.put(name, factory);
+                log.info("loaded payload decoder {} from {}", name, factory.getClass().getName());
+            }
+        } catch (ServiceConfigurationError e) {
+            log.error("failed to load payload decoders: {}", e.getMessage());
+        }
+        return factories;
+    }
+
+    /**
+     * @param keys the payload keys indexed by slot, <b>null</b> entries are ignored
+     * @return the slot of each distinct key, the first one if a key is repeated.
+     */
+    @NotNull
+    static Map<String, Integer> slotsOf(@NotNull final String[] keys) {
+        final Map<String, Integer> slots = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                slots.putIfAbsent(keys[i], i);
+            }
+        }
+        return slots;
+    }
+
+    @NotNull
+    private static String requireOption(@NotNull final Map<String, String> options, @NotNull final String key, @NotNull final String coder) {
+        final String value = options.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("msg_coder " + coder + " needs msg_coder." + key);
+        }
+        return value.trim();
+    }
+
+    private interface Creator {
+        @NotNull
+        PayloadDecoder create(@NotNull String[] keys, @NotNull Map<String, String> options, @Nullable File home);
+    }
+
+    private static final class Builtin implements PayloadDecoderFactory {
+
+        private final String name;
+        private final Creator creator;
+
+        private Builtin(@NotNull final String name, @NotNull final Creator creator) {
+            this.name = name;
+            this.creator = creator;
+        }
+
+        @Override
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        @NotNull
+        public PayloadDecoder create(@NotNull final String[] keys, @NotNull final Map<String, String> options, @Nullable final File home) {
+            return creator.create(keys, options, home);
+        }
+    }
+}
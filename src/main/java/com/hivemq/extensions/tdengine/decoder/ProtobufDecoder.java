@@ -0,0 +1,386 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Extracts selected scalar fields of a Protocol Buffers message, described by a <code>FileDescriptorSet</code>
+ * as written by <code>protoc --include_imports --descriptor_set_out</code>. The descriptor and the payload are read
+ * with the same wire format reader, so no generated classes are needed. Numbers, strings and booleans are stored
+ * as their text, bytes as base64 and enums as their number; nested messages and groups are skipped.
+ * A repeated field keeps its last value, like a singular field sent twice.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class ProtobufDecoder implements PayloadDecoder {
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int START_GROUP = 3;
+    private static final int END_GROUP = 4;
+    private static final int FIXED32 = 5;
+
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_FLOAT = 2;
+    private static final int TYPE_INT64 = 3;
+    private static final int TYPE_UINT64 = 4;
+    private static final int TYPE_INT32 = 5;
+    private static final int TYPE_FIXED64 = 6;
+    private static final int TYPE_FIXED32 = 7;
+    private static final int TYPE_BOOL = 8;
+    private static final int TYPE_STRING = 9;
+    private static final int TYPE_GROUP = 10;
+    private static final int TYPE_MESSAGE = 11;
+    private static final int TYPE_BYTES = 12;
+    private static final int TYPE_UINT32 = 13;
+    private static final int TYPE_ENUM = 14;
+    private static final int TYPE_SFIXED32 = 15;
+    private static final int TYPE_SFIXED64 = 16;
+    private static final int TYPE_SINT32 = 17;
+    private static final int TYPE_SINT64 = 18;
+
+    private final String messageName;
+    /** the slot and type of each selected field by field number */
+    private final Map<Integer, Field> fields = new HashMap<>();
+
+    /**
+     * @param keys the field names to extract, indexed by the slot their values are stored in. <b>null</b> entries are ignored.
+     * @param descriptorSet the serialized <code>FileDescriptorSet</code>
+     * @param messageName the full name of the payload message, e.g. <code>sensors.Reading</code>,
+     * may be <b>null</b> if the descriptor set has a single message
+     * @throws IllegalArgumentException if the descriptor can not be read, the message is not found
+     * or a key is not a scalar field of the message.
+     */
+    public ProtobufDecoder(@NotNull final String[] keys, @NotNull final byte[] descriptorSet, @Nullable final String messageName) {
+        final Map<String, List<Field>> messages = new LinkedHashMap<>();
+        try {
+            final ByteBuffer in = ByteBuffer.wrap(descriptorSet);
+            while (in.hasRemaining()) {
+                final long tag = readVarint(in);
+                if (tag == (1 << 3 | LENGTH_DELIMITED)) {
+                    readFile(slice(in), messages);
+                } else {
+                    skipField(in, (int) tag & 7);
+                }
+            }
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid protobuf descriptor set: " + e.getMessage(), e);
+        }
+        final String name;
+        if (messageName != null) {
+            name = messageName.startsWith(".") ? messageName.substring(1) : messageName;
+        } else if (messages.size() == 1) {
+            name = messages.keySet().iterator().next();
+        } else {
+            throw new IllegalArgumentException("the protobuf descriptor set has " + messages.size() + " messages, msg_coder.message is needed");
+        }
+        final List<Field> declared = messages.get(name);
+        if (declared == null) {
+            throw new IllegalArgumentException("message " + name + " not found in the protobuf descriptor set");
+        }
+        this.messageName = name;
+        final Map<String, Integer> slots = PayloadDecoders.slotsOf(keys);
+        for (final Field field : declared) {
+            final Integer slot = slots.remove(field.name);
+            if (slot == null) {
+                continue;
+            }
+            if (field.type == TYPE_MESSAGE || field.type == TYPE_GROUP) {
+                throw new IllegalArgumentException("field " + field.name + " of message " + name + " is no scalar");
+            }
+            fields.put(field.number, new Field(field.name, field.number, field.type, slot));
+        }
+        if (!slots.isEmpty()) {
+            throw new IllegalArgumentException("message " + name + " has no field " + slots.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * @return the full name of the payload message.
+     */
+    @NotNull
+    public String getMessageName() {
+        return messageName;
+    }
+
+    @Override
+    public int extract(@NotNull final ByteBuffer payload, @NotNull final String[] values) throws IOException {
+        final ByteBuffer in = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int found = 0;
+        try {
+            while (in.hasRemaining()) {
+                final long tag = readVarint(in);
+                final int wireType = (int) tag & 7;
+                final Field field = fields.get((int) (tag >>> 3));
+                if (field == null || !field.accepts(wireType)) {
+                    skipField(in, wireType);
+                    continue;
+                }
+                if (values[field.slot] == null) {
+                    found++;
+                }
+                values[field.slot] = field.read(in);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("truncated protobuf payload", e);
+        }
+        return found;
+    }
+
+    /**
+     * Collect the messages of a <code>FileDescriptorProto</code>: package 2, message_type 4.
+     */
+    private static void readFile(@NotNull final ByteBuffer in, @NotNull final Map<String, List<Field>> messages) throws IOException {
+        String pkg = "";
+        final List<ByteBuffer> types = new ArrayList<>();
+        while (in.hasRemaining()) {
+            final long tag = readVarint(in);
+            if (tag == (2 << 3 | LENGTH_DELIMITED)) {
+                pkg = readString(in);
+            } else if (tag == (4 << 3 | LENGTH_DELIMITED)) {
+                types.add(slice(in));
+            } else {
+                skipField(in, (int) tag & 7);
+            }
+        }
+        for (final ByteBuffer type : types) {
+            readMessage(type, pkg, messages);
+        }
+    }
+
+    /**
+     * Collect a <code>DescriptorProto</code> and its nested types: name 1, field 2, nested_type 3.
+     */
+    private static void readMessage(@NotNull final ByteBuffer in, @NotNull final String scope,
+    		@NotNull final Map<String, List<Field>> messages) throws IOException {
+        String name = "";
+        final List<Field> fields = new ArrayList<>();
+        final List<ByteBuffer> nested = new ArrayList<>();
+        while (in.hasRemaining()) {
+            final long tag = readVarint(in);
+            if (tag == (1 << 3 | LENGTH_DELIMITED)) {
+                name = readString(in);
+            } else if (tag == (2 << 3 | LENGTH_DELIMITED)) {
+                fields.add(readField(slice(in)));
+            } else if (tag == (3 << 3 | LENGTH_DELIMITED)) {
+                nested.add(slice(in));
+            } else {
+                skipField(in, (int) tag & 7);
+            }
+        }
+        final String fullName = scope.isEmpty() ? name : scope + "." + name;
+        messages.put(fullName, fields);
+        for (final ByteBuffer type : nested) {
+            readMessage(type, fullName, messages);
+        }
+    }
+
+    /**
+     * Read a <code>FieldDescriptorProto</code>: name 1, number 3, type 5.
+     */
+    @NotNull
+    private static Field readField(@NotNull final ByteBuffer in) throws IOException {
+        String name = "";
+        int number = 0;
+        int type = 0;
+        while (in.hasRemaining()) {
+            final long tag = readVarint(in);
+            if (tag == (1 << 3 | LENGTH_DELIMITED)) {
+                name = readString(in);
+            } else if (tag == (3 << 3 | VARINT)) {
+                number = (int) readVarint(in);
+            } else if (tag == (5 << 3 | VARINT)) {
+                type = (int) readVarint(in);
+            } else {
+                skipField(in, (int) tag & 7);
+            }
+        }
+        return new Field(name, number, type, -1);
+    }
+
+    private static long readVarint(@NotNull final ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed protobuf varint");
+    }
+
+    /**
+     * @return the length-delimited bytes at the position, which is moved past them.
+     */
+    @NotNull
+    private static ByteBuffer slice(@NotNull final ByteBuffer in) throws IOException {
+        final int length = length(readVarint(in), in);
+        final ByteBuffer slice = in.slice().order(in.order());
+        slice.limit(length);
+        in.position(in.position() + length);
+        return slice;
+    }
+
+    @NotNull
+    private static String readString(@NotNull final ByteBuffer in) throws IOException {
+        final int length = length(readVarint(in), in);
+        final String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static void skipField(@NotNull final ByteBuffer in, final int wireType) throws IOException {
+        switch (wireType) {
+            case VARINT:
+                readVarint(in);
+                return;
+            case FIXED64:
+                in.position(in.position() + 8);
+                return;
+            case LENGTH_DELIMITED:
+                final int length = length(readVarint(in), in);
+                in.position(in.position() + length);
+                return;
+            case FIXED32:
+                in.position(in.position() + 4);
+                return;
+            case START_GROUP:
+                for (long tag = readVarint(in); (tag & 7) != END_GROUP; tag = readVarint(in)) {
+                    skipField(in, (int) tag & 7);
+                }
+                return;
+            default:
+                throw new IOException("invalid protobuf wire type " + wireType);
+        }
+    }
+
+    private static int length(final long length, @NotNull final ByteBuffer in) {
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return (int) length;
+    }
+
+    private static final class Field {
+
+        private final String name;
+        private final int number;
+        private final int type;
+        private final int slot;
+        private final int wireType;
+
+        private Field(@NotNull final String name, final int number, final int type, final int slot) {
+            this.name = name;
+            this.number = number;
+            this.type = type;
+            this.slot = slot;
+            this.wireType = wireTypeOf(type);
+        }
+
+        private static int wireTypeOf(final int type) {
+            switch (type) {
+                case TYPE_DOUBLE:
+                case TYPE_FIXED64:
+                case TYPE_SFIXED64:
+                    return FIXED64;
+                case TYPE_FLOAT:
+                case TYPE_FIXED32:
+                case TYPE_SFIXED32:
+                    return FIXED32;
+                case TYPE_STRING:
+                case TYPE_BYTES:
+                case TYPE_MESSAGE:
+                    return LENGTH_DELIMITED;
+                case TYPE_GROUP:
+                    return START_GROUP;
+                default:
+                    return VARINT;
+            }
+        }
+
+        /**
+         * @return <b>false</b> for packed repeated values, which are skipped.
+         */
+        private boolean accepts(final int actual) {
+            return actual == wireType;
+        }
+
+        @NotNull
+        private String read(@NotNull final ByteBuffer in) throws IOException {
+            switch (type) {
+                case TYPE_DOUBLE:
+                    return Double.toString(in.getDouble());
+                case TYPE_FLOAT:
+                    return Float.toString(in.getFloat());
+                case TYPE_FIXED64:
+                    return Long.toUnsignedString(in.getLong());
+                case TYPE_SFIXED64:
+                    return Long.toString(in.getLong());
+                case TYPE_FIXED32:
+                    return Integer.toUnsignedString(in.getInt());
+                case TYPE_SFIXED32:
+                    return Integer.toString(in.getInt());
+                case TYPE_STRING:
+                    return readString(in);
+                case TYPE_BYTES:
+                    final byte[] bytes = new byte[length(readVarint(in), in)];
+                    in.get(bytes);
+                    return Base64.getEncoder().encodeToString(bytes);
+                case TYPE_BOOL:
+                    return readVarint(in) != 0 ? "true" : "false";
+                case TYPE_UINT64:
+                    return Long.toUnsignedString(readVarint(in));
+                case TYPE_UINT32:
+                    return Integer.toUnsignedString((int) readVarint(in));
+                case TYPE_SINT32:
+                case TYPE_SINT64:
+                    final long zigzag = readVarint(in);
+                    return Long.toString(zigzag >>> 1 ^ -(zigzag & 1));
+                case TYPE_INT32:
+                case TYPE_ENUM:
+                    return Integer.toString((int) readVarint(in));
+                default:
+                    return Long.toString(readVarint(in));
+            }
+        }
+    }
+}
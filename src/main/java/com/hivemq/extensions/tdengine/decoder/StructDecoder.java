@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Reads selected fields of a fixed-layout binary frame, as a C struct sent by a constrained device.
+ * The layout lists the fields as <code>name:type[@offset]</code>, e.g. <code>ts:u32,temperature:f32,battery:u8@12</code>;
+ * a field without offset follows the previous one. Types are <code>i8</code>, <code>u8</code>, <code>i16</code>, <code>u16</code>,
+ * <code>i32</code>, <code>u32</code>, <code>i64</code>, <code>u64</code>, <code>f32</code>, <code>f64</code> and <code>bool</code>,
+ * read with absolute gets in little-endian byte order unless big is configured.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class StructDecoder implements PayloadDecoder {
+
+    private final ByteOrder order;
+    private final Field[] fields;
+    /** the size a frame needs to hold all selected fields */
+    private final int minLength;
+
+    /**
+     * @param keys the field names to extract, indexed by the slot their values are stored in. <b>null</b> entries are ignored.
+     * @param layout the fields of the frame, <code>name:type[@offset]</code> separated by commas
+     * @param byteOrder little or big
+     * @throws IllegalArgumentException if the layout is invalid or a key is not part of it.
+     */
+    public StructDecoder(@NotNull final String[] keys, @NotNull final String layout, @NotNull final String byteOrder) {
+        if (byteOrder.trim().equalsIgnoreCase("little")) {
+            this.order = ByteOrder.LITTLE_ENDIAN;
+        } else if (byteOrder.trim().equalsIgnoreCase("big")) {
+            this.order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IllegalArgumentException("invalid struct byte_order " + byteOrder);
+        }
+        final Map<String, Field> declared = new HashMap<>();
+        int offset = 0;
+        for (final String entry : layout.split(",")) {
+            final String[] parts = entry.trim().split("[:@]");
+            if (parts.length < 2 || parts.length > 3 || parts[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("invalid struct field " + entry.trim() + ", expected name:type[@offset]");
+            }
+            final Type type = Type.of(parts[1].trim());
+            if (parts.length == 3) {
+                try {
+                    offset = Integer.parseInt(parts[2].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid offset of struct field " + entry.trim());
+                }
+                if (offset < 0) {
+                    throw new IllegalArgumentException("invalid offset of struct field " + entry.trim());
+                }
+            }
+            if (declared.put(parts[0].trim(), new Field(type, offset, -1)) != null) {
+                throw new IllegalArgumentException("duplicate struct field " + parts[0].trim());
+            }
+            offset += type.size;
+        }
+        final List<Field> selected = new ArrayList<>();
+        int length = 0;
+        for (final Map.Entry<String, Integer> slot : PayloadDecoders.slotsOf(keys).entrySet()) {
+            final Field field = declared.get(slot.getKey());
+            if (field == null) {
+                throw new IllegalArgumentException("struct layout has no field " + slot.getKey());
+            }
+            selected.add(new Field(field.type, field.offset, slot.getValue()));
+            length = Math.max(length, field.offset + field.type.size);
+        }
+        this.fields = selected.toArray(new Field[0]);
+        this.minLength = length;
+    }
+
+    @Override
+    public int extract(@NotNull final ByteBuffer payload, @NotNull final String[] values) throws IOException {
+        if (payload.remaining() < minLength) {
+            throw new IOException("struct payload of " + payload.remaining() + " bytes is shorter than the " + minLength + " bytes of the layout");
+        }
+        final ByteBuffer in = payload.duplicate().order(order);
+        final int base = in.position();
+        for (final Field field : fields) {
+            values[field.slot] = field.type.read(in, base + field.offset);
+        }
+        return fields.length;
+    }
+
+    private enum Type {
+        I8(1), U8(1), I16(2), U16(2), I32(4), U32(4), I64(8), U64(8), F32(4), F64(8), BOOL(1);
+
+        private final int size;
+
+        Type(final int size) {
+            this.size = size;
+        }
+
+        @NotNull
+        private static Type of(@NotNull final String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("invalid struct type " + name);
+            }
+        }
+
+        @NotNull
+        private String read(@NotNull final ByteBuffer in, final int index) {
+            switch (this) {
+                case I8:
+                    return Integer.toString(in.get(index));
+                case U8:
+                    return Integer.toString(in.get(index) & 0xff);
+                case I16:
+                    return Integer.toString(in.getShort(index));
+                case U16:
+                    return Integer.toString(in.getShort(index) & 0xffff);
+                case I32:
+                    return Integer.toString(in.getInt(index));
+                case U32:
+                    return Integer.toUnsignedString(in.getInt(index));
+                case I64:
+                    return Long.toString(in.getLong(index));
+                case U64:
+                    return Long.toUnsignedString(in.getLong(index));
+                case F32:
+                    return Float.toString(in.getFloat(index));
+                case F64:
+                    return Double.toString(in.getDouble(index));
+                default:
+                    return in.get(index) != 0 ? "true" : "false";
+            }
+        }
+    }
+
+    private static final class Field {
+
+        private final Type type;
+        private final int offset;
+        private final int slot;
+
+        private Field(@NotNull final Type type, final int offset, final int slot) {
+            this.type = type;
+            this.offset = offset;
+            this.slot = slot;
+        }
+    }
+}
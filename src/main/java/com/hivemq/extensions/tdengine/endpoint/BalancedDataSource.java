@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.endpoint;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * {@link DataSource} with one connection pool per TDengine endpoint, borrowing each connection
+ * from the pool its balancer selects.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class BalancedDataSource implements DataSource {
+
+    private final EndpointBalancer<DruidDataSource> balancer;
+
+    /**
+     * @param balancer selects among the connection pools of the endpoints
+     */
+    public BalancedDataSource(@NotNull final EndpointBalancer<DruidDataSource> balancer) {
+        this.balancer = balancer;
+    }
+
+    /**
+     * @param pool
+     * @return the number of connections borrowed from the pool, the outstanding requests of its endpoint.
+     */
+    public static int outstanding(@NotNull final DruidDataSource pool) {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Run the test SQL on a connection of the pool.
+     * @param pool
+     * @param testSql the validation query, e.g. <code>select server_status();</code>
+     * @param timeoutMillis maximum time to wait for a connection
+     * @throws SQLException if the endpoint can not serve writes.
+     */
+    public static void check(@NotNull final DruidDataSource pool, @NotNull final String testSql, final long timeoutMillis)
+            throws SQLException {
+        try (final Connection connection = pool.getConnection(timeoutMillis);
+             final Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout((int) Math.max(1, timeoutMillis / 1000));
+            statement.execute(testSql);
+        }
+    }
+
+    @NotNull
+    public EndpointBalancer<DruidDataSource> getBalancer() {
+        return balancer;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return balancer.select().getTarget().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return balancer.select().getTarget().getConnection(username, password);
+    }
+
+    /**
+     * @return the connections borrowed from all pools.
+     */
+    public int getActiveCount() {
+        int active = 0;
+        for (final Endpoint<DruidDataSource> endpoint : balancer.getEndpoints()) {
+            active += endpoint.getTarget().getActiveCount();
+        }
+        return active;
+    }
+
+    /**
+     * @return the threads waiting for a connection of any pool.
+     */
+    public int getWaitThreadCount() {
+        int waiting = 0;
+        for (final Endpoint<DruidDataSource> endpoint : balancer.getEndpoints()) {
+            waiting += endpoint.getTarget().getWaitThreadCount();
+        }
+        return waiting;
+    }
+
+    public void close() {
+        for (final Endpoint<DruidDataSource> endpoint : balancer.getEndpoints()) {
+            endpoint.getTarget().close();
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return first().getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) throws SQLException {
+        for (final Endpoint<DruidDataSource> endpoint : balancer.getEndpoints()) {
+            endpoint.getTarget().setLogWriter(out);
+        }
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) throws SQLException {
+        for (final Endpoint<DruidDataSource> endpoint : balancer.getEndpoints()) {
+            endpoint.getTarget().setLoginTimeout(seconds);
+        }
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return first().getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return first().getParentLogger();
+    }
+
+    @Override
+    public <U> U unwrap(final Class<U> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException(getClass().getName() + " is not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    @NotNull
+    private DruidDataSource first() {
+        return balancer.getEndpoints().get(0).getTarget();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.endpoint;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * One of several TDengine servers or taosAdapters the writes are spread over.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public final class Endpoint<T> {
+
+    private final String name;
+    private final T target;
+    private final int weight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean healthy = true;
+
+    // state of the smooth weighted round-robin, guarded by the balancer
+    int currentWeight;
+
+    /**
+     * @param name the URL, used in log messages
+     * @param target the connection pool or URI the writes are sent to
+     * @param weight the share of the writes relative to the other endpoints
+     */
+    public Endpoint(@NotNull final String name, @NotNull final T target, final int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight of " + name + " must be positive");
+        }
+        this.name = name;
+        this.target = target;
+        this.weight = weight;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public T getTarget() {
+        return target;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    void setHealthy(final boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    /**
+     * Count a request sent to this endpoint until {@link #release()}.
+     */
+    public void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Count a request sent to this endpoint until {@link #release()}, unless it has the given number of requests in flight.
+     * @param maxInFlight the maximum number of requests in flight
+     * @return <b>false</b> if the endpoint is at the limit.
+     */
+    public boolean tryAcquire(final int maxInFlight) {
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return the number of requests acquired and not yet released.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.endpoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Selects the endpoint of the next write, by smooth weighted round-robin or by the fewest outstanding requests
+ * relative to the weight. Endpoints ejected by the {@link HealthChecker} are skipped; if all of them are ejected,
+ * all are used, so the writes fail, or reach the write-ahead log, instead of being held back.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class EndpointBalancer<T> {
+
+    public enum Selection {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING;
+
+        /**
+         * @param name <b>round_robin</b> or <b>least_outstanding</b>, in any case
+         * @return the selection
+         */
+        @NotNull
+        public static Selection of(@NotNull final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final List<Endpoint<T>> endpoints;
+    private final Selection selection;
+    private final ToIntFunction<T> outstanding;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param endpoints the endpoints in order of configuration
+     * @param selection how the endpoint of a write is selected
+     * @param outstanding the requests outstanding at a target, <b>null</b> to count them with {@link Endpoint#acquire()}
+     */
+    public EndpointBalancer(@NotNull final List<Endpoint<T>> endpoints, @NotNull final Selection selection,
+                            @Nullable final ToIntFunction<T> outstanding) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("at least one endpoint is needed");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.selection = selection;
+        this.outstanding = outstanding;
+    }
+
+    /**
+     * @param target the only endpoint
+     * @return a balancer always selecting the target.
+     */
+    @NotNull
+    public static <T> EndpointBalancer<T> of(@NotNull final String name, @NotNull final T target) {
+        return new EndpointBalancer<>(Collections.singletonList(new Endpoint<>(name, target, 1)), Selection.ROUND_ROBIN, null);
+    }
+
+    @NotNull
+    public Endpoint<T> select() {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        return select(getCandidates());
+    }
+
+    /**
+     * Select an endpoint among those with fewer than the given number of requests in flight and count a request there.
+     * Endpoints at the limit are skipped like ejected ones, so a surviving endpoint does not take the requests of the others.
+     * @param maxInFlight the maximum number of requests in flight per endpoint
+     * @return the acquired endpoint, to be released when its request completed, <b>null</b> if all candidates are at the limit.
+     */
+    @Nullable
+    public Endpoint<T> acquire(final int maxInFlight) {
+        while (true) {
+            final List<Endpoint<T>> candidates = getCandidates();
+            final List<Endpoint<T>> free = new ArrayList<>(candidates.size());
+            for (final Endpoint<T> endpoint : candidates) {
+                if (endpoint.getInFlight() < maxInFlight) {
+                    free.add(endpoint);
+                }
+            }
+            if (free.isEmpty()) {
+                return null;
+            }
+            final Endpoint<T> endpoint = select(free);
+            // another request may have taken the last slot since
+            if (endpoint.tryAcquire(maxInFlight)) {
+                return endpoint;
+            }
+        }
+    }
+
+    @NotNull
+    private Endpoint<T> select(@NotNull final List<Endpoint<T>> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        return selection == Selection.LEAST_OUTSTANDING ? leastOutstanding(candidates) : roundRobin(candidates);
+    }
+
+    @NotNull
+    public List<Endpoint<T>> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @return the number of endpoints which passed their last health check.
+     */
+    public int getHealthy() {
+        int healthy = 0;
+        for (final Endpoint<T> endpoint : endpoints) {
+            if (endpoint.isHealthy()) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    /**
+     * Reads the health of every endpoint once, as the health checker may change it while an endpoint is selected.
+     *
+     * @return the healthy endpoints, all endpoints if none is healthy.
+     */
+    @NotNull
+    private List<Endpoint<T>> getCandidates() {
+        final List<Endpoint<T>> healthy = new ArrayList<>(endpoints.size());
+        for (final Endpoint<T> endpoint : endpoints) {
+            if (endpoint.isHealthy()) {
+                healthy.add(endpoint);
+            }
+        }
+        return healthy.isEmpty() ? endpoints : healthy;
+    }
+
+    /**
+     * Every selection adds its weight to each endpoint and picks the largest sum, which is then lowered by the total weight,
+     * so an endpoint of weight 2 next to one of weight 1 is selected in the order a, b, a rather than a, a, b.
+     */
+    @NotNull
+    private synchronized Endpoint<T> roundRobin(@NotNull final List<Endpoint<T>> candidates) {
+        Endpoint<T> selected = null;
+        int totalWeight = 0;
+        for (final Endpoint<T> endpoint : candidates) {
+            endpoint.currentWeight += endpoint.getWeight();
+            totalWeight += endpoint.getWeight();
+            if (selected == null || endpoint.currentWeight > selected.currentWeight) {
+                selected = endpoint;
+            }
+        }
+        selected.currentWeight -= totalWeight;
+        return selected;
+    }
+
+    @NotNull
+    private Endpoint<T> leastOutstanding(@NotNull final List<Endpoint<T>> candidates) {
+        // start at a rotating position, so ties are spread over the endpoints
+        final int start = Math.floorMod(next.getAndIncrement(), candidates.size());
+        Endpoint<T> selected = null;
+        long selectedLoad = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            final Endpoint<T> endpoint = candidates.get((start + i) % candidates.size());
+            final long load = outstanding != null ? outstanding.applyAsInt(endpoint.getTarget()) : endpoint.getInFlight();
+            // load / weight < selectedLoad / selected weight without dividing
+            if (selected == null || load * selected.getWeight() < selectedLoad * endpoint.getWeight()) {
+                selected = endpoint;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+}
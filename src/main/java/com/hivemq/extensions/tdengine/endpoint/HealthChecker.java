@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.endpoint;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Checks the endpoints of a balancer periodically, ejecting an endpoint whose check failed
+ * and bringing it back once a check passes again.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class HealthChecker<T> {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(HealthChecker.class);
+
+    /**
+     * A check of one endpoint, e.g. running the test SQL.
+     */
+    @FunctionalInterface
+    public interface Check<T> {
+
+        /**
+         * @param target the connection pool or URI of the endpoint
+         * @throws Exception if the endpoint can not serve writes.
+         */
+        void check(@NotNull T target) throws Exception;
+    }
+
+    private final EndpointBalancer<T> balancer;
+    private final ScheduledExecutorService scheduler;
+    private final long intervalMillis;
+    private final Check<T> check;
+    private volatile boolean running;
+    private ScheduledFuture<?> task;
+
+    /**
+     * @param balancer selects among the checked endpoints
+     * @param scheduler runs the checks
+     * @param intervalMillis time between two rounds of checks
+     * @param check the check of one endpoint
+     */
+    public HealthChecker(@NotNull final EndpointBalancer<T> balancer, @NotNull final ScheduledExecutorService scheduler,
+                         final long intervalMillis, @NotNull final Check<T> check) {
+        this.balancer = balancer;
+        this.scheduler = scheduler;
+        this.intervalMillis = intervalMillis;
+        this.check = check;
+    }
+
+    public synchronized void start() {
+        running = true;
+        task = scheduler.scheduleWithFixedDelay(this::checkAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Check every endpoint once and eject or restore those whose state changed.
+     */
+    void checkAll() {
+        for (final Endpoint<T> endpoint : balancer.getEndpoints()) {
+            if (!running) {
+                return;
+            }
+            Exception failure = null;
+            try {
+                check.check(endpoint.getTarget());
+            } catch (Exception e) {
+                failure = e;
+            }
+            if (failure == null && !endpoint.isHealthy()) {
+                endpoint.setHealthy(true);
+                log.info("endpoint {} passed its health check, restoring it", endpoint);
+            } else if (failure != null && endpoint.isHealthy()) {
+                endpoint.setHealthy(false);
+                log.warn("endpoint {} failed its health check, ejecting it: {}", endpoint, failure.getMessage());
+            }
+        }
+    }
+}
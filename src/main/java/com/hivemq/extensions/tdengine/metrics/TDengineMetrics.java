@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * The metrics of the publish pipeline, registered with the prefix <b>com.hivemq.extensions.tdengine.</b>
+ * in the metric registry of HiveMQ, so they are exported with the metrics of the broker.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class TDengineMetrics {
+
+    public static final String PREFIX = "com.hivemq.extensions.tdengine.";
+
+    private final MetricRegistry registry;
+    private final Counter matched;
+    private final Counter skipped;
+    private final Counter parsed;
+    private final Counter failed;
+    private final Counter written;
+    private final Counter duplicates;
+    private final Counter throttled;
+    private final Counter downsampled;
+    private final Timer parseTime;
+    private final Timer renderTime;
+    private final Timer writeLatency;
+    private final Histogram batchSize;
+    private final Timer connectionWait;
+
+    /**
+     * Metrics which are not exported, e.g. for tests.
+     */
+    public TDengineMetrics() {
+        this(new MetricRegistry());
+    }
+
+    /**
+     * @param registry the registry to add the metrics to, usually {@link com.hivemq.extension.sdk.api.services.Services#metricRegistry()}
+     */
+    public TDengineMetrics(@NotNull final MetricRegistry registry) {
+        this.registry = registry;
+        this.matched = registry.counter(PREFIX + "messages.matched");
+        this.skipped = registry.counter(PREFIX + "messages.skipped");
+        this.parsed = registry.counter(PREFIX + "messages.parsed");
+        this.failed = registry.counter(PREFIX + "messages.failed");
+        this.written = registry.counter(PREFIX + "messages.written");
+        this.duplicates = registry.counter(PREFIX + "messages.duplicate");
+        this.throttled = registry.counter(PREFIX + "messages.throttled");
+        this.downsampled = registry.counter(PREFIX + "messages.downsampled");
+        this.parseTime = registry.timer(PREFIX + "parse.time");
+        this.renderTime = registry.timer(PREFIX + "render.time");
+        this.writeLatency = registry.timer(PREFIX + "write.latency");
+        this.batchSize = registry.histogram(PREFIX + "batch.size");
+        this.connectionWait = registry.timer(PREFIX + "connection.wait");
+    }
+
+    /**
+     * @return publishes matching at least one route.
+     */
+    @NotNull
+    public Counter getMatched() {
+        return matched;
+    }
+
+    /**
+     * @return publishes without a matching route or without a payload.
+     */
+    @NotNull
+    public Counter getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return rows which were parsed and rendered for a route.
+     */
+    @NotNull
+    public Counter getParsed() {
+        return parsed;
+    }
+
+    /**
+     * @return rows which could not be parsed, rendered or written.
+     */
+    @NotNull
+    public Counter getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return rows written to TDengine.
+     */
+    @NotNull
+    public Counter getWritten() {
+        return written;
+    }
+
+    /**
+     * @return rows dropped as duplicates of a row of the same sub-table and timestamp within the duplicate window.
+     */
+    @NotNull
+    public Counter getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return publishes beyond the rate limit of their client or topic which were not written.
+     */
+    @NotNull
+    public Counter getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return publishes dropped by the downsampling of their route.
+     */
+    @NotNull
+    public Counter getDownsampled() {
+        return downsampled;
+    }
+
+    /**
+     * @return time to read the fields of a payload.
+     */
+    @NotNull
+    public Timer getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * @return time to render a statement, table name or schemaless record from the fields.
+     */
+    @NotNull
+    public Timer getRenderTime() {
+        return renderTime;
+    }
+
+    /**
+     * @return time TDengine took to execute a statement or batch, from sending it to its result.
+     */
+    @NotNull
+    public Timer getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * @return rows per statement or request sent to TDengine.
+     */
+    @NotNull
+    public Histogram getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return time a write waited for a pooled JDBC connection or a free HTTP connection slot.
+     */
+    @NotNull
+    public Timer getConnectionWait() {
+        return connectionWait;
+    }
+
+    /**
+     * Update a timer with the time passed since the given start.
+     * @param timer the timer
+     * @param startNanos the start from {@link System#nanoTime()}
+     */
+    public static void since(@NotNull final Timer timer, final long startNanos) {
+        timer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Register a gauge, replacing a gauge of the same name from a previous start of the extension.
+     * @param name the name without prefix
+     * @param gauge the gauge
+     */
+    public void gauge(@NotNull final String name, @NotNull final Gauge<?> gauge) {
+        registry.remove(PREFIX + name);
+        registry.register(PREFIX + name, gauge);
+    }
+
+    /**
+     * Remove a gauge, e.g. of a connection pool which was replaced by a reload.
+     * @param name the name without prefix
+     */
+    public void removeGauge(@NotNull final String name) {
+        registry.remove(PREFIX + name);
+    }
+
+    /**
+     * Remove all metrics of the extension from the registry.
+     */
+    public void remove() {
+        registry.removeMatching(MetricFilter.startsWith(PREFIX));
+    }
+}
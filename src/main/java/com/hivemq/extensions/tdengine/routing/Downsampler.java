@@ -0,0 +1,410 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.routing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.configuration.Downsampling;
+import com.hivemq.extensions.tdengine.configuration.RouteConfiguration;
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoder;
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoders;
+import com.hivemq.extensions.tdengine.template.SqlTemplate;
+import com.hivemq.extensions.tdengine.template.TemplateException;
+
+/**
+ * Thins out the publishes of a route before they are rendered, per series of publishes sharing a key,
+ * e.g. the device id: keeping one of every n publishes, only publishes whose value moved beyond a deadband,
+ * or the last publish of every time window.
+ * The state of a series is a small entry in a concurrent map; entries of series which stayed silent
+ * for the idle time are evicted by the publisher which passes the next sweep deadline.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class Downsampler {
+
+    /**
+     * How the publishes of a series are thinned out.
+     */
+    public enum Mode {
+        /** write one of every n publishes */
+        EVERY_NTH,
+        /** write a publish if its value differs from the last written one by more than the deadband */
+        DEADBAND,
+        /** hold the last publish of every window and write it once the window ended */
+        WINDOW;
+
+        /**
+         * @param name the mode name, e.g. every_nth
+         * @return the mode
+         * @throws IllegalArgumentException if the name is unknown.
+         */
+        @NotNull
+        public static Mode of(@NotNull final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final String[] NO_VALUES = new String[0];
+
+    private final Mode mode;
+    private final SqlTemplate keyTemplate;
+    private final int topicField;
+    private final int[] keySlots;
+    private final MetadataFields metadataFields;
+    private final int valueSlot;
+    private final PayloadDecoder decoder;
+    private final int slotCount;
+    private final int every;
+    private final double deadband;
+    private final long windowMillis;
+    private final int maxKeys;
+    private final long idleMillis;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep;
+
+    /**
+     * @param configuration the route settings with the downsampling and the coder of the payload
+     * @throws TemplateException if the key template is malformed or uses an unsupported placeholder.
+     * @throws IllegalArgumentException if the mode is unknown or payload fields are used without a payload decoder.
+     */
+    public Downsampler(@NotNull final RouteConfiguration configuration) {
+        final Downsampling settings = configuration.getDownsampling();
+        if (settings == null) {
+            throw new IllegalArgumentException("the route has no downsampling");
+        }
+        this.mode = Mode.of(settings.getMode());
+        this.keyTemplate = SqlTemplate.compile(settings.getKey());
+        this.topicField = keyTemplate.indexOf(Route.FIELD_TOPIC);
+        // the key is no SQL, any value is safe in it
+        this.metadataFields = new MetadataFields(keyTemplate, false);
+
+        final Map<String, Integer> slots = new LinkedHashMap<>();
+        this.keySlots = new int[keyTemplate.getFields().size()];
+        for (int i = 0; i < keySlots.length; i++) {
+            final String field = keyTemplate.getFields().get(i);
+            if (field.startsWith(Route.FIELD_PAYLOAD_PREFIX)) {
+                keySlots[i] = slots.computeIfAbsent(field.substring(Route.FIELD_PAYLOAD_PREFIX.length()), key -> slots.size());
+            } else if (i == topicField || metadataFields.contains(i)) {
+                keySlots[i] = -1;
+            } else {
+                throw new TemplateException("unsupported placeholder ${" + field + "} in sample.key");
+            }
+        }
+        if (mode == Mode.DEADBAND) {
+            if (settings.getField() == null) {
+                throw new IllegalArgumentException("deadband sampling needs sample.field");
+            }
+            this.valueSlot = slots.computeIfAbsent(settings.getField().trim(), key -> slots.size());
+        } else {
+            this.valueSlot = -1;
+        }
+        this.slotCount = slots.size();
+        if (slotCount > 0) {
+            this.decoder = PayloadDecoders.create(configuration.getCoder(), slots.keySet().toArray(new String[0]),
+                    configuration.getCoderOptions(), configuration.getHome());
+            if (decoder == null) {
+                throw new IllegalArgumentException("sampling by payload fields needs a payload decoder, not " + configuration.getCoder());
+            }
+        } else {
+            this.decoder = null;
+        }
+        this.every = Math.max(1, settings.getEvery());
+        this.deadband = settings.getDeadband();
+        this.windowMillis = Math.max(1, settings.getWindowMillis());
+        this.maxKeys = Math.max(1, settings.getMaxKeys());
+        this.idleMillis = Math.max(1, settings.getIdleMillis());
+        this.nextSweep = new AtomicLong(System.currentTimeMillis() + idleMillis);
+    }
+
+    @NotNull
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the fields of the key read from the topic levels, the client id and the user properties of the PUBLISH.
+     */
+    @NotNull
+    public MetadataFields getMetadataFields() {
+        return metadataFields;
+    }
+
+    /**
+     * Read the payload fields of the key and the value, without decoding the payload if there are none.
+     * @param payload the payload, its position is not moved
+     * @return the payload values by slot, <b>null</b> for missing keys.
+     * @throws IOException if the payload can not be decoded.
+     */
+    @NotNull
+    public String[] extract(@NotNull final ByteBuffer payload) throws IOException {
+        if (decoder == null) {
+            return NO_VALUES;
+        }
+        final String[] values = new String[slotCount];
+        decoder.extract(payload, values);
+        return values;
+    }
+
+    /**
+     * @param topic the topic of the PUBLISH
+     * @param metadata the client id and user properties of the PUBLISH
+     * @param values the payload values returned by {@link #extract(ByteBuffer)}
+     * @return the key of the series the publish belongs to.
+     * @throws TemplateException if a field of the key is missing.
+     */
+    @NotNull
+    public String keyOf(@NotNull final String topic, @NotNull final PublishMetadata metadata, @NotNull final String[] values) {
+        return keyTemplate.render((field, sb) -> {
+            final CharSequence value;
+            if (field == topicField) {
+                value = topic;
+            } else if (keySlots[field] < 0) {
+                value = metadataFields.valueOf(field, topic, metadata);
+            } else {
+                value = values[keySlots[field]];
+            }
+            if (value == null) {
+                return false;
+            }
+            sb.append(value);
+            return true;
+        });
+    }
+
+    /**
+     * @param values the payload values returned by {@link #extract(ByteBuffer)}
+     * @return the value compared in deadband mode, <b>null</b> if it is missing or in the other modes.
+     */
+    @Nullable
+    public String valueOf(@NotNull final String[] values) {
+        return valueSlot >= 0 ? values[valueSlot] : null;
+    }
+
+    /**
+     * Decide whether a publish is written, in {@link Mode#EVERY_NTH} and {@link Mode#DEADBAND} mode.
+     * Publishes without a value, and publishes of new series while the maximum number of series is tracked, are written.
+     * @param key the key of the series
+     * @param value the value of the publish in deadband mode
+     * @param nowMillis the time the publish was received
+     * @return <b>true</b> if the publish is to be written, <b>false</b> if it is dropped.
+     */
+    public boolean keep(@NotNull final String key, @Nullable final String value, final long nowMillis) {
+        if (mode == Mode.DEADBAND && value == null) {
+            return true;
+        }
+        for (;;) {
+            final Entry entry = entryOf(key, nowMillis);
+            if (entry == null) {
+                return true;
+            }
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                entry.seenMillis = nowMillis;
+                if (mode == Mode.EVERY_NTH) {
+                    return entry.count++ % every == 0;
+                }
+                return entry.moved(value, deadband);
+            }
+        }
+    }
+
+    /**
+     * Hold a publish as the last one of the current window of its series, in {@link Mode#WINDOW} mode.
+     * A publish of a new series while the maximum number of series is tracked is returned at once with an ended window.
+     * @param key the key of the series
+     * @param sample the publish
+     * @return the publish this one replaces, <b>null</b> if there is none: it is to be written if its window ended
+     * before this publish was received, see {@link Sample#getWindowEndMillis()}, and is dropped otherwise.
+     */
+    @Nullable
+    public Sample hold(@NotNull final String key, @NotNull final Sample sample) {
+        final long now = sample.getReceivedMillis();
+        for (;;) {
+            final Entry entry = entryOf(key, now);
+            if (entry == null) {
+                sample.windowEndMillis = now;
+                return sample;
+            }
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                entry.seenMillis = now;
+                final Sample previous = entry.held;
+                sample.windowEndMillis = previous != null && previous.windowEndMillis > now ? previous.windowEndMillis : now + windowMillis;
+                entry.held = sample;
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Take the held publishes whose window ended, in {@link Mode#WINDOW} mode.
+     * @param nowMillis the current time, {@link Long#MAX_VALUE} to take all held publishes
+     * @return the publishes to write, empty if no window ended.
+     */
+    @NotNull
+    public List<Sample> drain(final long nowMillis) {
+        final List<Sample> ended = new ArrayList<>();
+        for (final Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+            final Entry entry = iterator.next();
+            synchronized (entry) {
+                if (entry.held != null && entry.held.windowEndMillis <= nowMillis) {
+                    ended.add(entry.held);
+                    entry.held = null;
+                    entry.removed = true;
+                    iterator.remove();
+                }
+            }
+        }
+        return ended;
+    }
+
+    /**
+     * @return the number of series tracked, including idle ones not yet evicted.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Nullable
+    private Entry entryOf(@NotNull final String key, final long nowMillis) {
+        sweep(nowMillis);
+        final Entry entry = entries.get(key);
+        if (entry != null || entries.size() >= maxKeys) {
+            return entry;
+        }
+        return entries.computeIfAbsent(key, ignored -> new Entry());
+    }
+
+    private void sweep(final long nowMillis) {
+        final long deadline = nextSweep.get();
+        if (nowMillis < deadline || !nextSweep.compareAndSet(deadline, nowMillis + idleMillis)) {
+            return;
+        }
+        final long expired = nowMillis - idleMillis;
+        entries.values().removeIf(entry -> entry.expire(expired));
+    }
+
+    /**
+     * A publish held as the last one of a window.
+     */
+    public static final class Sample {
+
+        private final String topic;
+        private final byte[] payload;
+        private final long receivedMillis;
+        private final PublishMetadata metadata;
+        private long windowEndMillis;
+
+        public Sample(@NotNull final String topic, @NotNull final byte[] payload, final long receivedMillis,
+                @NotNull final PublishMetadata metadata) {
+            this.topic = topic;
+            this.payload = payload;
+            this.receivedMillis = receivedMillis;
+            this.metadata = metadata;
+        }
+
+        @NotNull
+        public String getTopic() {
+            return topic;
+        }
+
+        @NotNull
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public long getReceivedMillis() {
+            return receivedMillis;
+        }
+
+        @NotNull
+        public PublishMetadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return the end of the window the publish is the last one of.
+         */
+        public long getWindowEndMillis() {
+            return windowEndMillis;
+        }
+    }
+
+    /**
+     * The state of a series, guarded by its own monitor.
+     */
+    private static final class Entry {
+
+        private long count;
+        private double lastNumber = Double.NaN;
+        private String lastText;
+        private Sample held;
+        private long seenMillis;
+        private boolean removed;
+
+        /**
+         * @return <b>true</b> if the value is written, which makes it the value later ones are compared with.
+         */
+        private boolean moved(@NotNull final String value, final double deadband) {
+            double number;
+            try {
+                number = Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                number = Double.NaN;
+            }
+            final boolean moved;
+            if (lastText == null) {
+                moved = true;
+            } else if (Double.isNaN(number) || Double.isNaN(lastNumber)) {
+                // values which are no numbers are written when they change
+                moved = !value.equals(lastText);
+            } else {
+                moved = Math.abs(number - lastNumber) > deadband;
+            }
+            if (moved) {
+                lastNumber = number;
+                lastText = value;
+            }
+            return moved;
+        }
+
+        private synchronized boolean expire(final long expiredMillis) {
+            if (held != null || seenMillis > expiredMillis) {
+                return false;
+            }
+            removed = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.routing;
+
+import java.util.List;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.template.SqlTemplate;
+import com.hivemq.extensions.tdengine.template.TemplateException;
+
+/**
+ * The placeholders of a template which are read from the PUBLISH instead of its payload:
+ * <code>${topic[n]}</code> for level n of the topic, counted from 0 or from the end if negative,
+ * <code>${clientId}</code> and <code>${userProperty.name}</code>.
+ * They are resolved without decoding the payload. Values of placeholders outside quotes, e.g. in a table name, are
+ * only accepted if they consist of letters, digits and underscores, as the publishing client controls them.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public final class MetadataFields {
+
+    public static final String FIELD_CLIENT_ID = "clientid";
+    public static final String FIELD_TOPIC_LEVEL = "topic[";
+    public static final String FIELD_USER_PROPERTY_PREFIX = "userproperty.";
+
+    private static final int NO_LEVEL = Integer.MIN_VALUE;
+
+    private final List<String> names;
+    private final int[] levels;
+    private final String[] userProperties;
+    private final boolean[] clientIds;
+    private final boolean[] checked;
+    private final boolean clientIdUsed;
+    private final boolean userPropertiesUsed;
+
+    /**
+     * @param template the compiled SQL template
+     * @throws TemplateException if a topic level placeholder has no valid index.
+     */
+    public MetadataFields(@NotNull final SqlTemplate template) {
+        this(template, true);
+    }
+
+    /**
+     * @param template the compiled template
+     * @param sql <b>true</b> if the template renders SQL, so that values of placeholders outside quotes are checked
+     * @throws TemplateException if a topic level placeholder has no valid index.
+     */
+    public MetadataFields(@NotNull final SqlTemplate template, final boolean sql) {
+        final int count = template.getFields().size();
+        this.names = template.getFields();
+        this.levels = new int[count];
+        this.userProperties = new String[count];
+        this.clientIds = new boolean[count];
+        this.checked = new boolean[count];
+        boolean clientIdUsed = false;
+        boolean userPropertiesUsed = false;
+        for (int i = 0; i < count; i++) {
+            final String field = template.getFields().get(i);
+            levels[i] = field.startsWith(FIELD_TOPIC_LEVEL) ? levelOf(field) : NO_LEVEL;
+            if (field.startsWith(FIELD_USER_PROPERTY_PREFIX)) {
+                userProperties[i] = field.substring(FIELD_USER_PROPERTY_PREFIX.length());
+                userPropertiesUsed = true;
+            }
+            clientIds[i] = field.equals(FIELD_CLIENT_ID);
+            clientIdUsed |= clientIds[i];
+            checked[i] = sql && template.isUnquoted(i);
+        }
+        this.clientIdUsed = clientIdUsed;
+        this.userPropertiesUsed = userPropertiesUsed;
+    }
+
+    private static int levelOf(@NotNull final String field) {
+        if (!field.endsWith("]")) {
+            throw new TemplateException("malformed placeholder ${" + field + "}");
+        }
+        try {
+            return Integer.parseInt(field.substring(FIELD_TOPIC_LEVEL.length(), field.length() - 1).trim());
+        } catch (NumberFormatException e) {
+            throw new TemplateException("malformed placeholder ${" + field + "}");
+        }
+    }
+
+    /**
+     * Check whether a placeholder name is read from the PUBLISH metadata.
+     * @param field the lower case placeholder name
+     * @return <b>true</b> for topic levels, the client id and user properties.
+     */
+    public static boolean isMetadataField(@NotNull final String field) {
+        return field.equals(FIELD_CLIENT_ID) || field.startsWith(FIELD_TOPIC_LEVEL) || field.startsWith(FIELD_USER_PROPERTY_PREFIX);
+    }
+
+    /**
+     * @param field the index of a template field
+     * @return <b>true</b> if the field is read from the PUBLISH metadata.
+     */
+    public boolean contains(final int field) {
+        return levels[field] != NO_LEVEL || userProperties[field] != null || clientIds[field];
+    }
+
+    /**
+     * @param field the index of a template field for which {@link #contains(int)} is <b>true</b>
+     * @param topic the topic of the PUBLISH
+     * @param metadata the client id and user properties of the PUBLISH
+     * @return the value of the field, <b>null</b> if the topic has no such level, the client id is unknown
+     * or the packet has no such user property.
+     * @throws TemplateException if the field is rendered outside quotes and its value is not a plain name.
+     */
+    @Nullable
+    public CharSequence valueOf(final int field, @NotNull final String topic, @NotNull final PublishMetadata metadata) {
+        final CharSequence value;
+        if (levels[field] != NO_LEVEL) {
+            value = topicLevel(topic, levels[field]);
+        } else if (userProperties[field] != null) {
+            value = metadata.getUserProperty(userProperties[field]);
+        } else {
+            value = metadata.getClientId().isEmpty() ? null : metadata.getClientId();
+        }
+        if (value != null && checked[field] && !isPlainName(value)) {
+            throw new TemplateException("value of ${" + names.get(field)
+                    + "} outside quotes is no plain name of letters, digits and underscores");
+        }
+        return value;
+    }
+
+    /**
+     * @return <b>true</b> if the value only consists of ASCII letters, digits and underscores.
+     */
+    static boolean isPlainName(@NotNull final CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return <b>true</b> if a field reads the client id.
+     */
+    public boolean isClientIdUsed() {
+        return clientIdUsed;
+    }
+
+    /**
+     * @return <b>true</b> if a field reads a user property.
+     */
+    public boolean isUserPropertiesUsed() {
+        return userPropertiesUsed;
+    }
+
+    /**
+     * @param topic the topic
+     * @param level the index of the level, negative to count from the last level, which is -1
+     * @return the level, <b>null</b> if the topic has no such level.
+     */
+    @Nullable
+    static CharSequence topicLevel(@NotNull final String topic, final int level) {
+        int index = level;
+        if (index < 0) {
+            int levels = 1;
+            for (int i = topic.indexOf('/'); i >= 0; i = topic.indexOf('/', i + 1)) {
+                levels++;
+            }
+            index += levels;
+            if (index < 0) {
+                return null;
+            }
+        }
+        int start = 0;
+        for (int i = 0; i < index; i++) {
+            final int slash = topic.indexOf('/', start);
+            if (slash < 0) {
+                return null;
+            }
+            start = slash + 1;
+        }
+        final int end = topic.indexOf('/', start);
+        return topic.subSequence(start, end < 0 ? topic.length() : end);
+    }
+}
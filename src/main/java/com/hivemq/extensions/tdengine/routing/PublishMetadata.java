@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.routing;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * The parts of a PUBLISH besides topic and payload which templates may use:
+ * the client id of the sender and the user properties of the packet.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public final class PublishMetadata {
+
+    /**
+     * The metadata of a publish whose routes use neither client id nor user properties.
+     */
+    public static final PublishMetadata NONE = new PublishMetadata("", new String[0]);
+
+    private final String clientId;
+    private final String[] userProperties;
+
+    /**
+     * @param clientId the client id of the sender, empty if unknown
+     * @param userProperties the names and values of the user properties in turn, in the order of the packet
+     */
+    public PublishMetadata(@NotNull final String clientId, @NotNull final String[] userProperties) {
+        if (userProperties.length % 2 != 0) {
+            throw new IllegalArgumentException("user properties need a value for every name");
+        }
+        this.clientId = clientId;
+        this.userProperties = userProperties;
+    }
+
+    /**
+     * @return the client id of the sender, empty if unknown.
+     */
+    @NotNull
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * @return the names and values of the user properties in turn.
+     */
+    @NotNull
+    public String[] getUserProperties() {
+        return userProperties;
+    }
+
+    /**
+     * @param name the name of the user property, matched ignoring case
+     * @return the value of the first user property of the name, <b>null</b> if there is none.
+     */
+    @Nullable
+    public String getUserProperty(@NotNull final String name) {
+        for (int i = 0; i < userProperties.length; i += 2) {
+            if (userProperties[i].equalsIgnoreCase(name)) {
+                return userProperties[i + 1];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.routing;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.configuration.RouteConfiguration;
+import com.hivemq.extensions.tdengine.decoder.JsonFieldExtractor;
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoder;
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoders;
+import com.hivemq.extensions.tdengine.schemaless.SchemalessEncoder;
+import com.hivemq.extensions.tdengine.template.SqlTemplate;
+import com.hivemq.extensions.tdengine.template.TemplateException;
+
+/**
+ * A compiled route: the insert template of a topic filter together with the layout of its placeholders,
+ * the parameter binding of the route if it has bound columns, and its schemaless encoder in schemaless mode.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class Route {
+
+    public static final String FIELD_TOPIC = "topic";
+    public static final String FIELD_PAYLOAD = "payload";
+    public static final String FIELD_STABLE = "stable";
+    public static final String FIELD_PAYLOAD_PREFIX = "payload.";
+    public static final String FIELD_ROW = "row";
+    public static final String FIELD_ROW_PREFIX = "row.";
+
+    private final RouteConfiguration configuration;
+    private final SqlTemplate template;
+    private final int topicField;
+    private final int payloadField;
+    private final int stableField;
+    private final String[] payloadKeys;
+    private final String[] rowKeys;
+    private final boolean payloadKeysUsed;
+    private final MetadataFields metadataFields;
+    private final PayloadDecoder decoder;
+    private final JsonFieldExtractor rowExtractor;
+    private final boolean jsonEnabled;
+    private final RouteBinding binding;
+    private final Downsampler downsampler;
+    private final SchemalessEncoder schemalessEncoder;
+
+    /**
+     * @param configuration the route settings
+     * @throws TemplateException if the insert template is malformed or uses an unknown placeholder.
+     * @throws IllegalArgumentException if the bound tags or columns are invalid.
+     */
+    public Route(@NotNull final RouteConfiguration configuration) {
+        this.configuration = configuration;
+        this.jsonEnabled = PayloadDecoders.isJson(configuration.getCoder());
+        try {
+            this.binding = configuration.getBindColumns() != null ? new RouteBinding(configuration) : null;
+            this.downsampler = configuration.getDownsampling() != null ? new Downsampler(configuration) : null;
+            // routes with bound columns only need a template to be written without parameter binding
+            this.template = configuration.getInsertTableSQL() != null
+                    ? SqlTemplate.compile(configuration.getInsertTableSQL()) : SqlTemplate.compile("");
+        } catch (TemplateException e) {
+            throw new TemplateException("route " + configuration.getName() + ": " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("route " + configuration.getName() + ": " + e.getMessage());
+        }
+        if (configuration.getSchemaless() != null) {
+            if (!jsonEnabled) {
+                throw new IllegalArgumentException("route " + configuration.getName() + ": schemaless records need a json payload");
+            }
+            this.schemalessEncoder = new SchemalessEncoder(SchemalessEncoder.Protocol.of(configuration.getSchemaless().getProtocol()),
+                    configuration.getSchemaless());
+            if (schemalessEncoder.getProtocol() != SchemalessEncoder.Protocol.INFLUXDB && configuration.getSchemaless().getTags().isEmpty()) {
+                throw new IllegalArgumentException("route " + configuration.getName() + ": OpenTSDB records need at least one tag");
+            }
+        } else {
+            this.schemalessEncoder = null;
+        }
+        for (final String field : template.getFields()) {
+            if (!isKnownField(field)) {
+                throw new TemplateException("route " + configuration.getName() + ": unknown placeholder ${" + field + "}");
+            }
+        }
+        this.topicField = template.indexOf(FIELD_TOPIC);
+        this.payloadField = template.indexOf(FIELD_PAYLOAD);
+        this.stableField = template.indexOf(FIELD_STABLE);
+        try {
+            this.metadataFields = new MetadataFields(template);
+        } catch (TemplateException e) {
+            throw new TemplateException("route " + configuration.getName() + ": " + e.getMessage());
+        }
+        this.payloadKeys = new String[template.getFields().size()];
+        this.rowKeys = new String[payloadKeys.length];
+        for (int i = 0; i < payloadKeys.length; i++) {
+            final String field = template.getFields().get(i);
+            payloadKeys[i] = field.startsWith(FIELD_PAYLOAD_PREFIX) ? field.substring(FIELD_PAYLOAD_PREFIX.length()) : null;
+            rowKeys[i] = field.equals(FIELD_ROW) ? "" : field.startsWith(FIELD_ROW_PREFIX) ? field.substring(FIELD_ROW_PREFIX.length()) : null;
+            if (rowKeys[i] != null && configuration.getRows() == null) {
+                throw new TemplateException("route " + configuration.getName() + ": ${" + field + "} needs the rows setting");
+            }
+        }
+        this.payloadKeysUsed = template.getFields().stream().anyMatch(field -> field.startsWith(FIELD_PAYLOAD_PREFIX));
+        if (configuration.getRows() != null) {
+            if (!jsonEnabled || binding != null || schemalessEncoder != null) {
+                throw new IllegalArgumentException("route " + configuration.getName()
+                        + ": rows are only expanded from json payloads into the insert template");
+            }
+            this.rowExtractor = new JsonFieldExtractor(payloadKeys, configuration.getRows(), rowKeys);
+            this.decoder = rowExtractor;
+            return;
+        }
+        this.rowExtractor = null;
+        try {
+            this.decoder = PayloadDecoders.create(configuration.getCoder(), payloadKeys, configuration.getCoderOptions(), configuration.getHome());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("route " + configuration.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Check whether a placeholder name is known to routes.
+     * @param field the lower case placeholder name
+     * @return <b>true</b> if the placeholder can be resolved.
+     */
+    public static boolean isKnownField(@NotNull final String field) {
+        return field.equals(FIELD_TOPIC) || field.equals(FIELD_PAYLOAD) || field.equals(FIELD_STABLE)
+                || field.startsWith(FIELD_PAYLOAD_PREFIX) || field.equals(FIELD_ROW) || field.startsWith(FIELD_ROW_PREFIX)
+                || MetadataFields.isMetadataField(field);
+    }
+
+    @NotNull
+    public String getName() {
+        return configuration.getName();
+    }
+
+    @NotNull
+    public RouteConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    @NotNull
+    public SqlTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the parameter binding of the route, <b>null</b> if it has no bound columns.
+     */
+    @Nullable
+    public RouteBinding getBinding() {
+        return binding;
+    }
+
+    public int getTopicField() {
+        return topicField;
+    }
+
+    public int getPayloadField() {
+        return payloadField;
+    }
+
+    public int getStableField() {
+        return stableField;
+    }
+
+    /**
+     * @return the payload key of each template field, <b>null</b> for fields which are not taken from the payload.
+     */
+    @NotNull
+    public String[] getPayloadKeys() {
+        return payloadKeys;
+    }
+
+    /**
+     * @return <b>true</b> if the template reads fields of the payload, <b>false</b> if it is rendered without decoding the payload.
+     */
+    public boolean isPayloadKeysUsed() {
+        return payloadKeysUsed;
+    }
+
+    /**
+     * @return the template fields read from the topic levels, the client id and the user properties of the PUBLISH.
+     */
+    @NotNull
+    public MetadataFields getMetadataFields() {
+        return metadataFields;
+    }
+
+    /**
+     * @return <b>true</b> if the template, the bound sub-table name or the downsampling key read the client id.
+     */
+    public boolean isClientIdUsed() {
+        return metadataFields.isClientIdUsed() || binding != null && binding.getMetadataFields().isClientIdUsed()
+                || downsampler != null && downsampler.getMetadataFields().isClientIdUsed();
+    }
+
+    /**
+     * @return <b>true</b> if the template, the bound sub-table name or the downsampling key read user properties.
+     */
+    public boolean isUserPropertiesUsed() {
+        return metadataFields.isUserPropertiesUsed() || binding != null && binding.getMetadataFields().isUserPropertiesUsed()
+                || downsampler != null && downsampler.getMetadataFields().isUserPropertiesUsed();
+    }
+
+    /**
+     * @return the key within a row of each template field, empty for <code>${row}</code>,
+     * <b>null</b> for fields which are not taken from a row.
+     */
+    @NotNull
+    public String[] getRowKeys() {
+        return rowKeys;
+    }
+
+    /**
+     * @return the extractor of the payload fields and rows, <b>null</b> if the route writes one row per payload.
+     */
+    @Nullable
+    public JsonFieldExtractor getRowExtractor() {
+        return rowExtractor;
+    }
+
+    /**
+     * @return the decoder of the payload fields, <b>null</b> if the route renders the payload as base64.
+     */
+    @Nullable
+    public PayloadDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @return <b>true</b> if the payload is a JSON document, which <code>${payload}</code> renders as text instead of base64.
+     */
+    public boolean isJsonEnabled() {
+        return jsonEnabled;
+    }
+
+    /**
+     * @return the downsampler thinning out the publishes of the route, <b>null</b> if every publish is written.
+     */
+    @Nullable
+    public Downsampler getDownsampler() {
+        return downsampler;
+    }
+
+    /**
+     * @return the schemaless encoder of the route, <b>null</b> if the extension is not in schemaless mode.
+     */
+    @Nullable
+    public SchemalessEncoder getSchemalessEncoder() {
+        return schemalessEncoder;
+    }
+
+    @Nullable
+    public String getSuperTable() {
+        return configuration.getSuperTable();
+    }
+
+    @Override
+    public String toString() {
+        return configuration.getName() + " (" + configuration.getTopicFilter() + ")";
+    }
+}
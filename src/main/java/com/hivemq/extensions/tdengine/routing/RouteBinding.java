@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.routing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.tdengine.configuration.RouteConfiguration;
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoder;
+import com.hivemq.extensions.tdengine.decoder.PayloadDecoders;
+import com.hivemq.extensions.tdengine.template.SqlTemplate;
+import com.hivemq.extensions.tdengine.template.TemplateException;
+import com.hivemq.extensions.tdengine.writer.BindColumn;
+import com.hivemq.extensions.tdengine.writer.ColumnBinding;
+
+/**
+ * The parameter binding of a route: the sub-table name template and the payload keys of the bound tags and columns.
+ * All keys are read from the payload in a single pass by the decoder of the route's coder.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class RouteBinding {
+
+    private final ColumnBinding columnBinding;
+    private final SqlTemplate tableTemplate;
+    private final int topicField;
+    private final int stableField;
+    private final int[] tableSlots;
+    private final MetadataFields metadataFields;
+    private final int[] tagSlots;
+    private final int[] columnSlots;
+    private final PayloadDecoder extractor;
+    private final int slotCount;
+
+    /**
+     * @param configuration the route settings with <b>bind_table</b>, <b>bind_tags</b>, <b>bind_columns</b> and <b>stable</b>
+     * @throws TemplateException if the sub-table name template is malformed or uses an unsupported placeholder.
+     * @throws IllegalArgumentException if the bound tags or columns are invalid.
+     */
+    public RouteBinding(@NotNull final RouteConfiguration configuration) {
+        final String superTable = configuration.getSuperTable();
+        final String bindTable = configuration.getBindTable();
+        if (superTable == null || bindTable == null) {
+            throw new IllegalArgumentException("parameter binding needs stable and bind_table");
+        }
+        this.columnBinding = new ColumnBinding(superTable, BindColumn.parseList(configuration.getBindTags()),
+                BindColumn.parseList(configuration.getBindColumns()));
+
+        this.tableTemplate = SqlTemplate.compile(bindTable);
+        this.topicField = tableTemplate.indexOf(Route.FIELD_TOPIC);
+        this.stableField = tableTemplate.indexOf(Route.FIELD_STABLE);
+        this.metadataFields = new MetadataFields(tableTemplate);
+
+        final Map<String, Integer> slots = new LinkedHashMap<>();
+        this.tableSlots = new int[tableTemplate.getFields().size()];
+        for (int i = 0; i < tableSlots.length; i++) {
+            final String field = tableTemplate.getFields().get(i);
+            if (field.startsWith(Route.FIELD_PAYLOAD_PREFIX)) {
+                tableSlots[i] = slots.computeIfAbsent(field.substring(Route.FIELD_PAYLOAD_PREFIX.length()), key -> slots.size());
+            } else if (i == topicField || i == stableField || metadataFields.contains(i)) {
+                tableSlots[i] = -1;
+            } else {
+                throw new TemplateException("unsupported placeholder ${" + field + "} in bind_table");
+            }
+        }
+        this.tagSlots = slotsOf(columnBinding.getTags(), slots);
+        this.columnSlots = slotsOf(columnBinding.getColumns(), slots);
+
+        final List<String> keys = new ArrayList<>(slots.keySet());
+        this.slotCount = keys.size();
+        this.extractor = PayloadDecoders.create(configuration.getCoder(), keys.toArray(new String[0]), configuration.getCoderOptions(),
+                configuration.getHome());
+        if (extractor == null) {
+            throw new IllegalArgumentException("parameter binding needs a payload decoder, not " + configuration.getCoder());
+        }
+    }
+
+    @NotNull
+    private static int[] slotsOf(@NotNull final List<BindColumn> columns, @NotNull final Map<String, Integer> slots) {
+        final int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++) {
+            final BindColumn column = columns.get(i);
+            result[i] = column.isNow() ? -1 : slots.computeIfAbsent(column.getKey(), key -> slots.size());
+        }
+        return result;
+    }
+
+    @NotNull
+    public ColumnBinding getColumnBinding() {
+        return columnBinding;
+    }
+
+    /**
+     * @return the fields of the sub-table name read from the topic levels, the client id and the user properties of the PUBLISH.
+     */
+    @NotNull
+    public MetadataFields getMetadataFields() {
+        return metadataFields;
+    }
+
+    /**
+     * Read the bound keys from a payload.
+     * @param payload the payload, its position is not moved
+     * @return the payload values by slot, <b>null</b> for missing keys
+     * @throws IOException if the payload can not be decoded.
+     */
+    @NotNull
+    public String[] extract(@NotNull final ByteBuffer payload) throws IOException {
+        final String[] values = new String[slotCount];
+        extractor.extract(payload, values);
+        return values;
+    }
+
+    /**
+     * @param topic the topic of the PUBLISH
+     * @param metadata the client id and user properties of the PUBLISH
+     * @param values the payload values returned by {@link #extract(ByteBuffer)}
+     * @return the name of the sub-table the row is written to.
+     * @throws TemplateException if a payload key or metadata field of the name is missing.
+     */
+    @NotNull
+    public String renderTable(@NotNull final String topic, @NotNull final PublishMetadata metadata, @NotNull final String[] values) {
+        return tableTemplate.render((field, sb) -> {
+            if (field == topicField) {
+                sb.append(topic);
+            } else if (field == stableField) {
+                sb.append(columnBinding.getSuperTable());
+            } else if (metadataFields.contains(field)) {
+                final CharSequence value = metadataFields.valueOf(field, topic, metadata);
+                if (value == null) {
+                    return false;
+                }
+                sb.append(value);
+            } else if (values[tableSlots[field]] != null) {
+                sb.append(values[tableSlots[field]]);
+            } else {
+                return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * @param values the payload values returned by {@link #extract(ByteBuffer)}
+     * @return the tag values converted to their bound types.
+     * @throws IllegalArgumentException if a value does not match its type.
+     */
+    @NotNull
+    public Object[] tags(@NotNull final String[] values) {
+        return convert(columnBinding.getTags(), tagSlots, values, 0);
+    }
+
+    /**
+     * @param values the payload values returned by {@link #extract(ByteBuffer)}
+     * @param receivedMillis the time the PUBLISH was received, bound to <code>now</code> columns
+     * @return the column values converted to their bound types.
+     * @throws IllegalArgumentException if a value does not match its type.
+     */
+    /**
+     * @return <b>true</b> if the first column, the timestamp, is bound to a payload value rather than to <code>now</code>.
+     */
+    public boolean hasPayloadTimestamp() {
+        return columnSlots.length > 0 && columnSlots[0] >= 0;
+    }
+
+    @NotNull
+    public Object[] columns(@NotNull final String[] values, final long receivedMillis) {
+        return convert(columnBinding.getColumns(), columnSlots, values, receivedMillis);
+    }
+
+    @NotNull
+    private static Object[] convert(@NotNull final List<BindColumn> columns, @NotNull final int[] slots,
+                                    @NotNull final String[] values, final long receivedMillis) {
+        final Object[] result = new Object[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            result[i] = slots[i] < 0 ? (Object) receivedMillis : columns.get(i).convert(values[slots[i]]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.configuration.RouteConfiguration;
+
+/**
+ * All routes of the extension, indexed by their topic filters.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class RouteTable {
+
+    private final List<Route> routes;
+    private final TopicTrie<Route> trie = new TopicTrie<>();
+    private final Map<String, Route> byName = new HashMap<>();
+
+    /**
+     * Compile the routes and index their topic filters.
+     * @param configurations the route settings
+     * @throws IllegalArgumentException if a topic filter is invalid.
+     * @throws com.hivemq.extensions.tdengine.template.TemplateException if an insert template is invalid.
+     */
+    public RouteTable(@NotNull final List<RouteConfiguration> configurations) {
+        final List<Route> compiled = new ArrayList<>(configurations.size());
+        for (final RouteConfiguration configuration : configurations) {
+            final Route route = new Route(configuration);
+            trie.add(configuration.getTopicFilter(), route);
+            compiled.add(route);
+            byName.put(configuration.getName(), route);
+        }
+        this.routes = Collections.unmodifiableList(compiled);
+    }
+
+    /**
+     * @param topic the topic of a PUBLISH
+     * @return the routes whose topic filter matches the topic.
+     */
+    @NotNull
+    public List<Route> match(@NotNull final String topic) {
+        return trie.match(topic);
+    }
+
+    /**
+     * @param name the name of a route
+     * @return the route, <b>null</b> if there is no route with that name.
+     */
+    @Nullable
+    public Route get(@NotNull final String name) {
+        return byName.get(name);
+    }
+
+    @NotNull
+    public List<Route> getRoutes() {
+        return routes;
+    }
+}
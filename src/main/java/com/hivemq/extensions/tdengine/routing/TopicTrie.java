@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Index of MQTT topic filters, one trie node per topic level.
+ * Matching a topic costs one lookup per topic level plus the visited wildcard branches,
+ * independent of the number of filters in the index.
+ * The trie is built once and must not be modified while it is matched.
+ *
+ * @param <T> the value stored for each filter
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class TopicTrie<T> {
+
+    private static final String SINGLE_LEVEL = "+";
+    private static final String MULTI_LEVEL = "#";
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Add a value for a topic filter.
+     * @param filter the topic filter, may contain <code>+</code> and <code>#</code> wildcards
+     * @param value the value returned for matching topics
+     * @throws IllegalArgumentException if the filter is not a valid MQTT topic filter.
+     */
+    public void add(@NotNull final String filter, @NotNull final T value) {
+        if (filter.isEmpty()) {
+            throw new IllegalArgumentException("topic filter must not be empty");
+        }
+        Node<T> node = root;
+        final String[] levels = filter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            final String level = levels[i];
+            if (MULTI_LEVEL.equals(level)) {
+                if (i != levels.length - 1) {
+                    throw new IllegalArgumentException("'#' must be the last level of topic filter " + filter);
+                }
+                if (node.multiLevel == null) {
+                    node.multiLevel = new Node<>();
+                }
+                node = node.multiLevel;
+            } else if (SINGLE_LEVEL.equals(level)) {
+                if (node.singleLevel == null) {
+                    node.singleLevel = new Node<>();
+                }
+                node = node.singleLevel;
+            } else if (level.contains(SINGLE_LEVEL) || level.contains(MULTI_LEVEL)) {
+                throw new IllegalArgumentException("wildcards must occupy a whole level of topic filter " + filter);
+            } else {
+                node = node.children.computeIfAbsent(level, key -> new Node<>());
+            }
+        }
+        node.values.add(value);
+    }
+
+    /**
+     * Find the values of all filters matching a topic.
+     * Filters starting with a wildcard do not match topics starting with <code>$</code>.
+     * @param topic the topic of a PUBLISH
+     * @return the matching values, in no particular order.
+     */
+    @NotNull
+    public List<T> match(@NotNull final String topic) {
+        List<T> result = Collections.emptyList();
+        result = match(root, topic, 0, !topic.startsWith("$"), result);
+        return result;
+    }
+
+    @NotNull
+    private List<T> match(@NotNull final Node<T> node, @NotNull final String topic, final int start,
+                          final boolean wildcards, @NotNull List<T> result) {
+        if (wildcards && node.multiLevel != null) {
+            result = addAll(result, node.multiLevel.values);
+        }
+        if (start > topic.length()) {
+            return addAll(result, node.values);
+        }
+        int end = topic.indexOf('/', start);
+        if (end < 0) {
+            end = topic.length();
+        }
+        final Node<T> child = node.children.get(topic.substring(start, end));
+        if (child != null) {
+            result = match(child, topic, end + 1, true, result);
+        }
+        if (wildcards && node.singleLevel != null) {
+            result = match(node.singleLevel, topic, end + 1, true, result);
+        }
+        return result;
+    }
+
+    @NotNull
+    private static <T> List<T> addAll(@NotNull List<T> result, @NotNull final List<T> values) {
+        if (values.isEmpty()) {
+            return result;
+        }
+        if (result.isEmpty()) {
+            result = new ArrayList<>(values.size());
+        }
+        result.addAll(values);
+        return result;
+    }
+
+    private static final class Node<T> {
+        private final Map<String, Node<T>> children = new HashMap<>();
+        private final List<T> values = new ArrayList<>(1);
+        private Node<T> singleLevel;
+        private Node<T> multiLevel;
+    }
+}
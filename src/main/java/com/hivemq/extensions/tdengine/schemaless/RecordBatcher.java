@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.schemaless;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import com.hivemq.extensions.tdengine.writer.BatchTuner;
+import com.hivemq.extensions.tdengine.writer.TDengineWriter;
+
+/**
+ * Collects the schemaless records of many payloads into one request body of the configured protocol.
+ * A batch is flushed when it reaches the configured number of payloads or bytes, or when the linger time expired.
+ * With a {@link BatchTuner}, the payloads per batch and the linger time follow the write latency up to the configured values.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class RecordBatcher {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(RecordBatcher.class);
+
+    private final TDengineWriter writer;
+    private final ScheduledExecutorService scheduler;
+    private final SchemalessEncoder.Protocol protocol;
+    private final int maxRows;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final BatchTuner tuner;
+    private final TDengineMetrics metrics;
+
+    private Batch current;
+
+    public RecordBatcher(@NotNull final TDengineWriter writer, @NotNull final ScheduledExecutorService scheduler,
+                         @NotNull final SchemalessEncoder.Protocol protocol, final int maxRows, final int maxBytes, final long lingerMillis,
+                         @NotNull final TDengineMetrics metrics) {
+        this(writer, scheduler, protocol, maxRows, maxBytes, lingerMillis, null, metrics);
+    }
+
+    /**
+     * @param tuner adjusts the payloads per batch and the linger time, <b>null</b> to always use maxRows and lingerMillis
+     */
+    public RecordBatcher(@NotNull final TDengineWriter writer, @NotNull final ScheduledExecutorService scheduler,
+                         @NotNull final SchemalessEncoder.Protocol protocol, final int maxRows, final int maxBytes, final long lingerMillis,
+                         @Nullable final BatchTuner tuner, @NotNull final TDengineMetrics metrics) {
+        this.writer = writer;
+        this.scheduler = scheduler;
+        this.protocol = protocol;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.tuner = tuner;
+        this.metrics = metrics;
+        this.current = new Batch();
+    }
+
+    /**
+     * Add the records of one payload to the current batch.
+     * @param records the records, separated by the separator of the protocol
+     * @return a future which completes when the batch containing the records is written.
+     */
+    @NotNull
+    public CompletableFuture<?> add(@NotNull final String records) {
+        if (maxRows <= 1) {
+            return write(protocol.getPrefix() + records + protocol.getSuffix(), 1, null);
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        Batch overflow = null;
+        Batch full = null;
+        synchronized (this) {
+            if (current.rows > 0 && current.body.length() + records.length() > maxBytes) {
+                overflow = current;
+                overflow.full = true;
+                current = new Batch();
+            }
+            current.add(records, future);
+            final long linger = tuner != null ? tuner.getLingerMillis() : lingerMillis;
+            if (current.rows == 1 && linger > 0) {
+                final Batch lingering = current;
+                lingering.linger = scheduler.schedule(() -> flush(lingering), linger, TimeUnit.MILLISECONDS);
+            }
+            if (current.rows >= (tuner != null ? tuner.getRows() : maxRows) || current.body.length() >= maxBytes) {
+                full = current;
+                full.full = true;
+                current = new Batch();
+            }
+        }
+        send(overflow);
+        send(full);
+        return future;
+    }
+
+    /**
+     * Write the current batch immediately.
+     * @return a future which completes when the pending records are written.
+     */
+    @NotNull
+    public CompletableFuture<?> flush() {
+        final Batch pending;
+        synchronized (this) {
+            pending = current;
+            current = new Batch();
+        }
+        return send(pending);
+    }
+
+    private void flush(@NotNull final Batch lingering) {
+        synchronized (this) {
+            if (current != lingering) {
+                return;
+            }
+            current = new Batch();
+        }
+        send(lingering);
+    }
+
+    @NotNull
+    private CompletableFuture<?> send(@Nullable final Batch batch) {
+        if (batch == null || batch.rows == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (batch.linger != null) {
+            batch.linger.cancel(false);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("flushing records of {} payloads, {} chars", batch.rows, batch.body.length());
+        }
+        // the tuner follows the time TDengine takes for a batch, not the time it waits for the writer
+        final LongConsumer latency = tuner != null ? nanos -> tuner.observe(batch.full, nanos, writer.getWaiting()) : null;
+        return write(batch.body.append(protocol.getSuffix()).toString(), batch.rows, latency).whenComplete((ignored, throwable) -> {
+            for (final CompletableFuture<Void> future : batch.futures) {
+                if (throwable == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(throwable);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send a request body with the records of the given number of payloads and count them once written.
+     * @param latency receives the time TDengine took for the request, <b>null</b> if it is not needed
+     */
+    @NotNull
+    private CompletableFuture<?> write(@NotNull final String body, final int rows, @Nullable final LongConsumer latency) {
+        metrics.getBatchSize().update(rows);
+        return (latency != null ? writer.write(body, latency) : writer.write(body)).whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                metrics.getWritten().inc(rows);
+            }
+        });
+    }
+
+    /**
+     * The records of one batch in order of arrival.
+     */
+    private final class Batch {
+
+        private final StringBuilder body = new StringBuilder(protocol.getPrefix());
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private int rows;
+        private boolean full;
+        private ScheduledFuture<?> linger;
+
+        private void add(@NotNull final String records, @NotNull final CompletableFuture<Void> future) {
+            if (rows > 0) {
+                body.append(protocol.getSeparator());
+            }
+            body.append(records);
+            futures.add(future);
+            rows++;
+        }
+    }
+}
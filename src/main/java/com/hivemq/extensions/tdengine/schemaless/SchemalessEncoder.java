@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.schemaless;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.configuration.SchemalessMapping;
+import com.hivemq.extensions.tdengine.decoder.PayloadBuffers;
+
+/**
+ * Converts the top level scalar values of a JSON payload into records of a schemaless protocol,
+ * which TDengine writes into super tables and sub-tables it creates on the fly.
+ * Integers are written as integers, other numbers as doubles, strings as strings and booleans as booleans.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class SchemalessEncoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * The schemaless protocols and how their records are joined into one request.
+     */
+    public enum Protocol {
+        /** InfluxDB line protocol, one line per payload. */
+        INFLUXDB("", "\n", ""),
+        /** OpenTSDB telnet protocol, one line per field. */
+        TELNET("", "\n", ""),
+        /** OpenTSDB JSON protocol, one object per field. */
+        JSON("[", ",", "]");
+
+        private final String prefix;
+        private final String separator;
+        private final String suffix;
+
+        Protocol(@NotNull final String prefix, @NotNull final String separator, @NotNull final String suffix) {
+            this.prefix = prefix;
+            this.separator = separator;
+            this.suffix = suffix;
+        }
+
+        @NotNull
+        public String getPrefix() {
+            return prefix;
+        }
+
+        @NotNull
+        public String getSeparator() {
+            return separator;
+        }
+
+        @NotNull
+        public String getSuffix() {
+            return suffix;
+        }
+
+        /**
+         * @param name influxdb, telnet or json
+         * @return the protocol
+         * @throws IllegalArgumentException if the name is unknown.
+         */
+        @NotNull
+        public static Protocol of(@NotNull final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+
+        /**
+         * @param database the database written to
+         * @return the path of the taosAdapter endpoint of the protocol.
+         */
+        @NotNull
+        public String getPath(@NotNull final String database) {
+            switch (this) {
+                case INFLUXDB:
+                    return "/influxdb/v1/write?db=" + database + "&precision=ms";
+                case TELNET:
+                    return "/opentsdb/v1/put/telnet/" + database;
+                default:
+                    return "/opentsdb/v1/put/json/" + database;
+            }
+        }
+    }
+
+    private final Protocol protocol;
+    private final SchemalessMapping mapping;
+    private final Set<String> tagKeys;
+
+    public SchemalessEncoder(@NotNull final Protocol protocol, @NotNull final SchemalessMapping mapping) {
+        this.protocol = protocol;
+        this.mapping = mapping;
+        this.tagKeys = new HashSet<>(mapping.getTags());
+    }
+
+    @NotNull
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Append the records of a payload, separated by the separator of the protocol.
+     * @param payload the JSON payload, its position is not moved
+     * @param receivedMillis the time the PUBLISH was received, used if the payload has no timestamp
+     * @param out receives the records
+     * @return the number of records appended, 0 if the payload has no fields.
+     * @throws IOException if the payload is not a valid JSON document.
+     */
+    public int encode(@NotNull final ByteBuffer payload, final long receivedMillis, @NotNull final StringBuilder out) throws IOException {
+        return encode(payload, receivedMillis, out, null);
+    }
+
+    /**
+     * Append the records of a payload and the tag values identifying their sub-tables.
+     * @param payload the JSON payload, its position is not moved
+     * @param receivedMillis the time the PUBLISH was received, used if the payload has no timestamp
+     * @param out receives the records
+     * @param series receives the tag values separated by commas, <b>null</b> if not needed
+     * @return the number of records appended, 0 if the payload has no fields.
+     * @throws IOException if the payload is not a valid JSON document.
+     */
+    public int encode(@NotNull final ByteBuffer payload, final long receivedMillis, @NotNull final StringBuilder out,
+                      @Nullable final StringBuilder series) throws IOException {
+        final Values values = parse(payload);
+        long timestamp = receivedMillis;
+        final List<String> tags = new ArrayList<>(mapping.getTags().size());
+        final List<String> tagValues = new ArrayList<>(mapping.getTags().size());
+        final List<Integer> fields = new ArrayList<>();
+        for (int i = 0; i < values.names.size(); i++) {
+            final String name = values.names.get(i);
+            if (name.equals(mapping.getTimestamp())) {
+                if (values.kinds.get(i) == JsonToken.VALUE_NUMBER_INT) {
+                    timestamp = Long.parseLong(values.texts.get(i));
+                }
+            } else if (tagKeys.contains(name)) {
+                tags.add(name);
+                tagValues.add(values.texts.get(i));
+            } else if (mapping.getFields().isEmpty() || mapping.getFields().contains(name)) {
+                fields.add(i);
+            }
+        }
+        if (fields.isEmpty()) {
+            return 0;
+        }
+        if (series != null) {
+            for (int t = 0; t < tagValues.size(); t++) {
+                if (t > 0) {
+                    series.append(',');
+                }
+                series.append(tagValues.get(t));
+            }
+        }
+        switch (protocol) {
+            case INFLUXDB:
+                appendLine(out, tags, tagValues, values, fields, timestamp);
+                return 1;
+            case TELNET:
+                for (int f = 0; f < fields.size(); f++) {
+                    if (f > 0) {
+                        out.append(protocol.separator);
+                    }
+                    appendTelnet(out, tags, tagValues, values, fields.get(f), timestamp);
+                }
+                return fields.size();
+            default:
+                for (int f = 0; f < fields.size(); f++) {
+                    if (f > 0) {
+                        out.append(protocol.separator);
+                    }
+                    appendJson(out, tags, tagValues, values, fields.get(f), timestamp);
+                }
+                return fields.size();
+        }
+    }
+
+    private void appendLine(@NotNull final StringBuilder out, @NotNull final List<String> tags, @NotNull final List<String> tagValues,
+                            @NotNull final Values values, @NotNull final List<Integer> fields, final long timestamp) {
+        appendEscaped(out, mapping.getMeasurement(), false);
+        for (int t = 0; t < tags.size(); t++) {
+            out.append(',');
+            appendEscaped(out, tags.get(t), true);
+            out.append('=');
+            appendEscaped(out, tagValues.get(t), true);
+        }
+        for (int f = 0; f < fields.size(); f++) {
+            final int i = fields.get(f);
+            out.append(f == 0 ? ' ' : ',');
+            appendEscaped(out, values.names.get(i), true);
+            out.append('=');
+            final String text = values.texts.get(i);
+            switch (values.kinds.get(i)) {
+                case VALUE_NUMBER_INT:
+                    out.append(text).append('i');
+                    break;
+                case VALUE_STRING:
+                    out.append('"');
+                    for (int c = 0; c < text.length(); c++) {
+                        final char ch = text.charAt(c);
+                        if (ch == '"' || ch == '\\') {
+                            out.append('\\');
+                        }
+                        out.append(ch);
+                    }
+                    out.append('"');
+                    break;
+                default:
+                    out.append(text);
+                    break;
+            }
+        }
+        out.append(' ').append(timestamp);
+    }
+
+    private void appendTelnet(@NotNull final StringBuilder out, @NotNull final List<String> tags, @NotNull final List<String> tagValues,
+                              @NotNull final Values values, final int field, final long timestamp) {
+        appendMetric(out, values.names.get(field));
+        out.append(' ').append(timestamp).append(' ');
+        final String text = values.texts.get(field);
+        if (values.kinds.get(field) == JsonToken.VALUE_STRING) {
+            out.append('"').append(text.replace("\"", "\\\"")).append('"');
+        } else {
+            out.append(text);
+        }
+        for (int t = 0; t < tags.size(); t++) {
+            out.append(' ').append(tags.get(t)).append('=').append(tagValues.get(t).replace(' ', '_'));
+        }
+    }
+
+    private void appendJson(@NotNull final StringBuilder out, @NotNull final List<String> tags, @NotNull final List<String> tagValues,
+                            @NotNull final Values values, final int field, final long timestamp) {
+        out.append("{\"metric\":\"");
+        appendJsonString(out, mapping.getMeasurement());
+        out.append('_');
+        appendJsonString(out, values.names.get(field));
+        out.append("\",\"timestamp\":").append(timestamp).append(",\"value\":");
+        if (values.kinds.get(field) == JsonToken.VALUE_STRING) {
+            out.append('"');
+            appendJsonString(out, values.texts.get(field));
+            out.append('"');
+        } else {
+            out.append(values.texts.get(field));
+        }
+        out.append(",\"tags\":{");
+        for (int t = 0; t < tags.size(); t++) {
+            out.append(t == 0 ? "\"" : ",\"");
+            appendJsonString(out, tags.get(t));
+            out.append("\":\"");
+            appendJsonString(out, tagValues.get(t));
+            out.append('"');
+        }
+        out.append("}}");
+    }
+
+    /**
+     * OpenTSDB records hold a single value, so each field becomes the metric <code>measurement_field</code>.
+     */
+    private void appendMetric(@NotNull final StringBuilder out, @NotNull final String field) {
+        out.append(mapping.getMeasurement()).append('_').append(field);
+    }
+
+    private static void appendJsonString(@NotNull final StringBuilder out, @NotNull final String text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Escape a measurement, key or tag value of the InfluxDB line protocol.
+     */
+    static void appendEscaped(@NotNull final StringBuilder out, @NotNull final String text, final boolean escapeEquals) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == ',' || c == ' ' || (escapeEquals && c == '=')) {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+    }
+
+    @NotNull
+    private static Values parse(@NotNull final ByteBuffer payload) throws IOException {
+        final JsonParser parser = payload.hasArray()
+                ? JSON_FACTORY.createParser(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining())
+                : JSON_FACTORY.createParser(PayloadBuffers.newInputStream(payload));
+        final Values values = new Values();
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return values;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if (token == null || token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                if (token.isStructStart()) {
+                    parser.skipChildren();
+                    continue;
+                }
+                values.names.add(name);
+                values.texts.add(parser.getText());
+                values.kinds.add(token);
+            }
+        } finally {
+            parser.close();
+        }
+        return values;
+    }
+
+    /**
+     * The top level scalar values of a payload in document order.
+     */
+    private static final class Values {
+        private final List<String> names = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final List<JsonToken> kinds = new ArrayList<>();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * A SQL template such as <code>insert into t_${payload.devid} values (${payload.ts}, '${topic}')</code>,
+ * parsed once into literal and placeholder segments and rendered in a single pass.
+ * Placeholder names are case insensitive and reported in lower case.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public final class SqlTemplate {
+
+    private static final String OPEN = "${";
+    private static final char CLOSE = '}';
+    private static final int MAX_CACHED_CAPACITY = 1 << 16;
+
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final String template;
+    private final String[] literals;
+    private final int[] fieldIndexes;
+    private final List<String> fields;
+    private final boolean[] unquoted;
+
+    private SqlTemplate(@NotNull final String template, @NotNull final List<String> literals,
+                        @NotNull final List<Integer> fieldIndexes, @NotNull final List<String> fields, @NotNull final boolean[] unquoted) {
+        this.template = template;
+        this.literals = literals.toArray(new String[0]);
+        this.fieldIndexes = fieldIndexes.stream().mapToInt(Integer::intValue).toArray();
+        this.fields = Collections.unmodifiableList(fields);
+        this.unquoted = unquoted;
+    }
+
+    /**
+     * Parse a template into literal and placeholder segments.
+     * @param template the template text
+     * @return the compiled template
+     * @throws TemplateException if a placeholder is not terminated or empty.
+     */
+    @NotNull
+    public static SqlTemplate compile(@NotNull final String template) {
+        final List<String> literals = new ArrayList<>();
+        final List<Integer> fieldIndexes = new ArrayList<>();
+        final List<String> fields = new ArrayList<>();
+        final List<Boolean> unquoted = new ArrayList<>();
+
+        int position = 0;
+        char quote = 0;
+        while (true) {
+            final int open = template.indexOf(OPEN, position);
+            if (open < 0) {
+                literals.add(template.substring(position));
+                break;
+            }
+            final int close = template.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new TemplateException("placeholder at index " + open + " is not terminated in template: " + template);
+            }
+            final String field = template.substring(open + OPEN.length(), close).trim().toLowerCase(Locale.ROOT);
+            if (field.isEmpty()) {
+                throw new TemplateException("empty placeholder at index " + open + " in template: " + template);
+            }
+            final String literal = template.substring(position, open);
+            quote = quoteAfter(literal, quote);
+            int index = fields.indexOf(field);
+            if (index < 0) {
+                index = fields.size();
+                fields.add(field);
+                unquoted.add(quote == 0);
+            } else if (quote == 0) {
+                unquoted.set(index, true);
+            }
+            literals.add(literal);
+            fieldIndexes.add(index);
+            position = close + 1;
+        }
+        final boolean[] unquotedFields = new boolean[fields.size()];
+        for (int i = 0; i < unquotedFields.length; i++) {
+            unquotedFields[i] = unquoted.get(i);
+        }
+        return new SqlTemplate(template, literals, fieldIndexes, fields, unquotedFields);
+    }
+
+    /**
+     * @param literal a literal segment of the template
+     * @param quote the quote character open before the segment, 0 if none
+     * @return the quote character still open after the segment, 0 if none.
+     */
+    private static char quoteAfter(@NotNull final String literal, final char quote) {
+        char open = quote;
+        for (int i = 0; i < literal.length(); i++) {
+            final char c = literal.charAt(i);
+            if (open != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == open) {
+                    open = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                open = c;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * @return the distinct placeholder names in order of first appearance, e.g. <code>payload.devid</code>.
+     */
+    @NotNull
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @param field the placeholder name
+     * @return the index of the placeholder in {@link #getFields()}, or -1 if the template does not reference it.
+     */
+    public int indexOf(@NotNull final String field) {
+        return fields.indexOf(field);
+    }
+
+    /**
+     * @param field the index of a placeholder in {@link #getFields()}
+     * @return <b>true</b> if the placeholder appears outside a quoted string, e.g. as part of a table name,
+     * where escaping its value does not keep it from changing the statement.
+     */
+    public boolean isUnquoted(final int field) {
+        return unquoted[field];
+    }
+
+    /**
+     * Render the template with a reusable builder of the calling thread.
+     * @param writer appends the value of each placeholder
+     * @return the rendered statement
+     * @throws TemplateException if a placeholder has no value.
+     */
+    @NotNull
+    public String render(@NotNull final FieldWriter writer) {
+        StringBuilder sql = BUILDER.get();
+        if (sql.capacity() > MAX_CACHED_CAPACITY) {
+            sql = new StringBuilder(256);
+            BUILDER.set(sql);
+        }
+        sql.setLength(0);
+        for (int i = 0; i < fieldIndexes.length; i++) {
+            sql.append(literals[i]);
+            final int index = fieldIndexes[i];
+            if (!writer.append(index, sql)) {
+                throw new TemplateException("no value for placeholder ${" + fields.get(index) + "}");
+            }
+        }
+        sql.append(literals[fieldIndexes.length]);
+        return sql.toString();
+    }
+
+    /**
+     * Append a value for use inside a quoted SQL string, escaping quotes and backslashes.
+     * @param sql the statement rendered so far
+     * @param value the raw value
+     */
+    public static void appendEscaped(@NotNull final StringBuilder sql, @NotNull final CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\'' || c == '\\') {
+                sql.append('\\');
+            }
+            sql.append(c);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    /**
+     * Appends placeholder values while a template is rendered.
+     */
+    @FunctionalInterface
+    public interface FieldWriter {
+
+        /**
+         * Append the value of a placeholder.
+         * @param field index of the placeholder in {@link SqlTemplate#getFields()}
+         * @param sql the statement rendered so far
+         * @return <b>false</b> if there is no value for the placeholder.
+         */
+        boolean append(int field, @NotNull StringBuilder sql);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.wal;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.tdengine.routing.PublishMetadata;
+
+/**
+ * A publish kept in the write-ahead log until TDengine accepts it.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class WalRecord {
+
+    private final String route;
+    private final String topic;
+    private final byte[] payload;
+    private final long receivedMillis;
+    private final PublishMetadata metadata;
+
+    /**
+     * @param route the name of the route to write, empty to write all routes matching the topic
+     * @param topic the topic of the publish
+     * @param payload the payload of the publish
+     * @param receivedMillis when the publish was received
+     */
+    public WalRecord(@NotNull final String route, @NotNull final String topic, @NotNull final byte[] payload, final long receivedMillis) {
+        this(route, topic, payload, receivedMillis, PublishMetadata.NONE);
+    }
+
+    /**
+     * @param route the name of the route to write, empty to write all routes matching the topic
+     * @param topic the topic of the publish
+     * @param payload the payload of the publish
+     * @param receivedMillis when the publish was received
+     * @param metadata the client id and user properties of the publish
+     */
+    public WalRecord(@NotNull final String route, @NotNull final String topic, @NotNull final byte[] payload, final long receivedMillis,
+            @NotNull final PublishMetadata metadata) {
+        this.route = route;
+        this.topic = topic;
+        this.payload = payload;
+        this.receivedMillis = receivedMillis;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @return the name of the route to write, empty to write all routes matching the topic.
+     */
+    @NotNull
+    public String getRoute() {
+        return route;
+    }
+
+    @NotNull
+    public String getTopic() {
+        return topic;
+    }
+
+    @NotNull
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+
+    @NotNull
+    public PublishMetadata getMetadata() {
+        return metadata;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.wal;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.tdengine.writer.WriteException;
+
+/**
+ * Replays the {@link WriteAheadLog} in batches, oldest first, once TDengine is reachable again.
+ * A batch is committed when none of its records failed because TDengine was unavailable, otherwise it is
+ * replayed again at the next interval, so records are written at least once.
+ * Records which TDengine refused are logged and discarded.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class WalReplayer {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(WalReplayer.class);
+
+    private enum Outcome {
+        WRITTEN, UNAVAILABLE, REFUSED
+    }
+
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService scheduler;
+    private final int batchSize;
+    private final long intervalMillis;
+    private final Function<WalRecord, CompletableFuture<?>> handler;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private volatile boolean running;
+    private ScheduledFuture<?> task;
+
+    /**
+     * @param wal the log to replay
+     * @param scheduler runs the replay
+     * @param batchSize the maximum number of records written at the same time
+     * @param intervalMillis how often to check whether TDengine is reachable again
+     * @param handler writes a record and returns a future which completes when it is written
+     */
+    public WalReplayer(@NotNull final WriteAheadLog wal, @NotNull final ScheduledExecutorService scheduler, final int batchSize,
+                       final long intervalMillis, @NotNull final Function<WalRecord, CompletableFuture<?>> handler) {
+        this.wal = wal;
+        this.scheduler = scheduler;
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+        this.handler = handler;
+    }
+
+    public synchronized void start() {
+        running = true;
+        task = scheduler.scheduleWithFixedDelay(this::replay, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * @return the number of records written since start.
+     */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /**
+     * @return the number of records discarded because TDengine refused them.
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * Start replaying unless the log is empty or a replay is running.
+     */
+    void replay() {
+        if (!running || wal.isEmpty() || !replaying.compareAndSet(false, true)) {
+            return;
+        }
+        replayBatch();
+    }
+
+    private void replayBatch() {
+        final List<WalRecord> records = wal.read(batchSize);
+        if (!running || records.isEmpty()) {
+            replaying.set(false);
+            return;
+        }
+        final CompletableFuture<?>[] outcomes = new CompletableFuture<?>[records.size()];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = write(records.get(i));
+        }
+        CompletableFuture.allOf(outcomes).whenComplete((ignored, throwable) -> {
+            int written = 0;
+            int refused = 0;
+            for (final CompletableFuture<?> outcome : outcomes) {
+                final Outcome result = (Outcome) outcome.join();
+                if (result == Outcome.UNAVAILABLE) {
+                    log.debug("TDengine is still unavailable, {} records are kept in the write-ahead log", wal.size());
+                    replaying.set(false);
+                    return;
+                }
+                if (result == Outcome.WRITTEN) {
+                    written++;
+                } else {
+                    refused++;
+                }
+            }
+            wal.commit();
+            replayed.addAndGet(written);
+            if (refused > 0) {
+                discarded.addAndGet(refused);
+                log.warn("TDengine refused {} records of the write-ahead log, they are discarded", refused);
+            }
+            if (running && !wal.isEmpty()) {
+                scheduler.execute(this::replayBatch);
+            } else {
+                if (wal.isEmpty()) {
+                    log.info("write-ahead log replayed, {} records written", replayed.get());
+                }
+                replaying.set(false);
+            }
+        });
+    }
+
+    @NotNull
+    private CompletableFuture<Outcome> write(@NotNull final WalRecord record) {
+        try {
+            return handler.apply(record).handle((ignored, throwable) -> {
+                if (throwable == null) {
+                    return Outcome.WRITTEN;
+                }
+                return WriteException.isUnavailable(throwable) ? Outcome.UNAVAILABLE : Outcome.REFUSED;
+            });
+        } catch (Exception e) {
+            log.error("failed to replay publish on topic " + record.getTopic(), e);
+            return CompletableFuture.completedFuture(Outcome.REFUSED);
+        }
+    }
+}
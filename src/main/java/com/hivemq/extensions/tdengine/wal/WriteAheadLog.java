@@ -0,0 +1,431 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.tdengine.routing.PublishMetadata;
+
+/**
+ * An append-only log of publishes which could not be written to TDengine, kept in memory-mapped segment files.
+ * <p>
+ * Each segment is mapped with its full size when it is created, records are appended as
+ * <code>[length][crc32][received millis][route][topic][payload]</code> and the length is written last,
+ * so a record torn by a crash reads as the end of the segment.
+ * Publishes whose routes use the client id or user properties append <code>[client id][count]([name][value])*</code>
+ * to the payload, records without this trailer read as publishes without metadata.
+ * The position of the oldest record not yet replayed is kept in a checkpoint file,
+ * fully replayed segments are deleted and the log survives broker restarts.
+ * A record is only lost if the machine fails before the operating system wrote the mapped pages.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int RECORD_HEADER = 8;
+    private static final int RECORD_FIXED = 8 + 2 + 2 + 4;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final AtomicLong refused = new AtomicLong();
+
+    private Segment head;
+    private long readSegment;
+    private int readOffset;
+    private long pendingSegment;
+    private int pendingOffset;
+    private int pendingRecords;
+    private long records;
+    private boolean closed;
+
+    /**
+     * Open the log in the given directory, continuing after the last record of a previous run.
+     * @param directory the directory of the segment files, created if it does not exist
+     * @param segmentSize the size of a segment file in bytes
+     * @param maxBytes the maximum size of all segment files together
+     * @throws IOException if the directory or the segments can not be read.
+     */
+    public WriteAheadLog(@NotNull final Path directory, final int segmentSize, final long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        readCheckpoint();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                final long id;
+                try {
+                    id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    log.warn("ignoring unknown file {} in the write-ahead log", file);
+                    continue;
+                }
+                if (id < readSegment) {
+                    Files.delete(file);
+                } else {
+                    segments.put(id, map(id, file));
+                }
+            }
+        }
+        if (!segments.isEmpty() && !segments.containsKey(readSegment)) {
+            readSegment = segments.firstKey();
+            readOffset = 0;
+        }
+        for (final Segment segment : segments.values()) {
+            final int start = segment.id == readSegment ? readOffset : 0;
+            segment.limit = scan(segment, start);
+        }
+        head = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        pendingSegment = readSegment;
+        pendingOffset = readOffset;
+        if (records > 0) {
+            log.info("write-ahead log in {} holds {} records to replay", directory, records);
+        }
+    }
+
+    /**
+     * Append a record to the newest segment, starting a new segment if it is full.
+     * @param record the publish to keep
+     * @return <b>true</b> if the record was appended, <b>false</b> if the log is full, closed or the record is too large.
+     */
+    public boolean append(@NotNull final WalRecord record) {
+        final byte[] route = record.getRoute().getBytes(StandardCharsets.UTF_8);
+        final byte[] topic = record.getTopic().getBytes(StandardCharsets.UTF_8);
+        final byte[][] metadata = encode(record.getMetadata());
+        int length = RECORD_FIXED + route.length + topic.length + record.getPayload().length;
+        boolean fits = route.length <= Character.MAX_VALUE && topic.length <= Character.MAX_VALUE;
+        if (metadata.length > 0) {
+            length += 2 + 2 * metadata.length;
+            for (final byte[] value : metadata) {
+                length += value.length;
+                fits &= value.length <= Character.MAX_VALUE;
+            }
+        }
+        if (RECORD_HEADER + length > segmentSize || !fits) {
+            log.warn("publish on topic {} is too large for the write-ahead log", record.getTopic());
+            refused.incrementAndGet();
+            return false;
+        }
+        final ByteBuffer body = ByteBuffer.allocate(length);
+        body.putLong(record.getReceivedMillis());
+        body.putChar((char) route.length).put(route);
+        body.putChar((char) topic.length).put(topic);
+        body.putInt(record.getPayload().length).put(record.getPayload());
+        if (metadata.length > 0) {
+            body.putChar((char) metadata[0].length).put(metadata[0]);
+            body.putChar((char) (metadata.length / 2));
+            for (int i = 1; i < metadata.length; i++) {
+                body.putChar((char) metadata[i].length).put(metadata[i]);
+            }
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(body.array());
+
+        synchronized (this) {
+            if (closed) {
+                refused.incrementAndGet();
+                return false;
+            }
+            if (head == null || head.limit + RECORD_HEADER + length > head.buffer.capacity()) {
+                if (getBytes() + segmentSize > maxBytes) {
+                    final long count = refused.incrementAndGet();
+                    if (count == 1 || count % 10000 == 0) {
+                        log.warn("write-ahead log is full, {} publishes refused so far", count);
+                    }
+                    return false;
+                }
+                try {
+                    roll();
+                } catch (IOException e) {
+                    log.error("failed to create a write-ahead log segment in " + directory, e);
+                    refused.incrementAndGet();
+                    return false;
+                }
+            }
+            final ByteBuffer target = head.buffer.duplicate();
+            target.position(head.limit + RECORD_HEADER);
+            target.put(body.array());
+            head.buffer.putInt(head.limit + 4, (int) crc.getValue());
+            head.buffer.putInt(head.limit, length);
+            head.limit += RECORD_HEADER + length;
+            records++;
+            return true;
+        }
+    }
+
+    /**
+     * Read the oldest records which are not committed yet.
+     * Every call starts again at the committed position, until {@link #commit()} moves it past the records read last.
+     * @param maxRecords the maximum number of records to read
+     * @return the records in order of arrival, empty if there are none.
+     */
+    @NotNull
+    public synchronized List<WalRecord> read(final int maxRecords) {
+        final List<WalRecord> batch = new ArrayList<>();
+        long segmentId = readSegment;
+        int offset = readOffset;
+        for (final Segment segment : segments.tailMap(readSegment, true).values()) {
+            segmentId = segment.id;
+            offset = segment.id == readSegment ? readOffset : 0;
+            while (offset < segment.limit && batch.size() < maxRecords) {
+                final int length = segment.buffer.getInt(offset);
+                batch.add(decode(segment.buffer, offset + RECORD_HEADER, length));
+                offset += RECORD_HEADER + length;
+            }
+            if (batch.size() >= maxRecords) {
+                break;
+            }
+        }
+        pendingSegment = segmentId;
+        pendingOffset = offset;
+        pendingRecords = batch.size();
+        return batch;
+    }
+
+    /**
+     * Move the committed position past the records returned by the last {@link #read(int)}
+     * and delete the segments which are fully replayed.
+     */
+    public synchronized void commit() {
+        if (closed || pendingRecords == 0) {
+            return;
+        }
+        readSegment = pendingSegment;
+        readOffset = pendingOffset;
+        records -= pendingRecords;
+        pendingRecords = 0;
+        final Segment current = segments.get(readSegment);
+        if (current != null && current != head && readOffset >= current.limit) {
+            final Long next = segments.higherKey(readSegment);
+            readSegment = next != null ? next : readSegment;
+            readOffset = 0;
+        }
+        final Iterator<Map.Entry<Long, Segment>> replayed = segments.headMap(readSegment, false).entrySet().iterator();
+        while (replayed.hasNext()) {
+            final Segment segment = replayed.next().getValue();
+            replayed.remove();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.error("failed to delete write-ahead log segment " + segment.path, e);
+            }
+        }
+        try {
+            writeCheckpoint();
+        } catch (IOException e) {
+            log.error("failed to write the write-ahead log checkpoint in " + directory, e);
+        }
+    }
+
+    /**
+     * @return the number of records which are not committed.
+     */
+    public synchronized long size() {
+        return records;
+    }
+
+    public synchronized boolean isEmpty() {
+        return records == 0;
+    }
+
+    /**
+     * @return the size of all segment files in bytes.
+     */
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (final Segment segment : segments.values()) {
+            bytes += segment.buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of records which were not appended because the log was full or closed.
+     */
+    public long getRefused() {
+        return refused.get();
+    }
+
+    /**
+     * Write the mapped segments to disk and refuse further records.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (head != null) {
+            head.buffer.force();
+        }
+    }
+
+    private void roll() throws IOException {
+        if (head != null) {
+            head.buffer.force();
+        }
+        final long id = head == null ? Math.max(readSegment, 1) : head.id + 1;
+        head = map(id, directory.resolve(String.format("%016d", id) + SEGMENT_SUFFIX));
+        segments.put(id, head);
+        if (segments.size() == 1) {
+            readSegment = id;
+            readOffset = 0;
+        }
+    }
+
+    @NotNull
+    private Segment map(final long id, @NotNull final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = channel.size() > 0 ? channel.size() : segmentSize;
+            return new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Find the end of the valid records of a segment and count them.
+     * @return the offset after the last valid record.
+     */
+    private int scan(@NotNull final Segment segment, final int start) {
+        final MappedByteBuffer buffer = segment.buffer;
+        int offset = start;
+        while (offset + RECORD_HEADER + RECORD_FIXED <= buffer.capacity()) {
+            final int length = buffer.getInt(offset);
+            if (length < RECORD_FIXED || offset + RECORD_HEADER + length > buffer.capacity()) {
+                break;
+            }
+            final ByteBuffer body = buffer.duplicate();
+            body.position(offset + RECORD_HEADER).limit(offset + RECORD_HEADER + length);
+            final CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                log.warn("write-ahead log segment {} ends with a torn record at {}", segment.path, offset);
+                break;
+            }
+            offset += RECORD_HEADER + length;
+            records++;
+        }
+        return offset;
+    }
+
+    /**
+     * @return the client id followed by the names and values of the user properties, empty if the publish has no metadata.
+     */
+    @NotNull
+    private static byte[][] encode(@NotNull final PublishMetadata metadata) {
+        final String[] userProperties = metadata.getUserProperties();
+        if (metadata.getClientId().isEmpty() && userProperties.length == 0) {
+            return new byte[0][];
+        }
+        final byte[][] values = new byte[1 + userProperties.length][];
+        values[0] = metadata.getClientId().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < userProperties.length; i++) {
+            values[i + 1] = userProperties[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    @NotNull
+    private static WalRecord decode(@NotNull final ByteBuffer buffer, final int offset, final int length) {
+        final ByteBuffer body = buffer.duplicate();
+        body.position(offset).limit(offset + length);
+        final long receivedMillis = body.getLong();
+        final String route = readString(body);
+        final String topic = readString(body);
+        final byte[] payload = new byte[body.getInt()];
+        body.get(payload);
+        if (!body.hasRemaining()) {
+            return new WalRecord(route, topic, payload, receivedMillis);
+        }
+        final String clientId = readString(body);
+        final String[] userProperties = new String[2 * body.getChar()];
+        for (int i = 0; i < userProperties.length; i++) {
+            userProperties[i] = readString(body);
+        }
+        return new WalRecord(route, topic, payload, receivedMillis, new PublishMetadata(clientId, userProperties));
+    }
+
+    @NotNull
+    private static String readString(@NotNull final ByteBuffer body) {
+        final byte[] bytes = new byte[body.getChar()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void readCheckpoint() throws IOException {
+        final Path file = directory.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return;
+        }
+        final ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (checkpoint.remaining() >= 12) {
+            readSegment = checkpoint.getLong();
+            readOffset = checkpoint.getInt();
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        final ByteBuffer checkpoint = ByteBuffer.allocate(12).putLong(readSegment).putInt(readOffset);
+        final Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        Files.write(temporary, checkpoint.array());
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A mapped segment file and the end of its records.
+     */
+    private static final class Segment {
+
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int limit;
+
+        private Segment(final long id, @NotNull final Path path, @NotNull final MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts the rows per batch and the linger time of a batcher to the observed write latency.
+ * The latency is the time TDengine took for a batch, without the time it waited for a free request slot or connection.
+ * While statements wait for the writer, or writes complete within the target latency and batches fill up before their
+ * linger time expires, i.e. rows are queueing up, both limits grow towards the configured maximum, as smaller batches would
+ * only mean more requests in the queue. When the average latency exceeds the target they are halved, at most once per
+ * smoothing window, so the average can follow the smaller batches before they are made smaller again.
+ * A batch flushed by its linger time shortens the linger time, as waiting longer would not have filled it.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class BatchTuner {
+
+    private static final double SMOOTHING = 0.2;
+    // observations until the average mostly reflects a change of the batch size
+    private static final int WINDOW = (int) Math.round(1 / SMOOTHING);
+
+    private final int maxRows;
+    private final long maxLingerMillis;
+    private final long minLingerMillis;
+    private final long targetLatencyNanos;
+
+    private volatile int rows;
+    private volatile long lingerMillis;
+    private double latencyNanos = -1;
+    private int sinceShrink = WINDOW;
+
+    /**
+     * @param maxRows the upper bound of the rows per batch, where tuning starts
+     * @param maxLingerMillis the upper bound of the linger time, where tuning starts
+     * @param targetLatencyMillis the write latency above which batches are made smaller
+     */
+    public BatchTuner(final int maxRows, final long maxLingerMillis, final long targetLatencyMillis) {
+        this.maxRows = maxRows;
+        this.maxLingerMillis = maxLingerMillis;
+        // a batch which never lingers is only written when it is full
+        this.minLingerMillis = Math.min(1, maxLingerMillis);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.rows = maxRows;
+        this.lingerMillis = maxLingerMillis;
+    }
+
+    /**
+     * @return the number of rows at which a batch is written now.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the linger time of a new batch now.
+     */
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * Adjust the limits after a batch was written.
+     * @param full whether the batch was written for reaching its row or byte limit rather than its linger time
+     * @param elapsedNanos the time TDengine took for the batch until it was written or failed
+     * @param waiting the number of statements waiting for the writer when the batch was written
+     */
+    public synchronized void observe(final boolean full, final long elapsedNanos, final int waiting) {
+        latencyNanos = latencyNanos < 0 ? elapsedNanos : latencyNanos + SMOOTHING * (elapsedNanos - latencyNanos);
+        if (sinceShrink < WINDOW) {
+            sinceShrink++;
+        }
+        if (waiting > 0) {
+            grow();
+        } else if (latencyNanos > targetLatencyNanos) {
+            if (sinceShrink >= WINDOW) {
+                sinceShrink = 0;
+                rows = Math.max(1, rows / 2);
+                lingerMillis = Math.max(minLingerMillis, lingerMillis / 2);
+            }
+        } else if (full) {
+            grow();
+        } else {
+            lingerMillis = Math.max(minLingerMillis, lingerMillis - Math.max(1, lingerMillis / 8));
+        }
+    }
+
+    private void grow() {
+        rows = Math.min(maxRows, rows + Math.max(1, rows / 4));
+        lingerMillis = Math.min(maxLingerMillis, lingerMillis + Math.max(1, maxLingerMillis / 8));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * A tag or column bound by a {@link BindingWriter}: the payload key its value is read from and its TDengine data type.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class BindColumn {
+
+    /**
+     * Key of a timestamp column bound to the time the PUBLISH was received.
+     */
+    public static final String KEY_NOW = "now";
+
+    /**
+     * TDengine data types with their native type codes.
+     */
+    public enum Type {
+        BOOL(1), TINYINT(2), SMALLINT(3), INT(4), BIGINT(5), FLOAT(6), DOUBLE(7), BINARY(8), TIMESTAMP(9), NCHAR(10);
+
+        private final int code;
+
+        Type(final int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+    }
+
+    private final String key;
+    private final Type type;
+
+    public BindColumn(@NotNull final String key, @NotNull final Type type) {
+        this.key = key;
+        this.type = type;
+    }
+
+    /**
+     * Parse a list of bound columns such as <code>ts:timestamp,temperature:float,name:nchar</code>.
+     * @param spec comma separated <code>key:type</code> entries
+     * @return the columns in order
+     * @throws IllegalArgumentException if an entry has no key or an unknown type.
+     */
+    @NotNull
+    public static List<BindColumn> parseList(@Nullable final String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<BindColumn> columns = new ArrayList<>();
+        for (final String entry : spec.split(",")) {
+            final int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("bound column '" + entry.trim() + "' must be written as key:type");
+            }
+            final String key = entry.substring(0, colon).trim();
+            final String typeName = entry.substring(colon + 1).trim().toUpperCase(Locale.ROOT);
+            final Type type;
+            try {
+                type = Type.valueOf(typeName);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown type " + typeName.toLowerCase(Locale.ROOT) + " of bound column " + key);
+            }
+            if (key.isEmpty()) {
+                throw new IllegalArgumentException("bound column '" + entry.trim() + "' has no key");
+            }
+            columns.add(new BindColumn(key, type));
+        }
+        return columns;
+    }
+
+    @NotNull
+    public String getKey() {
+        return key;
+    }
+
+    @NotNull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return <b>true</b> if this column is bound to the receive time instead of a payload value.
+     */
+    public boolean isNow() {
+        return type == Type.TIMESTAMP && KEY_NOW.equals(key);
+    }
+
+    /**
+     * Convert the text of a payload value to the Java type bound for this column.
+     * Timestamps are epoch milliseconds or <code>yyyy-mm-dd hh:mm:ss[.fff]</code>.
+     * @param text the payload value, may be <b>null</b>
+     * @return the converted value, <b>null</b> if the text is <b>null</b>.
+     * @throws IllegalArgumentException if the text is not a valid value of the column type.
+     */
+    @Nullable
+    public Object convert(@Nullable final String text) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            switch (type) {
+                case BOOL:
+                    return "true".equalsIgnoreCase(text) || "1".equals(text);
+                case TINYINT:
+                    return Byte.valueOf(text);
+                case SMALLINT:
+                    return Short.valueOf(text);
+                case INT:
+                    return Integer.valueOf(text);
+                case BIGINT:
+                    return Long.valueOf(text);
+                case FLOAT:
+                    return Float.valueOf(text);
+                case DOUBLE:
+                    return Double.valueOf(text);
+                case TIMESTAMP:
+                    return toEpochMillis(text);
+                default:
+                    return text;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid " + type.name().toLowerCase(Locale.ROOT) + " value '" + text + "' of bound column " + key);
+        }
+    }
+
+    private static long toEpochMillis(@NotNull final String text) {
+        if (!text.isEmpty() && (Character.isDigit(text.charAt(0)) && text.indexOf('-') < 0)) {
+            return Long.parseLong(text);
+        }
+        return Timestamp.valueOf(text).getTime();
+    }
+
+    @Override
+    public String toString() {
+        return key + ":" + type.name().toLowerCase(Locale.ROOT);
+    }
+}
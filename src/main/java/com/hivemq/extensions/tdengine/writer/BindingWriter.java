@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import com.taosdata.jdbc.TSDBPreparedStatement;
+
+/**
+ * Writes rows with the parameter binding API of the TDengine JDBC driver instead of rendered SQL text.
+ * Rows of one {@link ColumnBinding} are grouped by sub-table, each group is bound with
+ * <code>setTableName</code>, the tag setters and one value list per column, and all groups are executed as one batch.
+ * A batch is flushed when it reaches the configured number of rows or when the linger time expired.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class BindingWriter {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(BindingWriter.class);
+
+    private final DataSource datasource;
+    private final ScheduledExecutorService executor;
+    private final int maxRows;
+    private final long lingerMillis;
+    private final TDengineMetrics metrics;
+
+    private final Map<ColumnBinding, Batch> batches = new HashMap<>();
+
+    public BindingWriter(@NotNull final DataSource datasource, @NotNull final ScheduledExecutorService executor,
+                         final int maxRows, final long lingerMillis, @NotNull final TDengineMetrics metrics) {
+        this.datasource = datasource;
+        this.executor = executor;
+        this.maxRows = maxRows;
+        this.lingerMillis = lingerMillis;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Add a row to the current batch of its binding.
+     * @param binding the statement the row is bound to
+     * @param table the sub-table of the row
+     * @param tags the tag values of the sub-table, in the order of {@link ColumnBinding#getTags()}
+     * @param values the column values, in the order of {@link ColumnBinding#getColumns()}
+     * @return a future which completes when the batch containing the row is written.
+     */
+    @NotNull
+    public CompletableFuture<?> add(@NotNull final ColumnBinding binding, @NotNull final String table,
+                                    @NotNull final Object[] tags, @NotNull final Object[] values) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        Batch full = null;
+        synchronized (this) {
+            final Batch batch = batches.computeIfAbsent(binding, Batch::new);
+            batch.add(table, tags, values, future);
+            if (batch.rows == 1 && lingerMillis > 0 && maxRows > 1) {
+                batch.linger = executor.schedule(() -> flush(batch), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+            if (batch.rows >= maxRows) {
+                batches.remove(binding);
+                full = batch;
+            }
+        }
+        send(full);
+        return future;
+    }
+
+    /**
+     * Write the current batches immediately.
+     * @return a future which completes when the pending rows are written.
+     */
+    @NotNull
+    public CompletableFuture<?> flush() {
+        final List<Batch> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[pending.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = send(pending.get(i));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    private void flush(@NotNull final Batch lingering) {
+        synchronized (this) {
+            if (!batches.remove(lingering.binding, lingering)) {
+                return;
+            }
+        }
+        send(lingering);
+    }
+
+    @NotNull
+    private CompletableFuture<?> send(@Nullable final Batch batch) {
+        if (batch == null || batch.rows == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (batch.linger != null) {
+            batch.linger.cancel(false);
+        }
+        return CompletableFuture.runAsync(() -> {
+            try {
+                execute(batch);
+            } catch (SQLException e) {
+                throw new WriteException(batch.binding.getSql(), e);
+            }
+        }, executor).whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                metrics.getWritten().inc(batch.rows);
+            }
+            for (final CompletableFuture<Void> future : batch.futures) {
+                if (throwable == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(throwable);
+                }
+            }
+        });
+    }
+
+    private void execute(@NotNull final Batch batch) throws SQLException {
+        if (log.isDebugEnabled()) {
+            log.debug("binding {} rows for {} tables of {}", batch.rows, batch.tables.size(), batch.binding.getSuperTable());
+        }
+        metrics.getBatchSize().update(batch.rows);
+        final Connection connection;
+        final long waitNanos = System.nanoTime();
+        try {
+            connection = datasource.getConnection();
+            TDengineMetrics.since(metrics.getConnectionWait(), waitNanos);
+        } catch (SQLException e) {
+            // the pool could not connect, TDengine is unreachable
+            throw new WriteException(batch.binding.getSql(), e, true);
+        }
+        PreparedStatement prepared = null;
+        final long executeNanos = System.nanoTime();
+        try {
+            prepared = connection.prepareStatement(batch.binding.getSql());
+            final TSDBPreparedStatement statement = prepared.unwrap(TSDBPreparedStatement.class);
+            try {
+                for (final Map.Entry<String, TableRows> table : batch.tables.entrySet()) {
+                    statement.setTableName(table.getKey());
+                    bindTags(statement, batch.binding.getTags(), table.getValue().tags);
+                    bindColumns(statement, batch.binding.getColumns(), table.getValue().rows);
+                    statement.columnDataAddBatch();
+                }
+                statement.columnDataExecuteBatch();
+                TDengineMetrics.since(metrics.getWriteLatency(), executeNanos);
+            } finally {
+                statement.columnDataCloseBatch();
+            }
+        } finally {
+            if (prepared != null) {
+                try {
+                    prepared.close();
+                } catch (SQLException e) {
+                    log.error("failed to close statement", e);
+                }
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.error("failed to close connection", e);
+            }
+        }
+    }
+
+    private static void bindTags(@NotNull final TSDBPreparedStatement statement, @NotNull final List<BindColumn> tags,
+                                 @NotNull final Object[] values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            final Object value = values[i];
+            final BindColumn.Type type = tags.get(i).getType();
+            if (value == null) {
+                statement.setTagNull(i, type.getCode());
+                continue;
+            }
+            switch (type) {
+                case BOOL:
+                    statement.setTagBoolean(i, (Boolean) value);
+                    break;
+                case TINYINT:
+                    statement.setTagByte(i, (Byte) value);
+                    break;
+                case SMALLINT:
+                    statement.setTagShort(i, (Short) value);
+                    break;
+                case INT:
+                    statement.setTagInt(i, (Integer) value);
+                    break;
+                case BIGINT:
+                    statement.setTagLong(i, (Long) value);
+                    break;
+                case FLOAT:
+                    statement.setTagFloat(i, (Float) value);
+                    break;
+                case DOUBLE:
+                    statement.setTagDouble(i, (Double) value);
+                    break;
+                case TIMESTAMP:
+                    statement.setTagTimestamp(i, (Long) value);
+                    break;
+                case NCHAR:
+                    statement.setTagNString(i, (String) value);
+                    break;
+                default:
+                    statement.setTagString(i, (String) value);
+                    break;
+            }
+        }
+    }
+
+    private static void bindColumns(@NotNull final TSDBPreparedStatement statement, @NotNull final List<BindColumn> columns,
+                                    @NotNull final List<Object[]> rows) throws SQLException {
+        for (int i = 0; i < columns.size(); i++) {
+            switch (columns.get(i).getType()) {
+                case BOOL:
+                    statement.setBoolean(i, column(rows, i));
+                    break;
+                case TINYINT:
+                    statement.setByte(i, column(rows, i));
+                    break;
+                case SMALLINT:
+                    statement.setShort(i, column(rows, i));
+                    break;
+                case INT:
+                    statement.setInt(i, column(rows, i));
+                    break;
+                case BIGINT:
+                    statement.setLong(i, column(rows, i));
+                    break;
+                case FLOAT:
+                    statement.setFloat(i, column(rows, i));
+                    break;
+                case DOUBLE:
+                    statement.setDouble(i, column(rows, i));
+                    break;
+                case TIMESTAMP:
+                    statement.setTimestamp(i, column(rows, i));
+                    break;
+                case NCHAR: {
+                    final ArrayList<String> strings = column(rows, i);
+                    statement.setNString(i, strings, maxLength(strings));
+                    break;
+                }
+                default: {
+                    final ArrayList<String> strings = column(rows, i);
+                    statement.setString(i, strings, maxLength(strings));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the values of one column of a sub-table. The values were converted to the column type when they were added.
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    static <T> ArrayList<T> column(@NotNull final List<Object[]> rows, final int index) {
+        final ArrayList<T> values = new ArrayList<>(rows.size());
+        for (final Object[] row : rows) {
+            values.add((T) row[index]);
+        }
+        return values;
+    }
+
+    /**
+     * @return the largest UTF-8 length of the strings, at least 1.
+     */
+    static int maxLength(@NotNull final List<String> strings) {
+        int max = 1;
+        for (final String string : strings) {
+            if (string != null) {
+                max = Math.max(max, InsertBatcher.utf8Length(string));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Rows of one binding grouped by sub-table, in order of arrival.
+     */
+    private static final class Batch {
+
+        private final ColumnBinding binding;
+        private final Map<String, TableRows> tables = new LinkedHashMap<>();
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private int rows;
+        private ScheduledFuture<?> linger;
+
+        private Batch(@NotNull final ColumnBinding binding) {
+            this.binding = binding;
+        }
+
+        private void add(@NotNull final String table, @NotNull final Object[] tags, @NotNull final Object[] values,
+                         @NotNull final CompletableFuture<Void> future) {
+            tables.computeIfAbsent(table, name -> new TableRows(tags)).rows.add(values);
+            futures.add(future);
+            rows++;
+        }
+    }
+
+    /**
+     * The tags of a sub-table, taken from its first row, and its rows.
+     */
+    private static final class TableRows {
+
+        private final Object[] tags;
+        private final List<Object[]> rows = new ArrayList<>();
+
+        private TableRows(@NotNull final Object[] tags) {
+            this.tags = tags;
+        }
+    }
+}
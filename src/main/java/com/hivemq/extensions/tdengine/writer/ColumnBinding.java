@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * The prepared statement of a super table written with parameter binding,
+ * <code>INSERT INTO ? USING st TAGS (?, ...) VALUES (?, ...)</code>, together with the types of its tags and columns.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class ColumnBinding {
+
+    private final String superTable;
+    private final List<BindColumn> tags;
+    private final List<BindColumn> columns;
+    private final String sql;
+
+    /**
+     * @param superTable the super table of the sub-tables written
+     * @param tags the tags of the super table, in order
+     * @param columns the columns of the super table, in order, starting with the timestamp
+     * @throws IllegalArgumentException if there are no tags or columns, or the first column is not a timestamp.
+     */
+    public ColumnBinding(@NotNull final String superTable, @NotNull final List<BindColumn> tags, @NotNull final List<BindColumn> columns) {
+        if (tags.isEmpty()) {
+            throw new IllegalArgumentException("no bound tags for " + superTable);
+        }
+        if (columns.isEmpty() || columns.get(0).getType() != BindColumn.Type.TIMESTAMP) {
+            throw new IllegalArgumentException("the first bound column of " + superTable + " must be a timestamp");
+        }
+        this.superTable = superTable;
+        this.tags = Collections.unmodifiableList(tags);
+        this.columns = Collections.unmodifiableList(columns);
+
+        final StringBuilder sb = new StringBuilder("insert into ? using ").append(superTable).append(" tags (");
+        appendParameters(sb, tags.size());
+        sb.append(") values (");
+        appendParameters(sb, columns.size());
+        this.sql = sb.append(')').toString();
+    }
+
+    private static void appendParameters(@NotNull final StringBuilder sb, final int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+    }
+
+    @NotNull
+    public String getSuperTable() {
+        return superTable;
+    }
+
+    @NotNull
+    public List<BindColumn> getTags() {
+        return tags;
+    }
+
+    @NotNull
+    public List<BindColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the statement prepared for this binding.
+     */
+    @NotNull
+    public String getSql() {
+        return sql;
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Bounded set of the (sub-table, timestamp) pairs of recent rows, so that a row repeated within the window,
+ * e.g. a QoS 1 redelivery or a device resending its last reading, is dropped before it is batched.
+ * The pairs are spread over stripes with a lock each. A stripe keeps its pairs in order of arrival,
+ * evicts those older than the window and the oldest ones once it holds its share of the maximum number of pairs.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class DuplicateFilter {
+
+    private static final int STRIPES = 16;
+
+    private final long windowMillis;
+    private final LongSupplier clock;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param windowMillis how long a row is remembered
+     * @param maxEntries the maximum number of rows remembered
+     */
+    public DuplicateFilter(final long windowMillis, final int maxEntries) {
+        this(windowMillis, maxEntries, System::currentTimeMillis);
+    }
+
+    DuplicateFilter(final long windowMillis, final int maxEntries, @NotNull final LongSupplier clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("the maximum number of entries must be at least 1");
+        }
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxEntries / STRIPES));
+        }
+    }
+
+    /**
+     * Remember a row unless it was seen within the window.
+     * @param table the sub-table
+     * @param timestamp the timestamp as rendered or bound
+     * @return <b>true</b> if the row is new, <b>false</b> if it is a duplicate.
+     */
+    public boolean add(@NotNull final String table, @NotNull final String timestamp) {
+        final Key key = new Key(table, timestamp);
+        return stripes[Shards.indexOf(table, STRIPES)].add(key, clock.getAsLong() - windowMillis);
+    }
+
+    /**
+     * Forget a row whose write failed, so a redelivery of it is written.
+     * @param table the sub-table
+     * @param timestamp the timestamp as rendered or bound
+     */
+    public void remove(@NotNull final String table, @NotNull final String timestamp) {
+        stripes[Shards.indexOf(table, STRIPES)].remove(new Key(table, timestamp));
+    }
+
+    /**
+     * @return the number of rows remembered, including expired ones not yet evicted.
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * The rows of the sub-tables of one stripe with the time they were first seen, oldest first.
+     */
+    private final class Stripe {
+
+        private final Map<Key, Long> seen;
+
+        private Stripe(final int capacity) {
+            this.seen = new LinkedHashMap<Key, Long>(Math.min(capacity, 1 << 12)) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Key, Long> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        private synchronized boolean add(@NotNull final Key key, final long expiredMillis) {
+            final Iterator<Long> oldest = seen.values().iterator();
+            while (oldest.hasNext() && oldest.next() <= expiredMillis) {
+                oldest.remove();
+            }
+            return seen.putIfAbsent(key, expiredMillis + windowMillis) == null;
+        }
+
+        private synchronized void remove(@NotNull final Key key) {
+            seen.remove(key);
+        }
+
+        private synchronized int size() {
+            return seen.size();
+        }
+    }
+
+    private static final class Key {
+
+        private final String table;
+        private final String timestamp;
+        private final int hash;
+
+        private Key(@NotNull final String table, @NotNull final String timestamp) {
+            this.table = table;
+            this.timestamp = timestamp;
+            this.hash = 31 * table.hashCode() + timestamp.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return hash == other.hash && table.equals(other.table) && timestamp.equals(other.timestamp);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
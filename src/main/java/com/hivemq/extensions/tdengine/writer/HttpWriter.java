@@ -0,0 +1,271 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.endpoint.Endpoint;
+import com.hivemq.extensions.tdengine.endpoint.EndpointBalancer;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+
+/**
+ * {@link TDengineWriter} posting statements to the TDengine RESTful connector with one shared non-blocking HTTP client.
+ * Connections are kept alive and reused, at most <b>maxPerRoute</b> requests per endpoint are in flight and further
+ * statements wait in a queue until a response arrives, so no thread is blocked while a request is outstanding.
+ * With several endpoints, every request is sent to the endpoint selected by their {@link EndpointBalancer} among those
+ * with a free slot, so an endpoint left after others were ejected does not get their requests as well.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class HttpWriter implements TDengineWriter {
+
+    private static final String STATUS_ERROR = "\"status\":\"error\"";
+
+    private final EndpointBalancer<URI> endpoints;
+    private final String authorization;
+    private final HttpClient client;
+    private final int maxPerRoute;
+    private final Duration requestTimeout;
+    private final boolean gzip;
+    private final TDengineMetrics metrics;
+
+    private final Queue<Pending> waiting = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param httpURL the RESTful interface URL, <code>http://</code> is assumed if it has no scheme
+     * @param httpToken the <code>user:password</code> credentials
+     * @param executor runs the response handlers
+     * @param maxPerRoute maximum number of requests in flight per endpoint
+     * @param connectTimeoutMillis connect timeout
+     * @param requestTimeoutMillis timeout of a request until its response headers arrive
+     * @param gzip compress the request bodies
+     * @param metrics records the time waiting for a free slot and the request latency
+     */
+    public HttpWriter(@NotNull final String httpURL, @NotNull final String httpToken, @NotNull final ExecutorService executor,
+                      final int maxPerRoute, final int connectTimeoutMillis, final int requestTimeoutMillis, final boolean gzip,
+                      @NotNull final TDengineMetrics metrics) {
+        this(EndpointBalancer.of(httpURL, uriOf(httpURL)), httpToken, executor, maxPerRoute, connectTimeoutMillis, requestTimeoutMillis,
+                gzip, metrics);
+    }
+
+    /**
+     * @param endpoints selects the URL of each request, counting the requests in flight per endpoint
+     */
+    public HttpWriter(@NotNull final EndpointBalancer<URI> endpoints, @NotNull final String httpToken,
+                      @NotNull final ExecutorService executor, final int maxPerRoute, final int connectTimeoutMillis,
+                      final int requestTimeoutMillis, final boolean gzip, @NotNull final TDengineMetrics metrics) {
+        this.endpoints = endpoints;
+        this.authorization = "Basic " + Base64.getEncoder().encodeToString(httpToken.getBytes(StandardCharsets.UTF_8));
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .executor(executor)
+                .build();
+        this.maxPerRoute = maxPerRoute;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.gzip = gzip;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public @NotNull CompletableFuture<?> write(@NotNull final String sql) {
+        return enqueue(new Pending(sql, null));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<?> write(@NotNull final String sql, @NotNull final LongConsumer latency) {
+        return enqueue(new Pending(sql, latency));
+    }
+
+    @NotNull
+    private CompletableFuture<?> enqueue(@NotNull final Pending pending) {
+        waiting.add(pending);
+        dispatch();
+        return pending.future;
+    }
+
+    /**
+     * @param httpURL a URL, <code>http://</code> is assumed if it has no scheme
+     * @return the URI of the URL.
+     */
+    @NotNull
+    public static URI uriOf(@NotNull final String httpURL) {
+        return URI.create(httpURL.contains("://") ? httpURL : "http://" + httpURL);
+    }
+
+    /**
+     * Send a statement to the given URL and wait for its response, e.g. to check whether an endpoint is healthy.
+     * @param uri the URL, not necessarily one of the endpoints of this writer
+     * @param sql the statement
+     * @throws WriteException if the statement could not be sent or failed.
+     * @throws InterruptedException if interrupted while waiting for the response.
+     */
+    public void probe(@NotNull final URI uri, @NotNull final String sql) throws WriteException, InterruptedException {
+        final HttpResponse<String> response;
+        try {
+            response = client.send(newRequest(uri, sql), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new WriteException(sql, e);
+        }
+        final WriteException failure = failureOf(sql, response);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @NotNull
+    public EndpointBalancer<URI> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @return the number of requests waiting for a free slot.
+     */
+    @Override
+    public int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Send waiting statements while an endpoint has a free slot.
+     */
+    private void dispatch() {
+        while (!waiting.isEmpty()) {
+            final Endpoint<URI> endpoint = endpoints.acquire(maxPerRoute);
+            if (endpoint == null) {
+                return;
+            }
+            final Pending pending = waiting.poll();
+            if (pending == null) {
+                endpoint.release();
+                continue;
+            }
+            send(pending, endpoint);
+        }
+    }
+
+    /**
+     * @param endpoint the endpoint acquired for the request
+     */
+    private void send(@NotNull final Pending pending, @NotNull final Endpoint<URI> endpoint) {
+        TDengineMetrics.since(metrics.getConnectionWait(), pending.queuedNanos);
+        final HttpRequest request;
+        try {
+            request = newRequest(endpoint.getTarget(), pending.sql);
+        } catch (IOException | IllegalArgumentException e) {
+            endpoint.release();
+            pending.future.completeExceptionally(new WriteException(pending.sql, e));
+            dispatch();
+            return;
+        }
+        final long sentNanos = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).whenComplete((response, throwable) -> {
+            final long elapsedNanos = System.nanoTime() - sentNanos;
+            metrics.getWriteLatency().update(elapsedNanos, TimeUnit.NANOSECONDS);
+            if (pending.latency != null) {
+                pending.latency.accept(elapsedNanos);
+            }
+            endpoint.release();
+            dispatch();
+            // sendAsync reports network failures wrapped in a CompletionException
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            final WriteException failure = cause != null ? new WriteException(pending.sql, cause) : failureOf(pending.sql, response);
+            if (failure != null) {
+                pending.future.completeExceptionally(failure);
+            } else {
+                pending.future.complete(null);
+            }
+        });
+    }
+
+    /**
+     * @return the failure reported by the response, <b>null</b> if the statement was executed.
+     */
+    @Nullable
+    private static WriteException failureOf(@NotNull final String sql, @NotNull final HttpResponse<String> response) {
+        if (response.statusCode() / 100 != 2) {
+            // 5xx means taosAdapter or a proxy in front of it could not serve the request
+            return new WriteException(sql, "HTTP " + response.statusCode() + ": " + response.body(), response.statusCode() / 100 == 5);
+        }
+        if (StringUtils.contains(StringUtils.deleteWhitespace(response.body()), STATUS_ERROR)) {
+            return new WriteException(sql, response.body());
+        }
+        return null;
+    }
+
+    @NotNull
+    private HttpRequest newRequest(@NotNull final URI uri, @NotNull final String sql) throws IOException {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("Authorization", authorization)
+                .header("Content-Type", "application/json");
+        final byte[] body = sql.getBytes(StandardCharsets.UTF_8);
+        if (gzip) {
+            builder.header("Content-Encoding", "gzip");
+            builder.POST(HttpRequest.BodyPublishers.ofByteArray(gzip(body)));
+        } else {
+            builder.POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        }
+        return builder.build();
+    }
+
+    @NotNull
+    static byte[] gzip(@NotNull final byte[] body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (final GZIPOutputStream compressed = new GZIPOutputStream(out)) {
+            compressed.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A statement waiting for a free slot and the future completed with its response.
+     */
+    private static final class Pending {
+
+        private final String sql;
+        private final LongConsumer latency;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final long queuedNanos = System.nanoTime();
+
+        private Pending(@NotNull final String sql, @Nullable final LongConsumer latency) {
+            this.sql = sql;
+            this.latency = latency;
+        }
+    }
+}
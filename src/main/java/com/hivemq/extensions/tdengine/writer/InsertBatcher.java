@@ -0,0 +1,362 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+
+/**
+ * Collects rendered INSERT statements and flushes them as one multi-row, multi-table statement
+ * <code>INSERT INTO t1 VALUES (...)(...) t2 USING st TAGS (...) VALUES (...)</code>.
+ * A batch is flushed when it reaches the configured number of rows or bytes, or when the linger time expired.
+ * Statements which can not be merged are written on their own, statements larger than the byte limit are split into several.
+ * A row timed with <code>now</code> starts a new batch if the batch has rows of its table, as they would get the same timestamp.
+ * With a {@link SubTableCache}, the <code>USING ... TAGS (...)</code> clause of sub-tables written before is left out.
+ * With a {@link BatchTuner}, the rows per batch and the linger time follow the write latency up to the configured values.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class InsertBatcher {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(InsertBatcher.class);
+
+    private static final String INSERT_INTO = "insert into ";
+    private static final String VALUES = " values ";
+
+    private final TDengineWriter writer;
+    private final ScheduledExecutorService scheduler;
+    private final int maxRows;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final SubTableCache knownTables;
+    private final BatchTuner tuner;
+    private final TDengineMetrics metrics;
+
+    private Batch current = new Batch();
+
+    public InsertBatcher(@NotNull final TDengineWriter writer, @NotNull final ScheduledExecutorService scheduler,
+                         final int maxRows, final int maxBytes, final long lingerMillis, @NotNull final TDengineMetrics metrics) {
+        this(writer, scheduler, maxRows, maxBytes, lingerMillis, null, metrics);
+    }
+
+    /**
+     * @param knownTables the sub-tables known to exist, <b>null</b> to always send the statements as rendered
+     */
+    public InsertBatcher(@NotNull final TDengineWriter writer, @NotNull final ScheduledExecutorService scheduler,
+                         final int maxRows, final int maxBytes, final long lingerMillis, @Nullable final SubTableCache knownTables,
+                         @NotNull final TDengineMetrics metrics) {
+        this(writer, scheduler, maxRows, maxBytes, lingerMillis, knownTables, null, metrics);
+    }
+
+    /**
+     * @param knownTables the sub-tables known to exist, <b>null</b> to always send the statements as rendered
+     * @param tuner adjusts the rows per batch and the linger time, <b>null</b> to always use maxRows and lingerMillis
+     */
+    public InsertBatcher(@NotNull final TDengineWriter writer, @NotNull final ScheduledExecutorService scheduler,
+                         final int maxRows, final int maxBytes, final long lingerMillis, @Nullable final SubTableCache knownTables,
+                         @Nullable final BatchTuner tuner, @NotNull final TDengineMetrics metrics) {
+        this.writer = writer;
+        this.scheduler = scheduler;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.knownTables = knownTables;
+        this.tuner = tuner;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Add a rendered statement to the current batch.
+     * @param sql the rendered INSERT statement
+     * @return a future which completes when the batch containing the statement is written.
+     */
+    @NotNull
+    public CompletableFuture<?> add(@NotNull final String sql) {
+        if (maxRows <= 1 && knownTables == null && utf8Length(sql) <= maxBytes) {
+            return write(sql, 1);
+        }
+        final InsertStatement statement = InsertStatement.parse(sql);
+        if (statement == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("statement can not be batched, writing it on its own: {}", sql);
+            }
+            return write(sql, 1);
+        }
+        final List<InsertStatement> parts = statement.split(maxBytes);
+        if (parts.size() == 1) {
+            return add(statement);
+        }
+        log.debug("splitting a statement of {} bytes into {} statements", sql.length(), parts.size());
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[parts.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = add(parts.get(i));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    @NotNull
+    private CompletableFuture<?> add(@NotNull final InsertStatement statement) {
+        if (maxRows <= 1) {
+            final Batch single = new Batch();
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            single.add(statement, future);
+            send(single);
+            return future;
+        }
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        Batch overflow = null;
+        Batch full = null;
+        synchronized (this) {
+            if (current.rows > 0 && (current.bytes + current.sizeOf(statement) > maxBytes || current.collides(statement))) {
+                overflow = current;
+                overflow.full = true;
+                current = new Batch();
+            }
+            current.add(statement, future);
+            final long linger = tuner != null ? tuner.getLingerMillis() : lingerMillis;
+            if (current.rows == 1 && linger > 0) {
+                final Batch lingering = current;
+                lingering.linger = scheduler.schedule(() -> flush(lingering), linger, TimeUnit.MILLISECONDS);
+            }
+            if (current.rows >= (tuner != null ? tuner.getRows() : maxRows) || current.bytes >= maxBytes) {
+                full = current;
+                full.full = true;
+                current = new Batch();
+            }
+        }
+        send(overflow);
+        send(full);
+        return future;
+    }
+
+    /**
+     * Write the current batch immediately.
+     * @return a future which completes when the pending rows are written.
+     */
+    @NotNull
+    public CompletableFuture<?> flush() {
+        final Batch pending;
+        synchronized (this) {
+            pending = current;
+            current = new Batch();
+        }
+        return send(pending);
+    }
+
+    private void flush(@NotNull final Batch lingering) {
+        synchronized (this) {
+            if (current != lingering) {
+                return;
+            }
+            current = new Batch();
+        }
+        send(lingering);
+    }
+
+    @NotNull
+    private CompletableFuture<?> send(@Nullable final Batch batch) {
+        if (batch == null || batch.rows == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (batch.linger != null) {
+            batch.linger.cancel(false);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("flushing {} rows for {} tables, {} bytes", batch.rows, batch.tables.size(), batch.bytes);
+        }
+        return write(batch).whenComplete((ignored, throwable) -> {
+            for (final CompletableFuture<Void> future : batch.futures) {
+                if (throwable == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(throwable);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send a batch, leaving out the auto-create clause of known sub-tables.
+     * If TDengine reports a table missing, e.g. because it was dropped, the known tables of the batch are forgotten
+     * and the batch is sent once more with all auto-create clauses.
+     */
+    @NotNull
+    private CompletableFuture<?> write(@NotNull final Batch batch) {
+        // the tuner follows the time TDengine takes for a batch, not the time it waits for the writer
+        final LongConsumer latency = tuner != null ? nanos -> tuner.observe(batch.full, nanos, writer.getWaiting()) : null;
+        if (knownTables == null) {
+            return write(batch.toSql(null), batch.rows, latency);
+        }
+        final List<String> plain = new ArrayList<>();
+        final String sql = batch.toSql(plain);
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        write(sql, batch.rows, latency).whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                written(batch, result);
+            } else if (!plain.isEmpty() && WriteException.isTableMissing(throwable)) {
+                log.debug("forgetting {} known tables after {}", plain.size(), throwable.getMessage());
+                for (final String table : plain) {
+                    knownTables.remove(table);
+                }
+                write(batch.toSql(null), batch.rows, latency).whenComplete((retried, failure) -> {
+                    if (failure == null) {
+                        written(batch, result);
+                    } else {
+                        result.completeExceptionally(failure);
+                    }
+                });
+            } else {
+                result.completeExceptionally(throwable);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Remember the sub-tables of a written batch, they exist now.
+     */
+    private void written(@NotNull final Batch batch, @NotNull final CompletableFuture<Void> result) {
+        for (final Group group : batch.tables.values()) {
+            if (group.statement.getPlainTarget() != null) {
+                knownTables.add(group.statement.getTable());
+            }
+        }
+        result.complete(null);
+    }
+
+    /**
+     * Send a statement of the given number of rows and count them once written.
+     */
+    @NotNull
+    private CompletableFuture<?> write(@NotNull final String sql, final int rows) {
+        return write(sql, rows, null);
+    }
+
+    /**
+     * @param latency receives the time TDengine took for the statement, <b>null</b> if it is not needed
+     */
+    @NotNull
+    private CompletableFuture<?> write(@NotNull final String sql, final int rows, @Nullable final LongConsumer latency) {
+        metrics.getBatchSize().update(rows);
+        return (latency != null ? writer.write(sql, latency) : writer.write(sql)).whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                metrics.getWritten().inc(rows);
+            }
+        });
+    }
+
+    /**
+     * Approximate the number of UTF-8 bytes of the given text without encoding it.
+     */
+    static int utf8Length(@NotNull final CharSequence text) {
+        int bytes = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c >= 0x800) {
+                bytes += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Rows of one batch grouped by target table, in order of arrival.
+     */
+    private final class Batch {
+
+        private final Map<String, Group> tables = new LinkedHashMap<>();
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private int rows;
+        private int bytes = INSERT_INTO.length() + 1;
+        private boolean full;
+        private ScheduledFuture<?> linger;
+
+        private int sizeOf(@NotNull final InsertStatement statement) {
+            final int valuesBytes = utf8Length(statement.getValues()) + 1;
+            if (tables.containsKey(statement.getTarget())) {
+                return valuesBytes;
+            }
+            return utf8Length(statement.getTarget()) + VALUES.length() + valuesBytes;
+        }
+
+        /**
+         * @return whether the statement takes its timestamp from the time of the insert and the batch has rows of its table,
+         * which would get the same timestamp in one statement.
+         */
+        private boolean collides(@NotNull final InsertStatement statement) {
+            return tables.containsKey(statement.getTarget()) && statement.isTimestampNow();
+        }
+
+        private void add(@NotNull final InsertStatement statement, @NotNull final CompletableFuture<Void> future) {
+            bytes += sizeOf(statement);
+            tables.computeIfAbsent(statement.getTarget(), target -> new Group(statement)).values.append(statement.getValues());
+            futures.add(future);
+            rows++;
+        }
+
+        /**
+         * @param plain receives the known sub-tables written without auto-create clause, <b>null</b> to write all with it
+         */
+        @NotNull
+        private String toSql(@Nullable final List<String> plain) {
+            final StringBuilder sql = new StringBuilder(bytes).append(INSERT_INTO);
+            for (final Map.Entry<String, Group> table : tables.entrySet()) {
+                final InsertStatement statement = table.getValue().statement;
+                if (plain != null && statement.getPlainTarget() != null && knownTables.contains(statement.getTable())) {
+                    plain.add(statement.getTable());
+                    sql.append(statement.getPlainTarget());
+                } else {
+                    sql.append(table.getKey());
+                }
+                sql.append(VALUES).append(table.getValue().values).append(' ');
+            }
+            sql.setCharAt(sql.length() - 1, ';');
+            return sql.toString();
+        }
+    }
+
+    /**
+     * The value tuples of one target in a batch.
+     */
+    private static final class Group {
+
+        private final InsertStatement statement;
+        private final StringBuilder values = new StringBuilder();
+
+        private Group(@NotNull final InsertStatement statement) {
+            this.statement = statement;
+        }
+    }
+}
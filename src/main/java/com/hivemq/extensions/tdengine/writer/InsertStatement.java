@@ -0,0 +1,377 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * A rendered single-table INSERT split into its target clause
+ * (table name, optional <code>USING ... TAGS (...)</code> and column list)
+ * and its <code>VALUES</code> tuples, so that rows of many tables can be merged into one statement.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public final class InsertStatement {
+
+    private static final String INSERT_INTO = "insert into";
+    private static final String VALUES = "values";
+    private static final String USING = "using";
+    private static final String TAGS = "tags";
+
+    private final String target;
+    private final String values;
+    private final String table;
+    private final String plainTarget;
+
+    private InsertStatement(@NotNull final String target, @NotNull final String values) {
+        this.target = target;
+        this.values = values;
+        this.table = tableOf(target, 0);
+        this.plainTarget = plainTargetOf(target, table);
+    }
+
+    /**
+     * Split a rendered statement of the form <code>INSERT INTO target VALUES (...)[(...)]</code>.
+     * @param sql the rendered statement
+     * @return the split statement, or <b>null</b> if the statement can not be merged with others.
+     */
+    @Nullable
+    public static InsertStatement parse(@NotNull final String sql) {
+        int end = sql.length();
+        while (end > 0 && (Character.isWhitespace(sql.charAt(end - 1)) || sql.charAt(end - 1) == ';')) {
+            end--;
+        }
+        int start = 0;
+        while (start < end && Character.isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        if (!sql.regionMatches(true, start, INSERT_INTO, 0, INSERT_INTO.length())) {
+            return null;
+        }
+        final int targetStart = start + INSERT_INTO.length();
+        final int valuesStart = indexOfValues(sql, targetStart, end);
+        if (valuesStart < 0) {
+            return null;
+        }
+        final String target = sql.substring(targetStart, valuesStart).trim();
+        final String values = sql.substring(valuesStart + VALUES.length(), end).trim();
+        if (target.isEmpty() || !isTupleList(values)) {
+            return null;
+        }
+        return new InsertStatement(target, values);
+    }
+
+    /**
+     * Find the table a rendered statement inserts into without splitting it.
+     * @param sql the rendered statement
+     * @return the first table after <code>INSERT INTO</code>, or the whole statement if it is no INSERT.
+     */
+    @NotNull
+    public static String table(@NotNull final String sql) {
+        int start = 0;
+        while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        if (!sql.regionMatches(true, start, INSERT_INTO, 0, INSERT_INTO.length())) {
+            return sql;
+        }
+        final String table = tableOf(sql, start + INSERT_INTO.length());
+        return table.isEmpty() ? sql : table;
+    }
+
+    /**
+     * Split the statement into statements of the same target which each stay within the given size once rendered,
+     * so that a payload rendering many rows is not refused for exceeding the maximum SQL length of TDengine.
+     * A single tuple larger than the limit is kept in a statement of its own.
+     * @param maxBytes the maximum size of <code>INSERT INTO target VALUES (...);</code> in UTF-8 bytes
+     * @return the statements, only this one if it fits.
+     */
+    @NotNull
+    public List<InsertStatement> split(final int maxBytes) {
+        final int fixedBytes = INSERT_INTO.length() + InsertBatcher.utf8Length(target) + VALUES.length() + 4;
+        if (fixedBytes + InsertBatcher.utf8Length(values) <= maxBytes) {
+            return Collections.singletonList(this);
+        }
+        final List<InsertStatement> parts = new ArrayList<>();
+        int start = 0;
+        int bytes = fixedBytes;
+        int index = skipWhitespace(values, 0);
+        while (index < values.length()) {
+            final int end = indexOfClose(values, index) + 1;
+            final int tupleBytes = InsertBatcher.utf8Length(values.subSequence(index, end));
+            if (index > start && bytes + tupleBytes > maxBytes) {
+                parts.add(new InsertStatement(target, values.substring(start, index).trim()));
+                start = index;
+                bytes = fixedBytes;
+            }
+            bytes += tupleBytes;
+            index = skipWhitespace(values, end);
+        }
+        parts.add(new InsertStatement(target, values.substring(start).trim()));
+        return parts;
+    }
+
+    /**
+     * @return the target clause, e.g. <code>db.t1 USING db.st TAGS (1)</code>.
+     */
+    @NotNull
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the sub-table, e.g. <code>db.t1</code>.
+     */
+    @NotNull
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return the target clause without the auto-create clause, e.g. <code>db.t1</code> for
+     * <code>db.t1 USING db.st TAGS (1)</code>, or <b>null</b> if the target has no <code>USING ... TAGS (...)</code> clause.
+     */
+    @Nullable
+    public String getPlainTarget() {
+        return plainTarget;
+    }
+
+    /**
+     * @return the first value of the only tuple, the timestamp column of a TDengine table, e.g. <code>1626006833639</code>,
+     * or <b>null</b> if the statement has several tuples or its timestamp depends on the time of the insert, like <code>now</code>.
+     */
+    @Nullable
+    public String getTimestamp() {
+        if (indexOfClose(values, 0) != values.length() - 1) {
+            return null;
+        }
+        final int end = indexOfFirstValueEnd(values, 0);
+        final String timestamp = values.substring(1, end).trim();
+        if (timestamp.isEmpty() || isNow(timestamp) || values.charAt(end) == '(') {
+            return null;
+        }
+        return timestamp;
+    }
+
+    /**
+     * TDengine evaluates <code>now</code> once per statement, so tuples of the same table using it get the same timestamp
+     * and overwrite each other when they are merged into one statement.
+     * @return whether the timestamp of any tuple depends on the time of the insert, like <code>now</code>.
+     */
+    public boolean isTimestampNow() {
+        int open = skipWhitespace(values, 0);
+        while (open < values.length()) {
+            if (isNow(values.substring(open + 1, indexOfFirstValueEnd(values, open)))) {
+                return true;
+            }
+            open = skipWhitespace(values, indexOfClose(values, open) + 1);
+        }
+        return false;
+    }
+
+    /**
+     * @return the value tuples, e.g. <code>(now, 1)(now, 2)</code>.
+     */
+    @NotNull
+    public String getValues() {
+        return values;
+    }
+
+    private static boolean isNow(@NotNull final String value) {
+        return value.toLowerCase(Locale.ROOT).contains("now");
+    }
+
+    /**
+     * @return the index of the comma, parenthesis or end of the tuple following the first value of the tuple at the given index.
+     */
+    private static int indexOfFirstValueEnd(@NotNull final String values, final int open) {
+        char quote = 0;
+        int end = open + 1;
+        for (; end < values.length(); end++) {
+            final char c = values.charAt(end);
+            if (quote != 0) {
+                if (c == '\\') {
+                    end++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ',' || c == '(' || c == ')') {
+                break;
+            }
+        }
+        return Math.min(end, values.length() - 1);
+    }
+
+    /**
+     * Find the VALUES keyword which is neither quoted nor nested in parentheses.
+     */
+    private static int indexOfValues(@NotNull final String sql, final int from, final int to) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = from; i < to; i++) {
+            final char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && isKeywordAt(sql, i, to)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isKeywordAt(@NotNull final String sql, final int index, final int to) {
+        if (!sql.regionMatches(true, index, VALUES, 0, VALUES.length())) {
+            return false;
+        }
+        final char before = sql.charAt(index - 1);
+        if (!Character.isWhitespace(before) && before != ')') {
+            return false;
+        }
+        final int after = index + VALUES.length();
+        return after < to && (Character.isWhitespace(sql.charAt(after)) || sql.charAt(after) == '(');
+    }
+
+    /**
+     * Check that the text only consists of parenthesized tuples, so nothing but more tuples is appended to it.
+     */
+    private static boolean isTupleList(@NotNull final String values) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < values.length(); i++) {
+            final char c = values.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth < 0) {
+                    return false;
+                }
+            } else if (depth == 0 && !Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return depth == 0 && quote == 0 && !values.isEmpty();
+    }
+
+    /**
+     * @return the name starting at the first non-whitespace character from the given index, empty if there is none.
+     */
+    @NotNull
+    private static String tableOf(@NotNull final String text, final int from) {
+        int start = from;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        int end = start;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && text.charAt(end) != '(' && text.charAt(end) != ';') {
+            end++;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * Remove <code>USING st TAGS (...)</code> following the table, keeping an optional column list.
+     */
+    @Nullable
+    private static String plainTargetOf(@NotNull final String target, @NotNull final String table) {
+        int index = skipWhitespace(target, table.length());
+        if (!isWordAt(target, index, USING)) {
+            return null;
+        }
+        index = skipWhitespace(target, index + USING.length());
+        final String stable = tableOf(target, index);
+        index = skipWhitespace(target, index + stable.length());
+        if (stable.isEmpty() || !isWordAt(target, index, TAGS)) {
+            return null;
+        }
+        index = skipWhitespace(target, index + TAGS.length());
+        if (index >= target.length() || target.charAt(index) != '(') {
+            return null;
+        }
+        final int tagsEnd = indexOfClose(target, index);
+        if (tagsEnd < 0) {
+            return null;
+        }
+        final String rest = target.substring(tagsEnd + 1).trim();
+        return rest.isEmpty() ? table : table + " " + rest;
+    }
+
+    private static int skipWhitespace(@NotNull final String text, final int from) {
+        int index = from;
+        while (index < text.length() && Character.isWhitespace(text.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isWordAt(@NotNull final String text, final int index, @NotNull final String word) {
+        final int after = index + word.length();
+        return text.regionMatches(true, index, word, 0, word.length())
+                && (after == text.length() || Character.isWhitespace(text.charAt(after)) || text.charAt(after) == '(');
+    }
+
+    /**
+     * @return the index of the parenthesis closing the one at the given index, -1 if it is not closed.
+     */
+    private static int indexOfClose(@NotNull final String text, final int open) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = open; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
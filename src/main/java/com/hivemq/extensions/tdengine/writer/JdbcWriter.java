@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+
+/**
+ * {@link TDengineWriter} executing statements with a pooled JDBC connection.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class JdbcWriter implements TDengineWriter {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(JdbcWriter.class);
+
+    private final DataSource datasource;
+    private final ExecutorService executor;
+    private final TDengineMetrics metrics;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public JdbcWriter(@NotNull final DataSource datasource, @NotNull final ExecutorService executor, @NotNull final TDengineMetrics metrics) {
+        this.datasource = datasource;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public @NotNull CompletableFuture<?> write(@NotNull final String sql) {
+        return submit(sql, null);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<?> write(@NotNull final String sql, @NotNull final LongConsumer latency) {
+        return submit(sql, latency);
+    }
+
+    @NotNull
+    private CompletableFuture<?> submit(@NotNull final String sql, @Nullable final LongConsumer latency) {
+        waiting.incrementAndGet();
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    execute(sql, latency);
+                } catch (SQLException e) {
+                    throw new WriteException(sql, e);
+                }
+            }, executor);
+        } catch (RuntimeException e) {
+            waiting.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of statements waiting for a writer thread or a pooled connection.
+     */
+    @Override
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    private void execute(@NotNull final String sql, @Nullable final LongConsumer latency) throws SQLException {
+        final Connection connection;
+        final long waitNanos = System.nanoTime();
+        try {
+            connection = datasource.getConnection();
+            TDengineMetrics.since(metrics.getConnectionWait(), waitNanos);
+        } catch (SQLException e) {
+            // the pool could not connect, TDengine is unreachable
+            throw new WriteException(sql, e, true);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        Statement statement = null;
+        final long executeNanos = System.nanoTime();
+        try {
+            statement = connection.createStatement();
+            statement.executeUpdate(sql);
+            TDengineMetrics.since(metrics.getWriteLatency(), executeNanos);
+        } finally {
+            if (latency != null) {
+                latency.accept(System.nanoTime() - executeNanos);
+            }
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    log.error("failed to close statement", e);
+                }
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.error("failed to close connection", e);
+            }
+        }
+    }
+}
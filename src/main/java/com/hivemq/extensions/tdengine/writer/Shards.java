@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * One instance of a batcher or writer per writer thread of a {@link WriterPool}.
+ * Rows are assigned by the hash of their sub-table, so all rows of a table are batched and written by the same instance.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public final class Shards<T> {
+
+    private final List<T> shards;
+
+    public Shards(@NotNull final List<T> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is required");
+        }
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * @param single the only instance
+     * @return shards which assign every row to the given instance.
+     */
+    @NotNull
+    public static <T> Shards<T> of(@NotNull final T single) {
+        return new Shards<>(Collections.singletonList(single));
+    }
+
+    /**
+     * @param key the sub-table of a row
+     * @return the instance which writes the rows of the sub-table.
+     */
+    @NotNull
+    public T get(@NotNull final String key) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        return shards.get(indexOf(key, shards.size()));
+    }
+
+    /**
+     * @return all instances, e.g. to flush them.
+     */
+    @NotNull
+    public List<T> all() {
+        return shards;
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    /**
+     * Spread the hash of the key, so that table names differing only in their last characters are distributed evenly.
+     */
+    static int indexOf(@NotNull final String key, final int count) {
+        final int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), count);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Bounded LRU set of sub-tables known to exist.
+ * Rows of a known sub-table are inserted with the plain <code>INSERT INTO t VALUES (...)</code> form,
+ * so TDengine does not check the <code>USING st TAGS (...)</code> clause on every statement.
+ * A table is known after its first successful write and forgotten when TDengine reports it missing.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class SubTableCache {
+
+    private final Map<String, Boolean> tables;
+
+    /**
+     * @param capacity the maximum number of tables, the least recently written are forgotten first
+     */
+    public SubTableCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("the capacity must be at least 1");
+        }
+        this.tables = new LinkedHashMap<String, Boolean>(Math.min(capacity, 1 << 16), 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param table the sub-table
+     * @return <b>true</b> if the sub-table was written before.
+     */
+    public synchronized boolean contains(@NotNull final String table) {
+        return tables.get(table) != null;
+    }
+
+    public synchronized void add(@NotNull final String table) {
+        tables.put(table, Boolean.TRUE);
+    }
+
+    public synchronized void remove(@NotNull final String table) {
+        tables.remove(table);
+    }
+
+    public synchronized int size() {
+        return tables.size();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Sends a complete SQL statement to TDengine.
+ * The returned future completes once TDengine accepted the statement.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public interface TDengineWriter {
+
+    /**
+     * Execute the given statement.
+     * @param sql the statement to execute
+     * @return a future which completes when the statement is written, or exceptionally if it failed.
+     */
+    @NotNull
+    CompletableFuture<?> write(@NotNull String sql);
+
+    /**
+     * Execute the given statement and report how long TDengine took for it.
+     * @param sql the statement to execute
+     * @param latency receives the nanoseconds from sending the statement until it was written or failed,
+     * without the time it waited for a free request slot or connection
+     * @return a future which completes when the statement is written, or exceptionally if it failed.
+     */
+    @NotNull
+    default CompletableFuture<?> write(@NotNull final String sql, @NotNull final LongConsumer latency) {
+        final long start = System.nanoTime();
+        return write(sql).whenComplete((ignored, throwable) -> latency.accept(System.nanoTime() - start));
+    }
+
+    /**
+     * @return the number of statements waiting for a free request slot or connection.
+     */
+    default int getWaiting() {
+        return 0;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Thrown when TDengine did not accept a statement.
+ * A failure is <i>unavailable</i> if TDengine could not be reached, so the statement may succeed later,
+ * as opposed to a statement which TDengine refused.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class WriteException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String sql;
+    private final boolean unavailable;
+
+    public WriteException(@NotNull final String sql, @NotNull final Throwable cause) {
+        this(sql, cause, false);
+    }
+
+    /**
+     * @param sql the statement which was not written
+     * @param cause the failure
+     * @param unavailable <b>true</b> if TDengine could not be reached, e.g. no connection could be taken from the pool
+     */
+    public WriteException(@NotNull final String sql, @NotNull final Throwable cause, final boolean unavailable) {
+        super("failed to write " + sql, cause);
+        this.sql = sql;
+        this.unavailable = unavailable;
+    }
+
+    public WriteException(@NotNull final String sql, @NotNull final String message) {
+        this(sql, message, false);
+    }
+
+    public WriteException(@NotNull final String sql, @NotNull final String message, final boolean unavailable) {
+        super(message);
+        this.sql = sql;
+        this.unavailable = unavailable;
+    }
+
+    @NotNull
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return <b>true</b> if TDengine could not be reached: network and timeout failures, connection errors
+     * (SQL state class 08) and transient SQL errors.
+     */
+    public boolean isUnavailable() {
+        if (unavailable) {
+            return true;
+        }
+        Throwable cause = getCause();
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException || cause instanceof SQLTransientException
+                || cause instanceof SQLRecoverableException || cause instanceof SQLNonTransientConnectionException) {
+            return true;
+        }
+        return cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                && ((SQLException) cause).getSQLState().startsWith("08");
+    }
+
+    /**
+     * @param throwable the failure of a write future, possibly wrapped in a {@link CompletionException}
+     * @return <b>true</b> if TDengine reported that a table of the statement does not exist.
+     */
+    public static boolean isTableMissing(@Nullable final Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            final String message = cause.getMessage();
+            if (message != null) {
+                final String lower = message.toLowerCase(Locale.ROOT);
+                if (lower.contains("table does not exist") || lower.contains("invalid table id")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param throwable the failure of a write future, possibly wrapped in a {@link CompletionException}
+     * @return <b>true</b> if the failure is a {@link WriteException} because TDengine could not be reached.
+     */
+    public static boolean isUnavailable(@Nullable final Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof WriteException && ((WriteException) cause).isUnavailable();
+    }
+}
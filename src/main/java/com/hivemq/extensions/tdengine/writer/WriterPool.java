@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.writer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+/**
+ * Dedicated single-threaded executors for the database work of the extension,
+ * so that writes keep the order of their sub-table and do not starve other extensions sharing the extension executor.
+ * Writer <b>i</b> runs the batchers and writers of shard <b>i</b> of the {@link Shards}.
+ *
+ * @author Kemp
+ * @since 1.0.0
+ */
+public class WriterPool {
+
+    private static final @NotNull Logger log = LoggerFactory.getLogger(WriterPool.class);
+
+    private final List<ScheduledExecutorService> executors;
+
+    /**
+     * @param threads the number of writer threads, at least one
+     */
+    public WriterPool(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("at least one writer thread is required");
+        }
+        final List<ScheduledExecutorService> executors = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            final String name = "tdengine-writer-" + i;
+            executors.add(Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+        this.executors = Collections.unmodifiableList(executors);
+    }
+
+    public int size() {
+        return executors.size();
+    }
+
+    /**
+     * @param writer the index of the writer thread
+     * @return the executor of the writer thread.
+     */
+    @NotNull
+    public ScheduledExecutorService get(final int writer) {
+        return executors.get(writer);
+    }
+
+    /**
+     * Finish the tasks already submitted and stop the writer threads.
+     * @param timeoutMillis maximum time to wait for the tasks
+     */
+    public void shutdown(final long timeoutMillis) {
+        for (final ScheduledExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            for (final ScheduledExecutorService executor : executors) {
+                if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    log.warn("writer threads did not finish within {} ms", timeoutMillis);
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (final ScheduledExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+    }
+}
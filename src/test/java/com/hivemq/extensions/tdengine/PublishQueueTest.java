@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PublishQueueTest {
+
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private final Function<QueuedPublish, CompletableFuture<?>> handler = publish -> {
+        handled.add(publish.getTopic());
+        return CompletableFuture.completedFuture(null);
+    };
+
+    private static QueuedPublish publish(final String topic) {
+        return new QueuedPublish(topic, new byte[0]);
+    }
+
+    @Test
+    void drop_newest_refuses_publishes_when_queue_is_full() {
+        final PublishQueue queue = new PublishQueue(2, PublishQueue.OverflowPolicy.DROP_NEWEST, 0, 10, handler);
+
+        assertTrue(queue.offer(publish("a")));
+        assertTrue(queue.offer(publish("b")));
+        assertFalse(queue.offer(publish("c")));
+        assertEquals(1, queue.getDropped());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    void drop_oldest_makes_room_for_the_newest_publish() {
+        final PublishQueue queue = new PublishQueue(2, PublishQueue.OverflowPolicy.DROP_OLDEST, 0, 10, handler);
+
+        queue.offer(publish("a"));
+        queue.offer(publish("b"));
+        assertTrue(queue.offer(publish("c")));
+        queue.start();
+        queue.stop(5000);
+
+        assertEquals(List.of("b", "c"), handled);
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    void overflowing_publishes_are_handed_to_the_spill() {
+        final List<String> spilled = new CopyOnWriteArrayList<>();
+        final PublishQueue queue = new PublishQueue(2, PublishQueue.OverflowPolicy.DROP_OLDEST, 0, 10, handler,
+                publish -> spilled.add(publish.getTopic()));
+
+        queue.offer(publish("a"));
+        queue.offer(publish("b"));
+        assertTrue(queue.offer(publish("c")));
+
+        assertEquals(List.of("a"), spilled);
+        assertEquals(1, queue.getSpilled());
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    void reject_counts_refused_publishes() {
+        final PublishQueue queue = new PublishQueue(2, PublishQueue.OverflowPolicy.REJECT, 0, 10, handler);
+
+        queue.offer(publish("a"));
+        queue.offer(publish("b"));
+
+        assertFalse(queue.offer(publish("c")));
+        assertEquals(1, queue.getRejected());
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    void block_waits_for_a_free_slot_until_timeout() {
+        final PublishQueue queue = new PublishQueue(2, PublishQueue.OverflowPolicy.BLOCK, 20, 10, handler);
+        queue.offer(publish("a"));
+        queue.offer(publish("b"));
+
+        final long start = System.nanoTime();
+        assertFalse(queue.offer(publish("c")));
+        assertTrue(System.nanoTime() - start >= 20_000_000L);
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    void publishes_stay_queued_while_writes_are_in_flight() throws Exception {
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+        final PublishQueue queue = new PublishQueue(4, PublishQueue.OverflowPolicy.DROP_NEWEST, 0, 1, publish -> {
+            handled.add(publish.getTopic());
+            return written;
+        });
+        queue.start();
+
+        queue.offer(publish("a"));
+        queue.offer(publish("b"));
+        Thread.sleep(100);
+        assertEquals(List.of("a"), handled);
+        assertEquals(1, queue.size());
+
+        written.complete(null);
+        queue.stop(5000);
+        assertEquals(List.of("a", "b"), handled);
+    }
+
+    @Test
+    void stop_drains_queued_publishes() {
+        final PublishQueue queue = new PublishQueue(10, PublishQueue.OverflowPolicy.DROP_NEWEST, 0, 10, handler);
+
+        queue.offer(publish("a"));
+        queue.offer(publish("b"));
+        queue.start();
+        queue.stop(5000);
+
+        assertEquals(List.of("a", "b"), handled);
+        assertFalse(queue.offer(publish("c")));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    @Test
+    void burst_is_let_through_then_refilled_at_rate() {
+        final RateLimiter limiter = new RateLimiter(10, 3, 60000, RateLimiter.Action.DROP, 10, now::get);
+
+        assertTrue(limiter.tryAcquire("client1"));
+        assertTrue(limiter.tryAcquire("client1"));
+        assertTrue(limiter.tryAcquire("client1"));
+        assertFalse(limiter.tryAcquire("client1"));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertTrue(limiter.tryAcquire("client1"));
+        assertFalse(limiter.tryAcquire("client1"));
+    }
+
+    @Test
+    void clients_have_their_own_bucket() {
+        final RateLimiter limiter = new RateLimiter(1, 1, 60000, RateLimiter.Action.DROP, 10, now::get);
+
+        assertTrue(limiter.tryAcquire("client1"));
+        assertFalse(limiter.tryAcquire("client1"));
+        assertTrue(limiter.tryAcquire("client2"));
+    }
+
+    @Test
+    void sample_lets_one_of_every_n_through() {
+        final RateLimiter limiter = new RateLimiter(1, 1, 60000, RateLimiter.Action.SAMPLE, 3, now::get);
+        limiter.tryAcquire("client1");
+
+        int written = 0;
+        for (int i = 0; i < 9; i++) {
+            if (limiter.tryAcquire("client1")) {
+                written++;
+            }
+        }
+
+        assertEquals(3, written);
+    }
+
+    @Test
+    void idle_bucket_is_evicted() {
+        final RateLimiter limiter = new RateLimiter(10, 1, 1000, RateLimiter.Action.DROP, 10, now::get);
+        limiter.tryAcquire("client1");
+        limiter.tryAcquire("client2");
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1200));
+        limiter.tryAcquire("client2");
+
+        assertEquals(1, limiter.size());
+    }
+}
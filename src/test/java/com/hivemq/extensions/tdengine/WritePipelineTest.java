@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine;
+
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import com.hivemq.extensions.tdengine.routing.RouteTable;
+import com.hivemq.extensions.tdengine.writer.InsertBatcher;
+import com.hivemq.extensions.tdengine.writer.Shards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WritePipelineTest {
+
+    private ScheduledExecutorService scheduler;
+    private WritePipeline pipeline;
+
+    @BeforeEach
+    void set_up() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        final InsertBatcher batcher = new InsertBatcher(sql -> CompletableFuture.completedFuture(null), scheduler, 1, 65480, 0,
+                new TDengineMetrics());
+        pipeline = new WritePipeline(new RouteTable(List.of()), new Shards<>(List.of(batcher)), null, null, null, null);
+    }
+
+    @AfterEach
+    void tear_down() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void retired_pipeline_is_idle_once_every_use_exited() {
+        assertTrue(pipeline.enter());
+        assertTrue(pipeline.enter());
+
+        final CompletableFuture<Void> idle = pipeline.retire();
+        assertFalse(idle.isDone());
+        pipeline.exit();
+        assertFalse(idle.isDone());
+        pipeline.exit();
+
+        assertTrue(idle.isDone());
+        assertFalse(pipeline.enter());
+    }
+
+    @Test
+    void unused_pipeline_is_idle_when_retired() {
+        assertTrue(pipeline.retire().isDone());
+        assertFalse(pipeline.enter());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.configuration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfigurationWatcherTest {
+
+    private static final long INTERVAL_MILLIS = 20;
+
+    @TempDir
+    Path folder;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger reloads = new AtomicInteger();
+
+    @AfterEach
+    void tear_down() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void unchanged_file_is_not_reloaded() throws Exception {
+        final File file = write("mode=jdbc", 1_000_000L);
+        final ConfigurationWatcher watcher = new ConfigurationWatcher(file, scheduler, INTERVAL_MILLIS, reloads::incrementAndGet);
+        watcher.start();
+
+        Thread.sleep(INTERVAL_MILLIS * 10);
+
+        assertEquals(0, reloads.get());
+        watcher.stop();
+    }
+
+    @Test
+    void changed_file_is_reloaded_once() throws Exception {
+        final File file = write("mode=jdbc", 1_000_000L);
+        final ConfigurationWatcher watcher = new ConfigurationWatcher(file, scheduler, INTERVAL_MILLIS, reloads::incrementAndGet);
+        watcher.start();
+
+        write("mode=http", 2_000_000L);
+        awaitReloads(1);
+        Thread.sleep(INTERVAL_MILLIS * 10);
+
+        assertEquals(1, reloads.get());
+        watcher.stop();
+    }
+
+    @Test
+    void stopped_watcher_does_not_reload() throws Exception {
+        final File file = write("mode=jdbc", 1_000_000L);
+        final ConfigurationWatcher watcher = new ConfigurationWatcher(file, scheduler, INTERVAL_MILLIS, reloads::incrementAndGet);
+        watcher.start();
+        watcher.stop();
+
+        write("mode=http", 2_000_000L);
+        Thread.sleep(INTERVAL_MILLIS * 10);
+
+        assertFalse(watcher.isRunning());
+        assertEquals(0, reloads.get());
+    }
+
+    @Test
+    void failing_reload_keeps_watching() throws Exception {
+        final File file = write("mode=jdbc", 1_000_000L);
+        final ConfigurationWatcher watcher = new ConfigurationWatcher(file, scheduler, INTERVAL_MILLIS, () -> {
+            reloads.incrementAndGet();
+            throw new IllegalStateException("invalid");
+        });
+        watcher.start();
+
+        write("mode=http", 2_000_000L);
+        awaitReloads(1);
+        write("mode=jdbc", 3_000_000L);
+        awaitReloads(2);
+
+        assertEquals(2, reloads.get());
+        watcher.stop();
+    }
+
+    private File write(final String content, final long lastModified) throws Exception {
+        final File file = folder.resolve("taosdata.properties").toFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        // file systems with a coarse timestamp would not see a change within the same second
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    private void awaitReloads(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (reloads.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(INTERVAL_MILLIS);
+        }
+        assertEquals(count, reloads.get());
+    }
+}
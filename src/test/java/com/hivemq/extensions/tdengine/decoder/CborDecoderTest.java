@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CborDecoderTest {
+
+    @Test
+    void extracts_only_selected_fields() throws IOException {
+        final CborDecoder decoder = new CborDecoder(new String[]{"ts", "temp", null, "name", "neg"});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xa5);
+        text(out, "skip");
+        out.write(new byte[]{(byte) 0x82, 0x01, (byte) 0xa1, 0x61, 'x', 0x61, 'y'});
+        text(out, "ts");
+        out.write(new byte[]{(byte) 0xc1, 0x1a});
+        out.write(ByteBuffer.allocate(4).putInt(1626006833).array());
+        text(out, "temp");
+        out.write(new byte[]{(byte) 0xf9, 0x4d, 0x60});
+        text(out, "name");
+        text(out, "dev1");
+        text(out, "neg");
+        out.write(0x38);
+        out.write(99);
+        final String[] values = new String[5];
+
+        final int found = decoder.extract(ByteBuffer.wrap(out.toByteArray()), values);
+
+        assertEquals(4, found);
+        assertArrayEquals(new String[]{"1626006833000", "21.5", null, "dev1", "-100"}, values);
+    }
+
+    @Test
+    void indefinite_lengths_are_read() throws IOException {
+        final CborDecoder decoder = new CborDecoder(new String[]{"name"});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xbf);
+        text(out, "list");
+        out.write(new byte[]{(byte) 0x9f, 0x01, 0x02, (byte) 0xff});
+        text(out, "name");
+        out.write(0x7f);
+        text(out, "dev");
+        text(out, "1");
+        out.write(0xff);
+        out.write(0xff);
+        final String[] values = new String[1];
+
+        assertEquals(1, decoder.extract(ByteBuffer.wrap(out.toByteArray()), values));
+        assertEquals("dev1", values[0]);
+    }
+
+    @Test
+    void truncated_payload_is_rejected() throws IOException {
+        final CborDecoder decoder = new CborDecoder(new String[]{"name"});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xa1);
+        text(out, "name");
+        out.write(new byte[]{0x64, 'd', 'e'});
+
+        assertThrows(IOException.class, () -> decoder.extract(ByteBuffer.wrap(out.toByteArray()), new String[1]));
+    }
+
+    @Test
+    void deeply_nested_tags_are_rejected() throws IOException {
+        final CborDecoder decoder = new CborDecoder(new String[]{"name"});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xa1);
+        text(out, "name");
+        for (int i = 0; i < 100_000; i++) {
+            out.write(i % 2 == 0 ? 0xc1 : 0xc2);
+        }
+        out.write(0x01);
+
+        assertThrows(IOException.class, () -> decoder.extract(ByteBuffer.wrap(out.toByteArray()), new String[1]));
+    }
+
+    @Test
+    void indefinite_tag_is_rejected() throws IOException {
+        final CborDecoder decoder = new CborDecoder(new String[]{"name"});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xa1);
+        text(out, "name");
+        out.write(new byte[]{(byte) 0xdf, 0x01});
+
+        assertThrows(IOException.class, () -> decoder.extract(ByteBuffer.wrap(out.toByteArray()), new String[1]));
+    }
+
+    private static void text(final ByteArrayOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(0x60 | bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonFieldExtractorTest {
+
+    @Test
+    void extracts_only_selected_fields() throws IOException {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(new String[]{"devid", null, "ts", "name"});
+        final byte[] json = "{\"ts\": 1519833600000, \"nested\": {\"devid\": 9}, \"name\": \"it's\", \"devid\": 2, \"unused\": [1, 2]}"
+                .getBytes(StandardCharsets.UTF_8);
+        final String[] values = new String[4];
+
+        final int found = extractor.extract(json, 0, json.length, values);
+
+        assertEquals(3, found);
+        assertArrayEquals(new String[]{"2", null, "1519833600000", "it's"}, values);
+    }
+
+    @Test
+    void stops_parsing_once_all_fields_are_found() throws IOException {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(new String[]{"ts"});
+        final byte[] json = "{\"ts\": 1, this is not json".getBytes(StandardCharsets.UTF_8);
+        final String[] values = new String[1];
+
+        assertEquals(1, extractor.extract(json, 0, json.length, values));
+        assertEquals("1", values[0]);
+    }
+
+    @Test
+    void null_and_structured_values_are_not_extracted() throws IOException {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(new String[]{"a", "b"});
+        final byte[] json = "{\"a\": null, \"b\": {\"c\": 1}}".getBytes(StandardCharsets.UTF_8);
+        final String[] values = new String[2];
+
+        assertEquals(0, extractor.extract(json, 0, json.length, values));
+        assertArrayEquals(new String[]{null, null}, values);
+    }
+
+    @Test
+    void invalid_json_is_rejected() {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(new String[]{"a"});
+        final byte[] json = "{\"b\": }".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> extractor.extract(json, 0, json.length, new String[1]));
+    }
+
+    @Test
+    void extracts_nested_paths_and_dotted_names() throws IOException {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(new String[]{"device.id", "device.meta.site", "a.b"});
+        final byte[] json = "{\"device\": {\"meta\": {\"site\": \"north\"}, \"id\": 7}, \"a.b\": 3}"
+                .getBytes(StandardCharsets.UTF_8);
+        final String[] values = new String[3];
+
+        assertEquals(3, extractor.extract(json, 0, json.length, values));
+        assertArrayEquals(new String[]{"7", "north", "3"}, values);
+    }
+
+    @Test
+    void expands_array_of_objects_into_rows() throws IOException {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(new String[]{"devid"}, "data.readings", new String[]{"ts", "v.t"});
+        final ByteBuffer json = ByteBuffer.wrap(("{\"data\": {\"readings\": [{\"ts\": 1, \"v\": {\"t\": 20.5}},"
+                + " {\"ts\": 2, \"x\": [1]}]}, \"devid\": \"d1\"}").getBytes(StandardCharsets.UTF_8));
+        final String[] values = new String[1];
+
+        final List<String[]> rows = extractor.extractRows(json, values);
+
+        assertEquals("d1", values[0]);
+        assertEquals(2, rows.size());
+        assertArrayEquals(new String[]{"1", "20.5"}, rows.get(0));
+        assertArrayEquals(new String[]{"2", null}, rows.get(1));
+    }
+
+    @Test
+    void expands_array_of_scalars_into_rows_skipping_nulls() throws IOException {
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(new String[0], "values", new String[]{""});
+        final ByteBuffer json = ByteBuffer.wrap("{\"values\": [1.5, 2.5, null]}".getBytes(StandardCharsets.UTF_8));
+
+        final List<String[]> rows = extractor.extractRows(json, new String[0]);
+
+        assertEquals(2, rows.size());
+        assertArrayEquals(new String[]{"1.5"}, rows.get(0));
+        assertArrayEquals(new String[]{"2.5"}, rows.get(1));
+    }
+}
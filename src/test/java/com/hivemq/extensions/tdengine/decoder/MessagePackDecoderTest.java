@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessagePackDecoderTest {
+
+    @Test
+    void extracts_only_selected_fields() throws IOException {
+        final MessagePackDecoder decoder = new MessagePackDecoder(new String[]{"ts", null, "temp", "name", "on", "neg"});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x87);
+        string(out, "skip");
+        out.write(new byte[]{(byte) 0x92, 0x01, (byte) 0x81, (byte) 0xa1, 'x', (byte) 0xa1, 'y'});
+        string(out, "ts");
+        out.write(0xcf);
+        out.write(ByteBuffer.allocate(8).putLong(1626006833639L).array());
+        string(out, "temp");
+        out.write(0xcb);
+        out.write(ByteBuffer.allocate(8).putDouble(21.5).array());
+        string(out, "name");
+        string(out, "dev1");
+        string(out, "on");
+        out.write(0xc3);
+        string(out, "neg");
+        out.write(0xfd);
+        string(out, "unused");
+        out.write(0xc0);
+        final String[] values = new String[6];
+
+        final int found = decoder.extract(ByteBuffer.wrap(out.toByteArray()), values);
+
+        assertEquals(5, found);
+        assertArrayEquals(new String[]{"1626006833639", null, "21.5", "dev1", "true", "-3"}, values);
+    }
+
+    @Test
+    void timestamp_extension_is_epoch_millis() throws IOException {
+        final MessagePackDecoder decoder = new MessagePackDecoder(new String[]{"ts"});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x81);
+        string(out, "ts");
+        out.write(new byte[]{(byte) 0xd7, -1});
+        out.write(ByteBuffer.allocate(8).putLong(500_000_000L << 34 | 1626006833L).array());
+        final String[] values = new String[1];
+
+        decoder.extract(ByteBuffer.wrap(out.toByteArray()), values);
+
+        assertEquals("1626006833500", values[0]);
+    }
+
+    @Test
+    void truncated_payload_is_rejected() throws IOException {
+        final MessagePackDecoder decoder = new MessagePackDecoder(new String[]{"name"});
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x81);
+        string(out, "name");
+        out.write(new byte[]{(byte) 0xa4, 'd', 'e'});
+
+        assertThrows(IOException.class, () -> decoder.extract(ByteBuffer.wrap(out.toByteArray()), new String[1]));
+    }
+
+    private static void string(final ByteArrayOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(0xa0 | bytes.length);
+        out.write(bytes);
+    }
+}
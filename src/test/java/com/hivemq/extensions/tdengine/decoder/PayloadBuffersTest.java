@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PayloadBuffersTest {
+
+    @Test
+    void appendBase64_matches_jdk_encoder_for_every_padding() {
+        for (int length = 0; length < 8; length++) {
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 97 - 13);
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            final StringBuilder sql = new StringBuilder();
+
+            PayloadBuffers.appendBase64(sql, buffer);
+
+            assertEquals(Base64.getEncoder().encodeToString(bytes), sql.toString());
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    void appendUtf8Escaped_trims_and_escapes() {
+        final ByteBuffer buffer = ByteBuffer.wrap(" l'été \n".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        final StringBuilder sql = new StringBuilder();
+
+        PayloadBuffers.appendUtf8Escaped(sql, buffer);
+
+        assertEquals("l\\'été", sql.toString());
+    }
+
+    @Test
+    void json_is_extracted_from_direct_and_read_only_buffers() throws IOException {
+        final byte[] json = "{\"a\": \"é\"}".getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(json.length).put(json);
+        direct.flip();
+        final JsonFieldExtractor extractor = new JsonFieldExtractor(new String[]{"a"});
+
+        for (final ByteBuffer buffer : new ByteBuffer[]{direct.asReadOnlyBuffer(), ByteBuffer.wrap(json)}) {
+            final String[] values = new String[1];
+            assertEquals(1, extractor.extract(buffer, values));
+            assertEquals("é", values[0]);
+            assertEquals(0, buffer.position());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProtobufDecoderTest {
+
+    /** package sensors; message Reading { int64 ts = 1; float temperature = 2; string device = 3; sint32 delta = 4; } */
+    private static byte[] descriptorSet() throws IOException {
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        string(message, 1, "Reading");
+        bytes(message, 2, field("ts", 1, 3));
+        bytes(message, 2, field("temperature", 2, 2));
+        bytes(message, 2, field("device", 3, 9));
+        bytes(message, 2, field("delta", 4, 17));
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        string(file, 1, "sensors.proto");
+        string(file, 2, "sensors");
+        bytes(file, 4, message.toByteArray());
+        final ByteArrayOutputStream set = new ByteArrayOutputStream();
+        bytes(set, 1, file.toByteArray());
+        return set.toByteArray();
+    }
+
+    @Test
+    void extracts_selected_fields_of_message() throws IOException {
+        final ProtobufDecoder decoder = new ProtobufDecoder(new String[]{"device", "ts", "delta", "temperature"}, descriptorSet(), null);
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        tag(payload, 1, 0);
+        varint(payload, 1626006833639L);
+        tag(payload, 2, 5);
+        payload.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(21.5f).array());
+        tag(payload, 5, 0);
+        varint(payload, 7);
+        string(payload, 3, "dev1");
+        tag(payload, 4, 0);
+        varint(payload, 5);
+        final String[] values = new String[4];
+
+        final int found = decoder.extract(ByteBuffer.wrap(payload.toByteArray()), values);
+
+        assertEquals("sensors.Reading", decoder.getMessageName());
+        assertEquals(4, found);
+        assertArrayEquals(new String[]{"dev1", "1626006833639", "-3", "21.5"}, values);
+    }
+
+    @Test
+    void unknown_field_is_rejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ProtobufDecoder(new String[]{"humidity"}, descriptorSet(), "sensors.Reading"));
+    }
+
+    @Test
+    void unknown_message_is_rejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ProtobufDecoder(new String[]{"ts"}, descriptorSet(), "sensors.Other"));
+    }
+
+    private static byte[] field(final String name, final int number, final int type) throws IOException {
+        final ByteArrayOutputStream field = new ByteArrayOutputStream();
+        string(field, 1, name);
+        tag(field, 3, 0);
+        varint(field, number);
+        tag(field, 4, 0);
+        varint(field, 1);
+        tag(field, 5, 0);
+        varint(field, type);
+        return field.toByteArray();
+    }
+
+    private static void string(final ByteArrayOutputStream out, final int number, final String value) throws IOException {
+        bytes(out, number, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void bytes(final ByteArrayOutputStream out, final int number, final byte[] value) throws IOException {
+        tag(out, number, 2);
+        varint(out, value.length);
+        out.write(value);
+    }
+
+    private static void tag(final ByteArrayOutputStream out, final int number, final int wireType) {
+        varint(out, number << 3 | wireType);
+    }
+
+    private static void varint(final ByteArrayOutputStream out, final long value) {
+        long rest = value;
+        while ((rest & ~0x7fL) != 0) {
+            out.write((int) (rest & 0x7f) | 0x80);
+            rest >>>= 7;
+        }
+        out.write((int) rest);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.decoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StructDecoderTest {
+
+    private static final String LAYOUT = "ts:u32, temperature:f32, id:u16, battery:u8@12";
+
+    @Test
+    void fields_are_read_at_their_offsets() throws IOException {
+        final StructDecoder decoder = new StructDecoder(new String[]{"battery", "ts", "temperature", "id"}, LAYOUT, "little");
+        final ByteBuffer frame = ByteBuffer.allocate(13).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0xf0000001).putFloat(21.5f).putShort((short) 0xfffe).put(10, (byte) 0).put(12, (byte) 200);
+        frame.position(0);
+        final String[] values = new String[4];
+
+        assertEquals(4, decoder.extract(frame, values));
+        assertArrayEquals(new String[]{"200", "4026531841", "21.5", "65534"}, values);
+        assertEquals(0, frame.position());
+    }
+
+    @Test
+    void short_payload_is_rejected() {
+        final StructDecoder decoder = new StructDecoder(new String[]{"battery"}, LAYOUT, "little");
+
+        assertThrows(IOException.class, () -> decoder.extract(ByteBuffer.allocate(12), new String[1]));
+    }
+
+    @Test
+    void unknown_field_is_rejected() {
+        assertThrows(IllegalArgumentException.class, () -> new StructDecoder(new String[]{"humidity"}, LAYOUT, "little"));
+        assertThrows(IllegalArgumentException.class, () -> new StructDecoder(new String[]{"ts"}, "ts:u24", "little"));
+    }
+
+    @Test
+    void decoder_is_created_by_name() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put("layout", "id:i16");
+        options.put("byte_order", "big");
+        final PayloadDecoder decoder = PayloadDecoders.create("struct", new String[]{"id"}, options, null);
+        final String[] values = new String[1];
+
+        decoder.extract(ByteBuffer.wrap(new byte[]{(byte) 0xff, (byte) 0xfe}), values);
+
+        assertEquals("-2", values[0]);
+        assertThrows(IllegalArgumentException.class, () -> PayloadDecoders.create("struct", new String[]{"id"}, Collections.emptyMap(), null));
+        assertThrows(IllegalArgumentException.class, () -> PayloadDecoders.create("xml", new String[]{"id"}, Collections.emptyMap(), null));
+    }
+}
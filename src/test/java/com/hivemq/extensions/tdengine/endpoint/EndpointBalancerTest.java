@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.endpoint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EndpointBalancerTest {
+
+    private final Endpoint<String> a = new Endpoint<>("a", "a", 2);
+    private final Endpoint<String> b = new Endpoint<>("b", "b", 1);
+    private final Endpoint<String> c = new Endpoint<>("c", "c", 1);
+
+    @Test
+    void round_robin_interleaves_by_weight() {
+        final EndpointBalancer<String> balancer = new EndpointBalancer<>(List.of(a, b), EndpointBalancer.Selection.ROUND_ROBIN, null);
+
+        assertEquals(List.of("a", "b", "a", "a", "b", "a"), select(balancer, 6));
+    }
+
+    @Test
+    void least_outstanding_selects_lowest_load_per_weight() {
+        final Map<String, Integer> outstanding = new HashMap<>(Map.of("a", 3, "b", 1, "c", 2));
+        final EndpointBalancer<String> balancer = new EndpointBalancer<>(List.of(a, b, c), EndpointBalancer.Selection.LEAST_OUTSTANDING,
+                outstanding::get);
+
+        assertEquals("b", balancer.select().getTarget());
+        outstanding.put("b", 2);
+        // 3 requests on weight 2 beat 2 requests on weight 1
+        assertEquals("a", balancer.select().getTarget());
+    }
+
+    @Test
+    void least_outstanding_counts_acquired_requests_by_default() {
+        final EndpointBalancer<String> balancer = new EndpointBalancer<>(List.of(b, c), EndpointBalancer.Selection.LEAST_OUTSTANDING, null);
+
+        final Endpoint<String> first = balancer.select();
+        first.acquire();
+        final Endpoint<String> second = balancer.select();
+
+        assertEquals(Set.of("b", "c"), Set.of(first.getTarget(), second.getTarget()));
+        first.release();
+        assertEquals(0, first.getInFlight());
+    }
+
+    @Test
+    void ejected_endpoints_are_skipped_until_all_are_ejected() {
+        final EndpointBalancer<String> balancer = new EndpointBalancer<>(List.of(a, b, c), EndpointBalancer.Selection.ROUND_ROBIN, null);
+
+        a.setHealthy(false);
+        assertEquals(List.of("b", "c", "b", "c"), select(balancer, 4));
+        assertEquals(2, balancer.getHealthy());
+
+        b.setHealthy(false);
+        c.setHealthy(false);
+        assertEquals(3, new HashSet<>(select(balancer, 4)).size());
+    }
+
+    @Test
+    void health_checker_ejects_and_restores_endpoints() {
+        final EndpointBalancer<String> balancer = new EndpointBalancer<>(List.of(b, c), EndpointBalancer.Selection.ROUND_ROBIN, null);
+        final Map<String, Boolean> reachable = new HashMap<>(Map.of("b", true, "c", false));
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final HealthChecker<String> checker = new HealthChecker<>(balancer, scheduler, 60_000, target -> {
+            if (!reachable.get(target)) {
+                throw new IllegalStateException(target + " is down");
+            }
+        });
+        try {
+            checker.start();
+            checker.checkAll();
+            assertTrue(b.isHealthy());
+            assertFalse(c.isHealthy());
+            assertEquals(List.of("b", "b"), select(balancer, 2));
+
+            reachable.put("c", true);
+            checker.checkAll();
+            assertTrue(c.isHealthy());
+        } finally {
+            checker.stop();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void selection_never_fails_while_health_changes() throws InterruptedException {
+        for (final EndpointBalancer.Selection selection : EndpointBalancer.Selection.values()) {
+            final EndpointBalancer<String> balancer = new EndpointBalancer<>(List.of(a, b, c), selection, null);
+            final Thread checker = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    a.setHealthy(i % 2 == 0);
+                    b.setHealthy(i % 3 == 0);
+                    c.setHealthy(i % 5 == 0);
+                }
+            });
+            checker.start();
+            while (checker.isAlive()) {
+                assertNotNull(balancer.select());
+            }
+            checker.join();
+        }
+    }
+
+    @Test
+    void acquire_skips_ejected_and_saturated_endpoints() {
+        for (final EndpointBalancer.Selection selection : EndpointBalancer.Selection.values()) {
+            final Endpoint<String> d = new Endpoint<>("d", "d", 1);
+            final Endpoint<String> e = new Endpoint<>("e", "e", 2);
+            final Endpoint<String> f = new Endpoint<>("f", "f", 1);
+            final EndpointBalancer<String> balancer = new EndpointBalancer<>(List.of(d, e, f), selection, null);
+            e.setHealthy(false);
+
+            final List<String> acquired = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                acquired.add(balancer.acquire(2).getTarget());
+            }
+            // the survivors only take their own share, the rest waits
+            assertEquals(List.of("d", "d", "f", "f"), acquired.stream().sorted().collect(Collectors.toList()));
+            assertNull(balancer.acquire(2));
+
+            f.release();
+            assertEquals("f", balancer.acquire(2).getTarget());
+            assertEquals(2, d.getInFlight());
+            assertEquals(0, e.getInFlight());
+            assertEquals(2, f.getInFlight());
+        }
+    }
+
+    @Test
+    void endpoints_need_positive_weight() {
+        assertThrows(IllegalArgumentException.class, () -> new Endpoint<>("d", "d", 0));
+        assertThrows(IllegalArgumentException.class, () -> new EndpointBalancer<String>(List.of(), EndpointBalancer.Selection.ROUND_ROBIN, null));
+        assertEquals(EndpointBalancer.Selection.LEAST_OUTSTANDING, EndpointBalancer.Selection.of(" Least_Outstanding"));
+    }
+
+    private static List<String> select(final EndpointBalancer<String> balancer, final int count) {
+        final List<String> selected = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            selected.add(balancer.select().getTarget());
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.load;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.testcontainer.core.MavenHiveMQExtensionSupplier;
+import com.hivemq.testcontainer.junit5.HiveMQTestContainerExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test of the extension without a TDengine installation.
+ * It deploys the extension in a HiveMQ docker container, points it at a {@link MockTDengine} on the host, publishes
+ * with a {@link LoadGenerator} and reports throughput and p50/p99/p999 latency of publishing and of the rows reaching
+ * the mock. Run it with {@code mvn test -Dtest=ExtensionLoadIT}, see {@link LoadSettings} for the parameters.
+ */
+class ExtensionLoadIT {
+
+    private static final Logger log = LoggerFactory.getLogger(ExtensionLoadIT.class);
+
+    private static final String EXTENSION_ID = "tdengine-extension";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.MINUTES)
+    void run_load() throws Exception {
+        final LoadSettings settings = LoadSettings.fromSystemProperties();
+        final LatencyRecorder publishLatency = new LatencyRecorder(settings.getTotalMessages());
+        final LatencyRecorder endToEndLatency = new LatencyRecorder(settings.getTotalMessages());
+
+        final MockTDengine sink = new MockTDengine(settings, endToEndLatency);
+        sink.start();
+        Testcontainers.exposeHostPorts(sink.port());
+        final Path properties = tempDir.resolve("taosdata.properties");
+        settings.writeExtensionProperties(properties, sink.port());
+
+        final @NotNull HiveMQTestContainerExtension hivemq =
+                new HiveMQTestContainerExtension("taosdata-hivemq-extension", "latest")
+                        .withExtension(MavenHiveMQExtensionSupplier.direct().get())
+                        .withFileInExtensionHomeFolder(MountableFile.forHostPath(properties), EXTENSION_ID, "/taosdata.properties");
+        try {
+            hivemq.start();
+            final LoadGenerator generator =
+                    new LoadGenerator(hivemq.getContainerIpAddress(), hivemq.getMqttPort(), settings, publishLatency);
+            generator.run();
+            sink.awaitRows(generator.getPublished(), settings.drainMillis);
+
+            report(settings, generator, sink, publishLatency, endToEndLatency);
+            assertTrue(generator.getPublished() > 0);
+            assertTrue(sink.getRows() > 0 || settings.sinkErrorRate + settings.sinkRefuseRate >= 1);
+        } finally {
+            hivemq.stop();
+            sink.stop();
+        }
+    }
+
+    private static void report(final LoadSettings settings, final LoadGenerator generator, final MockTDengine sink,
+                               final LatencyRecorder publishLatency, final LatencyRecorder endToEndLatency) {
+        final long publishMillis = Math.max(1, generator.getEndMillis() - generator.getStartMillis());
+        final long sinkMillis = Math.max(1, sink.getLastRowMillis() - generator.getStartMillis());
+        log.info("load settings: {}", settings);
+        log.info("published {} messages, {} failed, in {} ms: {} msg/s",
+                generator.getPublished(), generator.getFailed(), publishMillis, generator.getPublished() * 1000 / publishMillis);
+        log.info("sink received {} rows in {} requests ({} unavailable, {} refused) within {} ms: {} rows/s",
+                sink.getRows(), sink.getRequests(), sink.getUnavailable(), sink.getRefused(), sinkMillis,
+                sink.getRows() * 1000 / sinkMillis);
+        log.info("publish latency: {}", publishLatency.snapshot());
+        log.info("end-to-end latency: {}", endToEndLatency.snapshot());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.load;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects latency samples in milliseconds of a load test run and reports exact percentiles.
+ * The samples are kept in a fixed array sized for the expected number of messages, samples beyond it are only counted.
+ */
+final class LatencyRecorder {
+
+    private final long[] samples;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong overflow = new AtomicLong();
+
+    LatencyRecorder(final int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    void record(final long millis) {
+        final int index = next.getAndIncrement();
+        if (index < samples.length) {
+            samples[index] = Math.max(0, millis);
+        } else {
+            overflow.incrementAndGet();
+        }
+    }
+
+    long getCount() {
+        return Math.min(next.get(), samples.length) + overflow.get();
+    }
+
+    /**
+     * Returns a snapshot of the samples recorded so far, sorted ascending.
+     */
+    Snapshot snapshot() {
+        final long[] sorted = Arrays.copyOf(samples, Math.min(next.get(), samples.length));
+        Arrays.sort(sorted);
+        return new Snapshot(sorted);
+    }
+
+    static final class Snapshot {
+
+        private final long[] sorted;
+
+        private Snapshot(final long[] sorted) {
+            this.sorted = sorted;
+        }
+
+        int size() {
+            return sorted.length;
+        }
+
+        /**
+         * Returns the smallest sample that is at least as large as the given fraction of all samples, 0 without samples.
+         */
+        long percentile(final double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(fraction * sorted.length);
+            return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+        }
+
+        long max() {
+            return sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %d ms, p99 %d ms, p999 %d ms, max %d ms (%d samples)",
+                    percentile(0.5), percentile(0.99), percentile(0.999), max(), sorted.length);
+        }
+    }
+}
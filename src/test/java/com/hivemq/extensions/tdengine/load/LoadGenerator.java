@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.load;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5Client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes sensor readings like the former mock.js script: every client publishes its messages to
+ * {@link LoadSettings#TOPIC} at a fixed interval, each carrying its publish time as {@code ts}.
+ * The time until the publish completes, which includes the PUBACK for QoS 1 and 2, is recorded as publish latency.
+ */
+final class LoadGenerator {
+
+    private static final String CLIENT_PREFIX = "load_client_";
+    private static final String PAYLOAD = "{\"ts\":%d,\"temperature\":%.2f,\"voltage\":%d,\"name\":\"D01\",\"devid\":%d,\"id\":\"%s\"}";
+
+    private final String host;
+    private final int port;
+    private final LoadSettings settings;
+    private final LatencyRecorder latency;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long startMillis;
+    private volatile long endMillis;
+
+    LoadGenerator(final String host, final int port, final LoadSettings settings, final LatencyRecorder latency) {
+        this.host = host;
+        this.port = port;
+        this.settings = settings;
+        this.latency = latency;
+    }
+
+    /**
+     * Connects all clients, publishes all messages and waits for their completion before disconnecting.
+     */
+    void run() throws InterruptedException {
+        final List<Mqtt5AsyncClient> clients = new ArrayList<>(settings.clients);
+        final List<CompletableFuture<?>> connects = new ArrayList<>(settings.clients);
+        for (int i = 0; i < settings.clients; i++) {
+            final Mqtt5AsyncClient client = Mqtt5Client.builder()
+                    .identifier(CLIENT_PREFIX + i)
+                    .serverHost(host)
+                    .serverPort(port)
+                    .buildAsync();
+            clients.add(client);
+            connects.add(client.connect());
+        }
+        CompletableFuture.allOf(connects.toArray(new CompletableFuture<?>[0])).join();
+
+        final ScheduledExecutorService scheduler =
+                Executors.newScheduledThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        final CountDownLatch done = new CountDownLatch(settings.getTotalMessages());
+        startMillis = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < clients.size(); i++) {
+                new Publisher(clients.get(i), CLIENT_PREFIX + i, done).schedule(scheduler);
+            }
+            done.await();
+            endMillis = System.currentTimeMillis();
+        } finally {
+            scheduler.shutdownNow();
+            for (final Mqtt5AsyncClient client : clients) {
+                client.disconnect();
+            }
+        }
+    }
+
+    long getPublished() {
+        return published.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    long getStartMillis() {
+        return startMillis;
+    }
+
+    long getEndMillis() {
+        return endMillis;
+    }
+
+    private final class Publisher implements Runnable {
+
+        private final Mqtt5AsyncClient client;
+        private final CountDownLatch done;
+        private final String clientId;
+        private int sent;
+        private volatile ScheduledFuture<?> future;
+
+        private Publisher(final Mqtt5AsyncClient client, final String clientId, final CountDownLatch done) {
+            this.client = client;
+            this.clientId = clientId;
+            this.done = done;
+        }
+
+        private void schedule(final ScheduledExecutorService scheduler) {
+            final long initialDelay = ThreadLocalRandom.current().nextLong(Math.max(1, settings.intervalMillis));
+            future = scheduler.scheduleAtFixedRate(this, initialDelay, Math.max(1, settings.intervalMillis), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (sent >= settings.messages) {
+                final ScheduledFuture<?> scheduled = future;
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                }
+                return;
+            }
+            sent++;
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final long start = System.currentTimeMillis();
+            final String payload = String.format(Locale.ROOT, PAYLOAD, start, random.nextDouble(22, 100),
+                    random.nextInt(12, 86), random.nextInt(settings.devices), clientId);
+            client.publishWith()
+                    .topic(LoadSettings.TOPIC)
+                    .qos(MqttQos.fromCode(settings.qos))
+                    .payload(payload.getBytes(StandardCharsets.UTF_8))
+                    .send()
+                    .whenComplete((result, error) -> {
+                        if (error != null || result.getError().isPresent()) {
+                            failed.incrementAndGet();
+                        } else {
+                            published.incrementAndGet();
+                            latency.record(System.currentTimeMillis() - start);
+                        }
+                        done.countDown();
+                    });
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.load;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Parameters of a load test run, read from system properties prefixed with {@code load.}.
+ * Properties prefixed with {@code load.extension.} override the taosdata properties the extension is started with,
+ * e.g. {@code -Dload.extension.batch.max_rows=500}.
+ */
+final class LoadSettings {
+
+    static final String TOPIC = "application/sensor_data";
+    static final String SINK_HOST = "host.testcontainers.internal";
+
+    private static final String PREFIX = "load.";
+    private static final String EXTENSION_PREFIX = PREFIX + "extension.";
+
+    final int clients;
+    final int messages;
+    final long intervalMillis;
+    final int qos;
+    final int devices;
+    final int sinkLatencyMillis;
+    final int sinkJitterMillis;
+    final double sinkErrorRate;
+    final double sinkRefuseRate;
+    final int sinkThreads;
+    final long drainMillis;
+
+    private final Properties extension;
+
+    private LoadSettings(final Properties system) {
+        clients = intProperty(system, "clients", 100);
+        messages = intProperty(system, "messages", 1000);
+        intervalMillis = intProperty(system, "interval_ms", 10);
+        qos = intProperty(system, "qos", 1);
+        devices = intProperty(system, "devices", 20);
+        sinkLatencyMillis = intProperty(system, "sink.latency_ms", 2);
+        sinkJitterMillis = intProperty(system, "sink.jitter_ms", 0);
+        sinkErrorRate = doubleProperty(system, "sink.error_rate", 0);
+        sinkRefuseRate = doubleProperty(system, "sink.refuse_rate", 0);
+        sinkThreads = intProperty(system, "sink.threads", 50);
+        drainMillis = intProperty(system, "drain_ms", 30_000);
+
+        extension = new Properties();
+        extension.setProperty("mode", "http");
+        extension.setProperty("msg_coder", "json");
+        extension.setProperty("mqtt_topic", TOPIC);
+        extension.setProperty("sql.create_database", "create database if not exists hivemqdb;");
+        extension.setProperty("sql.create_table", "create table if not exists hivemqdb.sensor_data "
+                + "(ts timestamp, temperature float, voltage int, name binary(32)) TAGS (devid int);");
+        extension.setProperty("sql.insert_table", "insert into hivemqdb.sensor_data_${payload.devid} using hivemqdb.sensor_data "
+                + "TAGS (${payload.devid}) VALUES (${payload.ts}, ${payload.temperature}, ${payload.voltage}, '${payload.name}');");
+        extension.setProperty("http.token", "root:taosdata");
+        for (final String name : system.stringPropertyNames()) {
+            if (name.startsWith(EXTENSION_PREFIX)) {
+                extension.setProperty(name.substring(EXTENSION_PREFIX.length()), system.getProperty(name));
+            }
+        }
+    }
+
+    static LoadSettings fromSystemProperties() {
+        return new LoadSettings(System.getProperties());
+    }
+
+    int getTotalMessages() {
+        return clients * messages;
+    }
+
+    /**
+     * Writes the taosdata properties of the run, pointing the extension at the mock sink on the given host port.
+     */
+    void writeExtensionProperties(final Path file, final int sinkPort) throws IOException {
+        final Properties properties = new Properties();
+        properties.putAll(extension);
+        properties.setProperty("http.url", String.format("http://%s:%d/rest/sql/", SINK_HOST, sinkPort));
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            properties.store(writer, "load test");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("clients=%d messages=%d interval=%d ms qos=%d sink latency=%d+%d ms errors=%.3f refused=%.3f extension=%s",
+                clients, messages, intervalMillis, qos, sinkLatencyMillis, sinkJitterMillis, sinkErrorRate, sinkRefuseRate, extension);
+    }
+
+    private static int intProperty(final Properties system, final String name, final int defaultValue) {
+        final String value = system.getProperty(PREFIX + name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static double doubleProperty(final Properties system, final String name, final double defaultValue) {
+        final String value = system.getProperty(PREFIX + name);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+}
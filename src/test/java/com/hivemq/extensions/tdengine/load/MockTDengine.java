@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.load;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * Stand-in for the RESTful interface of TDengine based on WireMock.
+ * Every statement is answered after the configured latency, a configured share of them with HTTP 503 (TDengine unavailable)
+ * or with a TDengine error (statement refused). The rows of accepted statements are counted and the time from the
+ * timestamp of each row, the publish time of the load generator, to its arrival is recorded as end-to-end latency.
+ */
+final class MockTDengine {
+
+    private static final String SUCCESS = "{\"status\":\"succ\",\"head\":[\"affected_rows\"],\"data\":[[1]],\"rows\":1}";
+    private static final String REFUSED = "{\"status\":\"error\",\"code\":534,\"desc\":\"injected error\"}";
+    private static final Pattern ROW_TIMESTAMP = Pattern.compile("\\((\\d{13}),");
+
+    private final LoadSettings settings;
+    private final LatencyRecorder latency;
+    private final WireMockServer server;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong unavailable = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private volatile long lastRowMillis;
+
+    MockTDengine(final LoadSettings settings, final LatencyRecorder latency) {
+        this.settings = settings;
+        this.latency = latency;
+        this.server = new WireMockServer(options()
+                .dynamicPort()
+                .disableRequestJournal()
+                .containerThreads(settings.sinkThreads)
+                .asynchronousResponseEnabled(true)
+                .asynchronousResponseThreads(settings.sinkThreads)
+                .extensions(new ErrorInjector()));
+    }
+
+    void start() {
+        server.start();
+        final ResponseDefinitionBuilder response = aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", "application/json")
+                .withBody(SUCCESS);
+        if (settings.sinkJitterMillis > 0) {
+            response.withUniformRandomDelay(settings.sinkLatencyMillis, settings.sinkLatencyMillis + settings.sinkJitterMillis);
+        } else if (settings.sinkLatencyMillis > 0) {
+            response.withFixedDelay(settings.sinkLatencyMillis);
+        }
+        server.stubFor(post(urlPathMatching("/rest/sql.*")).willReturn(response));
+        server.addMockServiceRequestListener((request, result) -> {
+            requests.incrementAndGet();
+            if (result.getStatus() != 200) {
+                unavailable.incrementAndGet();
+            } else if (result.getBodyAsString().contains("\"status\":\"error\"")) {
+                refused.incrementAndGet();
+            } else {
+                received(request.getBodyAsString());
+            }
+        });
+    }
+
+    void stop() {
+        server.stop();
+    }
+
+    int port() {
+        return server.port();
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getUnavailable() {
+        return unavailable.get();
+    }
+
+    long getRefused() {
+        return refused.get();
+    }
+
+    long getRows() {
+        return rows.get();
+    }
+
+    long getLastRowMillis() {
+        return lastRowMillis;
+    }
+
+    /**
+     * Waits until the given number of rows arrived or no row arrived for two seconds, at most for the given time.
+     */
+    void awaitRows(final long expected, final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        long seen = -1;
+        long quietSince = System.currentTimeMillis();
+        while (rows.get() < expected && System.currentTimeMillis() < deadline) {
+            final long current = rows.get();
+            if (current != seen) {
+                seen = current;
+                quietSince = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - quietSince > 2000) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private void received(final String sql) {
+        final long now = System.currentTimeMillis();
+        final Matcher matcher = ROW_TIMESTAMP.matcher(sql);
+        while (matcher.find()) {
+            latency.record(now - Long.parseLong(matcher.group(1)));
+            rows.incrementAndGet();
+            lastRowMillis = now;
+        }
+    }
+
+    private final class ErrorInjector extends ResponseDefinitionTransformer {
+
+        @Override
+        public ResponseDefinition transform(final Request request, final ResponseDefinition response,
+                                            final FileSource files, final Parameters parameters) {
+            final double chance = ThreadLocalRandom.current().nextDouble();
+            if (chance < settings.sinkErrorRate) {
+                return ResponseDefinitionBuilder.like(response).but()
+                        .withStatus(503)
+                        .withBody("injected outage")
+                        .build();
+            }
+            if (chance < settings.sinkErrorRate + settings.sinkRefuseRate) {
+                return ResponseDefinitionBuilder.like(response).but()
+                        .withBody(REFUSED)
+                        .build();
+            }
+            return response;
+        }
+
+        @Override
+        public String getName() {
+            return "tdengine-error-injector";
+        }
+    }
+}
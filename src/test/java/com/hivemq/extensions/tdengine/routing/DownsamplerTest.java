@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.routing;
+
+import com.hivemq.extensions.tdengine.configuration.Downsampling;
+import com.hivemq.extensions.tdengine.configuration.RouteConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownsamplerTest {
+
+    private static Downsampler downsampler(final String coder, final Downsampling downsampling) {
+        return new Downsampler(new RouteConfiguration("sensors", "application/+", "insert into t values (now, 1)", coder, null, null,
+                null, null, null, null, Collections.emptyMap(), null, null, downsampling));
+    }
+
+    private static Downsampling settings(final String mode, final String key, final String field) {
+        return new Downsampling(mode, key, field, 3, 0.5, 1000, 100, 60000);
+    }
+
+    private static ByteBuffer json(final String json) {
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void every_nth_keeps_one_of_every_n_publishes_per_series() {
+        final Downsampler downsampler = downsampler("base64", settings("every_nth", "${topic[1]}", null));
+
+        final String key = downsampler.keyOf("application/dev1", PublishMetadata.NONE, new String[0]);
+        assertEquals("dev1", key);
+        assertTrue(downsampler.keep(key, null, 1));
+        assertFalse(downsampler.keep(key, null, 2));
+        assertFalse(downsampler.keep(key, null, 3));
+        assertTrue(downsampler.keep(key, null, 4));
+        // other series count on their own
+        assertTrue(downsampler.keep("dev2", null, 5));
+    }
+
+    @Test
+    void deadband_keeps_values_which_moved_beyond_the_last_written_one() throws IOException {
+        final Downsampler downsampler = downsampler("json", settings("deadband", "${payload.devid}", "temperature"));
+
+        final String[] values = downsampler.extract(json("{\"devid\": 7, \"temperature\": 20.0}"));
+        final String key = downsampler.keyOf("application/a", PublishMetadata.NONE, values);
+        assertEquals("7", key);
+        assertEquals("20.0", downsampler.valueOf(values));
+        assertTrue(downsampler.keep(key, "20.0", 1));
+        assertFalse(downsampler.keep(key, "20.4", 2));
+        // compared with the last written value, not the last received one
+        assertTrue(downsampler.keep(key, "20.6", 3));
+        assertFalse(downsampler.keep(key, "20.2", 4));
+        assertTrue(downsampler.keep(key, "idle", 5));
+        assertFalse(downsampler.keep(key, "idle", 6));
+        assertTrue(downsampler.keep(key, null, 7));
+    }
+
+    @Test
+    void window_holds_the_last_publish_until_the_window_ended() {
+        final Downsampler downsampler = downsampler("base64", settings("window", "${topic}", null));
+
+        final Downsampler.Sample first = sample(1000);
+        final Downsampler.Sample second = sample(1500);
+        assertNull(downsampler.hold("a", first));
+        assertSame(first, downsampler.hold("a", second));
+        assertTrue(first.getWindowEndMillis() > 1500);
+        assertTrue(downsampler.drain(1999).isEmpty());
+
+        // the next window starts with the first publish after the end
+        final Downsampler.Sample third = sample(2100);
+        final Downsampler.Sample ended = downsampler.hold("a", third);
+        assertSame(second, ended);
+        assertTrue(ended.getWindowEndMillis() <= 2100);
+
+        final List<Downsampler.Sample> drained = downsampler.drain(3100);
+        assertEquals(1, drained.size());
+        assertSame(third, drained.get(0));
+        assertEquals(0, downsampler.size());
+    }
+
+    @Test
+    void payload_keys_need_a_payload_decoder() {
+        assertThrows(IllegalArgumentException.class, () -> downsampler("base64", settings("every_nth", "${payload.devid}", null)));
+        assertThrows(IllegalArgumentException.class, () -> downsampler("json", settings("deadband", "${topic}", null)));
+    }
+
+    private static Downsampler.Sample sample(final long receivedMillis) {
+        return new Downsampler.Sample("a", new byte[0], receivedMillis, PublishMetadata.NONE);
+    }
+}
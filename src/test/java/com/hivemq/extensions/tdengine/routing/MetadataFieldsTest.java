@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.routing;
+
+import com.hivemq.extensions.tdengine.template.SqlTemplate;
+import com.hivemq.extensions.tdengine.template.TemplateException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetadataFieldsTest {
+
+    @Test
+    void topic_levels_are_counted_from_start_and_end() {
+        assertEquals("factory", MetadataFields.topicLevel("factory/line1/dev42", 0).toString());
+        assertEquals("dev42", MetadataFields.topicLevel("factory/line1/dev42", 2).toString());
+        assertEquals("dev42", MetadataFields.topicLevel("factory/line1/dev42", -1).toString());
+        assertEquals("factory", MetadataFields.topicLevel("factory/line1/dev42", -3).toString());
+        assertNull(MetadataFields.topicLevel("factory/line1/dev42", 3));
+        assertNull(MetadataFields.topicLevel("factory/line1/dev42", -4));
+    }
+
+    @Test
+    void fields_are_read_from_topic_client_id_and_user_properties() {
+        final SqlTemplate template = SqlTemplate.compile(
+                "insert into t_${topic[1]} values (now, '${clientId}', '${userProperty.Site}', ${payload.v})");
+        final MetadataFields fields = new MetadataFields(template);
+        final PublishMetadata metadata = new PublishMetadata("client-1", new String[]{"site", "north"});
+
+        assertTrue(fields.isClientIdUsed());
+        assertTrue(fields.isUserPropertiesUsed());
+        assertFalse(fields.contains(template.indexOf("payload.v")));
+        assertEquals("line1", fields.valueOf(template.indexOf("topic[1]"), "factory/line1", metadata).toString());
+        assertEquals("client-1", fields.valueOf(template.indexOf("clientid"), "factory/line1", metadata));
+        assertEquals("north", fields.valueOf(template.indexOf("userproperty.site"), "factory/line1", metadata));
+        assertNull(fields.valueOf(template.indexOf("userproperty.site"), "factory/line1", PublishMetadata.NONE));
+    }
+
+    @Test
+    void values_outside_quotes_must_be_plain_names() {
+        final SqlTemplate template = SqlTemplate.compile(
+                "insert into t_${clientId} using st tags ('${userProperty.site}', \"it's ${clientId}\") values (now, '${topic[0]}')");
+        final MetadataFields fields = new MetadataFields(template);
+        final int clientId = template.indexOf("clientid");
+        final PublishMetadata injected = new PublishMetadata("x values (now, 1); drop table t; --",
+                new String[]{"site", "x'); drop table t; --"});
+
+        assertTrue(template.isUnquoted(clientId));
+        assertFalse(template.isUnquoted(template.indexOf("userproperty.site")));
+        assertFalse(template.isUnquoted(template.indexOf("topic[0]")));
+        assertEquals("dev_42", fields.valueOf(clientId, "a/b", new PublishMetadata("dev_42", new String[0])));
+        assertThrows(TemplateException.class, () -> fields.valueOf(clientId, "a/b", injected));
+        assertThrows(TemplateException.class, () -> fields.valueOf(clientId, "a/b", new PublishMetadata("dev-42", new String[0])));
+        // quoted values are escaped when rendered
+        assertEquals("x'); drop table t; --", fields.valueOf(template.indexOf("userproperty.site"), "a/b", injected));
+        // other templates than SQL are not checked
+        assertEquals("dev-42", new MetadataFields(template, false).valueOf(clientId, "a/b", new PublishMetadata("dev-42", new String[0])));
+    }
+
+    @Test
+    void malformed_topic_level_is_rejected() {
+        assertThrows(TemplateException.class, () -> new MetadataFields(SqlTemplate.compile("${topic[x]}")));
+    }
+}
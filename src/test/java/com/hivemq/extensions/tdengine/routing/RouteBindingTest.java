@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.routing;
+
+import com.hivemq.extensions.tdengine.configuration.RouteConfiguration;
+import com.hivemq.extensions.tdengine.writer.BindColumn;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RouteBindingTest {
+
+    private static RouteConfiguration configuration(final String tags, final String columns) {
+        return new RouteConfiguration("sensors", "application/+", null, "json", "hivemqdb.sensor_data", null,
+                "hivemqdb.sensor_${payload.devid}", tags, columns, null);
+    }
+
+    private static ByteBuffer payload(final String json) {
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    @Test
+    void statement_has_one_parameter_per_tag_and_column() {
+        final RouteBinding binding = new RouteBinding(configuration("devid:int,location:binary", "ts:timestamp,temperature:float"));
+
+        assertEquals("insert into ? using hivemqdb.sensor_data tags (?, ?) values (?, ?)", binding.getColumnBinding().getSql());
+    }
+
+    @Test
+    void payload_is_converted_to_bound_types() throws Exception {
+        final RouteBinding binding = new RouteBinding(configuration("devid:int", "ts:timestamp,temperature:float,ok:bool,name:nchar"));
+
+        final String[] values = binding.extract(payload(
+                "{\"devid\":7,\"ts\":1519833600000,\"temperature\":21.5,\"name\":\"it's\",\"ok\":true}"));
+
+        assertEquals("hivemqdb.sensor_7", binding.renderTable("application/a", PublishMetadata.NONE, values));
+        assertArrayEquals(new Object[]{7}, binding.tags(values));
+        assertArrayEquals(new Object[]{1519833600000L, 21.5f, true, "it's"}, binding.columns(values, 0));
+    }
+
+    @Test
+    void missing_columns_are_null_and_now_is_the_receive_time() throws Exception {
+        final RouteBinding binding = new RouteBinding(configuration("devid:int", "now:timestamp,temperature:double"));
+
+        final String[] values = binding.extract(payload("{\"devid\":7}"));
+
+        assertArrayEquals(new Object[]{42L, null}, binding.columns(values, 42));
+    }
+
+    @Test
+    void invalid_values_and_layouts_are_rejected() throws Exception {
+        final RouteBinding binding = new RouteBinding(configuration("devid:int", "ts:timestamp"));
+        final String[] values = binding.extract(payload("{\"devid\":\"seven\",\"ts\":\"2018-02-28 16:00:00.000\"}"));
+
+        assertThrows(IllegalArgumentException.class, () -> binding.tags(values));
+        assertThrows(IllegalArgumentException.class, () -> new RouteBinding(configuration("devid:int", "temperature:float")));
+        assertThrows(IllegalArgumentException.class, () -> new RouteBinding(configuration("devid:integer", "ts:timestamp")));
+        assertThrows(IllegalArgumentException.class, () -> BindColumn.parseList("devid"));
+    }
+}
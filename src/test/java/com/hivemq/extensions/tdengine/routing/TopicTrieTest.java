@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.routing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopicTrieTest {
+
+    private final TopicTrie<String> trie = new TopicTrie<>();
+
+    @BeforeEach
+    void set_up() {
+        trie.add("application/sensor_data", "exact");
+        trie.add("devices/+/telemetry", "single");
+        trie.add("devices/#", "multi");
+        trie.add("#", "all");
+        trie.add("+/+/status", "status");
+    }
+
+    @Test
+    void exact_and_wildcard_filters_match() {
+        assertEquals(Set.of("exact", "all"), match("application/sensor_data"));
+        assertEquals(Set.of("single", "multi", "all"), match("devices/42/telemetry"));
+        assertEquals(Set.of("multi", "all", "status"), match("devices/42/status"));
+    }
+
+    @Test
+    void multi_level_wildcard_matches_parent_level() {
+        assertEquals(Set.of("multi", "all"), match("devices"));
+    }
+
+    @Test
+    void single_level_wildcard_does_not_span_levels() {
+        assertEquals(Set.of("multi", "all"), match("devices/42/a/telemetry"));
+        assertEquals(Set.of("all"), match("other/topic"));
+    }
+
+    @Test
+    void wildcards_do_not_match_system_topics() {
+        assertTrue(match("$SYS/broker/status").isEmpty());
+    }
+
+    @Test
+    void invalid_filters_are_rejected() {
+        assertThrows(IllegalArgumentException.class, () -> trie.add("a/#/b", "x"));
+        assertThrows(IllegalArgumentException.class, () -> trie.add("a/b+", "x"));
+        assertThrows(IllegalArgumentException.class, () -> trie.add("", "x"));
+    }
+
+    private Set<String> match(final String topic) {
+        return new HashSet<>(trie.match(topic));
+    }
+}
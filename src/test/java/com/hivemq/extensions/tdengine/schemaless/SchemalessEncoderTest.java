@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.schemaless;
+
+import com.hivemq.extensions.tdengine.configuration.SchemalessMapping;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SchemalessEncoderTest {
+
+    private static final String PAYLOAD = "{\"devid\":7,\"location\":\"hall 1\",\"ts\":1519833600000,"
+            + "\"temperature\":21.5,\"voltage\":220,\"name\":\"it's \\\"a\\\"\",\"ok\":true,\"nested\":{\"x\":1},\"empty\":null}";
+
+    private static String encode(final String protocol, final String fields) throws Exception {
+        final SchemalessMapping mapping = new SchemalessMapping(protocol, "sensor_data", "devid,location", fields, "ts");
+        final StringBuilder out = new StringBuilder();
+        new SchemalessEncoder(SchemalessEncoder.Protocol.of(protocol), mapping)
+                .encode(ByteBuffer.wrap(PAYLOAD.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer(), 42, out);
+        return out.toString();
+    }
+
+    @Test
+    void influxdb_line_holds_tags_and_all_other_scalars() throws Exception {
+        assertEquals("sensor_data,devid=7,location=hall\\ 1 temperature=21.5,voltage=220i,name=\"it's \\\"a\\\"\",ok=true 1519833600000",
+                encode("influxdb", null));
+    }
+
+    @Test
+    void telnet_writes_one_line_per_selected_field() throws Exception {
+        assertEquals("sensor_data_temperature 1519833600000 21.5 devid=7 location=hall_1\n"
+                        + "sensor_data_voltage 1519833600000 220 devid=7 location=hall_1",
+                encode("telnet", "temperature,voltage"));
+    }
+
+    @Test
+    void json_writes_one_object_per_field() throws Exception {
+        assertEquals("{\"metric\":\"sensor_data_voltage\",\"timestamp\":1519833600000,\"value\":220,"
+                + "\"tags\":{\"devid\":\"7\",\"location\":\"hall 1\"}}", encode("json", "voltage"));
+    }
+
+    @Test
+    void missing_timestamp_uses_receive_time_and_no_fields_writes_nothing() throws Exception {
+        final SchemalessMapping mapping = new SchemalessMapping("influxdb", "m", "devid", null, "ts");
+        final SchemalessEncoder encoder = new SchemalessEncoder(SchemalessEncoder.Protocol.INFLUXDB, mapping);
+        final StringBuilder out = new StringBuilder();
+
+        assertEquals(1, encoder.encode(ByteBuffer.wrap("{\"devid\":1,\"v\":2}".getBytes(StandardCharsets.UTF_8)), 42, out));
+        assertEquals("m,devid=1 v=2i 42", out.toString());
+        assertEquals(0, encoder.encode(ByteBuffer.wrap("{\"devid\":1}".getBytes(StandardCharsets.UTF_8)), 42, new StringBuilder()));
+    }
+
+    @Test
+    void batcher_joins_records_of_many_payloads() {
+        final List<String> written = new CopyOnWriteArrayList<>();
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final RecordBatcher batcher = new RecordBatcher(body -> {
+                written.add(body);
+                return CompletableFuture.completedFuture(null);
+            }, scheduler, SchemalessEncoder.Protocol.JSON, 2, 65480, 0, new TDengineMetrics());
+
+            batcher.add("{\"a\":1},{\"b\":2}");
+            batcher.add("{\"c\":3}");
+
+            assertEquals(List.of("[{\"a\":1},{\"b\":2},{\"c\":3}]"), written);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
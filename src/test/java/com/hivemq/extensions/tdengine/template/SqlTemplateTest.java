@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlTemplateTest {
+
+    @Test
+    void compile_collects_distinct_fields() {
+        final SqlTemplate template = SqlTemplate.compile(
+                "insert into t_${payload.devid} using st TAGS (${payload.devid}) VALUES (${payload.ts}, '${Topic}');");
+
+        assertEquals(List.of("payload.devid", "payload.ts", "topic"), template.getFields());
+        assertEquals(2, template.indexOf("topic"));
+        assertEquals(-1, template.indexOf("payload"));
+    }
+
+    @Test
+    void render_replaces_every_placeholder_in_one_pass() {
+        final SqlTemplate template = SqlTemplate.compile("insert into t_${payload.devid} using st TAGS (${payload.devid}) VALUES (${payload.ts});");
+        final String[] values = {"7", "1519833600000"};
+
+        final String sql = template.render((field, builder) -> builder.append(values[field]) != null);
+
+        assertEquals("insert into t_7 using st TAGS (7) VALUES (1519833600000);", sql);
+    }
+
+    @Test
+    void render_reports_missing_field() {
+        final SqlTemplate template = SqlTemplate.compile("insert into t VALUES (${payload.ts}, ${payload.voltage});");
+
+        final TemplateException e = assertThrows(TemplateException.class, () -> template.render((field, builder) -> field == 0));
+
+        assertTrue(e.getMessage().contains("${payload.voltage}"));
+    }
+
+    @Test
+    void compile_rejects_unterminated_placeholder() {
+        assertThrows(TemplateException.class, () -> SqlTemplate.compile("insert into t VALUES (${payload.ts);"));
+        assertThrows(TemplateException.class, () -> SqlTemplate.compile("insert into t VALUES (${});"));
+    }
+}
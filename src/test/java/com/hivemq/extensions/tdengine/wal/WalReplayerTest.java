@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.wal;
+
+import com.hivemq.extensions.tdengine.writer.WriteException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WalReplayerTest {
+
+    private static final long INTERVAL_MILLIS = 60_000;
+
+    @TempDir
+    Path directory;
+
+    private final List<String> written = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private WriteAheadLog wal;
+
+    @BeforeEach
+    void set_up() throws IOException {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        wal = new WriteAheadLog(directory, 4096, 1 << 20);
+        wal.append(record("a"));
+        wal.append(record("b"));
+    }
+
+    @AfterEach
+    void tear_down() {
+        wal.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void batch_is_committed_when_written() {
+        final WalReplayer replayer = start(record -> {
+            written.add(payload(record));
+            return CompletableFuture.completedFuture(null);
+        });
+
+        replayer.replay();
+
+        assertEquals(List.of("a", "b"), written);
+        assertTrue(wal.isEmpty());
+        assertEquals(2, replayer.getReplayed());
+        assertEquals(0, replayer.getDiscarded());
+    }
+
+    @Test
+    void batch_is_kept_while_unavailable() {
+        final WalReplayer replayer = start(record -> CompletableFuture.failedFuture(
+                new CompletionException(new WriteException("insert", new ConnectException("Connection refused")))));
+
+        replayer.replay();
+
+        assertEquals(2, wal.size());
+        assertEquals(0, replayer.getReplayed());
+        assertEquals(0, replayer.getDiscarded());
+
+        // the next interval replays the same records
+        replayer.replay();
+        assertEquals(2, wal.size());
+    }
+
+    @Test
+    void refused_records_are_discarded() {
+        final WalReplayer replayer = start(record -> {
+            if (payload(record).equals("a")) {
+                return CompletableFuture.failedFuture(new WriteException("insert", "Table does not exist"));
+            }
+            written.add(payload(record));
+            return CompletableFuture.completedFuture(null);
+        });
+
+        replayer.replay();
+
+        assertEquals(List.of("b"), written);
+        assertTrue(wal.isEmpty());
+        assertEquals(1, replayer.getReplayed());
+        assertEquals(1, replayer.getDiscarded());
+    }
+
+    private WalReplayer start(final Function<WalRecord, CompletableFuture<?>> handler) {
+        final WalReplayer replayer = new WalReplayer(wal, scheduler, 10, INTERVAL_MILLIS, handler);
+        replayer.start();
+        return replayer;
+    }
+
+    private static WalRecord record(final String payload) {
+        return new WalRecord("route1", "topic", payload.getBytes(StandardCharsets.UTF_8), 42L);
+    }
+
+    private static String payload(final WalRecord record) {
+        return new String(record.getPayload(), StandardCharsets.UTF_8);
+    }
+}
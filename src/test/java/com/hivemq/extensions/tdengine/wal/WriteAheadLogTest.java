@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.wal;
+
+import com.hivemq.extensions.tdengine.routing.PublishMetadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTest {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void records_are_read_oldest_first_until_committed() throws IOException {
+        final WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_SIZE, 4096);
+        assertTrue(wal.append(record("route1", "a")));
+        assertTrue(wal.append(record("", "b")));
+        assertTrue(wal.append(record("route1", "c")));
+
+        final List<WalRecord> first = wal.read(2);
+        assertEquals(2, first.size());
+        assertEquals("route1", first.get(0).getRoute());
+        assertArrayEquals("a".getBytes(StandardCharsets.UTF_8), first.get(0).getPayload());
+        assertEquals("", first.get(1).getRoute());
+        assertEquals(42L, first.get(1).getReceivedMillis());
+
+        // not committed, so the same records are read again
+        assertEquals("a", payload(wal.read(2).get(0)));
+        wal.commit();
+        assertEquals(1, wal.size());
+        assertEquals("c", payload(wal.read(2).get(0)));
+        wal.commit();
+        assertTrue(wal.isEmpty());
+        wal.close();
+    }
+
+    @Test
+    void metadata_is_kept_with_the_record() throws IOException {
+        final WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_SIZE, 4096);
+        assertTrue(wal.append(new WalRecord("route1", "topic", new byte[]{1}, 42L,
+                new PublishMetadata("client-1", new String[]{"site", "north"}))));
+        assertTrue(wal.append(record("route1", "b")));
+
+        final List<WalRecord> records = wal.read(2);
+        assertEquals("client-1", records.get(0).getMetadata().getClientId());
+        assertEquals("north", records.get(0).getMetadata().getUserProperty("SITE"));
+        assertArrayEquals(new byte[]{1}, records.get(0).getPayload());
+        assertEquals("", records.get(1).getMetadata().getClientId());
+        assertEquals(0, records.get(1).getMetadata().getUserProperties().length);
+        wal.close();
+    }
+
+    @Test
+    void records_survive_a_restart() throws IOException {
+        final WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_SIZE, 4096);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(wal.append(record("route1", "payload-" + i)));
+        }
+        assertEquals(5, wal.read(5).size());
+        wal.commit();
+        wal.close();
+
+        final WriteAheadLog reopened = new WriteAheadLog(directory, SEGMENT_SIZE, 4096);
+        assertEquals(15, reopened.size());
+        assertEquals("payload-5", payload(reopened.read(1).get(0)));
+        assertTrue(reopened.append(record("route1", "after-restart")));
+        final List<WalRecord> rest = reopened.read(100);
+        assertEquals(16, rest.size());
+        assertEquals("after-restart", payload(rest.get(15)));
+        reopened.close();
+    }
+
+    @Test
+    void replayed_segments_are_deleted_and_the_size_limit_is_kept() throws IOException {
+        final WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_SIZE, 2 * SEGMENT_SIZE);
+        int appended = 0;
+        while (wal.append(record("route1", "payload-" + appended))) {
+            appended++;
+        }
+        assertEquals(2, segmentFiles());
+        assertEquals(1, wal.getRefused());
+
+        assertEquals(appended, wal.read(appended).size());
+        wal.commit();
+        assertEquals(1, segmentFiles());
+        assertTrue(wal.append(record("route1", "again")));
+        wal.close();
+    }
+
+    @Test
+    void a_torn_record_ends_the_log() throws IOException {
+        final WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_SIZE, 4096);
+        wal.append(record("route1", "a"));
+        wal.append(record("route1", "b"));
+        wal.close();
+
+        // corrupt the payload of the second record
+        final Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.toString().endsWith(".wal")).findFirst().get();
+        }
+        final int second = 8 + 16 + "route1".length() + "topic".length() + 1;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'x'}), second + 8 + 16 + "route1".length() + "topic".length());
+        }
+
+        final WriteAheadLog reopened = new WriteAheadLog(directory, SEGMENT_SIZE, 4096);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.append(record("route1", "c")));
+        final List<WalRecord> records = reopened.read(10);
+        assertEquals("a", payload(records.get(0)));
+        assertEquals("c", payload(records.get(1)));
+        reopened.close();
+    }
+
+    @Test
+    void records_larger_than_a_segment_are_refused() throws IOException {
+        final WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_SIZE, 4096);
+        assertFalse(wal.append(new WalRecord("route1", "topic", new byte[SEGMENT_SIZE], 42L)));
+        assertTrue(wal.isEmpty());
+        wal.close();
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".wal")).count();
+        }
+    }
+
+    private static WalRecord record(final String route, final String payload) {
+        return new WalRecord(route, "topic", payload.getBytes(StandardCharsets.UTF_8), 42L);
+    }
+
+    private static String payload(final WalRecord record) {
+        return new String(record.getPayload(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BatchTunerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    void slow_writes_halve_rows_and_linger() {
+        final BatchTuner tuner = new BatchTuner(1000, 64, 100);
+
+        tuner.observe(true, SLOW, 0);
+
+        assertEquals(500, tuner.getRows());
+        assertEquals(32, tuner.getLingerMillis());
+        // at most once per smoothing window
+        for (int i = 0; i < 4; i++) {
+            tuner.observe(true, SLOW, 0);
+        }
+        assertEquals(500, tuner.getRows());
+        tuner.observe(true, SLOW, 0);
+        assertEquals(250, tuner.getRows());
+        for (int i = 0; i < 100; i++) {
+            tuner.observe(true, SLOW, 0);
+        }
+        assertEquals(1, tuner.getRows());
+        assertEquals(1, tuner.getLingerMillis());
+    }
+
+    @Test
+    void full_batches_written_fast_grow_back_to_the_configured_limits() {
+        final BatchTuner tuner = new BatchTuner(1000, 64, 100);
+        tuner.observe(true, SLOW, 0);
+        // the average latency decays below the target first
+        for (int i = 0; i < 100; i++) {
+            tuner.observe(true, FAST, 0);
+        }
+
+        assertEquals(1000, tuner.getRows());
+        assertEquals(64, tuner.getLingerMillis());
+    }
+
+    @Test
+    void lingering_batches_shorten_the_linger_time_only() {
+        final BatchTuner tuner = new BatchTuner(1000, 64, 100);
+
+        for (int i = 0; i < 100; i++) {
+            tuner.observe(false, FAST, 0);
+        }
+
+        assertEquals(1000, tuner.getRows());
+        assertEquals(1, tuner.getLingerMillis());
+    }
+
+    @Test
+    void batches_without_linger_time_keep_waiting_until_full() {
+        final BatchTuner tuner = new BatchTuner(100, 0, 100);
+
+        for (int i = 0; i < 5; i++) {
+            tuner.observe(true, SLOW, 0);
+        }
+        // still above the target on average
+        tuner.observe(false, FAST, 0);
+
+        assertEquals(25, tuner.getRows());
+        assertEquals(0, tuner.getLingerMillis());
+    }
+
+    @Test
+    void slow_writes_with_a_backlog_keep_batches_large() {
+        final BatchTuner tuner = new BatchTuner(1000, 64, 100);
+
+        for (int i = 0; i < 100; i++) {
+            tuner.observe(true, SLOW, 3);
+        }
+
+        assertEquals(1000, tuner.getRows());
+        assertEquals(64, tuner.getLingerMillis());
+    }
+}
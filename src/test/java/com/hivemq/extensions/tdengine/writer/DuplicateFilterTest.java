@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DuplicateFilterTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @Test
+    void row_repeated_within_window_is_duplicate() {
+        final DuplicateFilter filter = new DuplicateFilter(1000, 1000, now::get);
+
+        assertTrue(filter.add("db.t1", "1626006833639"));
+        assertFalse(filter.add("db.t1", "1626006833639"));
+        assertTrue(filter.add("db.t1", "1626006833640"));
+        assertTrue(filter.add("db.t2", "1626006833639"));
+    }
+
+    @Test
+    void row_is_forgotten_after_window() {
+        final DuplicateFilter filter = new DuplicateFilter(1000, 1000, now::get);
+        filter.add("db.t1", "1626006833639");
+
+        now.addAndGet(1000);
+
+        assertTrue(filter.add("db.t1", "1626006833639"));
+        assertEquals(1, filter.size());
+    }
+
+    @Test
+    void removed_row_is_not_duplicate() {
+        final DuplicateFilter filter = new DuplicateFilter(1000, 1000, now::get);
+        filter.add("db.t1", "1626006833639");
+
+        filter.remove("db.t1", "1626006833639");
+
+        assertTrue(filter.add("db.t1", "1626006833639"));
+    }
+
+    @Test
+    void oldest_rows_are_evicted_beyond_max_entries() {
+        final DuplicateFilter filter = new DuplicateFilter(60_000, 160, now::get);
+
+        for (int ts = 0; ts < 1000; ts++) {
+            filter.add("db.t1", Integer.toString(ts));
+        }
+
+        // all rows of one table share a stripe of 160 / 16 entries
+        assertEquals(10, filter.size());
+        assertFalse(filter.add("db.t1", "999"));
+        assertTrue(filter.add("db.t1", "0"));
+    }
+}
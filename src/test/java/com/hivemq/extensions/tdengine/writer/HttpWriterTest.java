@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import com.hivemq.extensions.tdengine.endpoint.Endpoint;
+import com.hivemq.extensions.tdengine.endpoint.EndpointBalancer;
+import com.hivemq.extensions.tdengine.endpoint.HealthChecker;
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpWriterTest {
+
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private volatile String response = "{\"status\":\"succ\"}";
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private String url;
+
+    @BeforeEach
+    void set_up() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/rest/sql", this::handle);
+        server.start();
+        url = "127.0.0.1:" + server.getAddress().getPort() + "/rest/sql";
+    }
+
+    @AfterEach
+    void tear_down() {
+        release.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+        try {
+            InputStream in = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            received.add(new String(readAll(in), StandardCharsets.UTF_8));
+            release.await(5, TimeUnit.SECONDS);
+            final byte[] body = response.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            concurrent.decrementAndGet();
+        }
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void requests_in_flight_are_limited_per_route() throws Exception {
+        release = new CountDownLatch(1);
+        final HttpWriter writer = new HttpWriter(url, "root:taosdata", executor, 2, 1000, 5000, false, new TDengineMetrics());
+
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[6];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = writer.write("insert into t values (" + i + ");");
+        }
+        Thread.sleep(200);
+        assertEquals(4, writer.getWaiting());
+        release.countDown();
+        CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+
+        assertEquals(6, received.size());
+        assertTrue(maxConcurrent.get() <= 2);
+    }
+
+    @Test
+    void requests_in_flight_are_limited_per_endpoint_after_an_ejection() throws Exception {
+        release = new CountDownLatch(1);
+        final URI healthy = HttpWriter.uriOf(url);
+        final URI ejected = HttpWriter.uriOf(url + "_down");
+        final EndpointBalancer<URI> endpoints = new EndpointBalancer<>(List.of(new Endpoint<>("a", healthy, 1),
+                new Endpoint<>("b", ejected, 1)), EndpointBalancer.Selection.ROUND_ROBIN, null);
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final HealthChecker<URI> checker = new HealthChecker<>(endpoints, scheduler, 10, uri -> {
+            if (uri.equals(ejected)) {
+                throw new IllegalStateException("down");
+            }
+        });
+        try {
+            checker.start();
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (endpoints.getHealthy() != 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, endpoints.getHealthy());
+            final HttpWriter writer = new HttpWriter(endpoints, "root:taosdata", executor, 2, 1000, 5000, false, new TDengineMetrics());
+
+            final CompletableFuture<?>[] futures = new CompletableFuture<?>[6];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = writer.write("insert into t values (" + i + ");");
+            }
+            Thread.sleep(200);
+            // the surviving endpoint does not take the slots of the ejected one
+            assertEquals(4, writer.getWaiting());
+            release.countDown();
+            CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+
+            assertEquals(6, received.size());
+            assertTrue(maxConcurrent.get() <= 2);
+        } finally {
+            checker.stop();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void gzip_bodies_are_decoded_by_the_server() throws Exception {
+        final HttpWriter writer = new HttpWriter(url, "root:taosdata", executor, 5, 1000, 5000, true, new TDengineMetrics());
+
+        writer.write("insert into t values (1);").get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("insert into t values (1);"), received);
+    }
+
+    @Test
+    void error_status_fails_the_write() {
+        response = "{\"status\":\"error\",\"code\":866,\"desc\":\"Table does not exist\"}";
+        final HttpWriter writer = new HttpWriter(url, "root:taosdata", executor, 5, 1000, 5000, false, new TDengineMetrics());
+
+        final ExecutionException e = assertThrows(ExecutionException.class,
+                () -> writer.write("insert into t values (1);").get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof WriteException);
+    }
+
+    @Test
+    void refused_connection_is_unavailable() throws Exception {
+        final int port;
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final HttpWriter writer = new HttpWriter("127.0.0.1:" + port + "/rest/sql", "root:taosdata", executor, 5, 1000, 5000, false,
+                new TDengineMetrics());
+
+        final ExecutionException e = assertThrows(ExecutionException.class,
+                () -> writer.write("insert into t values (1);").get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof WriteException);
+        assertTrue(((WriteException) e.getCause()).isUnavailable());
+        assertTrue(WriteException.isUnavailable(e.getCause()));
+    }
+}
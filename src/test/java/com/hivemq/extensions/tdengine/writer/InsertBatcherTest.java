@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.tdengine.writer;
+
+import com.hivemq.extensions.tdengine.metrics.TDengineMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InsertBatcherTest {
+
+    private final List<String> written = new CopyOnWriteArrayList<>();
+    private final TDengineWriter writer = sql -> {
+        written.add(sql);
+        return CompletableFuture.completedFuture(null);
+    };
+
+    private final TDengineMetrics metrics = new TDengineMetrics();
+
+    private ScheduledExecutorService scheduler;
+
+    @BeforeEach
+    void set_up() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    void tear_down() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void parse_splits_target_and_values() {
+        final InsertStatement statement = InsertStatement.parse(
+                "insert into db.t_1 using db.st TAGS ('values (x)', 1) VALUES (1519833600000, 'it''s', 32.1);");
+
+        assertEquals("db.t_1 using db.st TAGS ('values (x)', 1)", statement.getTarget());
+        assertEquals("(1519833600000, 'it''s', 32.1)", statement.getValues());
+    }
+
+    @Test
+    void parse_rejects_non_insert_statements() {
+        assertNull(InsertStatement.parse("create table t (ts timestamp);"));
+        assertNull(InsertStatement.parse("insert into t values (1) t2 values (2);"));
+    }
+
+    @Test
+    void timestamp_is_first_value_of_single_row() {
+        assertEquals("1626006833639", InsertStatement.parse("insert into t1 values (1626006833639, 'a,b');").getTimestamp());
+        assertEquals("'2021-07-11 20:33:53.639'", InsertStatement.parse("insert into t1 values ('2021-07-11 20:33:53.639', 1)").getTimestamp());
+        assertNull(InsertStatement.parse("insert into t1 values (now, 1);").getTimestamp());
+        assertNull(InsertStatement.parse("insert into t1 values (NOW + 1s, 1);").getTimestamp());
+        assertNull(InsertStatement.parse("insert into t1 values (1, 1)(2, 2);").getTimestamp());
+        assertTrue(InsertStatement.parse("insert into t1 values (1, 'now')(NOW + 1s, 1);").isTimestampNow());
+        assertFalse(InsertStatement.parse("insert into t1 values (1, 'now')(2, now);").isTimestampNow());
+    }
+
+    @Test
+    void table_finds_first_target_table() {
+        assertEquals("db.t_1", InsertStatement.table(" INSERT INTO db.t_1 using db.st TAGS (1) VALUES (1, 2);"));
+        assertEquals("t2", InsertStatement.table("insert into t2(ts, v) values (1, 2);"));
+        assertEquals("select 1;", InsertStatement.table("select 1;"));
+    }
+
+    @Test
+    void single_row_batch_writes_statement_unchanged() {
+        final InsertBatcher batcher = new InsertBatcher(writer, scheduler, 1, 65480, 0, metrics);
+
+        batcher.add("insert into t1 values (1, 2);");
+
+        assertEquals(List.of("insert into t1 values (1, 2);"), written);
+    }
+
+    @Test
+    void rows_are_merged_per_table_when_batch_is_full() {
+        final InsertBatcher batcher = new InsertBatcher(writer, scheduler, 3, 65480, 0, metrics);
+
+        final CompletableFuture<?> first = batcher.add("insert into t1 using st tags (1) values (1, 2);");
+        batcher.add("insert into t2 using st tags (2) values (3, 4);");
+        assertFalse(first.isDone());
+        batcher.add("insert into t1 using st tags (1) values (5, 6);");
+
+        assertTrue(first.isDone());
+        assertEquals(List.of("insert into t1 using st tags (1) values (1, 2)(5, 6) t2 using st tags (2) values (3, 4);"), written);
+        assertEquals(1, metrics.getBatchSize().getCount());
+        assertEquals(3, metrics.getBatchSize().getSnapshot().getMax());
+        assertEquals(3, metrics.getWritten().getCount());
+    }
+
+    @Test
+    void rows_timed_with_now_are_not_merged_into_one_statement_per_table() {
+        final InsertBatcher batcher = new InsertBatcher(writer, scheduler, 3, 65480, 0, metrics);
+
+        batcher.add("insert into t1 values (now, 1);");
+        batcher.add("insert into t2 values (now, 2);");
+        batcher.add("insert into t1 values (now, 3);");
+        batcher.flush();
+
+        assertEquals(List.of("insert into t1 values (now, 1) t2 values (now, 2);", "insert into t1 values (now, 3);"), written);
+        assertEquals(3, metrics.getWritten().getCount());
+    }
+
+    @Test
+    void slow_writer_with_a_backlog_does_not_shrink_batches() {
+        final TDengineWriter slow = new TDengineWriter() {
+            @Override
+            public CompletableFuture<?> write(final String sql) {
+                written.add(sql);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public CompletableFuture<?> write(final String sql, final LongConsumer latency) {
+                latency.accept(TimeUnit.SECONDS.toNanos(1));
+                return write(sql);
+            }
+
+            @Override
+            public int getWaiting() {
+                return 5;
+            }
+        };
+        final BatchTuner tuner = new BatchTuner(10, 0, 100);
+        final InsertBatcher batcher = new InsertBatcher(slow, scheduler, 10, 65480, 0, null, tuner, metrics);
+
+        for (int i = 0; i < 100; i++) {
+            batcher.add("insert into t" + i % 7 + " values (" + i + ", 1);");
+        }
+
+        assertEquals(10, written.size());
+        assertEquals(10, tuner.getRows());
+    }
+
+    @Test
+    void batch_is_split_before_exceeding_max_bytes() {
+        final InsertBatcher batcher = new InsertBatcher(writer, scheduler, 100, 40, 0, metrics);
+
+        batcher.add("insert into t1 values (1, 2);");
+        batcher.add("insert into t2 values (3, 4);");
+
+        assertEquals(List.of("insert into t1 values (1, 2);"), written);
+        batcher.flush();
+        assertEquals(List.of("insert into t1 values (1, 2);", "insert into t2 values (3, 4);"), written);
+    }
+
+    @Test
+    void statement_larger_than_max_bytes_is_split_by_rows() throws Exception {
+        final InsertBatcher batcher = new InsertBatcher(writer, scheduler, 1, 40, 0, metrics);
+
+        batcher.add("insert into t1 values (1, 2)(3, 4)(5, 6);").get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("insert into t1 values (1, 2)(3, 4);", "insert into t1 values (5, 6);"), written);
+        assertEquals(List.of("(1, 2)(3, 4)('x', ')(')", "(5, 6)"), InsertStatement.parse(
+                "insert into t1 using st tags (1) values (1, 2)(3, 4)('x', ')(') (5, 6)").split(65).stream()
+                .map(InsertStatement::getValues).collect(Collectors.toList()));
+    }
+
+    @Test
+    void linger_flushes_partial_batch() throws Exception {
+        final InsertBatcher batcher = new InsertBatcher(writer, scheduler, 100, 65480, 10, metrics);
+
+        batcher.add("insert into t1 values (1, 2);").get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("insert into t1 values (1, 2);"), written);
+    }
+
+    @Test
+    void failed_write_fails_every_row_of_the_batch() {
+        final InsertBatcher batcher = new InsertBatcher(sql -> {
+            final CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new WriteException(sql, "error"));
+            return failed;
+        }, scheduler, 2, 65480, 0, metrics);
+
+        final CompletableFuture<?> first = batcher.add("insert into t1 values (1, 2);");
+        final CompletableFuture<?> second = batcher.add("insert into t1 values (3, 4);");
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(0, metrics.getWritten().getCount());
+    }
+
+    @Test
+    void parse_finds_plain_target_of_auto_create_clause() {
+        final InsertStatement created = InsertStatement.parse("insert into db.t_1 using db.st TAGS ('a) b', 1) VALUES (1, 2);");
+        final InsertStatement columns = InsertStatement.parse("insert into t2 using st tags (2) (ts, v) values (1, 2);");
+
+        assertEquals("db.t_1", created.getTable());
+        assertEquals("db.t_1", created.getPlainTarget());
+        assertEquals("t2 (ts, v)", columns.getPlainTarget());
+        assertNull(InsertStatement.parse("insert into t3 values (1, 2);").getPlainTarget());
+    }
+
+    @Test
+    void known_table_is_written_without_auto_create_clause() {
+        final SubTableCache knownTables = new SubTableCache(10);
+        final InsertBatcher batcher = new InsertBatcher(writer, scheduler, 1, 65480, 0, knownTables, metrics);
+
+        batcher.add("insert into t1 using st tags (1) values (1, 2);");
+        batcher.add("insert into t1 using st tags (1) values (3, 4);");
+
+        assertEquals(List.of("insert into t1 using st tags (1) values (1, 2);", "insert into t1 values (3, 4);"), written);
+        assertTrue(knownTables.contains("t1"));
+    }
+
+    @Test
+    void missing_table_is_forgotten_and_written_with_auto_create_clause() throws Exception {
+        final SubTableCache knownTables = new SubTableCache(10);
+        knownTables.add("t1");
+        final InsertBatcher batcher = new InsertBatcher(sql -> {
+            written.add(sql);
+            if (!sql.contains("using")) {
+                final CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new WriteException(sql, "{\"status\":\"error\",\"code\":866,\"desc\":\"Table does not exist\"}"));
+                return failed;
+            }
+            return CompletableFuture.completedFuture(null);
+        }, scheduler, 1, 65480, 0, knownTables, metrics);
+
+        batcher.add("insert into t1 using st tags (1) values (1, 2);").get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("insert into t1 values (1, 2);", "insert into t1 using st tags (1) values (1, 2);"), written);
+        assertTrue(knownTables.contains("t1"));
+        assertEquals(1, metrics.getWritten().getCount());
+    }
+
+    @Test
+    void table_cache_forgets_least_recently_written_table() {
+        final SubTableCache knownTables = new SubTableCache(2);
+        knownTables.add("t1");
+        knownTables.add("t2");
+        knownTables.contains("t1");
+        knownTables.add("t3");
+
+        assertTrue(knownTables.contains("t1"));
+        assertFalse(knownTables.contains("t2"));
+        assertEquals(2, knownTables.size());
+    }
+}
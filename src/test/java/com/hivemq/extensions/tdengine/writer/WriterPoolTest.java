@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hivemq.extensions.tdengine.writer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriterPoolTest {
+
+    private final WriterPool pool = new WriterPool(4);
+
+    @AfterEach
+    void tear_down() {
+        pool.shutdown(1000);
+    }
+
+    @Test
+    void shards_assign_a_table_always_to_the_same_instance() {
+        final Shards<ScheduledExecutorService> shards = shardsOf(pool);
+
+        for (int devid = 0; devid < 100; devid++) {
+            assertSame(shards.get("hivemqdb.sensor_data_" + devid), shards.get("hivemqdb.sensor_data_" + devid));
+        }
+        assertSame(pool.get(0), Shards.of(pool.get(0)).get("any"));
+        assertThrows(IllegalArgumentException.class, () -> new Shards<>(new ArrayList<>()));
+    }
+
+    @Test
+    void shards_spread_tables_over_all_instances() {
+        final int[] counts = new int[4];
+        for (int devid = 0; devid < 1000; devid++) {
+            counts[Shards.indexOf("hivemqdb.sensor_data_" + devid, counts.length)]++;
+        }
+
+        for (final int count : counts) {
+            assertTrue(count > 150, "uneven distribution " + Arrays.toString(counts));
+        }
+    }
+
+    @Test
+    void rows_of_a_table_are_written_in_order_by_one_thread() {
+        final Shards<ScheduledExecutorService> shards = shardsOf(pool);
+        final Map<String, List<Integer>> rows = new ConcurrentHashMap<>();
+        final Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            final String table = "t" + (i % 10);
+            final int row = i;
+            shards.get(table).execute(() -> {
+                rows.computeIfAbsent(table, t -> new CopyOnWriteArrayList<>()).add(row);
+                threads.computeIfAbsent(table, t -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+            });
+        }
+        pool.shutdown(5000);
+
+        assertEquals(10, rows.size());
+        for (final Map.Entry<String, List<Integer>> table : rows.entrySet()) {
+            final List<Integer> written = table.getValue();
+            assertEquals(100, written.size());
+            for (int i = 1; i < written.size(); i++) {
+                assertTrue(written.get(i - 1) < written.get(i), "out of order in " + table.getKey());
+            }
+            assertEquals(1, threads.get(table.getKey()).size());
+            assertTrue(threads.get(table.getKey()).iterator().next().startsWith("tdengine-writer-"));
+        }
+    }
+
+    private static Shards<ScheduledExecutorService> shardsOf(final WriterPool pool) {
+        final List<ScheduledExecutorService> executors = new ArrayList<>();
+        for (int i = 0; i < pool.size(); i++) {
+            executors.add(pool.get(i));
+        }
+        return new Shards<>(executors);
+    }
+}